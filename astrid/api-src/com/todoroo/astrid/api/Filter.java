@@ -134,6 +134,7 @@ public final class Filter extends FilterListItem {
         dest.writeString(title);
         dest.writeString(sqlQuery);
         dest.writeParcelable(valuesForNewTasks, 0);
+        writeIconReference(dest);
     }
 
     /**
@@ -150,6 +151,7 @@ public final class Filter extends FilterListItem {
             item.title = source.readString();
             item.sqlQuery = source.readString();
             item.valuesForNewTasks = source.readParcelable(ContentValues.class.getClassLoader());
+            item.readIconReference(source);
             return item;
         }
 
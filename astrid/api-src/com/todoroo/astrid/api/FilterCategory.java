@@ -59,6 +59,7 @@ public class FilterCategory extends FilterListItem {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
+        writeIconReference(dest);
         dest.writeParcelableArray(children, 0);
     }
 
@@ -73,6 +74,7 @@ public class FilterCategory extends FilterListItem {
         public FilterCategory createFromParcel(Parcel source) {
             FilterCategory item = new FilterCategory();
             item.readFromParcel(source);
+            item.readIconReference(source);
 
             Parcelable[] parcelableChildren = source.readParcelableArray(
                     FilterCategory.class.getClassLoader());
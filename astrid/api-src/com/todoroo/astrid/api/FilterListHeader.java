@@ -43,6 +43,7 @@ public class FilterListHeader extends FilterListItem {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
+        writeIconReference(dest);
     }
 
     public static final Parcelable.Creator<FilterListHeader> CREATOR = new Parcelable.Creator<FilterListHeader>() {
@@ -50,6 +51,7 @@ public class FilterListHeader extends FilterListItem {
         public FilterListHeader createFromParcel(Parcel source) {
             FilterListHeader item = new FilterListHeader();
             item.readFromParcel(source);
+            item.readIconReference(source);
             return item;
         }
 
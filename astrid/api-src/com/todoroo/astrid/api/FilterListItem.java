@@ -29,6 +29,24 @@ abstract public class FilterListItem implements Parcelable {
     @CheckForNull
     public Bitmap listingIcon = null;
 
+    /**
+     * Drawable resource for icon used on listing page, used when
+     * {@link #listingIcon} is <code>null</code>. Astrid decodes and caches
+     * the bitmap, so this is much cheaper to send than a bitmap.
+     * <code>0</code> => no icon
+     * <p>
+     * Astrid versions before this field was added ignore it and can't read
+     * items that set it, so only set it when a bitmap is not required.
+     */
+    public int listingIconResource = 0;
+
+    /**
+     * Package containing {@link #listingIconResource}. <code>null</code> =>
+     * Astrid's own package
+     */
+    @CheckForNull
+    public String listingIconPackage = null;
+
     /**
      * Text Color. <code>0</code> => default color
      */
@@ -77,4 +95,40 @@ abstract public class FilterListItem implements Parcelable {
         contextMenuLabels = source.createStringArray();
         contextMenuIntents = source.createTypedArray(Intent.CREATOR);
     }
+
+    /**
+     * Marks the optional section written by {@link #writeIconReference}
+     */
+    private static final int ICON_REFERENCE_MARKER = 0x49636f6e;
+
+    /**
+     * Utility method to write the icon resource, if any, after the fields
+     * written by {@link #writeToParcel}. Subclasses call this before any
+     * nested items, so that the section is never read by the last of them.
+     *
+     * @param dest
+     */
+    protected void writeIconReference(Parcel dest) {
+        if(listingIconResource == 0)
+            return;
+        dest.writeInt(ICON_REFERENCE_MARKER);
+        dest.writeInt(listingIconResource);
+        dest.writeString(listingIconPackage);
+    }
+
+    /**
+     * Utility method to read the section written by
+     * {@link #writeIconReference}. Parcels from add-ons built against
+     * older versions don't have it, in which case nothing is read.
+     *
+     * @param source
+     */
+    protected void readIconReference(Parcel source) {
+        int position = source.dataPosition();
+        if(source.dataAvail() >= 4 && source.readInt() == ICON_REFERENCE_MARKER) {
+            listingIconResource = source.readInt();
+            listingIconPackage = source.readString();
+        } else
+            source.setDataPosition(position);
+    }
 }
@@ -5,8 +5,12 @@
  */
 package com.todoroo.andlib.data;
 
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -185,6 +189,7 @@ abstract public class AbstractDatabase {
      * @see android.database.sqlite.SQLiteDatabase#rawQuery(String  sql, String[] selectionArgs)
      */
     public synchronized Cursor rawQuery(String sql, String[] selectionArgs) {
+        statements.incrementAndGet();
         return getDatabase().rawQuery(sql, selectionArgs);
     }
 
@@ -192,21 +197,123 @@ abstract public class AbstractDatabase {
      * @see android.database.sqlite.SQLiteDatabase#insert(String  table, String  nullColumnHack, ContentValues  values)
      */
     public synchronized long insert(String table, String nullColumnHack, ContentValues values) {
-        return getDatabase().insert(table, nullColumnHack, values);
+        statements.incrementAndGet();
+        long result = getDatabase().insert(table, nullColumnHack, values);
+        if(result != -1)
+            tableModified(table);
+        return result;
+    }
+
+    /*
+     * @see android.database.sqlite.SQLiteDatabase#replace(String  table, String  nullColumnHack, ContentValues  initialValues)
+     */
+    public synchronized long replace(String table, String nullColumnHack, ContentValues values) {
+        statements.incrementAndGet();
+        long result = getDatabase().replace(table, nullColumnHack, values);
+        if(result != -1)
+            tableModified(table);
+        return result;
     }
 
     /*
      * @see android.database.sqlite.SQLiteDatabase#delete(String  table, String  whereClause, String[] whereArgs)
      */
     public synchronized int delete(String table, String whereClause, String[] whereArgs) {
-        return getDatabase().delete(table, whereClause, whereArgs);
+        statements.incrementAndGet();
+        int result = getDatabase().delete(table, whereClause, whereArgs);
+        if(result > 0)
+            tableModified(table);
+        return result;
     }
 
     /*
      * @see android.database.sqlite.SQLiteDatabase#update(String  table, ContentValues  values, String  whereClause, String[] whereArgs)
      */
     public synchronized int update(String  table, ContentValues  values, String  whereClause, String[] whereArgs) {
-        return getDatabase().update(table, values, whereClause, whereArgs);
+        statements.incrementAndGet();
+        int result = getDatabase().update(table, values, whereClause, whereArgs);
+        if(result > 0)
+            tableModified(table);
+        return result;
+    }
+
+    // --- modification tracking
+
+    /** number of statements run through this wrapper since the process started */
+    private static final AtomicLong statements = new AtomicLong();
+
+    /**
+     * Returns the number of queries, inserts, updates, and deletes run
+     * through any database wrapper since the process started. Used to
+     * count database round trips when profiling.
+     *
+     * @return statement count
+     */
+    public static long getStatementCount() {
+        return statements.get();
+    }
+
+    /** number of writes to each table since the process started */
+    private static final HashMap<String, Long> modifications = new HashMap<String, Long>();
+
+    private static void tableModified(String table) {
+        synchronized(modifications) {
+            Long count = modifications.get(table);
+            modifications.put(table, count == null ? 1 : count + 1);
+
+            SharedPreferences prefs = getPersistentCounts();
+            if(prefs.getBoolean(table + PERSISTENT_READ, false))
+                prefs.edit().putLong(table, prefs.getLong(table, 0) + 1).
+                    putBoolean(table + PERSISTENT_READ, false).commit();
+        }
+    }
+
+    /**
+     * Returns the number of inserts, updates, and deletes made to the given
+     * table since the process started. Callers that cache data read from a
+     * table can compare this value to find out if their cache is stale.
+     *
+     * @param table table name
+     * @return modification count
+     */
+    public static long getModificationCount(String table) {
+        synchronized(modifications) {
+            Long count = modifications.get(table);
+            return count == null ? 0 : count;
+        }
+    }
+
+    /** preferences file holding the persistent modification counts */
+    private static final String PERSISTENT_COUNTS = "table-modifications";
+
+    /** suffix of the flag telling that a persistent count was handed out */
+    private static final String PERSISTENT_READ = ":read";
+
+    private static SharedPreferences persistentCounts = null;
+
+    /**
+     * Returns a modification count for the given table that is kept across
+     * process restarts, for caches that are saved to disk. The count only
+     * changes on the first write after it was read, so that tables written
+     * to often don't cause a disk write each time.
+     *
+     * @param table table name
+     * @return persistent modification count
+     */
+    public static long getPersistentModificationCount(String table) {
+        synchronized(modifications) {
+            SharedPreferences prefs = getPersistentCounts();
+            if(!prefs.getBoolean(table + PERSISTENT_READ, false))
+                prefs.edit().putBoolean(table + PERSISTENT_READ, true).commit();
+            return prefs.getLong(table, 0);
+        }
+    }
+
+    private static SharedPreferences getPersistentCounts() {
+        if(persistentCounts == null)
+            persistentCounts = ContextManager.getContext().getSharedPreferences(
+                    PERSISTENT_COUNTS, Context.MODE_PRIVATE);
+        return persistentCounts;
     }
 
     // --- helper classes
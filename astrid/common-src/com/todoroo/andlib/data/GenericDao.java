@@ -196,6 +196,19 @@ public class GenericDao<TYPE extends AbstractModel> {
                 AbstractModel.ID_PROPERTY.eq(item.getId()).toString(), null) > 0;
     }
 
+    /**
+     * Updates all items matching a clause with the values set on the
+     * given template, in one statement
+     *
+     * @param where
+     * @param template model with the values to set
+     * @return # of updated items
+     */
+    public int update(Criterion where, TYPE template) {
+        return database.update(table.name, template.getSetValues(),
+                where.toString(), null);
+    }
+
     // --- helper methods
 
 
@@ -0,0 +1,233 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import java.util.ArrayList;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * OverlayCursor presents the rows of an underlying query, but allows rows
+ * to be removed or inserted in memory, so that small changes to a large
+ * result set do not require re-running the whole query.
+ * <p>
+ * Inserted rows are read from other cursors with the same columns as the
+ * underlying cursor. Those cursors are owned by the overlay and are closed
+ * when it is closed or re-queried. Re-querying discards all changes.
+ */
+public class OverlayCursor extends CursorWrapper {
+
+    /** cursors supplying rows. index 0 is the underlying cursor */
+    private final ArrayList<Cursor> sources = new ArrayList<Cursor>();
+
+    /** rows in display order, packed as source index and source position */
+    private long[] rows;
+
+    /** number of rows */
+    private int count;
+
+    /** current position */
+    private int position = -1;
+
+    public OverlayCursor(Cursor cursor) {
+        super(cursor);
+        sources.add(cursor);
+        reset();
+    }
+
+    // --- editing
+
+    /**
+     * Add a cursor that rows can be inserted from
+     * @param cursor cursor with the same columns as the underlying cursor
+     * @return source index to pass to {@link #insert(int, int, int)}
+     */
+    public int addSource(Cursor cursor) {
+        sources.add(cursor);
+        return sources.size() - 1;
+    }
+
+    /**
+     * Remove the row at the given position
+     */
+    public void remove(int row) {
+        if(row < 0 || row >= count)
+            throw new IndexOutOfBoundsException("Row " + row + ", count " + count); //$NON-NLS-1$ //$NON-NLS-2$
+        System.arraycopy(rows, row + 1, rows, row, count - row - 1);
+        count--;
+        position = -1;
+    }
+
+    /**
+     * Insert a row read from a source cursor at the given position
+     * @param row position in this cursor
+     * @param source index returned by {@link #addSource(Cursor)}
+     * @param sourcePosition position of the row in the source cursor
+     */
+    public void insert(int row, int source, int sourcePosition) {
+        if(row < 0 || row > count)
+            throw new IndexOutOfBoundsException("Row " + row + ", count " + count); //$NON-NLS-1$ //$NON-NLS-2$
+        if(count == rows.length) {
+            long[] newRows = new long[Math.max(16, count * 3 / 2)];
+            System.arraycopy(rows, 0, newRows, 0, count);
+            rows = newRows;
+        }
+        System.arraycopy(rows, row, rows, row + 1, count - row);
+        rows[row] = ((long)source << 32) | sourcePosition;
+        count++;
+        position = -1;
+    }
+
+    // --- internal
+
+    /** discard changes, showing the underlying cursor as is */
+    private void reset() {
+        for(int i = sources.size() - 1; i > 0; i--)
+            sources.remove(i).close();
+        count = sources.get(0).getCount();
+        rows = new long[count];
+        for(int i = 0; i < count; i++)
+            rows[i] = i;
+        position = -1;
+    }
+
+    /** @return cursor supplying the current row */
+    private Cursor current() {
+        return sources.get((int)(rows[position] >>> 32));
+    }
+
+    // --- cursor implementation
+
+    @Override
+    public boolean requery() {
+        boolean result = super.requery();
+        reset();
+        return result;
+    }
+
+    @Override
+    public void close() {
+        for(int i = sources.size() - 1; i > 0; i--)
+            sources.remove(i).close();
+        super.close();
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean moveToPosition(int newPosition) {
+        if(newPosition < 0) {
+            position = -1;
+            return false;
+        }
+        if(newPosition >= count) {
+            position = count;
+            return false;
+        }
+        position = newPosition;
+        long row = rows[position];
+        return sources.get((int)(row >>> 32)).moveToPosition((int)row);
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(position + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(count - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(position - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return count > 0 && position == 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        return count > 0 && position == count - 1;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return count == 0 || position == -1;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return count == 0 || position == count;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        return current().getBlob(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return current().getString(columnIndex);
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        current().copyStringToBuffer(columnIndex, buffer);
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return current().getShort(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return current().getInt(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        return current().getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return current().getFloat(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        return current().getDouble(columnIndex);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return current().isNull(columnIndex);
+    }
+
+}
@@ -1,27 +1,57 @@
 package com.todoroo.andlib.service;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.ref.WeakReference;
+import java.io.Reader;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 
 import android.util.Log;
 
 /**
  * RestClient allows Android to consume web requests.
  * <p>
+ * All instances share one thread-safe client that keeps connections
+ * alive between requests, so any number of threads may issue requests at
+ * once, up to the number of connections allowed per host (see
+ * {@link #setMaxConnectionsPerHost(HttpHost, int)}). Cookies are kept
+ * per instance, so each service has its own session. Responses are
+ * requested gzip-compressed, and can be read as a stream with
+ * {@link #getStream(String)} for incremental parsing. A
+ * {@link RequestListener} can be set to collect statistics on requests.
+ * <p>
  * Portions by Praeda:
  * http://senior.ceng.metu.edu.tr/2009/praeda/2009/01/11/a-simple
  * -restful-client-at-android/
@@ -37,79 +67,92 @@ public class HttpRestClient implements RestClient {
 
     private static final int TIMEOUT_MILLIS = 30000;
 
-    private static WeakReference<HttpClient> httpClient = null;
+    /** connections kept open to all hosts together */
+    private static final int MAX_CONNECTIONS = 10;
+
+    /** connections per host unless configured otherwise */
+    private static final int DEFAULT_CONNECTIONS_PER_HOST = 2;
+
+    private static final String ENCODING_GZIP = "gzip"; //$NON-NLS-1$
+
+    private static DefaultHttpClient httpClient = null;
+
+    private static final ConnPerRouteBean connectionsPerRoute =
+        new ConnPerRouteBean(DEFAULT_CONNECTIONS_PER_HOST);
 
     @Autowired
     private Boolean debug;
 
+    private RequestListener listener = null;
+
+    /** cookies of this client's session */
+    private final CookieStore cookieStore = new BasicCookieStore();
+
     public HttpRestClient() {
         DependencyInjectionService.getInstance().inject(this);
     }
 
-    private static String convertStreamToString(InputStream is) {
-        /*
-         * To convert the InputStream to String we use the
-         * BufferedReader.readLine() method. We iterate until the BufferedReader
-         * return null which means there's no more data to read. Each line will
-         * appended to a StringBuilder and returned as String.
+    /**
+     * Receives statistics about requests made with a client
+     */
+    public interface RequestListener {
+        /**
+         * Called when the response to a request has been read and closed,
+         * or the request failed
+         *
+         * @param url request url
+         * @param bytes bytes of response body received, before decompression
+         * @param millis time from sending the request to closing the response
          */
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is), 16384);
-        StringBuilder sb = new StringBuilder();
-
-        String line = null;
-        try {
-            while ((line = reader.readLine()) != null) {
-                sb.append(line + "\n"); //$NON-NLS-1$
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                is.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+        public void requestCompleted(String url, long bytes, long millis);
 
-        return sb.toString();
+        /**
+         * Called when the caller retries a request
+         *
+         * @param url request url
+         */
+        public void requestRetried(String url);
     }
 
-    private synchronized static HttpClient getClient() {
-        if (httpClient == null || httpClient.get() == null) {
-            HttpParams params = new BasicHttpParams();
-            HttpConnectionParams.setConnectionTimeout(params, TIMEOUT_MILLIS);
-            HttpConnectionParams.setSoTimeout(params, TIMEOUT_MILLIS);
-            HttpClient client = new DefaultHttpClient(params);
-            httpClient = new WeakReference<HttpClient>(client);
-            return client;
-        } else {
-            return httpClient.get();
-        }
-    }
+    // --- configuration
 
-    private String processHttpResponse(HttpResponse response) throws IOException {
-        int statusCode = response.getStatusLine().getStatusCode();
-        if(statusCode >= HTTP_UNAVAILABLE_START && statusCode <= HTTP_UNAVAILABLE_END) {
-            throw new HttpUnavailableException();
-        } else if(statusCode != HTTP_OK) {
-            throw new HttpErrorException(response.getStatusLine().getStatusCode(),
-                    response.getStatusLine().getReasonPhrase());
-        }
+    /**
+     * Set the number of requests that may be in flight to the given host
+     * at once
+     *
+     * @param host host, with port and scheme
+     * @param max
+     */
+    public static void setMaxConnectionsPerHost(HttpHost host, int max) {
+        boolean secure = "https".equals(host.getSchemeName()); //$NON-NLS-1$
+        connectionsPerRoute.setMaxForRoute(new HttpRoute(host, null, secure), max);
+    }
 
-        HttpEntity entity = response.getEntity();
+    /**
+     * Set the listener to notify about requests, or null for none
+     */
+    public void setRequestListener(RequestListener listener) {
+        this.listener = listener;
+    }
 
-        if (entity != null) {
-            InputStream contentStream = entity.getContent();
-            try {
-                return convertStreamToString(contentStream);
-            } finally {
-                contentStream.close();
-            }
-        }
+    /**
+     * Notify the request listener that a request is being retried
+     */
+    public void retrying(String url) {
+        RequestListener current = listener;
+        if(current != null)
+            current.requestRetried(url);
+    }
 
-        return null;
+    /**
+     * Forget this client's cookies, i.e. to start a new session
+     */
+    public void clearCookies() {
+        cookieStore.clear();
     }
 
+    // --- requests
+
     /**
      * Issue an HTTP GET for the given URL, return the response
      *
@@ -117,22 +160,11 @@ public class HttpRestClient implements RestClient {
      * @return response, or null if there was no response
      * @throws IOException
      */
-    public synchronized String get(String url) throws IOException {
+    public String get(String url) throws IOException {
         if(debug)
             Log.d("http-rest-client-get", url); //$NON-NLS-1$
 
-        try {
-            HttpGet httpGet = new HttpGet(url);
-            HttpResponse response = getClient().execute(httpGet);
-
-            return processHttpResponse(response);
-        } catch (IOException e) {
-            throw e;
-        } catch (Exception e) {
-            IOException ioException = new IOException(e.getMessage());
-            ioException.initCause(e);
-            throw ioException;
-        }
+        return readFully(execute(new HttpGet(url)));
     }
 
     /**
@@ -143,22 +175,256 @@ public class HttpRestClient implements RestClient {
      *            url-encoded data
      * @throws IOException
      */
-    public synchronized String post(String url, String data) throws IOException {
+    public String post(String url, String data) throws IOException {
         if(debug)
             Log.d("http-rest-client-post", url + " | " + data); //$NON-NLS-1$ //$NON-NLS-2$
 
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setEntity(new StringEntity(data));
+        return readFully(execute(httpPost));
+    }
+
+    /**
+     * Issue an HTTP GET for the given URL and return the response body
+     * without reading it. The stream must be closed to give the connection
+     * back to the pool.
+     *
+     * @param url url with url-encoded params
+     * @return response body, or null if there was no response
+     * @throws IOException
+     */
+    public InputStream getStream(String url) throws IOException {
+        if(debug)
+            Log.d("http-rest-client-get", url); //$NON-NLS-1$
+
+        return execute(new HttpGet(url));
+    }
+
+    // --- response handling
+
+    /**
+     * Called for responses that are not 200 OK. Implementations should
+     * throw an exception describing the error. The default implementation
+     * throws {@link HttpUnavailableException} for server errors and
+     * {@link HttpErrorException} otherwise.
+     *
+     * @param response
+     * @throws IOException
+     */
+    protected void handleError(HttpResponse response) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if(statusCode >= HTTP_UNAVAILABLE_START && statusCode <= HTTP_UNAVAILABLE_END) {
+            throw new HttpUnavailableException();
+        }
+        throw new HttpErrorException(response.getStatusLine().getStatusCode(),
+                response.getStatusLine().getReasonPhrase());
+    }
+
+    /**
+     * Read the body of a response into a string and release its connection
+     *
+     * @return body, or null if there is no body
+     */
+    protected static String readBody(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if(entity == null)
+            return null;
+        return readFully(entity.getContent());
+    }
+
+    private InputStream execute(HttpUriRequest request) throws IOException {
+        long start = System.currentTimeMillis();
+        boolean success = false;
         try {
-            HttpPost httpPost = new HttpPost(url);
-            httpPost.setEntity(new StringEntity(data));
-            HttpResponse response = getClient().execute(httpPost);
+            BasicHttpContext context = new BasicHttpContext();
+            context.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
+            HttpResponse response = getClient().execute(request, context);
+            if(response.getStatusLine().getStatusCode() != HTTP_OK) {
+                try {
+                    handleError(response);
+                } finally {
+                    HttpEntity entity = response.getEntity();
+                    if(entity != null)
+                        entity.consumeContent();
+                }
+                throw new HttpErrorException(response.getStatusLine().getStatusCode(),
+                        response.getStatusLine().getReasonPhrase());
+            }
+
+            HttpEntity entity = response.getEntity();
+            if(entity == null)
+                return null;
+            RequestListener current = listener;
+            if(current == null) {
+                success = true;
+                return entity.getContent();
+            }
 
-            return processHttpResponse(response);
+            // count bytes as they arrive, not after they are inflated
+            boolean gzip = entity instanceof GzipEntity;
+            InputStream content = gzip ? ((GzipEntity)entity).getRawContent() :
+                entity.getContent();
+            if(content == null)
+                return null;
+            InputStream counting = new CountingInputStream(content, current,
+                    request.getURI().toString(), start);
+            success = true;
+            if(!gzip)
+                return counting;
+            try {
+                return new GZIPInputStream(counting);
+            } catch (IOException e) {
+                counting.close();
+                throw e;
+            }
         } catch (IOException e) {
             throw e;
         } catch (Exception e) {
+            request.abort();
             IOException ioException = new IOException(e.getMessage());
             ioException.initCause(e);
             throw ioException;
+        } finally {
+            RequestListener current = listener;
+            if(!success && current != null)
+                current.requestCompleted(request.getURI().toString(), 0,
+                        System.currentTimeMillis() - start);
+        }
+    }
+
+    private static String readFully(InputStream is) throws IOException {
+        if(is == null)
+            return null;
+        try {
+            Reader reader = new InputStreamReader(is);
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            for(int read; (read = reader.read(buffer)) != -1; )
+                sb.append(buffer, 0, read);
+            return sb.toString();
+        } finally {
+            is.close();
+        }
+    }
+
+    // --- client
+
+    private synchronized static DefaultHttpClient getClient() {
+        if (httpClient == null) {
+            HttpParams params = new BasicHttpParams();
+            HttpConnectionParams.setConnectionTimeout(params, TIMEOUT_MILLIS);
+            HttpConnectionParams.setSoTimeout(params, TIMEOUT_MILLIS);
+            HttpConnectionParams.setStaleCheckingEnabled(params, true);
+            ConnManagerParams.setTimeout(params, TIMEOUT_MILLIS);
+            ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+            ConnManagerParams.setMaxConnectionsPerRoute(params, connectionsPerRoute);
+
+            SchemeRegistry schemes = new SchemeRegistry();
+            schemes.register(new Scheme("http", //$NON-NLS-1$
+                    PlainSocketFactory.getSocketFactory(), 80));
+            schemes.register(new Scheme("https", //$NON-NLS-1$
+                    SSLSocketFactory.getSocketFactory(), 443));
+
+            httpClient = new DefaultHttpClient(
+                    new ThreadSafeClientConnManager(params, schemes), params);
+            httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
+                public void process(HttpRequest request, HttpContext context) {
+                    if(!request.containsHeader("Accept-Encoding")) //$NON-NLS-1$
+                        request.addHeader("Accept-Encoding", ENCODING_GZIP); //$NON-NLS-1$
+                }
+            });
+            httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+                public void process(HttpResponse response, HttpContext context)
+                        throws HttpException, IOException {
+                    HttpEntity entity = response.getEntity();
+                    if(entity == null)
+                        return;
+                    Header encoding = entity.getContentEncoding();
+                    if(encoding != null && ENCODING_GZIP.equalsIgnoreCase(encoding.getValue()))
+                        response.setEntity(new GzipEntity(entity));
+                }
+            });
+        }
+        return httpClient;
+    }
+
+    /**
+     * Counts bytes read from a response as received and reports them to
+     * the request listener when closed
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final RequestListener listener;
+        private final String url;
+        private final long start;
+        private long bytes = 0;
+        private boolean closed = false;
+
+        public CountingInputStream(InputStream in, RequestListener listener,
+                String url, long start) {
+            super(in);
+            this.listener = listener;
+            this.url = url;
+            this.start = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if(result != -1)
+                bytes++;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int result = super.read(buffer, offset, count);
+            if(result > 0)
+                bytes += result;
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long result = super.skip(count);
+            bytes += result;
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if(!closed) {
+                    closed = true;
+                    listener.requestCompleted(url, bytes,
+                            System.currentTimeMillis() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Entity that inflates a gzip-compressed response as it is read
+     */
+    private static class GzipEntity extends HttpEntityWrapper {
+        public GzipEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new GZIPInputStream(wrappedEntity.getContent());
+        }
+
+        /** @return compressed content as received */
+        public InputStream getRawContent() throws IOException {
+            return wrappedEntity.getContent();
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
         }
     }
 
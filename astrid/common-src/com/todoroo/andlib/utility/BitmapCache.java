@@ -0,0 +1,139 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.utility;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Process-wide cache of decoded bitmaps, such as icons that are shown
+ * every time a list is opened. Least recently used bitmaps are dropped
+ * when the total size of the cache grows past its limit.
+ * <p>
+ * Evicted bitmaps are not recycled, since they may still be displayed.
+ */
+public class BitmapCache {
+
+    /** default maximum size, in bytes */
+    private static final long DEFAULT_MAX_SIZE = 512 * 1024;
+
+    private static BitmapCache instance = null;
+
+    /**
+     * @return process-wide bitmap cache
+     */
+    public static synchronized BitmapCache getInstance() {
+        if(instance == null)
+            instance = new BitmapCache(DEFAULT_MAX_SIZE);
+        return instance;
+    }
+
+    // --- implementation
+
+    /** bitmaps in least- to most-recently used order */
+    private final LinkedHashMap<String, Bitmap> bitmaps =
+        new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+
+    private final long maxSize;
+
+    private long size = 0;
+
+    /**
+     * @param maxSize maximum total size of cached bitmaps, in bytes
+     */
+    public BitmapCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return cached bitmap, or null if not cached
+     */
+    public synchronized Bitmap get(String key) {
+        return bitmaps.get(key);
+    }
+
+    /**
+     * Add a bitmap to the cache, evicting old bitmaps if needed. Bitmaps
+     * larger than the cache are not added
+     */
+    public synchronized void put(String key, Bitmap bitmap) {
+        Bitmap old = bitmaps.remove(key);
+        if(old != null)
+            size -= sizeOf(old);
+
+        long bitmapSize = sizeOf(bitmap);
+        if(bitmapSize > maxSize)
+            return;
+
+        bitmaps.put(key, bitmap);
+        size += bitmapSize;
+
+        Iterator<Entry<String, Bitmap>> iterator = bitmaps.entrySet().iterator();
+        while(size > maxSize && iterator.hasNext()) {
+            size -= sizeOf(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Get a bitmap resource, decoding it on a cache miss
+     *
+     * @param context
+     * @param packageName package containing the resource, or null for the
+     * context's own package
+     * @param resource resource id
+     * @return bitmap, or null if the resource could not be loaded
+     */
+    public Bitmap getResource(Context context, String packageName, int resource) {
+        if(packageName == null)
+            packageName = context.getPackageName();
+        String key = packageName + ":" + resource; //$NON-NLS-1$
+        Bitmap bitmap = get(key);
+        if(bitmap != null)
+            return bitmap;
+
+        try {
+            Resources r;
+            if(packageName.equals(context.getPackageName()))
+                r = context.getResources();
+            else
+                r = context.getPackageManager().getResourcesForApplication(packageName);
+            bitmap = BitmapFactory.decodeResource(r, resource);
+        } catch (NameNotFoundException e) {
+            Log.e("bitmap-cache", "Package not found: " + packageName, e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        if(bitmap != null)
+            put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * @return total size of cached bitmaps, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Drop all cached bitmaps
+     */
+    public synchronized void clear() {
+        bitmaps.clear();
+        size = 0;
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return (long)bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.utility;
+
+/**
+ * Fixed-size histogram of non-negative values, bucketed by powers of two.
+ * Recording is cheap and does not allocate, so it can be used on hot paths.
+ * Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class Histogram {
+
+    /** bucket i holds values in [2^(i-1), 2^i) */
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final String unit;
+    private final long[] buckets = new long[BUCKETS];
+
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * @param name name used when printing
+     * @param unit unit of recorded values, used when printing
+     */
+    public Histogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * Record a value. Negative values are counted as zero
+     */
+    public synchronized void record(long value) {
+        if(value < 0)
+            value = 0;
+        int bucket = 64 - Long.numberOfLeadingZeros(value);
+        if(bucket >= BUCKETS)
+            bucket = BUCKETS - 1;
+        buckets[bucket]++;
+        count++;
+        sum += value;
+        if(value < min)
+            min = value;
+        if(value > max)
+            max = value;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @param percentile value between 0 and 1
+     * @return upper bound of the bucket containing the given percentile
+     */
+    public synchronized long getPercentile(double percentile) {
+        if(count == 0)
+            return 0;
+        long target = (long)Math.ceil(percentile * count);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if(seen >= target && seen > 0)
+                return Math.min(max, i == 0 ? 0 : (1L << i) - 1);
+        }
+        return max;
+    }
+
+    /**
+     * Forget all recorded values
+     */
+    public synchronized void clear() {
+        for(int i = 0; i < BUCKETS; i++)
+            buckets[i] = 0;
+        count = sum = max = 0;
+        min = Long.MAX_VALUE;
+    }
+
+    @SuppressWarnings("nls")
+    @Override
+    public synchronized String toString() {
+        if(count == 0)
+            return name + ": no data";
+        return String.format("%s: n=%d mean=%d p50=%d p90=%d p99=%d min=%d max=%d (%s)",
+                name, count, getMean(), getPercentile(0.5), getPercentile(0.9),
+                getPercentile(0.99), getMin(), max, unit);
+    }
+
+}
@@ -0,0 +1,237 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.utility;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads a JSON document from a stream without holding all of it in
+ * memory. The reader walks objects and arrays field by field; only the
+ * values asked for with {@link #nextObject()} are built into
+ * {@link JSONObject}s, one at a time, so reading a long array of small
+ * objects needs memory for one element rather than the whole response.
+ * <p>
+ * Typical use, for a response like <code>{"tasks":[{...},{...}]}</code>:
+ *
+ * <pre>
+ * reader.beginObject();
+ * while((name = reader.nextName()) != null) {
+ *     if(!"tasks".equals(name)) { reader.skipValue(); continue; }
+ *     reader.beginArray();
+ *     while(reader.hasNext())
+ *         handle(reader.nextObject());
+ * }
+ * </pre>
+ */
+@SuppressWarnings("nls")
+public class JsonStreamReader {
+
+    private static final int NONE = -2;
+
+    private final Reader reader;
+
+    /** character read ahead, or NONE */
+    private int peeked = NONE;
+
+    public JsonStreamReader(Reader reader) {
+        this.reader = new BufferedReader(reader, 8192);
+    }
+
+    /**
+     * Consume the opening brace of an object
+     */
+    public void beginObject() throws IOException, JSONException {
+        expect('{');
+    }
+
+    /**
+     * Consume the opening bracket of an array
+     */
+    public void beginArray() throws IOException, JSONException {
+        expect('[');
+    }
+
+    /**
+     * Read the name of the next field of the current object. The value
+     * must then be read or skipped.
+     *
+     * @return name, or null if the object has no more fields. The closing
+     * brace is consumed
+     */
+    public String nextName() throws IOException, JSONException {
+        int c = nextToken();
+        if(c == '}') {
+            read();
+            return null;
+        }
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * @return true if the current array or object has another element. If
+     * not, the closing bracket is consumed
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        int c = nextToken();
+        if(c == ']' || c == '}') {
+            read();
+            return false;
+        }
+        if(c == -1)
+            throw new JSONException("Unexpected end of input");
+        return true;
+    }
+
+    /**
+     * Read the next value, which must be an object
+     */
+    public JSONObject nextObject() throws IOException, JSONException {
+        StringBuilder value = new StringBuilder();
+        copyValue(value);
+        return new JSONObject(value.toString());
+    }
+
+    /**
+     * Skip the next value, however large
+     */
+    public void skipValue() throws IOException, JSONException {
+        copyValue(null);
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // --- helpers
+
+    private int peek() throws IOException {
+        if(peeked == NONE)
+            peeked = reader.read();
+        return peeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        peeked = NONE;
+        return c;
+    }
+
+    /**
+     * Skip whitespace and separating commas
+     * @return next significant character, not consumed
+     */
+    private int nextToken() throws IOException {
+        while(true) {
+            int c = peek();
+            if(c == ',' || Character.isWhitespace(c))
+                read();
+            else
+                return c;
+        }
+    }
+
+    private void expect(char expected) throws IOException, JSONException {
+        int c = nextToken();
+        if(c != expected)
+            throw new JSONException("Expected '" + expected + "' but was " +
+                    (c == -1 ? "end of input" : "'" + (char)c + "'"));
+        read();
+    }
+
+    /**
+     * Read a quoted string, decoding escapes
+     */
+    private String readString() throws IOException, JSONException {
+        expect('"');
+        StringBuilder result = new StringBuilder();
+        while(true) {
+            int c = read();
+            if(c == -1)
+                throw new JSONException("Unterminated string");
+            if(c == '"')
+                return result.toString();
+            if(c != '\\') {
+                result.append((char)c);
+                continue;
+            }
+            c = read();
+            switch(c) {
+            case 'b': result.append('\b'); break;
+            case 'f': result.append('\f'); break;
+            case 'n': result.append('\n'); break;
+            case 'r': result.append('\r'); break;
+            case 't': result.append('\t'); break;
+            case 'u': {
+                char[] hex = new char[4];
+                for(int i = 0; i < 4; i++)
+                    hex[i] = (char) read();
+                try {
+                    result.append((char) Integer.parseInt(new String(hex), 16));
+                } catch (NumberFormatException e) {
+                    throw new JSONException("Illegal escape");
+                }
+                break;
+            }
+            case -1:
+                throw new JSONException("Unterminated string");
+            default:
+                result.append((char)c);
+            }
+        }
+    }
+
+    /**
+     * Read one complete value, appending its text to the given builder
+     * unless it is null
+     */
+    private void copyValue(StringBuilder out) throws IOException, JSONException {
+        int c = nextToken();
+        if(c == -1)
+            throw new JSONException("Unexpected end of input");
+
+        // numbers and literals
+        if(c != '{' && c != '[' && c != '"') {
+            while(c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                if(out != null)
+                    out.append((char)c);
+                read();
+                c = peek();
+            }
+            return;
+        }
+
+        // strings, objects and arrays
+        int depth = 0;
+        boolean inString = false;
+        do {
+            c = read();
+            if(c == -1)
+                throw new JSONException("Unexpected end of input");
+            if(out != null)
+                out.append((char)c);
+
+            if(inString) {
+                if(c == '\\') {
+                    c = read();
+                    if(out != null && c != -1)
+                        out.append((char)c);
+                } else if(c == '"')
+                    inString = false;
+            } else if(c == '"')
+                inString = true;
+            else if(c == '{' || c == '[')
+                depth++;
+            else if(c == '}' || c == ']')
+                depth--;
+        } while(inString || depth > 0);
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.utility;
+
+/**
+ * Token bucket for keeping requests to a web service within its rate
+ * limit. Up to <code>burst</code> requests may be made at once; after
+ * that, one request is allowed per interval. Callers only wait when the
+ * bucket is empty.
+ * <p>
+ * The interval adapts to the service: {@link #backoff()} doubles it and
+ * holds all requests for one interval, {@link #success()} shrinks it back
+ * towards the minimum.
+ */
+public class RateLimiter {
+
+    private final int burst;
+    private final long minInterval;
+    private final long maxInterval;
+
+    private long interval;
+
+    /** available tokens. Negative when requests are waiting */
+    private double tokens;
+
+    /** time tokens were last added */
+    private long lastRefill;
+
+    /**
+     * @param burst number of requests that may be made at once
+     * @param minInterval millis between requests once the burst is used up
+     * @param maxInterval longest interval to back off to
+     */
+    public RateLimiter(int burst, long minInterval, long maxInterval) {
+        this.burst = burst;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        interval = minInterval;
+        tokens = burst;
+        lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Wait until a request may be made
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve(System.currentTimeMillis());
+        if(wait > 0)
+            Thread.sleep(wait);
+    }
+
+    /**
+     * Call when the service reports that it is overloaded
+     */
+    public void backoff() {
+        backoff(System.currentTimeMillis());
+    }
+
+    /**
+     * Call when a request succeeded
+     */
+    public synchronized void success() {
+        interval = Math.max(minInterval, interval * 3 / 4);
+    }
+
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    // --- implementation
+
+    /**
+     * Take a token
+     * @return millis the caller must wait before making its request
+     */
+    synchronized long reserve(long now) {
+        refill(now);
+        tokens--;
+        if(tokens >= 0)
+            return 0;
+        return (long) Math.ceil(-tokens * interval);
+    }
+
+    synchronized void backoff(long now) {
+        refill(now);
+        interval = Math.min(maxInterval, interval * 2);
+        tokens = Math.min(tokens, 0);
+    }
+
+    private void refill(long now) {
+        if(now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) / (double) interval);
+            lastRefill = now;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.utility;
+
+/**
+ * Compressed bitmap of non-negative ids, such as the ids of tasks matching
+ * a query. Only 64-bit words that contain at least one id are stored, so
+ * the bitmap stays small for both dense and sparse sets, and set operations
+ * run word-by-word without looking at individual ids.
+ * <p>
+ * Bitmaps returned by the set operations are new objects; operands are not
+ * modified.
+ */
+public class SparseBitmap {
+
+    /** word indices, in ascending order */
+    private int[] keys;
+
+    /** words, never zero */
+    private long[] words;
+
+    /** number of words in use */
+    private int size = 0;
+
+    public SparseBitmap() {
+        this(4);
+    }
+
+    private SparseBitmap(int capacity) {
+        keys = new int[Math.max(capacity, 1)];
+        words = new long[Math.max(capacity, 1)];
+    }
+
+    // --- building
+
+    /**
+     * Add an id. Adding ids in ascending order is fastest
+     */
+    public void add(long id) {
+        if(id < 0)
+            throw new IllegalArgumentException("Negative id " + id); //$NON-NLS-1$
+        int key = (int)(id >>> 6);
+        long bit = 1L << (id & 63);
+
+        // fast path for ascending ids
+        if(size > 0 && keys[size - 1] == key) {
+            words[size - 1] |= bit;
+            return;
+        }
+        if(size == 0 || keys[size - 1] < key) {
+            append(key, bit);
+            return;
+        }
+
+        int index = find(key);
+        if(index >= 0) {
+            words[index] |= bit;
+            return;
+        }
+        index = -(index + 1);
+        ensureCapacity(size + 1);
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(words, index, words, index + 1, size - index);
+        keys[index] = key;
+        words[index] = bit;
+        size++;
+    }
+
+    /**
+     * @return true if the given id is in this bitmap
+     */
+    public boolean contains(long id) {
+        if(id < 0)
+            return false;
+        int index = find((int)(id >>> 6));
+        return index >= 0 && (words[index] & (1L << (id & 63))) != 0;
+    }
+
+    /**
+     * @return number of ids in this bitmap
+     */
+    public int cardinality() {
+        int result = 0;
+        for(int i = 0; i < size; i++)
+            result += Long.bitCount(words[i]);
+        return result;
+    }
+
+    /**
+     * @return true if this bitmap contains no ids
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // --- set operations
+
+    /**
+     * @return ids in this bitmap or the other
+     */
+    public SparseBitmap union(SparseBitmap other) {
+        SparseBitmap result = new SparseBitmap(size + other.size);
+        int i = 0, j = 0;
+        while(i < size && j < other.size) {
+            if(keys[i] == other.keys[j])
+                result.append(keys[i], words[i++] | other.words[j++]);
+            else if(keys[i] < other.keys[j])
+                result.append(keys[i], words[i++]);
+            else
+                result.append(other.keys[j], other.words[j++]);
+        }
+        for(; i < size; i++)
+            result.append(keys[i], words[i]);
+        for(; j < other.size; j++)
+            result.append(other.keys[j], other.words[j]);
+        return result;
+    }
+
+    /**
+     * @return ids in both this bitmap and the other
+     */
+    public SparseBitmap intersection(SparseBitmap other) {
+        SparseBitmap result = new SparseBitmap(Math.min(size, other.size));
+        int i = 0, j = 0;
+        while(i < size && j < other.size) {
+            if(keys[i] == other.keys[j])
+                result.append(keys[i], words[i++] & other.words[j++]);
+            else if(keys[i] < other.keys[j])
+                i++;
+            else
+                j++;
+        }
+        return result;
+    }
+
+    /**
+     * @return ids in this bitmap but not the other
+     */
+    public SparseBitmap difference(SparseBitmap other) {
+        SparseBitmap result = new SparseBitmap(size);
+        int i = 0, j = 0;
+        while(i < size) {
+            if(j >= other.size || keys[i] < other.keys[j])
+                result.append(keys[i], words[i++]);
+            else if(keys[i] == other.keys[j])
+                result.append(keys[i], words[i++] & ~other.words[j++]);
+            else
+                j++;
+        }
+        return result;
+    }
+
+    // --- internal
+
+    /** append a word with a larger key than all others. zero is skipped */
+    private void append(int key, long word) {
+        if(word == 0)
+            return;
+        ensureCapacity(size + 1);
+        keys[size] = key;
+        words[size] = word;
+        size++;
+    }
+
+    /** binary search for key. same return convention as Arrays.binarySearch */
+    private int find(int key) {
+        int low = 0, high = size - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            if(keys[mid] < key)
+                low = mid + 1;
+            else if(keys[mid] > key)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity <= keys.length)
+            return;
+        int newCapacity = Math.max(capacity, keys.length * 2);
+        int[] newKeys = new int[newCapacity];
+        long[] newWords = new long[newCapacity];
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        System.arraycopy(words, 0, newWords, 0, size);
+        keys = newKeys;
+        words = newWords;
+    }
+
+}
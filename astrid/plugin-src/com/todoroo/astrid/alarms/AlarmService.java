@@ -1,16 +1,9 @@
 package com.todoroo.astrid.alarms;
 
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
-import android.content.Context;
-import android.content.Intent;
-import android.util.Log;
-
 import com.todoroo.andlib.data.TodorooCursor;
-import com.todoroo.andlib.service.ContextManager;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Join;
 import com.todoroo.andlib.sql.Order;
@@ -21,7 +14,7 @@ import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.model.Metadata;
 import com.todoroo.astrid.model.Task;
-import com.todoroo.astrid.reminders.Notifications;
+import com.todoroo.astrid.reminders.ReminderQueue;
 import com.todoroo.astrid.reminders.ReminderService;
 import com.todoroo.astrid.service.MetadataService;
 
@@ -80,8 +73,8 @@ public class AlarmService {
             metadata.setValue(Alarm.TIME, alarm);
             metadata.setValue(Alarm.TYPE, Alarm.TYPE_SINGLE);
             service.save(metadata);
-            scheduleAlarm(metadata);
         }
+        scheduleAlarms(taskId);
     }
 
     private boolean alarmsIdentical(long taskId, LinkedHashSet<Long> alarms) {
@@ -104,19 +97,18 @@ public class AlarmService {
     // --- alarm scheduling
 
     /**
-     * Gets a listing of all alarms that are active
-     * @param properties
+     * Gets a listing of all alarms of active tasks, by task
      * @return todoroo cursor. PLEASE CLOSE THIS CURSOR!
      */
     private TodorooCursor<Metadata> getActiveAlarms() {
-        return PluginServices.getMetadataService().query(Query.select(Alarm.TIME).
+        return PluginServices.getMetadataService().query(Query.select(Metadata.TASK, Alarm.TIME).
                 join(Join.inner(Task.TABLE, Metadata.TASK.eq(Task.ID))).
-                where(Criterion.and(TaskCriteria.isActive(), MetadataCriteria.withKey(Alarm.METADATA_KEY))));
+                where(Criterion.and(TaskCriteria.isActive(), MetadataCriteria.withKey(Alarm.METADATA_KEY))).
+                orderBy(Order.asc(Metadata.TASK)));
     }
 
     /**
      * Gets a listing of alarms by task
-     * @param properties
      * @return todoroo cursor. PLEASE CLOSE THIS CURSOR!
      */
     private TodorooCursor<Metadata> getAlarmsForTask(long taskId) {
@@ -132,11 +124,19 @@ public class AlarmService {
     public void scheduleAllAlarms() {
         TodorooCursor<Metadata> cursor = getActiveAlarms();
         try {
-            Metadata alarm = new Metadata();
+            long taskId = -1;
+            ArrayList<Long> times = new ArrayList<Long>();
             for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                alarm.readFromCursor(cursor);
-                scheduleAlarm(alarm);
+                long alarmTaskId = cursor.get(Metadata.TASK);
+                if(alarmTaskId != taskId && taskId != -1) {
+                    scheduleAlarms(taskId, times);
+                    times.clear();
+                }
+                taskId = alarmTaskId;
+                times.add(cursor.get(Alarm.TIME));
             }
+            if(taskId != -1)
+                scheduleAlarms(taskId, times);
         } catch (Exception e) {
             // suppress
         } finally {
@@ -144,20 +144,25 @@ public class AlarmService {
         }
     }
 
-    private static final long NO_ALARM = Long.MAX_VALUE;
-
     /**
      * Schedules alarms for a single task
      * @param task
      */
     public void scheduleAlarms(Task task) {
-        TodorooCursor<Metadata> cursor = getAlarmsForTask(task.getId());
+        scheduleAlarms(task.getId());
+    }
+
+    /**
+     * Schedules alarms for a single task, replacing its earlier alarms
+     * @param taskId
+     */
+    private void scheduleAlarms(long taskId) {
+        TodorooCursor<Metadata> cursor = getAlarmsForTask(taskId);
         try {
-            Metadata alarm = new Metadata();
-            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                alarm.readFromCursor(cursor);
-                scheduleAlarm(alarm);
-            }
+            ArrayList<Long> times = new ArrayList<Long>();
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                times.add(cursor.get(Alarm.TIME));
+            scheduleAlarms(taskId, times);
         } catch (Exception e) {
             // suppress
         } finally {
@@ -166,37 +171,18 @@ public class AlarmService {
     }
 
     /**
-     * Schedules alarms for a single task
-     *
-     * @param shouldPerformPropertyCheck
-     *            whether to check if task has requisite properties
+     * Put the given alarm times for a task in the reminder queue, skipping
+     * times that have passed
      */
-    @SuppressWarnings("nls")
-    private void scheduleAlarm(Metadata alarm) {
-        if(alarm == null)
-            return;
-
-        long taskId = alarm.getValue(Metadata.TASK);
-        int type = ReminderService.TYPE_ALARM;
-
-        Context context = ContextManager.getContext();
-        Intent intent = new Intent(context, Notifications.class);
-        intent.setType("ALARM" + Long.toString(taskId)); //$NON-NLS-1$
-        intent.setAction(Integer.toString(type));
-        intent.putExtra(Notifications.ID_KEY, taskId);
-        intent.putExtra(Notifications.TYPE_KEY, type);
-
-        AlarmManager am = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
-                intent, 0);
-
-        long time = alarm.getValue(Alarm.TIME);
-        if(time == 0 || time == NO_ALARM)
-            am.cancel(pendingIntent);
-        else if(time > DateUtilities.now()) {
-            Log.e("Astrid", "Alarm (" + taskId + ", " + type +
-                    ") set for " + new Date(time));
-            am.set(AlarmManager.RTC_WAKEUP, time, pendingIntent);
-        }
+    private void scheduleAlarms(long taskId, ArrayList<Long> times) {
+        long now = DateUtilities.now();
+        int count = 0;
+        long[] array = new long[times.size()];
+        for(Long time : times)
+            if(time > now)
+                array[count++] = time;
+        long[] future = new long[count];
+        System.arraycopy(array, 0, future, 0, count);
+        ReminderQueue.getInstance().schedule(taskId, ReminderService.TYPE_ALARM, future);
     }
 }
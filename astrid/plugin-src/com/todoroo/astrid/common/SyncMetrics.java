@@ -0,0 +1,323 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.common;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.res.Resources;
+
+import com.timsu.astrid.R;
+import com.todoroo.andlib.service.HttpRestClient.RequestListener;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.andlib.utility.Histogram;
+import com.todoroo.astrid.utility.Preferences;
+
+/**
+ * Timings and counters of one synchronization: time spent in each phase,
+ * requests and bytes per remote endpoint, retries, and tasks touched.
+ * <p>
+ * Pass it to the HTTP client of a service as a {@link RequestListener} to
+ * count requests. When the synchronization is over, {@link #save(String)}
+ * keeps it with the last few runs of the same provider, which can be read
+ * with {@link #getHistory(String)}.
+ */
+@SuppressWarnings("nls")
+public class SyncMetrics implements RequestListener {
+
+    // --- phases
+
+    /** logging in */
+    public static final String PHASE_AUTHENTICATE = "authenticate";
+
+    /** reading remote changes */
+    public static final String PHASE_FETCH_REMOTE = "fetch_remote";
+
+    /** reading local changes */
+    public static final String PHASE_PREPARE_LOCAL = "prepare_local";
+
+    /** sending locally created tasks */
+    public static final String PHASE_CREATE = "create";
+
+    /** sending locally updated tasks */
+    public static final String PHASE_UPDATE = "update";
+
+    /** saving remote changes locally */
+    public static final String PHASE_REMOTE_WRITE = "remote_write";
+
+    // --- task counters
+
+    public static final String TASKS_CREATED = "created";
+
+    public static final String TASKS_UPDATED = "updated";
+
+    public static final String TASKS_WRITTEN = "written";
+
+    /** number of runs kept per provider */
+    static final int HISTORY_SIZE = 10;
+
+    private static final String PREF_HISTORY = "_sync_metrics";
+
+    private final long started = DateUtilities.now();
+    private final long startNanos = System.nanoTime();
+
+    private final LinkedHashMap<String, Long> phases = new LinkedHashMap<String, Long>();
+    private String currentPhase = null;
+    private long phaseStart;
+
+    private final LinkedHashMap<String, Endpoint> endpoints = new LinkedHashMap<String, Endpoint>();
+    private final HashMap<String, Integer> tasks = new HashMap<String, Integer>();
+    private int retries = 0;
+    private boolean successful = false;
+
+    // --- recording
+
+    /**
+     * Start timing a phase, ending the previous one. Time spent in the
+     * same phase more than once is added up
+     */
+    public synchronized void startPhase(String phase) {
+        endPhase();
+        currentPhase = phase;
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Stop timing the current phase
+     */
+    public synchronized void endPhase() {
+        if(currentPhase == null)
+            return;
+        long elapsed = (System.nanoTime() - phaseStart) / 1000000L;
+        Long previous = phases.get(currentPhase);
+        phases.put(currentPhase, previous == null ? elapsed : previous + elapsed);
+        currentPhase = null;
+    }
+
+    /**
+     * Count a task touched by synchronization
+     * @param kind one of the TASKS constants
+     */
+    public synchronized void countTask(String kind) {
+        Integer count = tasks.get(kind);
+        tasks.put(kind, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Mark this synchronization as having completed
+     */
+    public synchronized void setSuccessful() {
+        successful = true;
+    }
+
+    public synchronized void requestCompleted(String url, long bytes, long millis) {
+        Endpoint endpoint = getEndpoint(url);
+        endpoint.requests++;
+        endpoint.bytes += bytes;
+        endpoint.latency.record(millis);
+    }
+
+    public synchronized void requestRetried(String url) {
+        retries++;
+        getEndpoint(url).retries++;
+    }
+
+    private Endpoint getEndpoint(String url) {
+        String name = getEndpointName(url);
+        Endpoint endpoint = endpoints.get(name);
+        if(endpoint == null) {
+            endpoint = new Endpoint(name);
+            endpoints.put(name, endpoint);
+        }
+        return endpoint;
+    }
+
+    /**
+     * @return method named by the <code>method</code> parameter, if any,
+     * or else the path of the url
+     */
+    static String getEndpointName(String url) {
+        int query = url.indexOf('?');
+        if(query != -1) {
+            int method = url.indexOf("?method=", query);
+            if(method == -1)
+                method = url.indexOf("&method=", query);
+            if(method != -1) {
+                int end = url.indexOf('&', method + 1);
+                return url.substring(method + 8, end == -1 ? url.length() : end);
+            }
+        }
+
+        String path = query == -1 ? url : url.substring(0, query);
+        int scheme = path.indexOf("://");
+        if(scheme != -1) {
+            int slash = path.indexOf('/', scheme + 3);
+            path = slash == -1 ? "" : path.substring(slash + 1);
+        }
+        return path;
+    }
+
+    // --- output
+
+    /**
+     * @return metrics as a JSON object
+     */
+    public synchronized JSONObject toJSON() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("started", started);
+        result.put("elapsed_ms", (System.nanoTime() - startNanos) / 1000000L);
+        result.put("success", successful);
+
+        JSONObject phaseTimes = new JSONObject();
+        for(Map.Entry<String, Long> phase : phases.entrySet())
+            phaseTimes.put(phase.getKey(), phase.getValue());
+        result.put("phases_ms", phaseTimes);
+
+        JSONObject taskCounts = new JSONObject();
+        for(Map.Entry<String, Integer> count : tasks.entrySet())
+            taskCounts.put(count.getKey(), count.getValue());
+        result.put("tasks", taskCounts);
+
+        int requests = 0;
+        long bytes = 0;
+        JSONObject endpointStats = new JSONObject();
+        for(Endpoint endpoint : endpoints.values()) {
+            JSONObject stats = new JSONObject();
+            stats.put("requests", endpoint.requests);
+            stats.put("bytes", endpoint.bytes);
+            stats.put("retries", endpoint.retries);
+            stats.put("p50_ms", endpoint.latency.getPercentile(0.5));
+            stats.put("p90_ms", endpoint.latency.getPercentile(0.9));
+            stats.put("max_ms", endpoint.latency.getMax());
+            endpointStats.put(endpoint.name, stats);
+            requests += endpoint.requests;
+            bytes += endpoint.bytes;
+        }
+        result.put("endpoints", endpointStats);
+        result.put("requests", requests);
+        result.put("bytes", bytes);
+        result.put("retries", retries);
+        return result;
+    }
+
+    /**
+     * Stop timing and add these metrics to the history of the given
+     * provider, dropping the oldest run if there are too many
+     *
+     * @param identifier sync provider identifier
+     */
+    public void save(String identifier) {
+        endPhase();
+        try {
+            JSONArray history = getHistory(identifier);
+            JSONArray updated = new JSONArray();
+            updated.put(toJSON());
+            for(int i = 0; i < history.length() && i < HISTORY_SIZE - 1; i++)
+                updated.put(history.get(i));
+            Preferences.setString(identifier + PREF_HISTORY, updated.toString());
+        } catch (JSONException e) {
+            // metrics are not worth failing a sync over
+        }
+    }
+
+    /**
+     * @param identifier sync provider identifier
+     * @return metrics of the last runs, newest first
+     */
+    public static JSONArray getHistory(String identifier) {
+        String value = Preferences.getStringValue(identifier + PREF_HISTORY);
+        if(value != null) {
+            try {
+                return new JSONArray(value);
+            } catch (JSONException e) {
+                // start over
+            }
+        }
+        return new JSONArray();
+    }
+
+    /**
+     * Delete the history of the given provider
+     */
+    public static void clearHistory(String identifier) {
+        Preferences.setString(identifier + PREF_HISTORY, null);
+    }
+
+    /**
+     * @param r resources to read labels from
+     * @param history
+     * @return short readable summary of metrics history
+     */
+    public static String summarize(Resources r, JSONArray history) {
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i < history.length(); i++) {
+            JSONObject run = history.optJSONObject(i);
+            if(run == null)
+                continue;
+            if(result.length() > 0)
+                result.append("\n\n");
+
+            result.append(DateUtilities.getDateStringWithTime(null,
+                    new Date(run.optLong("started")))).append(": ");
+            result.append(r.getString(run.optBoolean("success") ?
+                    R.string.sync_SPr_metrics_success : R.string.sync_SPr_metrics_failure));
+            result.append(", ").append(formatMillis(r, run.optLong("elapsed_ms")));
+            int requests = run.optInt("requests");
+            result.append(", ").append(r.getQuantityString(
+                    R.plurals.sync_SPr_metrics_requests, requests, requests));
+            result.append(", ").append(r.getString(R.string.sync_SPr_metrics_kilobytes,
+                    run.optLong("bytes") / 1024));
+            int retries = run.optInt("retries");
+            if(retries > 0)
+                result.append(", ").append(r.getQuantityString(
+                        R.plurals.sync_SPr_metrics_retries, retries, retries));
+
+            JSONObject phaseTimes = run.optJSONObject("phases_ms");
+            if(phaseTimes != null) {
+                for(Iterator<?> keys = phaseTimes.keys(); keys.hasNext(); ) {
+                    String phase = (String) keys.next();
+                    result.append("\n  ").append(phase).append(": ").
+                        append(formatMillis(r, phaseTimes.optLong(phase)));
+                }
+            }
+
+            JSONObject taskCounts = run.optJSONObject("tasks");
+            if(taskCounts != null && taskCounts.length() > 0) {
+                result.append("\n  ").append(r.getString(R.string.sync_SPr_metrics_tasks));
+                for(Iterator<?> keys = taskCounts.keys(); keys.hasNext(); ) {
+                    String kind = (String) keys.next();
+                    result.append(' ').append(kind).append(' ').
+                        append(taskCounts.optInt(kind));
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    private static String formatMillis(Resources r, long millis) {
+        return r.getString(R.string.sync_SPr_metrics_seconds, millis / 1000.0);
+    }
+
+    /** statistics of requests to one endpoint */
+    private static class Endpoint {
+        public final String name;
+        public final Histogram latency;
+        public int requests = 0;
+        public long bytes = 0;
+        public int retries = 0;
+
+        public Endpoint(String name) {
+            this.name = name;
+            latency = new Histogram(name, "ms");
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.common;
+
+import org.json.JSONArray;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.preference.Preference;
+import android.preference.Preference.OnPreferenceClickListener;
+
+import com.timsu.astrid.R;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.utility.DialogUtilities;
+
+/**
+ * Click handler for the sync statistics and export preferences shared by
+ * all synchronization providers' preference screens.
+ */
+public class SyncMetricsPreference implements OnPreferenceClickListener {
+
+    @Autowired
+    private DialogUtilities dialogUtilities;
+
+    private final Activity activity;
+    private final String identifier;
+    private final boolean export;
+
+    private SyncMetricsPreference(Activity activity, String identifier, boolean export) {
+        DependencyInjectionService.getInstance().inject(this);
+        this.activity = activity;
+        this.identifier = identifier;
+        this.export = export;
+    }
+
+    /**
+     * Set up the given preference if it is the sync statistics or export
+     * preference
+     *
+     * @param activity preference screen
+     * @param preference
+     * @param identifier sync provider whose metrics to display
+     * @return true if the preference was one of these
+     */
+    public static boolean bind(Activity activity, Preference preference, String identifier) {
+        Resources r = activity.getResources();
+        boolean export;
+        if(r.getString(R.string.sync_SPr_metrics_key).equals(preference.getKey()))
+            export = false;
+        else if(r.getString(R.string.sync_SPr_export_key).equals(preference.getKey()))
+            export = true;
+        else
+            return false;
+        preference.setOnPreferenceClickListener(new SyncMetricsPreference(activity,
+                identifier, export));
+        return true;
+    }
+
+    public boolean onPreferenceClick(Preference preference) {
+        Resources r = activity.getResources();
+        JSONArray history = SyncMetrics.getHistory(identifier);
+        if(history.length() == 0) {
+            dialogUtilities.okDialog(activity,
+                    r.getString(R.string.sync_SPr_metrics_empty), null);
+        } else if(export) {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType("text/plain"); //$NON-NLS-1$
+            intent.putExtra(Intent.EXTRA_SUBJECT, r.getString(R.string.sync_SPr_metrics));
+            intent.putExtra(Intent.EXTRA_TEXT, history.toString());
+            activity.startActivity(Intent.createChooser(intent,
+                    r.getString(R.string.sync_SPr_export)));
+        } else {
+            dialogUtilities.okDialog(activity, SyncMetrics.summarize(r, history), null);
+        }
+        return true;
+    }
+
+}
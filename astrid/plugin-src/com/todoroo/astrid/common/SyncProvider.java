@@ -8,6 +8,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Activity;
 import android.app.Notification;
@@ -113,12 +120,12 @@ public abstract class SyncProvider<TYPE extends TaskContainer> {
     abstract protected void write(TYPE task) throws IOException;
 
     /**
-     * Finds a task in the list with the same remote identifier(s) as
-     * the task passed in
+     * Returns the remote identifier(s) of a task as a single key. Local
+     * and remote tasks with the same key are the same task
      *
-     * @return task from list if matches, null otherwise
+     * @return key, or null if the task has no remote identifiers
      */
-    abstract protected int matchTask(ArrayList<TYPE> tasks, TYPE target);
+    abstract protected String getRemoteKey(TYPE task);
 
     /**
      * Transfer remote identifier(s) from one task to another
@@ -126,6 +133,19 @@ public abstract class SyncProvider<TYPE extends TaskContainer> {
     abstract protected void transferIdentifiers(TYPE source,
             TYPE destination);
 
+    /**
+     * Number of requests for local changes that may be in flight at once.
+     * With more than one, local tasks are read and written on the sync
+     * thread while {@link #create}, {@link #push} and {@link #pull} run on
+     * a pool of this size, so those methods must be thread-safe. Services
+     * with a rate limit should keep this at a level they can sustain.
+     *
+     * @return maximum concurrent requests. 1 sends changes one at a time
+     */
+    protected int getMaxConcurrentRequests() {
+        return 1;
+    }
+
     // --- implementation
 
     @Autowired
@@ -133,6 +153,9 @@ public abstract class SyncProvider<TYPE extends TaskContainer> {
 
     private final Notification notification;
 
+    /** timings and counters of the current synchronization */
+    protected SyncMetrics metrics = new SyncMetrics();
+
     public SyncProvider() {
         DependencyInjectionService.getInstance().inject(this);
 
@@ -144,6 +167,8 @@ public abstract class SyncProvider<TYPE extends TaskContainer> {
     }
 
     public void synchronize(final Context context) {
+        metrics = new SyncMetrics();
+
         // display toast
         if(context instanceof Activity) {
             ((Activity) context).runOnUiThread(new Runnable() {
@@ -197,80 +222,106 @@ public abstract class SyncProvider<TYPE extends TaskContainer> {
     protected void synchronizeTasks(SyncData<TYPE> data) throws IOException {
         int length;
 
-        // create internal data structures
-        HashMap<String, Integer> remoteNewTaskNameMap = new HashMap<String, Integer>();
+        // create internal data structures: remote tasks by remote key, and
+        // remote tasks not yet known locally by title, in the order received
+        HashMap<String, Integer> remoteKeyMap = new HashMap<String, Integer>();
+        HashMap<String, LinkedList<Integer>> remoteNewTaskNameMap =
+            new HashMap<String, LinkedList<Integer>>();
         length = data.remoteUpdated.size();
         for(int i = 0; i < length; i++) {
             TYPE remote = data.remoteUpdated.get(i);
+            String key = getRemoteKey(remote);
+            if(key != null && !remoteKeyMap.containsKey(key))
+                remoteKeyMap.put(key, i);
             if(remote.task.getId() != Task.NO_ID)
                 continue;
-            remoteNewTaskNameMap.put(remote.task.getValue(Task.TITLE), i);
+            String title = remote.task.getValue(Task.TITLE);
+            LinkedList<Integer> indices = remoteNewTaskNameMap.get(title);
+            if(indices == null) {
+                indices = new LinkedList<Integer>();
+                remoteNewTaskNameMap.put(title, indices);
+            }
+            indices.add(i);
         }
 
-        // 1. CREATE: grab newly created tasks and create them remotely
-        length = data.localCreated.getCount();
-        for(int i = 0; i < length; i++) {
-            data.localCreated.moveToNext();
-            TYPE local = read(data.localCreated);
-            try {
+        // 1. CREATE and 2. UPDATE: read local changes on this thread, send
+        // them across the wire in the background, and write results here
+        int concurrency = getMaxConcurrentRequests();
+        ExecutorService executor = null;
+        CompletionService<PushResult<TYPE>> completion = null;
+        if(concurrency > 1) {
+            executor = Executors.newFixedThreadPool(concurrency);
+            completion = new ExecutorCompletionService<PushResult<TYPE>>(executor);
+        }
 
-                String taskTitle = local.task.getValue(Task.TITLE);
+        try {
+            int inFlight = 0;
+
+            // grab newly created tasks and create them remotely
+            metrics.startPhase(SyncMetrics.PHASE_CREATE);
+            length = data.localCreated.getCount();
+            for(int i = 0; i < length; i++) {
+                data.localCreated.moveToNext();
+                TYPE local = read(data.localCreated);
+                metrics.countTask(SyncMetrics.TASKS_CREATED);
 
                 /* If there exists an incoming remote task with the same name and no
                  * mapping, we don't want to create this on the remote server,
                  * because user could have synchronized like this before. Instead,
                  * we create a mapping and do an update.
                  */
-                if (remoteNewTaskNameMap.containsKey(taskTitle)) {
-                    int remoteIndex = remoteNewTaskNameMap.remove(taskTitle);
-                    TYPE remote = data.remoteUpdated.get(remoteIndex);
-
-                    transferIdentifiers(remote, local);
-                    push(local, remote);
-
-                    // re-read remote task after merge, update remote task list
-                    remote = pull(remote);
-                    remote.task.setId(local.task.getId());
-                    data.remoteUpdated.set(remoteIndex, remote);
+                int remoteIndex = -1;
+                String taskTitle = local.task.getValue(Task.TITLE);
+                LinkedList<Integer> indices = remoteNewTaskNameMap.get(taskTitle);
+                if (indices != null) {
+                    remoteIndex = indices.removeFirst();
+                    if(indices.isEmpty())
+                        remoteNewTaskNameMap.remove(taskTitle);
+                }
 
-                } else {
-                    create(local);
+                PushJob job = new PushJob(data, local, remoteIndex, true);
+                if(completion == null)
+                    finishPush(data, job.call());
+                else {
+                    completion.submit(job);
+                    inFlight = drainPushes(data, completion, inFlight + 1, 2 * concurrency);
                 }
-            } catch (Exception e) {
-                handleException("sync-local-created", e, false); //$NON-NLS-1$
             }
-            write(local);
-        }
 
-        // 2. UPDATE: for each updated local task
-        length = data.localUpdated.getCount();
-        for(int i = 0; i < length; i++) {
-            data.localUpdated.moveToNext();
-            TYPE local = read(data.localUpdated);
-            try {
+            // for each updated local task
+            metrics.startPhase(SyncMetrics.PHASE_UPDATE);
+            length = data.localUpdated.getCount();
+            for(int i = 0; i < length; i++) {
+                data.localUpdated.moveToNext();
+                TYPE local = read(data.localUpdated);
                 if(local.task == null)
                     continue;
+                metrics.countTask(SyncMetrics.TASKS_UPDATED);
 
                 // if there is a conflict, merge
-                int remoteIndex = matchTask((ArrayList<TYPE>)data.remoteUpdated, local);
-                if(remoteIndex != -1) {
-                    TYPE remote = data.remoteUpdated.get(remoteIndex);
-                    push(local, remote);
-
-                    // re-read remote task after merge
-                    remote = pull(remote);
-                    remote.task.setId(local.task.getId());
-                    data.remoteUpdated.set(remoteIndex, remote);
-                } else {
-                    push(local, null);
+                int remoteIndex = -1;
+                String key = getRemoteKey(local);
+                if(key != null && remoteKeyMap.containsKey(key))
+                    remoteIndex = remoteKeyMap.get(key);
+
+                PushJob job = new PushJob(data, local, remoteIndex, false);
+                if(completion == null)
+                    finishPush(data, job.call());
+                else {
+                    completion.submit(job);
+                    inFlight = drainPushes(data, completion, inFlight + 1, 2 * concurrency);
                 }
-            } catch (Exception e) {
-                handleException("sync-local-updated", e, false); //$NON-NLS-1$
             }
-            write(local);
+
+            if(completion != null)
+                drainPushes(data, completion, inFlight, 1);
+        } finally {
+            if(executor != null)
+                executor.shutdownNow();
         }
 
         // 3. REMOTE: load remote information
+        metrics.startPhase(SyncMetrics.PHASE_REMOTE_WRITE);
 
         // Rearrange remoteTasks so completed tasks get synchronized first.
         // This prevents bugs where a repeated task has two copies come down
@@ -306,16 +357,107 @@ public abstract class SyncProvider<TYPE extends TaskContainer> {
             TYPE remote = data.remoteUpdated.get(i);
             try {
                 write(remote);
+                metrics.countTask(SyncMetrics.TASKS_WRITTEN);
             } catch (Exception e) {
                 handleException("sync-remote-updated", e, false); //$NON-NLS-1$
             }
         }
 
+        metrics.endPhase();
         Flags.set(Flags.REFRESH);
     }
 
+    /**
+     * Write the result of pushing a local task, and record the re-read
+     * remote task so it isn't merged again
+     */
+    private void finishPush(SyncData<TYPE> data, PushResult<TYPE> result) throws IOException {
+        if(result.remote != null)
+            data.remoteUpdated.set(result.remoteIndex, result.remote);
+        write(result.local);
+    }
+
+    /**
+     * Write results of finished pushes until fewer than the given number
+     * of pushes are in flight
+     *
+     * @return number of pushes still in flight
+     */
+    private int drainPushes(SyncData<TYPE> data, CompletionService<PushResult<TYPE>> completion,
+            int inFlight, int limit) throws IOException {
+        while(inFlight >= limit) {
+            try {
+                finishPush(data, completion.take().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("sync interrupted"); //$NON-NLS-1$
+            } catch (ExecutionException e) {
+                // jobs handle their own exceptions
+                throw new RuntimeException(e.getCause());
+            }
+            inFlight--;
+        }
+        return inFlight;
+    }
+
+    /**
+     * Sends one local task across the wire. Runs on the sync thread or,
+     * if the provider allows concurrent requests, in the background
+     */
+    private class PushJob implements Callable<PushResult<TYPE>> {
+        private final SyncData<TYPE> data;
+        private final TYPE local;
+        private final int remoteIndex;
+        private final boolean created;
+
+        public PushJob(SyncData<TYPE> data, TYPE local, int remoteIndex, boolean created) {
+            this.data = data;
+            this.local = local;
+            this.remoteIndex = remoteIndex;
+            this.created = created;
+        }
+
+        public PushResult<TYPE> call() {
+            TYPE remote = null;
+            try {
+                if(remoteIndex != -1) {
+                    remote = data.remoteUpdated.get(remoteIndex);
+                    if(created)
+                        transferIdentifiers(remote, local);
+                    push(local, remote);
+
+                    // re-read remote task after merge
+                    remote = pull(remote);
+                    remote.task.setId(local.task.getId());
+                } else if(created) {
+                    create(local);
+                } else {
+                    push(local, null);
+                }
+            } catch (Exception e) {
+                remote = null;
+                handleException(created ? "sync-local-created" : //$NON-NLS-1$
+                    "sync-local-updated", e, false); //$NON-NLS-1$
+            }
+            return new PushResult<TYPE>(local, remote, remoteIndex);
+        }
+    }
+
     // --- helper classes
 
+    /** local task after it was sent, and the remote task it was merged with */
+    private static class PushResult<TYPE extends TaskContainer> {
+        public final TYPE local;
+        public final TYPE remote;
+        public final int remoteIndex;
+
+        public PushResult(TYPE local, TYPE remote, int remoteIndex) {
+            this.local = local;
+            this.remote = remote;
+            this.remoteIndex = remoteIndex;
+        }
+    }
+
     /** data structure builder */
     protected static class SyncData<TYPE extends TaskContainer> {
         public final ArrayList<TYPE> remoteUpdated;
@@ -201,6 +201,10 @@ abstract public class SyncProviderPreferences extends TodorooPreferences {
             if(!loggedIn)
                 preference.setEnabled(false);
         }
+
+        // sync statistics and export
+        else
+            SyncMetricsPreference.bind(this, preference, getUtilities().getIdentifier());
     }
 
 }
\ No newline at end of file
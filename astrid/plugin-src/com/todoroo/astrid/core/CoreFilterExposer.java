@@ -7,7 +7,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.graphics.drawable.BitmapDrawable;
 
 import com.timsu.astrid.R;
 import com.todoroo.andlib.sql.Criterion;
@@ -40,13 +39,13 @@ public final class CoreFilterExposer extends BroadcastReceiver {
         Filter inbox = buildInboxFilter(r);
 
         SearchFilter searchFilter = new SearchFilter(r.getString(R.string.BFE_Search));
-        searchFilter.listingIcon = ((BitmapDrawable)r.getDrawable(R.drawable.tango_search)).getBitmap();
+        searchFilter.listingIconResource = R.drawable.tango_search;
 
         Filter recent = new Filter(r.getString(R.string.BFE_Recent),
                 r.getString(R.string.BFE_Recent),
                 new QueryTemplate().orderBy(Order.desc(Task.MODIFICATION_DATE)).limit(15),
                 null);
-        recent.listingIcon = ((BitmapDrawable)r.getDrawable(R.drawable.tango_new)).getBitmap();
+        recent.listingIconResource = R.drawable.tango_new;
 
         // transmit filter list
         FilterListItem[] list = new FilterListItem[3];
@@ -54,6 +53,7 @@ public final class CoreFilterExposer extends BroadcastReceiver {
         list[1] = recent;
         list[2] = searchFilter;
         Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_SEND_FILTERS);
+        broadcastIntent.putExtra(AstridApiConstants.EXTRAS_ADDON, CorePlugin.IDENTIFIER);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_RESPONSE, list);
         context.sendBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
     }
@@ -70,7 +70,7 @@ public final class CoreFilterExposer extends BroadcastReceiver {
                                         Criterion.and(MetadataCriteria.withKey(TagService.KEY),
                                                 TagService.TAG.like("x_%", "x"))))))), //$NON-NLS-1$ //$NON-NLS-2$
                 null);
-        inbox.listingIcon = ((BitmapDrawable)r.getDrawable(R.drawable.tango_home)).getBitmap();
+        inbox.listingIconResource = R.drawable.tango_home;
         return inbox;
     }
 
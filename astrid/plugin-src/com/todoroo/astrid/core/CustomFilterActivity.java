@@ -8,7 +8,6 @@ import android.app.ListActivity;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Bundle;
 import android.text.Editable;
@@ -23,7 +22,6 @@ import android.widget.Button;
 import android.widget.TextView;
 
 import com.timsu.astrid.R;
-import com.todoroo.andlib.data.Property.CountProperty;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.ContextManager;
 import com.todoroo.andlib.service.DependencyInjectionService;
@@ -31,6 +29,7 @@ import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Field;
 import com.todoroo.andlib.sql.Join;
 import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.SparseBitmap;
 import com.todoroo.astrid.activity.TaskListActivity;
 import com.todoroo.astrid.api.CustomFilterCriterion;
 import com.todoroo.astrid.api.Filter;
@@ -92,6 +91,9 @@ public class CustomFilterActivity extends ListActivity {
     @Autowired
     Database database;
 
+    /** computes task counts for each row */
+    private CustomFilterCounter counter;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -102,6 +104,7 @@ public class CustomFilterActivity extends ListActivity {
 
         DependencyInjectionService.getInstance().inject(this);
         database.openForReading();
+        counter = new CustomFilterCounter(database);
         populateCriteria();
 
         filterName = (TextView)findViewById(R.id.filterName);
@@ -299,7 +302,7 @@ public class CustomFilterActivity extends ListActivity {
 
     @SuppressWarnings("nls")
     void saveAndView() {
-        StringBuilder sql = new StringBuilder(" WHERE ");
+        StringBuilder where = new StringBuilder();
         StringBuilder suggestedTitle = new StringBuilder();
         ContentValues values = new ContentValues();
         for(int i = 0; i < adapter.getCount(); i++) {
@@ -314,19 +317,25 @@ public class CustomFilterActivity extends ListActivity {
             String title = instance.criterion.text.replace("?", entryTitle);
 
 
+            // rows apply in order, so wrap everything before each operator
             switch(instance.type) {
             case CriterionInstance.TYPE_ADD:
-                sql.append("OR ");
+                if(where.length() > 0)
+                    where.insert(0, '(').append(") OR ");
                 suggestedTitle.append(getString(R.string.CFA_type_add)).append(' ').
                     append(title).append(' ');
                 break;
             case CriterionInstance.TYPE_SUBTRACT:
-                sql.append("AND NOT ");
+                if(where.length() > 0)
+                    where.insert(0, '(').append(") AND NOT ");
+                else
+                    where.append("0 AND NOT ");
                 suggestedTitle.append(getString(R.string.CFA_type_subtract)).append(' ').
                     append(title).append(' ');
                 break;
             case CriterionInstance.TYPE_INTERSECT:
-                sql.append("AND ");
+                if(where.length() > 0)
+                    where.insert(0, '(').append(") AND ");
                 suggestedTitle.append(title).append(' ');
                 break;
             case CriterionInstance.TYPE_UNIVERSE:
@@ -339,10 +348,10 @@ public class CustomFilterActivity extends ListActivity {
 
             // special code for all tasks universe
             if(instance.criterion.sql == null)
-                sql.append(TaskCriteria.activeAndVisible()).append(' ');
+                where.append(TaskCriteria.activeAndVisible());
             else {
                 String subSql = instance.criterion.sql.replace("?", entryValue);
-                sql.append(Task.ID).append(" IN (").append(subSql).append(") ");
+                where.append(Task.ID).append(" IN (").append(subSql).append(")");
             }
 
             if(instance.criterion.valuesForNewTasks != null &&
@@ -354,32 +363,31 @@ public class CustomFilterActivity extends ListActivity {
             }
         }
 
+        String sql = " WHERE " + where;
         String title;
         if(filterName.getText().length() > 0) {
             // persist saved filter
             title = filterName.getText().toString().trim();
-            SavedFilter.persist(adapter, title, sql.toString(), values);
+            SavedFilter.persist(adapter, title, sql, values);
         } else {
             // temporary
             title = suggestedTitle.toString();
         }
 
         // view
-        Filter filter = new Filter(title, title, sql.toString(), values);
+        Filter filter = new Filter(title, title, sql, values);
         Intent taskListActivity = new Intent(this, TaskListActivity.class);
         taskListActivity.putExtra(TaskListActivity.TOKEN_FILTER, filter);
         startActivity(taskListActivity);
     }
 
     /**
-     * Recalculate all sizes
+     * Recalculate all sizes. Rows are applied in order, each one adding
+     * to, subtracting from, or intersecting with the rows above it
      */
-    @SuppressWarnings("nls")
     void updateList() {
         int max = 0, last = -1;
-
-        StringBuilder sql = new StringBuilder(Query.select(new CountProperty()).from(Task.TABLE).toString()).
-            append(" WHERE ");
+        SparseBitmap current = null;
 
         for(int i = 0; i < adapter.getCount(); i++) {
             CriterionInstance instance = adapter.getItem(i);
@@ -389,40 +397,26 @@ public class CustomFilterActivity extends ListActivity {
                 continue;
             }
 
+            SparseBitmap matches = counter.evaluate(getCriterionSql(instance));
             switch(instance.type) {
             case CriterionInstance.TYPE_ADD:
-                sql.append("OR ");
+                current = current == null ? matches : current.union(matches);
                 break;
             case CriterionInstance.TYPE_SUBTRACT:
-                sql.append("AND NOT ");
+                current = current == null ? new SparseBitmap() : current.difference(matches);
                 break;
             case CriterionInstance.TYPE_INTERSECT:
-                sql.append("AND ");
+                current = current == null ? matches : current.intersection(matches);
                 break;
             case CriterionInstance.TYPE_UNIVERSE:
+                current = matches;
             }
 
-            // special code for all tasks universe
-            if(instance.criterion.sql == null)
-                sql.append(TaskCriteria.activeAndVisible()).append(' ');
-            else {
-                String subSql = instance.criterion.sql.replace("?",
-                        instance.criterion.entryValues[instance.selectedIndex]);
-                subSql = PermaSql.replacePlaceholders(subSql);
-                System.err.println(subSql);
-                sql.append(Task.ID).append(" IN (").append(subSql).append(") ");
-            }
-
-            Cursor cursor = database.getDatabase().rawQuery(sql.toString(), null);
-            try {
-                cursor.moveToNext();
-                instance.start = last == -1 ? cursor.getInt(0) : last;
-                instance.end = cursor.getInt(0);
-                last = instance.end;
-                max = Math.max(max, last);
-            } finally {
-                cursor.close();
-            }
+            int count = current.cardinality();
+            instance.start = last == -1 ? count : last;
+            instance.end = count;
+            last = instance.end;
+            max = Math.max(max, last);
         }
 
         for(int i = 0; i < adapter.getCount(); i++) {
@@ -433,6 +427,21 @@ public class CustomFilterActivity extends ListActivity {
         adapter.notifyDataSetInvalidated();
     }
 
+    /**
+     * @return query selecting the ids of tasks matching the given row
+     */
+    @SuppressWarnings("nls")
+    private String getCriterionSql(CriterionInstance instance) {
+        // special code for all tasks universe
+        if(instance.criterion.sql == null)
+            return Query.select(Task.ID).from(Task.TABLE).where(
+                    TaskCriteria.activeAndVisible()).toString();
+
+        String sql = instance.criterion.sql.replace("?",
+                instance.criterion.entryValues[instance.selectedIndex]);
+        return PermaSql.replacePlaceholders(sql);
+    }
+
     @Override
     public boolean onMenuItemSelected(int featureId, MenuItem item) {
         if(item.getGroupId() == MENU_GROUP_FILTER_OPTION) {
@@ -0,0 +1,75 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.core;
+
+import java.util.HashMap;
+
+import android.database.Cursor;
+
+import com.todoroo.andlib.data.AbstractDatabase;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.utility.SparseBitmap;
+import com.todoroo.astrid.dao.Database;
+
+/**
+ * Computes task counts for {@link CustomFilterActivity}. Each criterion's
+ * query is run once and its matching task ids are kept as a
+ * {@link SparseBitmap}, so that changing one row of a filter only runs that
+ * row's query, and rows are combined in memory with set operations.
+ * <p>
+ * Cached results are thrown away whenever any table in the database is
+ * written to.
+ */
+public class CustomFilterCounter {
+
+    private final Database database;
+
+    /** task ids by criterion query, with all placeholders replaced */
+    private final HashMap<String, SparseBitmap> cache = new HashMap<String, SparseBitmap>();
+
+    /** data generation the cache was built from */
+    private long generation = -1;
+
+    public CustomFilterCounter(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * @param sql query selecting task ids, with all placeholders replaced
+     * @return ids of tasks matching the query
+     */
+    public SparseBitmap evaluate(String sql) {
+        long current = getDataGeneration();
+        if(current != generation) {
+            cache.clear();
+            generation = current;
+        }
+
+        SparseBitmap result = cache.get(sql);
+        if(result != null)
+            return result;
+
+        result = new SparseBitmap();
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                result.add(cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+        cache.put(sql, result);
+        return result;
+    }
+
+    /**
+     * @return number that changes whenever the database is written to
+     */
+    private static long getDataGeneration() {
+        long result = 0;
+        for(Table table : Database.TABLES)
+            result += AbstractDatabase.getModificationCount(table.name);
+        return result;
+    }
+
+}
@@ -10,7 +10,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.graphics.drawable.BitmapDrawable;
 import android.os.Bundle;
 
 import com.timsu.astrid.R;
@@ -36,6 +35,9 @@ import com.todoroo.astrid.model.StoreObject;
  */
 public final class CustomFilterExposer extends BroadcastReceiver {
 
+    /** add-on identifier sent with saved filters */
+    static final String IDENTIFIER = "custom"; //$NON-NLS-1$
+
     private static final String TOKEN_FILTER_ID = "id"; //$NON-NLS-1$
     private static final String TOKEN_FILTER_NAME = "name"; //$NON-NLS-1$
 
@@ -47,7 +49,7 @@ public final class CustomFilterExposer extends BroadcastReceiver {
                 new Intent(context, CustomFilterActivity.class), 0);
         IntentFilter customFilter = new IntentFilter(r.getString(R.string.BFE_Custom),
                 customFilterIntent);
-        customFilter.listingIcon = ((BitmapDrawable)r.getDrawable(R.drawable.gnome_filter)).getBitmap();
+        customFilter.listingIconResource = R.drawable.gnome_filter;
 
         Filter[] savedFilters = buildSavedFilters(context);
 
@@ -63,6 +65,7 @@ public final class CustomFilterExposer extends BroadcastReceiver {
 
         // transmit filter list
         Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_SEND_FILTERS);
+        broadcastIntent.putExtra(AstridApiConstants.EXTRAS_ADDON, IDENTIFIER);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_RESPONSE, list);
         context.sendBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
     }
@@ -52,6 +52,7 @@ public class IntentFilter extends FilterListItem {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeParcelable(intent, 0);
         super.writeToParcel(dest, flags);
+        writeIconReference(dest);
     }
 
     /**
@@ -66,6 +67,7 @@ public class IntentFilter extends FilterListItem {
             IntentFilter item = new IntentFilter((PendingIntent) source.readParcelable(
                     PendingIntent.class.getClassLoader()));
             item.readFromParcel(source);
+            item.readIconReference(source);
             return item;
         }
 
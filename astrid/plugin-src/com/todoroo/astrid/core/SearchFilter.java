@@ -45,6 +45,7 @@ public class SearchFilter extends FilterListItem {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
+        writeIconReference(dest);
     }
 
     /**
@@ -58,6 +59,7 @@ public class SearchFilter extends FilterListItem {
         public SearchFilter createFromParcel(Parcel source) {
             SearchFilter item = new SearchFilter();
             item.readFromParcel(source);
+            item.readIconReference(source);
             return item;
         }
 
@@ -81,14 +81,18 @@ public class ProducteevFilterExposer extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         // if we aren't logged in, don't expose features
-        if(!ProducteevUtilities.INSTANCE.isLoggedIn())
+        if(!ProducteevUtilities.INSTANCE.isLoggedIn()) {
+            sendFilters(context, new FilterListItem[0]);
             return;
+        }
 
         StoreObject[] dashboards = ProducteevDataService.getInstance().getDashboards();
 
         // If user does not have any dashboards, don't show this section at all
-        if(dashboards.length == 0)
+        if(dashboards.length == 0) {
+            sendFilters(context, new FilterListItem[0]);
             return;
+        }
 
         FilterListHeader producteevHeader = new FilterListHeader(context.getString(R.string.producteev_FEx_header));
 
@@ -113,6 +117,11 @@ public class ProducteevFilterExposer extends BroadcastReceiver {
         list[0] = producteevHeader;
         list[1] = producteevDashboards;
         list[2] = producteevUsers;
+        sendFilters(context, list);
+    }
+
+    /** transmit filter list. an empty list removes this section */
+    private void sendFilters(Context context, FilterListItem[] list) {
         Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_SEND_FILTERS);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_ADDON, ProducteevUtilities.IDENTIFIER);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_RESPONSE, list);
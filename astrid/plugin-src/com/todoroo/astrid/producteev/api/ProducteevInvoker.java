@@ -1,6 +1,8 @@
 package com.todoroo.astrid.producteev.api;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.security.NoSuchAlgorithmException;
@@ -12,10 +14,19 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.service.HttpRestClient.RequestListener;
+import com.todoroo.andlib.utility.JsonStreamReader;
+
 @SuppressWarnings("nls")
 public class ProducteevInvoker {
 
-    private final String URL = "https://api.producteev.com/";
+    public static final String DEFAULT_URL = "https://api.producteev.com/";
+
+    /** url requests are sent to, ending with a slash */
+    @Autowired
+    private String producteevServerUrl;
 
     private final String apiKey;
     private final String apiSecret;
@@ -23,7 +34,7 @@ public class ProducteevInvoker {
     /** saved credentials in case we need to re-log in */
     private String retryEmail;
     private String retryPassword;
-    private String token = null;
+    private volatile String token = null;
 
     /**
      * Create new producteev service
@@ -31,6 +42,7 @@ public class ProducteevInvoker {
      * @param apiSecret
      */
     public ProducteevInvoker(String apiKey, String apiSecret) {
+        DependencyInjectionService.getInstance().inject(this);
         this.apiKey = apiKey;
         this.apiSecret = apiSecret;
     }
@@ -40,7 +52,7 @@ public class ProducteevInvoker {
     /**
      * Authenticate the given user
      */
-    public void authenticate(String email, String password) throws IOException, ApiServiceException {
+    public synchronized void authenticate(String email, String password) throws IOException, ApiServiceException {
         retryEmail = email;
         retryPassword = password;
         JSONObject response = invokeGet("users/login.json",
@@ -111,6 +123,18 @@ public class ProducteevInvoker {
                 "since", since), "dashboards");
     }
 
+    /**
+     * show list, read incrementally. See {@link #dashboardsShowList(String)}
+     *
+     * @return reader positioned inside the array of dashboards. Must be
+     * closed by the caller
+     */
+    public JsonStreamReader dashboardsShowListStream(String since) throws ApiServiceException, IOException {
+        return streamAuthenticated("dashboards", "dashboards/show_list.json",
+                "token", token,
+                "since", since);
+    }
+
     // --- tasks
 
     /**
@@ -154,6 +178,19 @@ public class ProducteevInvoker {
                 "since", since), "tasks");
     }
 
+    /**
+     * show list, read incrementally. See {@link #tasksShowList(Long, String)}
+     *
+     * @return reader positioned inside the array of tasks. Must be closed
+     * by the caller
+     */
+    public JsonStreamReader tasksShowListStream(Long idDashboard, String since) throws ApiServiceException, IOException {
+        return streamAuthenticated("tasks", "tasks/show_list.json",
+                "token", token,
+                "id_dashboard", idDashboard,
+                "since", since);
+    }
+
     /**
      * get a task
      *
@@ -418,6 +455,13 @@ public class ProducteevInvoker {
 
     private final ProducteevRestClient restClient = new ProducteevRestClient();
 
+    /**
+     * Set the listener to notify about requests made by this invoker
+     */
+    public void setRequestListener(RequestListener listener) {
+        restClient.setRequestListener(listener);
+    }
+
     /**
      * Invokes authenticated method using HTTP GET. Will retry after re-authenticating if service exception encountered
      *
@@ -437,13 +481,8 @@ public class ProducteevInvoker {
             } catch (ApiSignatureException e) {
                 // clear cookies, get new token, retry
                 for(int retry = 0; retry < 2; retry++) {
-                    String oldToken = token;
-                    restClient.reset();
-                    authenticate(retryEmail, retryPassword);
-                    for(int i = 0; i < getParameters.length; i++)
-                        if(oldToken.equals(getParameters[i])) {
-                            getParameters[i] = getToken();
-                        }
+                    restClient.retrying(request);
+                    renewToken(getParameters);
                     request = createFetchUrl(method, getParameters);
                     try {
                         response = restClient.get(request);
@@ -466,6 +505,75 @@ public class ProducteevInvoker {
         }
     }
 
+    /**
+     * Invokes authenticated method using HTTP GET and reads the response
+     * incrementally, for responses too large to hold in memory at once.
+     * Will retry once after re-authenticating if the signature is rejected.
+     *
+     * @param field
+     *          name of the array in the response to read
+     * @param method
+     *          API method to invoke
+     * @param getParameters
+     *          Name/Value pairs. Values will be URL encoded.
+     * @return reader positioned inside the array
+     */
+    private JsonStreamReader streamAuthenticated(String field, String method,
+            Object... getParameters) throws IOException, ApiServiceException {
+        try {
+            InputStream stream;
+            String request = createFetchUrl(method, getParameters);
+            try {
+                stream = restClient.getStream(request);
+            } catch (ApiSignatureException e) {
+                restClient.retrying(request);
+                renewToken(getParameters);
+                stream = restClient.getStream(createFetchUrl(method, getParameters));
+            }
+            if(stream == null)
+                throw new ApiServiceException("Empty response to " + method);
+
+            JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(stream, "UTF-8"));
+            boolean success = false;
+            try {
+                reader.beginObject();
+                for(String name; (name = reader.nextName()) != null; ) {
+                    if(field.equals(name)) {
+                        reader.beginArray();
+                        success = true;
+                        return reader;
+                    } else if("error".equals(name)) {
+                        JSONObject error = new JSONObject().put("error", reader.nextObject());
+                        throw ProducteevRestClient.createException(200, null, error.toString());
+                    } else
+                        reader.skipValue();
+                }
+                throw new ApiResponseParseException(new JSONException("No " + field + " in response"));
+            } finally {
+                if(!success)
+                    reader.close();
+            }
+        } catch (JSONException e) {
+            throw new ApiResponseParseException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Start a new session and log in again, replacing the old token in
+     * the given request parameters
+     */
+    private void renewToken(Object[] getParameters) throws IOException, ApiServiceException {
+        String oldToken = token;
+        restClient.reset();
+        authenticate(retryEmail, retryPassword);
+        for(int i = 0; i < getParameters.length; i++)
+            if(oldToken.equals(getParameters[i])) {
+                getParameters[i] = getToken();
+            }
+    }
+
     /**
      * Invokes API method using HTTP GET
      *
@@ -505,7 +613,7 @@ public class ProducteevInvoker {
             treeMap.put(getParameters[i].toString(), getParameters[i+1]);
         treeMap.put("api_key", apiKey);
 
-        StringBuilder requestBuilder = new StringBuilder(URL).append(method).append('?');
+        StringBuilder requestBuilder = new StringBuilder(producteevServerUrl).append(method).append('?');
         StringBuilder sigBuilder = new StringBuilder();
         for(Map.Entry<String, Object> entry : treeMap.entrySet()) {
             if(entry.getValue() == null)
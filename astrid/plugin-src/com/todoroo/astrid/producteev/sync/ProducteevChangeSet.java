@@ -0,0 +1,207 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.producteev.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.json.JSONObject;
+
+import com.todoroo.astrid.producteev.api.ApiServiceException;
+import com.todoroo.astrid.producteev.api.ProducteevInvoker;
+
+/**
+ * Calls needed to bring one Producteev task up to date. Changes are
+ * queued field by field; setting a field twice keeps only the last value,
+ * setting and unsetting a label cancel out and a deletion replaces
+ * everything else. {@link #send(ProducteevInvoker)} then makes the calls
+ * in a fixed order, moving the task to its dashboard first and changing
+ * its status last.
+ * <p>
+ * Every Producteev call that changes a task returns the whole task, so
+ * the response of the last call is the remote state after all changes
+ * and the task doesn't need to be read again.
+ */
+public class ProducteevChangeSet {
+
+    // --- call order
+
+    private static final int WORKSPACE = 0;
+    private static final int RESPONSIBLE = 1;
+    private static final int TITLE = 2;
+    private static final int STAR = 3;
+    private static final int DEADLINE = 4;
+    private static final int UNSET_LABEL = 5;
+    private static final int LABEL = 6;
+    private static final int STATUS = 7;
+
+    // --- implementation
+
+    private final long idTask;
+
+    private final ArrayList<Change> changes = new ArrayList<Change>();
+
+    private boolean delete = false;
+
+    public ProducteevChangeSet(long idTask) {
+        this.idTask = idTask;
+    }
+
+    public void delete() {
+        delete = true;
+        changes.clear();
+    }
+
+    public void setWorkspace(final long idDashboard) {
+        add(new Change(WORKSPACE, 0) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksSetWorkspace(idTask, idDashboard);
+            }
+        });
+    }
+
+    public void setResponsible(final long idResponsible) {
+        add(new Change(RESPONSIBLE, 0) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksSetResponsible(idTask, idResponsible);
+            }
+        });
+    }
+
+    public void setTitle(final String title) {
+        add(new Change(TITLE, 0) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksSetTitle(idTask, title);
+            }
+        });
+    }
+
+    public void setStar(final int star) {
+        add(new Change(STAR, 0) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksSetStar(idTask, star);
+            }
+        });
+    }
+
+    public void setDeadline(final String deadline) {
+        add(new Change(DEADLINE, 0) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksSetDeadline(idTask, deadline);
+            }
+        });
+    }
+
+    public void setStatus(final int status) {
+        add(new Change(STATUS, 0) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksSetStatus(idTask, status);
+            }
+        });
+    }
+
+    public void setLabel(final long idLabel) {
+        add(new Change(LABEL, idLabel) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksSetLabel(idTask, idLabel);
+            }
+        });
+    }
+
+    public void unsetLabel(final long idLabel) {
+        add(new Change(UNSET_LABEL, idLabel) {
+            @Override
+            JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+                return invoker.tasksUnsetLabel(idTask, idLabel);
+            }
+        });
+    }
+
+    /**
+     * @return number of calls {@link #send(ProducteevInvoker)} will make
+     */
+    public int size() {
+        return delete ? 1 : changes.size();
+    }
+
+    /**
+     * Make the queued calls
+     *
+     * @return task returned by the last call, or null if no call returned
+     * one (i.e. nothing changed or the task was deleted)
+     */
+    @SuppressWarnings("nls")
+    public JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException {
+        if(delete) {
+            invoker.tasksDelete(idTask);
+            return null;
+        }
+
+        Collections.sort(changes);
+        JSONObject latest = null;
+        for(Change change : changes) {
+            JSONObject response = change.send(invoker);
+            if(response != null && response.has("task"))
+                latest = response;
+        }
+        changes.clear();
+        return latest;
+    }
+
+    // --- helpers
+
+    /**
+     * Queue a change, replacing an earlier one to the same field
+     */
+    private void add(Change change) {
+        if(delete)
+            return;
+        for(Iterator<Change> i = changes.iterator(); i.hasNext(); ) {
+            Change other = i.next();
+            if(other.key != change.key)
+                continue;
+            if(other.type == change.type)
+                i.remove();
+            else if(isLabel(other.type) && isLabel(change.type)) {
+                // setting and unsetting the same label cancel out
+                i.remove();
+                return;
+            }
+        }
+        changes.add(change);
+    }
+
+    private static boolean isLabel(int type) {
+        return type == LABEL || type == UNSET_LABEL;
+    }
+
+    /**
+     * A call that changes one field of the task
+     */
+    private static abstract class Change implements Comparable<Change> {
+        final int type;
+        final long key;
+
+        public Change(int type, long key) {
+            this.type = type;
+            this.key = key;
+        }
+
+        abstract JSONObject send(ProducteevInvoker invoker) throws ApiServiceException, IOException;
+
+        public int compareTo(Change other) {
+            return type - other.type;
+        }
+    }
+
+}
@@ -30,6 +30,10 @@ public class ProducteevDashboard {
     public static final StringProperty USERS = new StringProperty(StoreObject.TABLE,
             StoreObject.VALUE2.name);
 
+    /** server time labels were last read at, passed as since */
+    public static final StringProperty LABELS_SINCE = new StringProperty(StoreObject.TABLE,
+            StoreObject.VALUE3.name);
+
     // data class-part
     private final long id;
 
@@ -3,7 +3,9 @@
  */
 package com.todoroo.astrid.producteev.sync;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Random;
 
 import org.json.JSONArray;
@@ -20,15 +22,18 @@ import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Join;
 import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.JsonStreamReader;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.StoreObjectDao;
 import com.todoroo.astrid.dao.StoreObjectDao.StoreObjectCriteria;
+import com.todoroo.astrid.dao.SyncOutbox;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.model.Metadata;
 import com.todoroo.astrid.model.StoreObject;
 import com.todoroo.astrid.model.Task;
 import com.todoroo.astrid.producteev.ProducteevUtilities;
+import com.todoroo.astrid.producteev.api.ApiUtilities;
 import com.todoroo.astrid.rmilk.data.MilkNote;
 import com.todoroo.astrid.service.MetadataService;
 import com.todoroo.astrid.tags.TagService;
@@ -67,6 +72,9 @@ public final class ProducteevDataService {
 
     static final Random random = new Random();
 
+    /** true while local changes are read from the outbox */
+    private boolean outboxReady = false;
+
     private ProducteevDataService(Context context) {
         this.context = context;
         DependencyInjectionService.getInstance().inject(this);
@@ -78,9 +86,35 @@ public final class ProducteevDataService {
      * Clears metadata information. Used when user logs out of service
      */
     public void clearMetadata() {
+        SyncOutbox.getInstance().unregister(ProducteevUtilities.IDENTIFIER);
         metadataService.deleteWhere(Metadata.KEY.eq(ProducteevTask.METADATA_KEY));
         metadataService.deleteWhere(Metadata.KEY.eq(ProducteevNote.METADATA_KEY));
         storeObjectDao.deleteWhere(StoreObject.TYPE.eq(ProducteevDashboard.TYPE));
+        storeObjectDao.deleteWhere(StoreObject.TYPE.eq(ProducteevLabel.TYPE));
+    }
+
+    /**
+     * Start reading local changes from the outbox. Changes this
+     * synchronization makes on the current thread are not recorded.
+     */
+    public void beginSync() {
+        outboxReady = SyncOutbox.getInstance().begin(ProducteevUtilities.IDENTIFIER) &&
+            preferences.getLastSyncDate() != 0;
+    }
+
+    /**
+     * Remove the local changes that were sent from the outbox
+     */
+    public void acknowledgeSync() {
+        SyncOutbox.getInstance().acknowledge(ProducteevUtilities.IDENTIFIER);
+    }
+
+    /**
+     * Finish synchronization started with {@link #beginSync()}
+     */
+    public void endSync() {
+        SyncOutbox.getInstance().end(ProducteevUtilities.IDENTIFIER);
+        outboxReady = false;
     }
 
     /**
@@ -89,11 +123,20 @@ public final class ProducteevDataService {
      * @return
      */
     public TodorooCursor<Task> getLocallyCreated(Property<?>[] properties) {
+        Criterion synced = Criterion.and(MetadataCriteria.withKey(ProducteevTask.METADATA_KEY), ProducteevTask.ID.gt(0));
+        if(outboxReady) {
+            // only look at the metadata of tasks in the outbox
+            Query pending = SyncOutbox.getInstance().pendingTasks(ProducteevUtilities.IDENTIFIER);
+            synced = Criterion.and(Metadata.TASK.in(pending), synced);
+        }
+        Criterion created = Criterion.and(
+                Criterion.not(Task.ID.in(Query.select(Metadata.TASK).from(Metadata.TABLE).
+                        where(synced))),
+                TaskCriteria.isActive());
+        if(outboxReady)
+            created = Criterion.and(SyncOutbox.getInstance().pending(ProducteevUtilities.IDENTIFIER), created);
         return
-            taskDao.query(Query.select(properties).join(ProducteevDataService.METADATA_JOIN).where(Criterion.and(
-                    Criterion.not(Task.ID.in(Query.select(Metadata.TASK).from(Metadata.TABLE).
-                            where(Criterion.and(MetadataCriteria.withKey(ProducteevTask.METADATA_KEY), ProducteevTask.ID.gt(0))))),
-                    TaskCriteria.isActive())).groupBy(Task.ID));
+            taskDao.query(Query.select(properties).join(ProducteevDataService.METADATA_JOIN).where(created).groupBy(Task.ID));
     }
 
     /**
@@ -105,10 +148,12 @@ public final class ProducteevDataService {
         long lastSyncDate = preferences.getLastSyncDate();
         if(lastSyncDate == 0)
             return taskDao.query(Query.select(Task.ID).where(Criterion.none));
+        Criterion changed = outboxReady ? SyncOutbox.getInstance().pending(ProducteevUtilities.IDENTIFIER) :
+            Task.MODIFICATION_DATE.gt(lastSyncDate);
         return
             taskDao.query(Query.select(properties).join(ProducteevDataService.METADATA_JOIN).
                     where(Criterion.and(MetadataCriteria.withKey(ProducteevTask.METADATA_KEY),
-                            Task.MODIFICATION_DATE.gt(lastSyncDate))).groupBy(Task.ID));
+                            changed)).groupBy(Task.ID));
     }
 
     /**
@@ -235,14 +280,15 @@ public final class ProducteevDataService {
     }
 
     /**
-     * Reads dashboards
+     * Reads dashboards one at a time from a streamed response
      * @throws JSONException
+     * @throws IOException
      */
     @SuppressWarnings("nls")
-    public void updateDashboards(JSONArray changedDashboards) throws JSONException {
+    public void updateDashboards(JsonStreamReader changedDashboards) throws JSONException, IOException {
         readDashboards();
-        for(int i = 0; i < changedDashboards.length(); i++) {
-            JSONObject remote = changedDashboards.getJSONObject(i).getJSONObject("dashboard");
+        while(changedDashboards.hasNext()) {
+            JSONObject remote = changedDashboards.nextObject().getJSONObject("dashboard");
             updateDashboards(remote, false);
         }
 
@@ -288,4 +334,80 @@ public final class ProducteevDataService {
             dashboards = null;
         return local;
     }
+
+    // --- label methods
+
+    /**
+     * Reads labels saved at earlier syncs
+     * @return map of dashboard id + label title to label id
+     */
+    public HashMap<String, Long> getLabels() {
+        HashMap<String, Long> labels = new HashMap<String, Long>();
+        TodorooCursor<StoreObject> cursor = storeObjectDao.query(Query.select(StoreObject.PROPERTIES).
+                where(StoreObjectCriteria.byType(ProducteevLabel.TYPE)));
+        try {
+            StoreObject label = new StoreObject();
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                label.readFromCursor(cursor);
+                labels.put(label.getValue(ProducteevLabel.DASHBOARD_ID) +
+                        label.getValue(ProducteevLabel.TITLE),
+                        label.getValue(ProducteevLabel.REMOTE_ID));
+            }
+        } finally {
+            cursor.close();
+        }
+        return labels;
+    }
+
+    /**
+     * Saves labels read from producteev
+     * @throws JSONException
+     */
+    @SuppressWarnings("nls")
+    public void updateLabels(JSONArray changedLabels) throws JSONException {
+        for(int i = 0; i < changedLabels.length(); i++)
+            updateLabel(changedLabels.getJSONObject(i).getJSONObject("label"));
+    }
+
+    /**
+     * Saves a label read from producteev, or deletes it if it was deleted
+     * @throws JSONException
+     */
+    @SuppressWarnings("nls")
+    public void updateLabel(JSONObject remote) throws JSONException {
+        long id = remote.getLong("id_label");
+        Criterion byId = StoreObjectCriteria.byTypeAndItem(ProducteevLabel.TYPE, Long.toString(id));
+        if(remote.optInt("deleted", 0) != 0) {
+            storeObjectDao.deleteWhere(byId);
+            return;
+        }
+
+        StoreObject local = new StoreObject();
+        TodorooCursor<StoreObject> cursor = storeObjectDao.query(Query.select(StoreObject.ID).
+                where(byId));
+        try {
+            if(cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                local.setId(cursor.get(StoreObject.ID));
+            }
+        } finally {
+            cursor.close();
+        }
+        local.setValue(StoreObject.TYPE, ProducteevLabel.TYPE);
+        local.setValue(ProducteevLabel.REMOTE_ID, id);
+        local.setValue(ProducteevLabel.DASHBOARD_ID, remote.getLong("id_dashboard"));
+        local.setValue(ProducteevLabel.TITLE, ApiUtilities.decode(remote.getString("title")));
+        storeObjectDao.persist(local);
+    }
+
+    /**
+     * Records the server time the labels of a dashboard were read at
+     */
+    public void setLabelsSince(long dashboardId, String since) {
+        StoreObject template = new StoreObject();
+        template.setValue(ProducteevDashboard.LABELS_SINCE, since);
+        storeObjectDao.update(StoreObjectCriteria.byTypeAndItem(ProducteevDashboard.TYPE,
+                Long.toString(dashboardId)), template);
+        dashboards = null;
+    }
 }
\ No newline at end of file
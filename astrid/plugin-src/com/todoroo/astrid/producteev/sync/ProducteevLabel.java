@@ -0,0 +1,30 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.producteev.sync;
+
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.astrid.model.StoreObject;
+
+/**
+ * {@link StoreObject} entries for a Producteev Label
+ */
+public class ProducteevLabel {
+
+    /** type*/
+    public static final String TYPE = "pdv-label"; //$NON-NLS-1$
+
+    /** label id in producteev */
+    public static final LongProperty REMOTE_ID = new LongProperty(StoreObject.TABLE,
+            StoreObject.ITEM.name);
+
+    /** dashboard id in producteev */
+    public static final LongProperty DASHBOARD_ID = new LongProperty(StoreObject.TABLE,
+            StoreObject.VALUE1.name);
+
+    /** label title */
+    public static final StringProperty TITLE = new StringProperty(StoreObject.TABLE,
+            StoreObject.VALUE2.name);
+
+}
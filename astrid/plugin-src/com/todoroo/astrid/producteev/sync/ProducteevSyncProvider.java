@@ -4,9 +4,16 @@
 package com.todoroo.astrid.producteev.sync;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -30,8 +37,10 @@ import com.todoroo.andlib.service.ExceptionService;
 import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.andlib.utility.DialogUtilities;
+import com.todoroo.andlib.utility.JsonStreamReader;
 import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.api.TaskContainer;
+import com.todoroo.astrid.common.SyncMetrics;
 import com.todoroo.astrid.common.SyncProvider;
 import com.todoroo.astrid.model.Metadata;
 import com.todoroo.astrid.model.StoreObject;
@@ -52,6 +61,9 @@ import com.todoroo.astrid.utility.Preferences;
 public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer> {
 
     private static final long TASK_ID_UNSYNCED = 1L;
+
+    /** number of dashboard or task requests in flight at once */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
     private ProducteevDataService dataService = null;
     private ProducteevInvoker invoker = null;
     private final ProducteevUtilities preferences = ProducteevUtilities.INSTANCE;
@@ -59,6 +71,9 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
     /** map of producteev dashboard id + label name  to id's */
     private final HashMap<String, Long> labelMap = new HashMap<String, Long>();
 
+    /** labels being created on the server, guarded by labelMap */
+    private final HashSet<String> labelsCreating = new HashSet<String>();
+
     static {
         AstridDependencyInjector.initialize();
     }
@@ -89,6 +104,7 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
         Preferences.setStringFromInteger(R.string.producteev_PPr_defaultdash_key,
                 ProducteevUtilities.DASHBOARD_DEFAULT);
         preferences.clearLastSyncDate();
+        SyncMetrics.clearHistory(preferences.getIdentifier());
 
         dataService = ProducteevDataService.getInstance();
         dataService.clearMetadata();
@@ -149,10 +165,12 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
         FlurryAgent.onEvent("producteev-started");
 
         preferences.recordSyncStart();
+        metrics.startPhase(SyncMetrics.PHASE_AUTHENTICATE);
 
         try {
             String authToken = preferences.getToken();
             invoker = getInvoker();
+            invoker.setRequestListener(metrics);
 
             String email = Preferences.getStringValue(R.string.producteev_PPr_email);
             String password = Preferences.getStringValue(R.string.producteev_PPr_password);
@@ -199,6 +217,8 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
     // ----------------------------------------------------------------------
 
     protected void performSync() {
+        dataService.beginSync();
+        metrics.startPhase(SyncMetrics.PHASE_FETCH_REMOTE);
         try {
             // load user information
             JSONObject user = invoker.usersView(null).getJSONObject("user");
@@ -208,34 +228,18 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
             String lastServerSync = Preferences.getStringValue(ProducteevUtilities.PREF_SERVER_LAST_SYNC);
 
             // read dashboards
-            JSONArray dashboards = invoker.dashboardsShowList(null);
-            dataService.updateDashboards(dashboards);
+            JsonStreamReader dashboards = invoker.dashboardsShowListStream(null);
+            try {
+                dataService.updateDashboards(dashboards);
+            } finally {
+                dashboards.close();
+            }
 
             // read labels and tasks for each dashboard
             ArrayList<ProducteevTaskContainer> remoteTasks = new ArrayList<ProducteevTaskContainer>();
-            for(StoreObject dashboard : dataService.getDashboards()) {
-                long dashboardId = dashboard.getValue(ProducteevDashboard.REMOTE_ID);
-                JSONArray labels = invoker.labelsShowList(dashboardId, null);
-                readLabels(labels);
-
-                JSONArray tasks = invoker.tasksShowList(dashboardId, lastServerSync);
-                for(int i = 0; i < tasks.length(); i++) {
-                    ProducteevTaskContainer remote = parseRemoteTask(tasks.getJSONObject(i));
-                    boolean foundLocal = dataService.findLocalMatch(remote);
-
-                    // if creator & responsible != current user, skip / delete it
-                    if(userId != remote.pdvTask.getValue(ProducteevTask.CREATOR_ID) &&
-                            userId != remote.pdvTask.getValue(ProducteevTask.RESPONSIBLE_ID)) {
-                        if(foundLocal)
-                            remote.task.setValue(Task.DELETION_DATE, DateUtilities.now());
-                        else
-                            continue;
-                    }
-
-                    remoteTasks.add(remote);
-                }
-            }
+            readDashboards(dataService.getDashboards(), lastServerSync, userId, remoteTasks);
 
+            metrics.startPhase(SyncMetrics.PHASE_PREPARE_LOCAL);
             SyncData<ProducteevTaskContainer> syncData = populateSyncData(remoteTasks);
             try {
                 synchronizeTasks(syncData);
@@ -246,6 +250,8 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
 
             Preferences.setString(ProducteevUtilities.PREF_SERVER_LAST_SYNC, invoker.time());
             preferences.recordSuccessfulSync();
+            metrics.setSuccessful();
+            dataService.acknowledgeSync();
 
             Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_EVENT_REFRESH);
             ContextManager.getContext().sendBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
@@ -255,6 +261,9 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
         	// occurs when application was closed
         } catch (Exception e) {
             handleException("pdv-sync", e, true); //$NON-NLS-1$
+        } finally {
+            dataService.endSync();
+            metrics.save(preferences.getIdentifier());
         }
     }
 
@@ -263,6 +272,117 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
     // ------------------------------------------------------------ sync data
     // ----------------------------------------------------------------------
 
+    /**
+     * Read the labels and changed tasks of all dashboards. Up to
+     * {@link #MAX_CONCURRENT_REQUESTS} dashboards are fetched at once, and
+     * the tasks of each are matched with local tasks as soon as they
+     * arrive. Labels are kept between syncs, so only labels changed since
+     * the last time are read.
+     */
+    private void readDashboards(StoreObject[] dashboards, String lastServerSync,
+            long userId, ArrayList<ProducteevTaskContainer> remoteTasks) throws JSONException, IOException {
+        String serverTime = invoker.time();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(MAX_CONCURRENT_REQUESTS, dashboards.length)));
+        try {
+            CompletionService<DashboardData> completion =
+                new ExecutorCompletionService<DashboardData>(executor);
+            for(StoreObject dashboard : dashboards)
+                completion.submit(new DashboardFetch(dashboard.getValue(ProducteevDashboard.REMOTE_ID),
+                        dashboard.getValue(ProducteevDashboard.LABELS_SINCE), lastServerSync));
+
+            for(int i = 0; i < dashboards.length; i++) {
+                DashboardData data;
+                try {
+                    data = completion.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("sync interrupted");
+                } catch (ExecutionException e) {
+                    if(e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    if(e.getCause() instanceof JSONException)
+                        throw (JSONException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+
+                dataService.updateLabels(data.labels);
+                dataService.setLabelsSince(data.dashboardId, serverTime);
+
+                for(ProducteevTaskContainer remote : data.tasks) {
+                    boolean foundLocal = dataService.findLocalMatch(remote);
+
+                    // if creator & responsible != current user, skip / delete it
+                    if(userId != remote.pdvTask.getValue(ProducteevTask.CREATOR_ID) &&
+                            userId != remote.pdvTask.getValue(ProducteevTask.RESPONSIBLE_ID)) {
+                        if(foundLocal)
+                            remote.task.setValue(Task.DELETION_DATE, DateUtilities.now());
+                        else
+                            continue;
+                    }
+
+                    remoteTasks.add(remote);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        synchronized(labelMap) {
+            labelMap.clear();
+            labelMap.putAll(dataService.getLabels());
+        }
+    }
+
+    /**
+     * Reads the labels and changed tasks of one dashboard
+     */
+    private class DashboardFetch implements Callable<DashboardData> {
+        private final long dashboardId;
+        private final String labelsSince;
+        private final String since;
+
+        public DashboardFetch(long dashboardId, String labelsSince, String since) {
+            this.dashboardId = dashboardId;
+            this.labelsSince = labelsSince;
+            this.since = since;
+        }
+
+        public DashboardData call() throws IOException, JSONException {
+            JSONArray labels = invoker.labelsShowList(dashboardId, labelsSince);
+
+            // tasks are parsed as they arrive, and only their trimmed
+            // snapshot is kept, so one task's JSON is in memory at a time
+            ArrayList<ProducteevTaskContainer> remoteTasks =
+                new ArrayList<ProducteevTaskContainer>();
+            JsonStreamReader tasks = invoker.tasksShowListStream(dashboardId, since);
+            try {
+                while(tasks.hasNext()) {
+                    ProducteevTaskContainer remote = parseRemoteTask(tasks.nextObject());
+                    remote.remoteState = null;
+                    remoteTasks.add(remote);
+                }
+            } finally {
+                tasks.close();
+            }
+            return new DashboardData(dashboardId, labels, remoteTasks);
+        }
+    }
+
+    /** labels and parsed tasks of a dashboard */
+    private static class DashboardData {
+        public final long dashboardId;
+        public final JSONArray labels;
+        public final ArrayList<ProducteevTaskContainer> tasks;
+
+        public DashboardData(long dashboardId, JSONArray labels,
+                ArrayList<ProducteevTaskContainer> tasks) {
+            this.dashboardId = dashboardId;
+            this.labels = labels;
+            this.tasks = tasks;
+        }
+    }
+
     private void saveUserData(JSONObject user) throws JSONException {
         long defaultDashboard = user.getLong("default_dashboard");
         long userId = user.getLong("id_user");
@@ -376,12 +496,19 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
         return container;
     }
 
+    /**
+     * Read a remote task. If producteev already returned the task during
+     * this sync, i.e. in response to the calls sent by {@link #push}, that
+     * copy is used instead of asking the server again.
+     */
     @Override
     protected ProducteevTaskContainer pull(ProducteevTaskContainer task) throws IOException {
         if(!task.pdvTask.containsNonNullValue(ProducteevTask.ID))
             throw new ApiServiceException("Tried to read an invalid task"); //$NON-NLS-1$
 
-        JSONObject remote = invoker.tasksView(task.pdvTask.getValue(ProducteevTask.ID));
+        JSONObject remote = task.remoteState;
+        if(remote == null)
+            remote = invoker.tasksView(task.pdvTask.getValue(ProducteevTask.ID));
         try {
             return parseRemoteTask(remote);
         } catch (JSONException e) {
@@ -390,9 +517,28 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
     }
 
     /**
-     * Send changes for the given Task across the wire. If a remoteTask is
-     * supplied, we attempt to intelligently only transmit the values that
-     * have changed.
+     * Read the remote task as it was after the last sync
+     *
+     * @return null if no snapshot was saved
+     */
+    private ProducteevTaskContainer readSnapshot(ProducteevTaskContainer local) {
+        String snapshot = local.pdvTask.getValue(ProducteevTask.REMOTE_STATE);
+        if(TextUtils.isEmpty(snapshot))
+            return null;
+        try {
+            ProducteevTaskContainer remote = parseRemoteTask(new JSONObject(snapshot));
+            remote.remoteState = null;
+            return remote;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Send changes for the given Task across the wire. Each field is
+     * compared with the remote task if one is supplied, otherwise with
+     * the snapshot saved at the last sync, and only changed fields are
+     * transmitted, coalesced into a {@link ProducteevChangeSet}.
      */
     @Override
     protected void push(ProducteevTaskContainer local, ProducteevTaskContainer remote) throws IOException {
@@ -408,68 +554,90 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
         }
 
         // fetch remote task for comparison
+        if(remote == null && idTask != TASK_ID_UNSYNCED)
+            remote = readSnapshot(local);
         if(remote == null)
             remote = pull(local);
 
+        ProducteevChangeSet changes = new ProducteevChangeSet(idTask);
+
         // either delete or re-create if necessary
         if(shouldTransmit(local, Task.DELETION_DATE, remote)) {
-            if(local.task.getValue(Task.DELETION_DATE) > 0)
-                invoker.tasksDelete(idTask);
-            else {
+            if(local.task.getValue(Task.DELETION_DATE) > 0) {
+                changes.delete();
+                changes.send(invoker);
+                return;
+            } else {
                 // if we create, we transfer identifiers to old remote
                 // in case it is used by caller for other purposes
                 ProducteevTaskContainer newRemote = create(local);
                 transferIdentifiers(newRemote, remote);
-                remote = newRemote;
+                return;
             }
         }
 
-        // dashboard
+        // dashboard. labels belong to a dashboard, so all are sent again
+        boolean moved = false;
         if(remote != null && idDashboard != remote.pdvTask.getValue(ProducteevTask.DASHBOARD_ID)) {
-            invoker.tasksSetWorkspace(idTask, idDashboard);
-            remote = pull(local);
+            changes.setWorkspace(idDashboard);
+            moved = true;
         } else if(remote == null && idTask == TASK_ID_UNSYNCED) {
             // was un-synced, create remote
             remote = create(local);
+            return;
         }
 
         // responsible
         if(remote != null && idResponsible !=
                 remote.pdvTask.getValue(ProducteevTask.RESPONSIBLE_ID)) {
-            invoker.tasksSetResponsible(idTask, idResponsible);
+            changes.setResponsible(idResponsible);
         }
 
         // core properties
         if(shouldTransmit(local, Task.TITLE, remote))
-            invoker.tasksSetTitle(idTask, local.task.getValue(Task.TITLE));
+            changes.setTitle(local.task.getValue(Task.TITLE));
         if(shouldTransmit(local, Task.IMPORTANCE, remote))
-            invoker.tasksSetStar(idTask, createStars(local.task));
+            changes.setStar(createStars(local.task));
         if(shouldTransmit(local, Task.DUE_DATE, remote))
-            invoker.tasksSetDeadline(idTask, createDeadline(local.task));
+            changes.setDeadline(createDeadline(local.task));
         if(shouldTransmit(local, Task.COMPLETION_DATE, remote))
-            invoker.tasksSetStatus(idTask, local.task.isCompleted() ? 2 : 1);
-
+            changes.setStatus(local.task.isCompleted() ? 2 : 1);
 
         try {
             // tags
-            transmitTags(local, remote, idTask, idDashboard);
+            transmitTags(local, moved ? null : remote, changes, idDashboard);
+
+            // the last response is the task after all changes
+            JSONObject latest = changes.send(invoker);
+            if(latest != null) {
+                local.pdvTask.setValue(ProducteevTask.REMOTE_STATE,
+                        ProducteevTask.snapshot(latest));
+                if(remote != null)
+                    remote.remoteState = latest;
+            } else if(remote != null && remote.remoteState != null)
+                local.pdvTask.setValue(ProducteevTask.REMOTE_STATE,
+                        ProducteevTask.snapshot(remote.remoteState));
+            else if(remote != null)
+                local.pdvTask.setValue(ProducteevTask.REMOTE_STATE,
+                        remote.pdvTask.getValue(ProducteevTask.REMOTE_STATE));
 
             // notes
             if(!TextUtils.isEmpty(local.task.getValue(Task.NOTES))) {
                 String note = local.task.getValue(Task.NOTES);
                 JSONObject result = invoker.tasksNoteCreate(idTask, note);
-                local.metadata.add(ProducteevNote.create(result.getJSONObject("note")));
+                addNote(local, remote, result);
                 local.task.setValue(Task.NOTES, "");
             }
 
             // milk note => producteev note
-            if(local.findMetadata(MilkNote.METADATA_KEY) != null && (remote == null ||
+            if(local.findMetadata(MilkNote.METADATA_KEY) != null &&
+                    local.findMetadata(ProducteevNote.METADATA_KEY) == null && (remote == null ||
                     (remote.findMetadata(ProducteevNote.METADATA_KEY) == null))) {
-                for(Metadata item : local.metadata) {
+                for(Metadata item : new ArrayList<Metadata>(local.metadata)) {
                     if(MilkNote.METADATA_KEY.equals(item.getValue(Metadata.KEY))) {
                         String message = MilkNote.toTaskDetail(item);
                         JSONObject result = invoker.tasksNoteCreate(idTask, message);
-                        local.metadata.add(ProducteevNote.create(result.getJSONObject("note")));
+                        addNote(local, remote, result);
                     }
                 }
             }
@@ -479,18 +647,38 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
     }
 
     /**
-     * Transmit tags
+     * Add a note that was just created to the local task, and to the last
+     * response for the remote task so it isn't read again
+     */
+    private void addNote(ProducteevTaskContainer local, ProducteevTaskContainer remote,
+            JSONObject result) throws JSONException {
+        JSONObject note = result.getJSONObject("note");
+        local.metadata.add(ProducteevNote.create(note));
+        if(remote == null || remote.remoteState == null)
+            return;
+        JSONObject remoteTask = remote.remoteState;
+        if(remoteTask.has("task"))
+            remoteTask = remoteTask.getJSONObject("task");
+        JSONArray notes = remoteTask.optJSONArray("notes");
+        if(notes != null)
+            notes.put(new JSONObject().put("note", note));
+        else
+            remote.remoteState = null;
+    }
+
+    /**
+     * Queue label changes
      *
      * @param local
-     * @param remote
-     * @param idTask
+     * @param remote remote task, or null to set all local labels
+     * @param changes
      * @param idDashboard
      * @throws ApiServiceException
      * @throws JSONException
      * @throws IOException
      */
     private void transmitTags(ProducteevTaskContainer local,
-            ProducteevTaskContainer remote, long idTask, long idDashboard) throws ApiServiceException, JSONException, IOException {
+            ProducteevTaskContainer remote, ProducteevChangeSet changes, long idDashboard) throws ApiServiceException, JSONException, IOException {
         HashSet<String> localTags = new HashSet<String>();
         HashSet<String> remoteTags = new HashSet<String>();
         for(Metadata item : local.metadata)
@@ -509,28 +697,61 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
             toRemove.removeAll(localTags);
 
             if(toAdd.size() > 0) {
-                for(String label : toAdd) {
-                    String pdvLabel = idDashboard + label;
-                    if(!labelMap.containsKey(pdvLabel)) {
-                        JSONObject result = invoker.labelsCreate(idDashboard, label).getJSONObject("label");
-                        long id = putLabelIntoCache(result);
-                        invoker.tasksSetLabel(idTask, id);
-                    } else
-                        invoker.tasksSetLabel(idTask, labelMap.get(pdvLabel));
-                }
+                for(String label : toAdd)
+                    changes.setLabel(getOrCreateLabel(idDashboard, label));
             }
 
             if(toRemove.size() > 0) {
                 for(String label : toRemove) {
-                    String pdvLabel = idDashboard + label;
-                    if(!labelMap.containsKey(pdvLabel))
+                    Long idLabel;
+                    synchronized(labelMap) {
+                        idLabel = labelMap.get(idDashboard + label);
+                    }
+                    if(idLabel == null)
                         continue;
-                    invoker.tasksUnsetLabel(idTask, labelMap.get(pdvLabel));
+                    changes.unsetLabel(idLabel);
                 }
             }
         }
     }
 
+    /**
+     * Get the id of a label, creating it on the server if it doesn't exist.
+     * Tasks are pushed concurrently, so only one push creates a new label
+     * while others wanting it wait. The request is made without holding
+     * the lock on the label map.
+     */
+    private long getOrCreateLabel(long idDashboard, String label) throws ApiServiceException,
+            JSONException, IOException {
+        String pdvLabel = idDashboard + label;
+        synchronized(labelMap) {
+            try {
+                while(labelsCreating.contains(pdvLabel))
+                    labelMap.wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            Long idLabel = labelMap.get(pdvLabel);
+            if(idLabel != null)
+                return idLabel;
+            labelsCreating.add(pdvLabel);
+        }
+
+        try {
+            JSONObject result = invoker.labelsCreate(idDashboard, label).getJSONObject("label");
+            long idLabel = putLabelIntoCache(result);
+            synchronized(labelMap) {
+                labelMap.put(pdvLabel, idLabel);
+            }
+            return idLabel;
+        } finally {
+            synchronized(labelMap) {
+                labelsCreating.remove(pdvLabel);
+                labelMap.notifyAll();
+            }
+        }
+    }
+
     // ----------------------------------------------------------------------
     // --------------------------------------------------------- read / write
     // ----------------------------------------------------------------------
@@ -550,14 +771,13 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
     // ----------------------------------------------------------------------
 
     @Override
-    protected int matchTask(ArrayList<ProducteevTaskContainer> tasks, ProducteevTaskContainer target) {
-        int length = tasks.size();
-        for(int i = 0; i < length; i++) {
-            ProducteevTaskContainer task = tasks.get(i);
-            if(AndroidUtilities.equals(task.pdvTask, target.pdvTask))
-                return i;
-        }
-        return -1;
+    protected String getRemoteKey(ProducteevTaskContainer task) {
+        if(!task.pdvTask.containsNonNullValue(ProducteevTask.ID))
+            return null;
+        long id = task.pdvTask.getValue(ProducteevTask.ID);
+        if(id == 0 || id == TASK_ID_UNSYNCED)
+            return null;
+        return Long.toString(id);
     }
 
     /**
@@ -632,26 +852,17 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
         return ;
     }
 
+    @Override
+    protected int getMaxConcurrentRequests() {
+        return MAX_CONCURRENT_REQUESTS;
+    }
+
     @Override
     protected void transferIdentifiers(ProducteevTaskContainer source,
             ProducteevTaskContainer destination) {
         destination.pdvTask = source.pdvTask;
     }
 
-    /**
-     * Read labels into label map
-     * @param dashboardId
-     * @throws JSONException
-     * @throws ApiServiceException
-     * @throws IOException
-     */
-    private void readLabels(JSONArray labels) throws JSONException, ApiServiceException, IOException {
-        for(int i = 0; i < labels.length(); i++) {
-            JSONObject label = labels.getJSONObject(i).getJSONObject("label");
-            putLabelIntoCache(label);
-        }
-    }
-
     /**
      * Puts a single label into the cache
      * @param dashboardId
@@ -662,7 +873,9 @@ public class ProducteevSyncProvider extends SyncProvider<ProducteevTaskContainer
             throws JSONException {
         String name = ApiUtilities.decode(label.getString("title"));
         long dashboard = label.getLong("id_dashboard");
-        labelMap.put(dashboard + name, label.getLong("id_label"));
+        synchronized(labelMap) {
+            labelMap.put(dashboard + name, label.getLong("id_label"));
+        }
         return label.getLong("id_label");
     }
 
@@ -1,6 +1,11 @@
 package com.todoroo.astrid.producteev.sync;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
 import com.todoroo.astrid.model.Metadata;
 import com.todoroo.astrid.producteev.ProducteevUtilities;
 import com.todoroo.astrid.utility.Preferences;
@@ -31,6 +36,16 @@ public class ProducteevTask {
     public static final LongProperty RESPONSIBLE_ID = new LongProperty(Metadata.TABLE,
             Metadata.VALUE4.name);
 
+    /** task as last returned by producteev, see {@link #snapshot(JSONObject)} */
+    public static final StringProperty REMOTE_STATE = new StringProperty(Metadata.TABLE,
+            Metadata.VALUE5.name);
+
+    /** fields of a remote task kept in the snapshot */
+    @SuppressWarnings("nls")
+    private static final String[] SNAPSHOT_FIELDS = new String[] { "id_task",
+        "id_dashboard", "id_responsible", "id_creator", "title", "time_created",
+        "status", "deleted", "deadline", "star" };
+
     public static Metadata newMetadata() {
         Metadata metadata = new Metadata();
         metadata.setValue(Metadata.KEY, ProducteevTask.METADATA_KEY);
@@ -41,4 +56,42 @@ public class ProducteevTask {
         return metadata;
     }
 
+    /**
+     * Reduce a task returned by producteev to the fields that are compared
+     * when pushing local changes. Notes and deleted labels are left out.
+     *
+     * @param remoteTask
+     * @return snapshot for {@link #REMOTE_STATE}, or null if the task
+     * couldn't be read
+     */
+    @SuppressWarnings("nls")
+    public static String snapshot(JSONObject remoteTask) {
+        try {
+            if(remoteTask.has("task"))
+                remoteTask = remoteTask.getJSONObject("task");
+
+            JSONObject result = new JSONObject();
+            for(String field : SNAPSHOT_FIELDS)
+                if(remoteTask.has(field))
+                    result.put(field, remoteTask.get(field));
+
+            JSONArray labels = new JSONArray();
+            JSONArray remoteLabels = remoteTask.optJSONArray("labels");
+            for(int i = 0; remoteLabels != null && i < remoteLabels.length(); i++) {
+                JSONObject label = remoteLabels.getJSONObject(i).getJSONObject("label");
+                if(label.getInt("deleted") != 0)
+                    continue;
+                JSONObject item = new JSONObject();
+                item.put("title", label.getString("title"));
+                item.put("deleted", 0);
+                labels.put(new JSONObject().put("label", item));
+            }
+            result.put("labels", labels);
+            result.put("notes", new JSONArray());
+            return result.toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
 }
@@ -19,6 +19,13 @@ public class ProducteevTaskContainer extends TaskContainer {
 
     public Metadata pdvTask;
 
+    /**
+     * task as last returned by producteev in response to a request about
+     * this task during this sync, or null. Tasks read from task lists only
+     * keep the snapshot in {@link ProducteevTask#REMOTE_STATE}
+     */
+    public JSONObject remoteState = null;
+
     public ProducteevTaskContainer(Task task, ArrayList<Metadata> metadata, Metadata pdvTask) {
         this.task = task;
         this.metadata = metadata;
@@ -36,6 +43,8 @@ public class ProducteevTaskContainer extends TaskContainer {
         pdvTask.setValue(ProducteevTask.DASHBOARD_ID, remoteTask.optLong("id_dashboard"));
         pdvTask.setValue(ProducteevTask.RESPONSIBLE_ID, remoteTask.optLong("id_responsible"));
         pdvTask.setValue(ProducteevTask.CREATOR_ID, remoteTask.optLong("id_creator"));
+        pdvTask.setValue(ProducteevTask.REMOTE_STATE, ProducteevTask.snapshot(remoteTask));
+        this.remoteState = remoteTask;
     }
 
     public ProducteevTaskContainer(Task task, ArrayList<Metadata> metadata) {
@@ -1,6 +1,12 @@
 package com.todoroo.astrid.reminders;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import android.app.Notification;
 import android.app.PendingIntent;
@@ -14,13 +20,19 @@ import android.net.Uri;
 import android.util.Log;
 
 import com.timsu.astrid.R;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.ContextManager;
 import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.andlib.service.ExceptionService;
 import com.todoroo.andlib.service.NotificationManager;
 import com.todoroo.andlib.service.NotificationManager.AndroidNotificationManager;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.sql.QueryTemplate;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.activity.TaskListActivity;
+import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.model.Task;
 import com.todoroo.astrid.service.AstridDependencyInjector;
@@ -37,6 +49,23 @@ public class Notifications extends BroadcastReceiver {
     /** notification type extra */
     public static final String TYPE_KEY = "type"; //$NON-NLS-1$
 
+    /** more reminders than this at once are shown as one summary */
+    static final int SUMMARY_THRESHOLD = 3;
+
+    /** notification id of the summary notification */
+    static final int SUMMARY_NOTIFICATION_ID = -1;
+
+    /** properties read for showing a reminder */
+    private static final Property<?>[] PROPERTIES;
+
+    static {
+        ArrayList<Property<?>> properties = new ArrayList<Property<?>>(
+                Arrays.asList(ReminderService.PROPERTIES));
+        properties.add(Task.TITLE);
+        properties.add(Task.HIDE_UNTIL);
+        PROPERTIES = properties.toArray(new Property<?>[properties.size()]);
+    }
+
     /** preference values */
     public static final int ICON_SET_PINK = 0;
     public static final int ICON_SET_BORING = 1;
@@ -52,6 +81,9 @@ public class Notifications extends BroadcastReceiver {
 
     public static NotificationManager notificationManager = null;
 
+    /** tasks in the summary notification that are still outstanding */
+    private static final HashSet<Long> summaryTasks = new HashSet<Long>();
+
     // --- alarm handling
 
     static {
@@ -67,9 +99,32 @@ public class Notifications extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         ContextManager.setContext(context);
 
+        if(ReminderQueue.ACTION_WAKEUP.equals(intent.getAction())) {
+            ReminderQueue queue = ReminderQueue.getInstance();
+            queue.disarm();
+            showReminders(queue.removeDue(DateUtilities.now()));
+            queue.arm();
+            return;
+        }
+
         long id = intent.getLongExtra(ID_KEY, 0);
         int type = intent.getIntExtra(TYPE_KEY, (byte) 0);
 
+        initializeNotificationManager(context);
+        if(!showTaskNotification(id, type, getReminderText(context, type))) {
+            notificationManager.cancel((int)id);
+        }
+    }
+
+    private static void initializeNotificationManager(Context context) {
+        synchronized(Notifications.class) {
+            if(notificationManager == null)
+                notificationManager = new AndroidNotificationManager(context);
+        }
+    }
+
+    /** @return reminder text for the given reminder type */
+    private static String getReminderText(Context context, int type) {
         Resources r = context.getResources();
         String reminder;
 
@@ -84,15 +139,73 @@ public class Notifications extends BroadcastReceiver {
                 reminder = getRandomReminder(r.getStringArray(R.array.reminders));
         } else
             reminder = ""; //$NON-NLS-1$
+        return reminder;
+    }
 
-        synchronized(Notifications.class) {
-            if(notificationManager == null)
-                notificationManager = new AndroidNotificationManager(context);
-        }
+    /**
+     * Show reminders that fired together. Their tasks are read in one
+     * query, and if there are more than {@link #SUMMARY_THRESHOLD} of them
+     * a single summary notification is shown instead of one per task.
+     */
+    public void showReminders(List<ReminderQueue.Entry> entries) {
+        if(entries.isEmpty())
+            return;
+        Context context = ContextManager.getContext();
+        initializeNotificationManager(context);
+
+        // one reminder per task, the earliest
+        LinkedHashMap<Long, Integer> types = new LinkedHashMap<Long, Integer>();
+        for(ReminderQueue.Entry entry : entries)
+            if(!types.containsKey(entry.taskId))
+                types.put(entry.taskId, entry.type);
+
+        long now = DateUtilities.now();
+        ArrayList<Task> shown = new ArrayList<Task>();
+        HashSet<Long> found = new HashSet<Long>();
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(PROPERTIES).where(
+                Task.ID.in(types.keySet().toArray(new Long[types.size()]))));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                Task task = new Task(cursor);
+                found.add(task.getId());
+
+                boolean done = task.isCompleted() || task.isDeleted();
+                if(!done && (!task.isHidden() || types.get(task.getId()) != ReminderService.TYPE_RANDOM)) {
+                    task.setValue(Task.REMINDER_LAST, now);
+                    shown.add(task);
+                }
 
-        if(!showTaskNotification(id, type, reminder)) {
-            notificationManager.cancel((int)id);
+                // schedule next notification, counting from this one
+                ReminderService.getInstance().scheduleAlarm(task);
+
+                if(done)
+                    notificationManager.cancel((int)task.getId());
+            }
+        } finally {
+            cursor.close();
         }
+
+        for(long id : types.keySet())
+            if(!found.contains(id))
+                notificationManager.cancel((int)id);
+        if(shown.isEmpty())
+            return;
+
+        // update last reminder times
+        Long[] ids = new Long[shown.size()];
+        for(int i = 0; i < ids.length; i++)
+            ids[i] = shown.get(i).getId();
+        Task template = new Task();
+        template.setValue(Task.REMINDER_LAST, now);
+        taskDao.update(Task.ID.in(ids), template);
+
+        if(shown.size() <= SUMMARY_THRESHOLD) {
+            for(Task task : shown) {
+                int type = types.get(task.getId());
+                notifyTask(task, type, getReminderText(context, type));
+            }
+        } else
+            showSummaryNotification(shown, types);
     }
 
     // --- notification creation
@@ -111,8 +224,7 @@ public class Notifications extends BroadcastReceiver {
     public boolean showTaskNotification(long id, int type, String reminder) {
         Task task;
         try {
-            task = taskDao.fetch(id, Task.TITLE, Task.HIDE_UNTIL, Task.COMPLETION_DATE,
-                    Task.DELETION_DATE, Task.REMINDER_FLAGS);
+            task = taskDao.fetch(id, PROPERTIES);
             if(task == null)
                 throw new IllegalArgumentException("cound not find item with id"); //$NON-NLS-1$
 
@@ -132,24 +244,66 @@ public class Notifications extends BroadcastReceiver {
         if(task.isHidden() && type == ReminderService.TYPE_RANDOM)
             return true;
 
-        // read properties
-        String taskTitle = task.getValue(Task.TITLE);
-        boolean nonstopMode = task.getFlag(Task.REMINDER_FLAGS, Task.NOTIFY_NONSTOP);
-
         // update last reminder time
         task.setValue(Task.REMINDER_LAST, DateUtilities.now());
         taskDao.saveExisting(task);
 
+        notifyTask(task, type, reminder);
+        return true;
+    }
+
+    /**
+     * Show the notification for a single task
+     */
+    private void notifyTask(Task task, int type, String reminder) {
+        String taskTitle = task.getValue(Task.TITLE);
+        boolean nonstopMode = task.getFlag(Task.REMINDER_FLAGS, Task.NOTIFY_NONSTOP);
+
         Context context = ContextManager.getContext();
         String title = context.getString(R.string.app_name);
         String text = reminder + " " + taskTitle; //$NON-NLS-1$
 
         Intent notifyIntent = new Intent(context, NotificationActivity.class);
-        notifyIntent.putExtra(NotificationActivity.TOKEN_ID, id);
+        notifyIntent.putExtra(NotificationActivity.TOKEN_ID, task.getId());
         notifyIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
 
-        showNotification((int)id, notifyIntent, type, title, text, nonstopMode);
-        return true;
+        showNotification((int)task.getId(), notifyIntent, type, title, text, nonstopMode);
+    }
+
+    /**
+     * Show one notification for many tasks, which opens a list of them
+     */
+    private void showSummaryNotification(List<Task> tasks, Map<Long, Integer> types) {
+        Context context = ContextManager.getContext();
+        String title = context.getString(R.string.rmd_NoA_summary, tasks.size());
+
+        StringBuilder text = new StringBuilder();
+        Long[] ids = new Long[tasks.size()];
+        boolean nonstopMode = false;
+        int type = ReminderService.TYPE_RANDOM;
+        for(int i = 0; i < ids.length; i++) {
+            Task task = tasks.get(i);
+            ids[i] = task.getId();
+            if(text.length() > 0)
+                text.append(", "); //$NON-NLS-1$
+            text.append(task.getValue(Task.TITLE));
+            nonstopMode |= task.getFlag(Task.REMINDER_FLAGS, Task.NOTIFY_NONSTOP);
+            if(types.get(task.getId()) != ReminderService.TYPE_RANDOM)
+                type = types.get(task.getId());
+        }
+
+        Filter filter = new Filter(title, title,
+                new QueryTemplate().where(Task.ID.in(ids)), null);
+        Intent notifyIntent = new Intent(context, TaskListActivity.class);
+        notifyIntent.putExtra(TaskListActivity.TOKEN_FILTER, filter);
+        notifyIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+
+        synchronized(summaryTasks) {
+            summaryTasks.clear();
+            summaryTasks.addAll(Arrays.asList(ids));
+        }
+        showNotification(SUMMARY_NOTIFICATION_ID, notifyIntent, type, title,
+                text.toString(), nonstopMode);
     }
 
     /**
@@ -266,10 +420,11 @@ public class Notifications extends BroadcastReceiver {
     }
 
     /**
-     * Schedules alarms for a single task
+     * Cancels notifications for a single task that was completed or
+     * deleted. The summary notification is cancelled once every task it
+     * lists is gone.
      *
-     * @param shouldPerformPropertyCheck
-     *            whether to check if task has requisite properties
+     * @param taskId
      */
     public static void cancelNotifications(long taskId) {
         if(notificationManager == null)
@@ -280,6 +435,10 @@ public class Notifications extends BroadcastReceiver {
             }
 
         notificationManager.cancel((int)taskId);
+        synchronized(summaryTasks) {
+            if(summaryTasks.remove(taskId) && summaryTasks.isEmpty())
+                notificationManager.cancel(SUMMARY_NOTIFICATION_ID);
+        }
     }
 
     // --- notification manager
@@ -0,0 +1,281 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.reminders;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.todoroo.andlib.data.GenericDao;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.ContextManager;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.model.ScheduledAlarm;
+import com.todoroo.astrid.utility.Preferences;
+
+/**
+ * Queue of upcoming reminders and alarms. Fire times are kept in the
+ * {@link ScheduledAlarm} table, and the earliest of them in an in-memory
+ * heap. Only one wakeup is ever registered with the {@link AlarmManager},
+ * {@link #COALESCE_WINDOW} after the earliest time in the queue;
+ * {@link Notifications} shows whatever is due when it fires and the queue
+ * re-arms itself for the next time.
+ */
+public class ReminderQueue {
+
+    /** intent action of the wakeup alarm */
+    public static final String ACTION_WAKEUP = "com.todoroo.astrid.REMINDER_WAKEUP"; //$NON-NLS-1$
+
+    /** preference set once the queue has been filled from all tasks */
+    private static final String PREF_BUILT = "reminder-queue-built"; //$NON-NLS-1$
+
+    /** number of upcoming alarms loaded into memory at a time */
+    private static final int HEAP_SIZE = 64;
+
+    /**
+     * the wakeup fires this long after the earliest alarm, so alarms due
+     * shortly after it are shown together instead of waking up again
+     */
+    static final long COALESCE_WINDOW = 60 * 1000L;
+
+    // --- singleton
+
+    private static ReminderQueue instance = null;
+
+    public static synchronized ReminderQueue getInstance() {
+        if(instance == null)
+            instance = new ReminderQueue(HEAP_SIZE);
+        return instance;
+    }
+
+    // --- implementation
+
+    /**
+     * An alarm in the queue
+     */
+    public static final class Entry implements Comparable<Entry> {
+        final long id;
+        public final long taskId;
+        public final int type;
+        public final long time;
+
+        Entry(long id, long taskId, int type, long time) {
+            this.id = id;
+            this.taskId = taskId;
+            this.type = type;
+            this.time = time;
+        }
+
+        public int compareTo(Entry other) {
+            return time < other.time ? -1 : (time == other.time ? 0 : 1);
+        }
+    }
+
+    @Autowired
+    private Database database;
+
+    private final GenericDao<ScheduledAlarm> dao;
+
+    private final int heapSize;
+
+    /** upcoming alarms, earliest first */
+    private final PriorityQueue<Entry> heap = new PriorityQueue<Entry>();
+
+    /** every alarm at or before this time is in the heap. -1 if not loaded */
+    private long horizon = -1;
+
+    /** time of the wakeup registered with the alarm manager, or 0 */
+    private long armedTime = 0;
+
+    /** true while the queue is being rebuilt. the heap isn't used */
+    private boolean rebuilding = false;
+
+    ReminderQueue(int heapSize) {
+        DependencyInjectionService.getInstance().inject(this);
+        this.heapSize = heapSize;
+        dao = new GenericDao<ScheduledAlarm>(ScheduledAlarm.class, database);
+    }
+
+    /**
+     * Replace the alarms of the given type for a task
+     *
+     * @param taskId
+     * @param type reminder type, see {@link ReminderService}
+     * @param times new fire times. Leave empty to cancel
+     */
+    public synchronized void schedule(long taskId, int type, long... times) {
+        if(!rebuilding)
+            ensureLoaded();
+
+        dao.deleteWhere(Criterion.and(ScheduledAlarm.TASK.eq(taskId),
+                ScheduledAlarm.TYPE.eq(type)));
+        for(Iterator<Entry> i = heap.iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if(entry.taskId == taskId && entry.type == type)
+                i.remove();
+        }
+
+        ScheduledAlarm alarm = new ScheduledAlarm();
+        for(long time : times) {
+            if(time <= 0 || time == Long.MAX_VALUE)
+                continue;
+            alarm.clearValue(ScheduledAlarm.ID);
+            alarm.setValue(ScheduledAlarm.TASK, taskId);
+            alarm.setValue(ScheduledAlarm.TYPE, type);
+            alarm.setValue(ScheduledAlarm.TIME, time);
+            dao.createNew(alarm);
+            if(!rebuilding && time <= horizon)
+                heap.add(new Entry(alarm.getId(), taskId, type, time));
+        }
+
+        if(!rebuilding)
+            arm();
+    }
+
+    /**
+     * Remove and return all alarms that are due
+     *
+     * @param now
+     * @return due alarms, earliest first
+     */
+    public synchronized List<Entry> removeDue(long now) {
+        ensureLoaded();
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        while(!heap.isEmpty() && heap.peek().time <= now) {
+            Entry entry = heap.poll();
+            dao.delete(entry.id);
+            result.add(entry);
+            ensureLoaded();
+        }
+        return result;
+    }
+
+    /**
+     * @return earliest alarm, or null if the queue is empty
+     */
+    public synchronized Entry peek() {
+        ensureLoaded();
+        return heap.peek();
+    }
+
+    /**
+     * Register a wakeup for the earliest alarm with the alarm manager, if
+     * it isn't already registered. The wakeup is delayed by
+     * {@link #COALESCE_WINDOW} so it never fires before an alarm is due.
+     */
+    @SuppressWarnings("nls")
+    public synchronized void arm() {
+        Entry next = peek();
+        long time = next == null ? 0 : next.time + COALESCE_WINDOW;
+        if(time == armedTime)
+            return;
+
+        Context context = ContextManager.getContext();
+        AlarmManager am = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, Notifications.class);
+        intent.setAction(ACTION_WAKEUP);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
+                intent, 0);
+        if(next == null)
+            am.cancel(pendingIntent);
+        else {
+            Log.i("Astrid", "Reminder wakeup (" + next.taskId + ", " + next.type +
+                    ") set for " + new Date(time));
+            am.set(AlarmManager.RTC_WAKEUP, time, pendingIntent);
+        }
+        armedTime = time;
+    }
+
+    /**
+     * Forget the registered wakeup, i.e. after the device restarted
+     */
+    public synchronized void disarm() {
+        armedTime = 0;
+    }
+
+    /**
+     * Remove all alarms
+     */
+    public synchronized void clear() {
+        dao.deleteWhere(Criterion.all);
+        heap.clear();
+        horizon = Long.MAX_VALUE;
+    }
+
+    /**
+     * Replace the contents of the queue with the alarms scheduled by the
+     * given job, in a single database transaction
+     */
+    public synchronized void rebuild(Runnable job) {
+        SQLiteDatabase db = database.getDatabase();
+        db.beginTransaction();
+        rebuilding = true;
+        try {
+            dao.deleteWhere(Criterion.all);
+            job.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            rebuilding = false;
+            heap.clear();
+            horizon = -1;
+        }
+        setBuilt();
+    }
+
+    /**
+     * @return true if the queue has been filled from all tasks
+     */
+    public static boolean isBuilt() {
+        return Preferences.getBoolean(PREF_BUILT, false);
+    }
+
+    /**
+     * Record that the queue has been filled from all tasks
+     */
+    public static void setBuilt() {
+        Preferences.setBoolean(PREF_BUILT, true);
+    }
+
+    /**
+     * Load the earliest alarms from the database if the heap doesn't have
+     * them
+     */
+    private void ensureLoaded() {
+        if(horizon >= 0 && (!heap.isEmpty() || horizon == Long.MAX_VALUE))
+            return;
+
+        heap.clear();
+        horizon = Long.MAX_VALUE;
+        TodorooCursor<ScheduledAlarm> cursor = dao.query(Query.select(ScheduledAlarm.PROPERTIES).
+                orderBy(Order.asc(ScheduledAlarm.TIME)).limit(heapSize));
+        try {
+            ScheduledAlarm alarm = new ScheduledAlarm();
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                alarm.readFromCursor(cursor);
+                heap.add(new Entry(alarm.getId(), alarm.getValue(ScheduledAlarm.TASK),
+                        alarm.getValue(ScheduledAlarm.TYPE), alarm.getValue(ScheduledAlarm.TIME)));
+            }
+            if(cursor.getCount() >= heapSize)
+                horizon = alarm.getValue(ScheduledAlarm.TIME);
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.todoroo.astrid.reminders;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Random;
 
 import android.app.AlarmManager;
@@ -10,7 +13,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.content.res.Resources;
-import android.util.Log;
+import android.database.sqlite.SQLiteDatabase;
 
 import com.timsu.astrid.R;
 import com.todoroo.andlib.data.Property;
@@ -21,6 +24,8 @@ import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.andlib.utility.Pair;
+import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.model.Task;
@@ -37,7 +42,8 @@ public final class ReminderService  {
 
     // --- constants
 
-    private static final Property<?>[] PROPERTIES = new Property<?>[] {
+    /** properties needed to compute a task's reminders */
+    static final Property<?>[] PROPERTIES = new Property<?>[] {
         Task.ID,
         Task.COMPLETION_DATE,
         Task.DELETION_DATE,
@@ -62,6 +68,9 @@ public final class ReminderService  {
 
     // --- instance variables
 
+    @Autowired
+    private Database database;
+
     @Autowired
     private TaskDao taskDao;
 
@@ -110,79 +119,137 @@ public final class ReminderService  {
     // --- reminder scheduling logic
 
     /**
-     * Schedules all alarms
+     * Schedules all alarms. Reminders are computed in one pass over the
+     * tasks, and the last reminder times that had to be made up are then
+     * written in one batch.
      */
     public void scheduleAllAlarms() {
+        long now = DateUtilities.now();
+        ArrayList<Long> madeUp = new ArrayList<Long>();
         TodorooCursor<Task> cursor = getTasksWithReminders(PROPERTIES);
         try {
             Task task = new Task();
             for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
                 task.readFromCursor(cursor);
-                scheduleAlarm(task, false);
+                if(task.isCompleted() || task.isDeleted())
+                    continue;
+                if(needsLastReminder(task)) {
+                    task.setValue(Task.REMINDER_LAST, now);
+                    madeUp.add(task.getId());
+                }
+                createAlarm(task, computeNextAlarm(task, now));
             }
         } catch (Exception e) {
             // suppress
         } finally {
             cursor.close();
         }
+
+        saveLastReminders(madeUp, now);
     }
 
     private static final long NO_ALARM = Long.MAX_VALUE;
 
+    /** number of tasks updated by one statement */
+    private static final int BATCH_SIZE = 500;
+
     /**
      * Schedules alarms for a single task
      * @param task
      */
     public void scheduleAlarm(Task task) {
-        scheduleAlarm(task, true);
-    }
-
-    /**
-     * Schedules alarms for a single task
-     *
-     * @param shouldPerformPropertyCheck
-     *            whether to check if task has requisite properties
-     */
-    private void scheduleAlarm(Task task, boolean shouldPerformPropertyCheck) {
         if(task == null || !task.isSaved())
             return;
 
         // read data if necessary
-        if(shouldPerformPropertyCheck) {
-            for(Property<?> property : PROPERTIES) {
-                if(!task.containsValue(property)) {
-                    task = taskDao.fetch(task.getId(), PROPERTIES);
-                    if(task == null)
-                        return;
-                    break;
-                }
+        for(Property<?> property : PROPERTIES) {
+            if(!task.containsValue(property)) {
+                task = taskDao.fetch(task.getId(), PROPERTIES);
+                if(task == null)
+                    return;
+                break;
             }
         }
 
         if(task.isCompleted() || task.isDeleted())
             return;
 
+        long now = DateUtilities.now();
+        if(needsLastReminder(task)) {
+            task.setValue(Task.REMINDER_LAST, now);
+            saveLastReminders(Collections.singletonList(task.getId()), now);
+        }
+        createAlarm(task, computeNextAlarm(task, now));
+    }
+
+    /**
+     * Compute the next reminder for a task. Nothing is read or written
+     * except the given task
+     *
+     * @param task task with all reminder {@link #PROPERTIES}
+     * @param now current time
+     * @return time and type of the next reminder, or null if none
+     */
+    Pair<Long, Integer> computeNextAlarm(Task task, long now) {
         // random reminders
         long whenRandom = calculateNextRandomReminder(task);
 
         // notifications at due date
-        long whenDueDate = calculateNextDueDateReminder(task);
+        long whenDueDate = calculateNextDueDateReminder(task, now);
 
         // notifications after due date
-        long whenOverdue = calculateNextOverdueReminder(task);
+        long whenOverdue = calculateNextOverdueReminder(task, now);
 
         // if random reminders are too close to due date, favor due date
         if(whenRandom != NO_ALARM && whenDueDate - whenRandom < DateUtilities.ONE_DAY)
             whenRandom = NO_ALARM;
 
         if(whenRandom < whenDueDate && whenRandom < whenOverdue)
-            scheduler.createAlarm(task, whenRandom, TYPE_RANDOM);
+            return Pair.create(whenRandom, TYPE_RANDOM);
         else if(whenDueDate < whenOverdue)
-            scheduler.createAlarm(task, whenDueDate, TYPE_DUE);
+            return Pair.create(whenDueDate, TYPE_DUE);
         else if(whenOverdue != NO_ALARM)
-            scheduler.createAlarm(task, whenOverdue, TYPE_OVERDUE);
-        else
+            return Pair.create(whenOverdue, TYPE_OVERDUE);
+        return null;
+    }
+
+    private void createAlarm(Task task, Pair<Long, Integer> alarm) {
+        if(alarm == null)
             scheduler.createAlarm(task, 0, 0);
+        else
+            scheduler.createAlarm(task, alarm.getLeft(), alarm.getRight());
+    }
+
+    /**
+     * @return true if the task has random reminders but no last reminder
+     * time to base them on, so one has to be made up and saved
+     */
+    private static boolean needsLastReminder(Task task) {
+        return task.getValue(Task.REMINDER_PERIOD) > 0 &&
+            task.getValue(Task.REMINDER_LAST) == 0;
+    }
+
+    /**
+     * Save the given last reminder time for the given tasks, in one
+     * transaction
+     */
+    private void saveLastReminders(List<Long> taskIds, long time) {
+        if(taskIds.isEmpty())
+            return;
+
+        Task template = new Task();
+        template.setValue(Task.REMINDER_LAST, time);
+        SQLiteDatabase db = database.getDatabase();
+        db.beginTransaction();
+        try {
+            for(int i = 0; i < taskIds.size(); i += BATCH_SIZE) {
+                List<Long> batch = taskIds.subList(i, Math.min(i + BATCH_SIZE, taskIds.size()));
+                taskDao.update(Task.ID.in(batch.toArray(new Long[batch.size()])), template);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
@@ -192,11 +259,11 @@ public final class ReminderService  {
      * @param task
      * @return
      */
-    private long calculateNextOverdueReminder(Task task) {
+    private long calculateNextOverdueReminder(Task task, long now) {
         if(task.hasDueDate() && task.getFlag(Task.REMINDER_FLAGS, Task.NOTIFY_AFTER_DEADLINE)) {
             long dueDate = task.getValue(Task.DUE_DATE);
-            if(dueDate < DateUtilities.now())
-                dueDate = DateUtilities.now();
+            if(dueDate < now)
+                dueDate = now;
             return dueDate + (long)((4 + 30 * random.nextFloat()) * DateUtilities.ONE_HOUR);
         }
         return NO_ALARM;
@@ -210,10 +277,10 @@ public final class ReminderService  {
      * @param task
      * @return
      */
-    private long calculateNextDueDateReminder(Task task) {
+    private long calculateNextDueDateReminder(Task task, long now) {
         if(task.hasDueDate() && task.getFlag(Task.REMINDER_FLAGS, Task.NOTIFY_AT_DEADLINE)) {
             long dueDate = task.getValue(Task.DUE_DATE);
-            if(dueDate < DateUtilities.now())
+            if(dueDate < now)
                 return NO_ALARM;
             else if(task.hasDueTime())
                 // return due date straight up
@@ -232,7 +299,8 @@ public final class ReminderService  {
     /**
      * Calculate the next alarm time for random reminders. We take the last
      * random reminder time and add approximately the reminder period, until
-     * we get a time that's in the future.
+     * we get a time that's in the future. The task must already have a
+     * last reminder time, see {@link #needsLastReminder(Task)}.
      *
      * @param task
      * @return
@@ -241,14 +309,6 @@ public final class ReminderService  {
         long reminderPeriod = task.getValue(Task.REMINDER_PERIOD);
         if((reminderPeriod) > 0) {
             long when = task.getValue(Task.REMINDER_LAST);
-
-            // get or make up a last notification time
-            if(when == 0) {
-                when = DateUtilities.now();
-                task.setValue(Task.REMINDER_LAST, when);
-                taskDao.saveExisting(task);
-            }
-
             when += (long)(reminderPeriod * (0.85f + 0.3f * random.nextFloat()));
             return when;
         }
@@ -284,39 +344,67 @@ public final class ReminderService  {
         return scheduler;
     }
 
+    /**
+     * Cancel the alarms that were registered with the alarm manager for
+     * each task before reminders were kept in the {@link ReminderQueue}.
+     * They still fire {@link Notifications} directly, so they would show
+     * reminders twice or at times that no longer apply.
+     */
+    @SuppressWarnings("nls")
+    public void cancelLegacyAlarms() {
+        Context context = ContextManager.getContext();
+        AlarmManager am = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.ID).
+                where(TaskCriteria.isActive()));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                long taskId = cursor.get(Task.ID);
+                for(int type = TYPE_DUE; type <= TYPE_SNOOZE; type++)
+                    cancelLegacyAlarm(context, am, Long.toString(taskId), type);
+                cancelLegacyAlarm(context, am, "ALARM" + taskId, TYPE_ALARM);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Cancel a per-task alarm, if one is registered
+     *
+     * @param dataType intent type the alarm was registered with
+     * @param type reminder type
+     */
+    private static void cancelLegacyAlarm(Context context, AlarmManager am,
+            String dataType, int type) {
+        Intent intent = new Intent(context, Notifications.class);
+        intent.setType(dataType);
+        intent.setAction(Integer.toString(type));
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
+                intent, PendingIntent.FLAG_NO_CREATE);
+        if(pendingIntent != null) {
+            am.cancel(pendingIntent);
+            pendingIntent.cancel();
+        }
+    }
+
     private static class ReminderAlarmScheduler implements AlarmScheduler {
         /**
-         * Create an alarm for the given task at the given type
+         * Put an alarm for the given task and type in the reminder queue,
+         * replacing any earlier alarm of that type
          *
          * @param task
          * @param time
          * @param type
-         * @param flags
          */
-        @SuppressWarnings("nls")
         public void createAlarm(Task task, long time, int type) {
-            Context context = ContextManager.getContext();
-            Intent intent = new Intent(context, Notifications.class);
-            intent.setType(Long.toString(task.getId()));
-            intent.setAction(Integer.toString(type));
-            intent.putExtra(Notifications.ID_KEY, task.getId());
-            intent.putExtra(Notifications.TYPE_KEY, type);
-
-            AlarmManager am = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
-            PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
-                    intent, 0);
-
             if(time == 0 || time == NO_ALARM)
-                am.cancel(pendingIntent);
+                ReminderQueue.getInstance().schedule(task.getId(), type);
             else {
                 if(time < DateUtilities.now()) {
                     time = DateUtilities.now() + (long)((0.5f +
                             4 * random.nextFloat()) * DateUtilities.ONE_HOUR);
                 }
-
-                Log.e("Astrid", "Alarm (" + task.getId() + ", " + type +
-                        ") set for " + new Date(time));
-                am.set(AlarmManager.RTC_WAKEUP, time, pendingIntent);
+                ReminderQueue.getInstance().schedule(task.getId(), type, time);
             }
         }
     }
@@ -29,15 +29,49 @@ public class ReminderStartupReceiver extends BroadcastReceiver {
     ExceptionService exceptionService;
 
     @Override
-    /** Called when the system is started up */
+    /** Called when the system is started up or the clock changes */
     public void onReceive(Context context, Intent intent) {
         ContextManager.setContext(context);
         try {
-            ReminderService.getInstance().scheduleAllAlarms();
-            AlarmService.getInstance().scheduleAllAlarms();
+            ReminderQueue.getInstance().disarm();
+            if(Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction()) ||
+                    Intent.ACTION_TIME_CHANGED.equals(intent.getAction()))
+                rebuildReminders();
+            else
+                scheduleReminders();
         } catch (Exception e) {
             DependencyInjectionService.getInstance().inject(this);
             exceptionService.reportError("reminder-startup", e); //$NON-NLS-1$
         }
     }
+
+    /**
+     * Fill the reminder queue from all tasks if that hasn't been done yet,
+     * and register the wakeup for the earliest reminder. After the queue
+     * has been filled once it is kept up to date as tasks are saved, so
+     * later calls just register the wakeup. The alarms registered per task
+     * by earlier versions are cancelled before the queue is first filled.
+     */
+    public static void scheduleReminders() {
+        if(!ReminderQueue.isBuilt()) {
+            ReminderService.getInstance().cancelLegacyAlarms();
+            rebuildReminders();
+        } else
+            ReminderQueue.getInstance().arm();
+    }
+
+    /**
+     * Recompute all reminders from the tasks, i.e. because reminder times
+     * depend on the time zone, and register the wakeup for the earliest
+     */
+    public static void rebuildReminders() {
+        ReminderQueue queue = ReminderQueue.getInstance();
+        queue.rebuild(new Runnable() {
+            public void run() {
+                ReminderService.getInstance().scheduleAllAlarms();
+                AlarmService.getInstance().scheduleAllAlarms();
+            }
+        });
+        queue.arm();
+    }
 }
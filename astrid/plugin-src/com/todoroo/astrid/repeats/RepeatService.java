@@ -0,0 +1,476 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.repeats;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.google.ical.iter.RecurrenceIterator;
+import com.google.ical.iter.RecurrenceIteratorFactory;
+import com.google.ical.values.DateTimeValueImpl;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RRule;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.ContextManager;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.service.ExceptionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.api.AstridApiConstants;
+import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.service.TaskService;
+
+/**
+ * Service for repeating tasks. Parsed recurrence rules are cached by their
+ * string, so completing many tasks with the same rule parses it once.
+ */
+public final class RepeatService {
+
+    /** properties read to repeat a task */
+    static final Property<?>[] PROPERTIES = new Property<?>[] {
+        Task.ID, Task.RECURRENCE, Task.DUE_DATE, Task.FLAGS, Task.HIDE_UNTIL
+    };
+
+    /** number of parsed rules kept */
+    private static final int CACHE_SIZE = 32;
+
+    /** number of occurrences tried before giving up on finding a future one */
+    private static final int MAX_TRIES = 10;
+
+    // --- singleton
+
+    private static RepeatService instance = null;
+
+    public static synchronized RepeatService getInstance() {
+        if(instance == null)
+            instance = new RepeatService();
+        return instance;
+    }
+
+    // --- implementation
+
+    @Autowired
+    private Database database;
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private ExceptionService exceptionService;
+
+    /** parsed rules by recurrence string, least recently used first */
+    private final LinkedHashMap<String, RRule> rules =
+        new LinkedHashMap<String, RRule>(CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RRule> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    private RepeatService() {
+        DependencyInjectionService.getInstance().inject(this);
+    }
+
+    /**
+     * Parse a recurrence rule, or return it from the cache. The "byDay"
+     * field is only used by weekly rules and is cleared from others.
+     * Returned rules are shared and must not be modified.
+     *
+     * @param recurrence iCalendar RRULE string
+     * @return parsed rule
+     * @throws ParseException
+     */
+    public RRule parseRule(String recurrence) throws ParseException {
+        synchronized(rules) {
+            RRule rrule = rules.get(recurrence);
+            if(rrule != null)
+                return rrule;
+        }
+
+        RRule rrule = new RRule(recurrence);
+        if(rrule.getFreq() != Frequency.WEEKLY)
+            rrule.setByDay(Collections.EMPTY_LIST);
+
+        synchronized(rules) {
+            rules.put(recurrence, rrule);
+        }
+        return rrule;
+    }
+
+    /**
+     * Compute the next due date of a repeating task
+     *
+     * @param task task with due date and flags
+     * @param recurrence recurrence rule
+     * @return next due date, or -1 if the task doesn't repeat again
+     * @throws ParseException
+     */
+    public long computeNextDueDate(Task task, String recurrence) throws ParseException {
+        long[] dueDates = computeNextDueDates(task, recurrence, 1);
+        return dueDates.length == 0 ? -1 : dueDates[0];
+    }
+
+    /**
+     * Compute the next due dates of a repeating task in one pass over its
+     * recurrence rule
+     *
+     * @param task task with due date and flags
+     * @param recurrence recurrence rule
+     * @param count number of occurrences wanted
+     * @return up to <code>count</code> due dates in order. Fewer are
+     * returned if the rule runs out of occurrences
+     * @throws ParseException
+     */
+    public long[] computeNextDueDates(Task task, String recurrence, int count) throws ParseException {
+        DateValue repeatFrom;
+        Date repeatFromDate = new Date();
+
+        DateValue today = new DateValueImpl(repeatFromDate.getYear() + 1900,
+                repeatFromDate.getMonth() + 1, repeatFromDate.getDate());
+        if(task.hasDueDate() && !task.getFlag(Task.FLAGS, Task.FLAG_REPEAT_AFTER_COMPLETION)) {
+            repeatFromDate = new Date(task.getValue(Task.DUE_DATE));
+            repeatFrom = toDateValue(repeatFromDate, task.hasDueTime());
+        } else {
+            repeatFrom = today;
+        }
+
+        RRule rrule = parseRule(recurrence);
+        long[] result = new long[count];
+
+        if(rrule.getFreq() == Frequency.HOURLY) {
+            long dueDate = repeatFromDate.getTime();
+            for(int i = 0; i < count; i++) {
+                dueDate += DateUtilities.ONE_HOUR * rrule.getInterval();
+                result[i] = task.createDueDate(Task.URGENCY_SPECIFIC_DAY_TIME, dueDate);
+            }
+            return result;
+        }
+
+        // invoke the recurrence iterator
+        RecurrenceIterator iterator = RecurrenceIteratorFactory.createRecurrenceIterator(rrule,
+                repeatFrom, TimeZone.getDefault());
+        if(repeatFrom.compareTo(today) < 0)
+            iterator.advanceTo(today);
+
+        // the first occurrence must be in the future. ten tries then we
+        // settle for the last one
+        int found = 0;
+        long newDueDate = -1;
+        for(int i = 0; i < MAX_TRIES; i++) {
+            if(!iterator.hasNext())
+                return new long[0];
+            DateValue nextDate = iterator.next();
+
+            if(nextDate.compareTo(repeatFrom) == 0)
+                continue;
+
+            newDueDate = toDueDate(task, nextDate, repeatFromDate);
+            if(newDueDate > DateUtilities.now() && newDueDate != repeatFromDate.getTime())
+                break;
+        }
+        if(newDueDate == -1)
+            return new long[0];
+        result[found++] = newDueDate;
+
+        // later occurrences follow from the same iterator
+        while(found < count && iterator.hasNext()) {
+            DateValue nextDate = iterator.next();
+            if(nextDate.compareTo(repeatFrom) != 0)
+                result[found++] = toDueDate(task, nextDate, repeatFromDate);
+        }
+
+        if(found == count)
+            return result;
+        long[] truncated = new long[found];
+        System.arraycopy(result, 0, truncated, 0, found);
+        return truncated;
+    }
+
+    /**
+     * Convert a date to a recurrence rule date, with or without time
+     */
+    private static DateValue toDateValue(Date date, boolean hasTime) {
+        if(hasTime)
+            return new DateTimeValueImpl(date.getYear() + 1900,
+                    date.getMonth() + 1, date.getDate(),
+                    date.getHours(), date.getMinutes(), date.getSeconds());
+        return new DateValueImpl(date.getYear() + 1900,
+                date.getMonth() + 1, date.getDate());
+    }
+
+    /**
+     * Convert an occurrence of a recurrence rule to a due date
+     */
+    private static long toDueDate(Task task, DateValue nextDate, Date repeatFromDate) {
+        if(nextDate instanceof DateTimeValueImpl) {
+            DateTimeValueImpl newDateTime = (DateTimeValueImpl)nextDate;
+            Date date = new Date(Date.UTC(newDateTime.year() - 1900, newDateTime.month() - 1,
+                    newDateTime.day(), newDateTime.hour(),
+                    newDateTime.minute(), newDateTime.second()));
+            // time may be inaccurate due to DST, force time to be same
+            date.setHours(repeatFromDate.getHours());
+            date.setMinutes(repeatFromDate.getMinutes());
+            return task.createDueDate(Task.URGENCY_SPECIFIC_DAY_TIME,
+                    date.getTime());
+        }
+        return task.createDueDate(Task.URGENCY_SPECIFIC_DAY,
+                new Date(nextDate.year() - 1900, nextDate.month() - 1,
+                        nextDate.day()).getTime());
+    }
+
+    // --- virtual occurrences
+
+    /**
+     * An occurrence of a task in a window of time. Only the next occurrence
+     * of a repeating task is stored; later ones are virtual and have no row
+     * until the task is completed and repeats.
+     */
+    public static final class Occurrence implements Comparable<Occurrence> {
+        public final long taskId;
+        public final String title;
+        public final long dueDate;
+        public final boolean virtual;
+
+        Occurrence(long taskId, String title, long dueDate, boolean virtual) {
+            this.taskId = taskId;
+            this.title = title;
+            this.dueDate = dueDate;
+            this.virtual = virtual;
+        }
+
+        public int compareTo(Occurrence other) {
+            if(dueDate != other.dueDate)
+                return dueDate < other.dueDate ? -1 : 1;
+            return taskId < other.taskId ? -1 : (taskId == other.taskId ? 0 : 1);
+        }
+    }
+
+    /** most occurrences of one task returned for a window */
+    private static final int MAX_OCCURRENCES = 400;
+
+    /** expanded windows, by rule, due date and window */
+    private final LinkedHashMap<String, long[]> expansions =
+        new LinkedHashMap<String, long[]>(CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > 4 * CACHE_SIZE;
+            }
+        };
+
+    /**
+     * Get the due dates of occurrences of a repeating task that fall in a
+     * window, following the task's current due date. The current due date
+     * itself is not included. Tasks that repeat after completion are
+     * expanded as if completed on their due date. Nothing is written.
+     *
+     * @param task task with due date, recurrence and flags
+     * @param start start of window, inclusive
+     * @param end end of window, inclusive
+     * @return due dates in order
+     * @throws ParseException
+     */
+    public long[] getOccurrences(Task task, long start, long end) throws ParseException {
+        String recurrence = task.getValue(Task.RECURRENCE);
+        long dueDate = task.getValue(Task.DUE_DATE);
+        if(recurrence == null || recurrence.length() == 0 || dueDate == 0 || end < start)
+            return new long[0];
+
+        String key = recurrence + "|" + dueDate + "|" + start + "|" + end; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        synchronized(expansions) {
+            long[] cached = expansions.get(key);
+            if(cached != null)
+                return cached;
+        }
+
+        long[] result = expand(task, parseRule(recurrence), start, end);
+        synchronized(expansions) {
+            expansions.put(key, result);
+        }
+        return result;
+    }
+
+    private long[] expand(Task task, RRule rrule, long start, long end) {
+        Date repeatFromDate = new Date(task.getValue(Task.DUE_DATE));
+        long[] result = new long[MAX_OCCURRENCES];
+        int found = 0;
+
+        if(rrule.getFreq() == Frequency.HOURLY) {
+            long step = DateUtilities.ONE_HOUR * Math.max(1, rrule.getInterval());
+            long time = repeatFromDate.getTime() + step;
+            if(time < start)
+                time += (start - time + step - 1) / step * step;
+            for(; time <= end && found < MAX_OCCURRENCES; time += step)
+                result[found++] = task.createDueDate(Task.URGENCY_SPECIFIC_DAY_TIME, time);
+        } else {
+            DateValue repeatFrom = toDateValue(repeatFromDate, task.hasDueTime());
+            RecurrenceIterator iterator = RecurrenceIteratorFactory.createRecurrenceIterator(rrule,
+                    repeatFrom, TimeZone.getDefault());
+            if(start > repeatFromDate.getTime())
+                iterator.advanceTo(toDateValue(new Date(start), false));
+
+            while(iterator.hasNext() && found < MAX_OCCURRENCES) {
+                DateValue nextDate = iterator.next();
+                if(nextDate.compareTo(repeatFrom) <= 0)
+                    continue;
+                long occurrence = toDueDate(task, nextDate, repeatFromDate);
+                if(occurrence > end)
+                    break;
+                if(occurrence >= start)
+                    result[found++] = occurrence;
+            }
+        }
+
+        long[] truncated = new long[found];
+        System.arraycopy(result, 0, truncated, 0, found);
+        return truncated;
+    }
+
+    /**
+     * Get all occurrences of active tasks due in a window, including
+     * virtual occurrences of repeating tasks, ordered by due date
+     *
+     * @param start start of window, inclusive
+     * @param end end of window, inclusive
+     * @return occurrences
+     */
+    public List<Occurrence> getUpcoming(long start, long end) {
+        ArrayList<Occurrence> result = new ArrayList<Occurrence>();
+        TodorooCursor<Task> cursor = taskService.query(Query.select(Task.ID, Task.TITLE,
+                Task.DUE_DATE, Task.RECURRENCE, Task.FLAGS).where(Criterion.and(
+                        TaskCriteria.isActive(), Task.DUE_DATE.gt(0), Task.DUE_DATE.lte(end),
+                        Criterion.or(Task.DUE_DATE.gte(start), Task.RECURRENCE.neq(""))))); //$NON-NLS-1$
+        try {
+            Task task = new Task();
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                task.readFromCursor(cursor);
+                long dueDate = task.getValue(Task.DUE_DATE);
+                String title = task.getValue(Task.TITLE);
+                if(dueDate >= start)
+                    result.add(new Occurrence(task.getId(), title, dueDate, false));
+                try {
+                    for(long occurrence : getOccurrences(task, start, end))
+                        result.add(new Occurrence(task.getId(), title, occurrence, true));
+                } catch (ParseException e) {
+                    exceptionService.reportError("repeat-parse", e); //$NON-NLS-1$
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    // --- completion
+
+    /**
+     * Create the next occurrence of each of the given completed tasks that
+     * repeat. The new tasks are created and the recurrence is cleared from
+     * the completed ones in one transaction, then a repeat event is
+     * broadcast for each task.
+     *
+     * @param taskIds completed tasks
+     * @return number of tasks repeated
+     */
+    public int repeatTasks(Long... taskIds) {
+        if(taskIds.length == 0)
+            return 0;
+
+        ArrayList<Task> tasks = new ArrayList<Task>();
+        TodorooCursor<Task> cursor = taskService.query(Query.select(PROPERTIES).where(
+                Criterion.and(Task.ID.in(taskIds), Task.RECURRENCE.neq("")))); //$NON-NLS-1$
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                tasks.add(new Task(cursor));
+        } finally {
+            cursor.close();
+        }
+        if(tasks.isEmpty())
+            return 0;
+
+        ArrayList<long[]> repeated = new ArrayList<long[]>();
+        SQLiteDatabase db = database.getDatabase();
+        db.beginTransaction();
+        try {
+            for(Task task : tasks) {
+                long newDueDate;
+                try {
+                    newDueDate = computeNextDueDate(task, task.getValue(Task.RECURRENCE));
+                } catch (ParseException e) {
+                    exceptionService.reportError("repeat-parse", e); //$NON-NLS-1$
+                    continue;
+                }
+                if(newDueDate == -1)
+                    continue;
+
+                long oldDueDate = task.getValue(Task.DUE_DATE);
+                Task clone = createNextOccurrence(task, newDueDate);
+                repeated.add(new long[] { clone.getId(), oldDueDate, newDueDate });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // send broadcasts
+        Context context = ContextManager.getContext();
+        for(long[] values : repeated) {
+            Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_EVENT_TASK_REPEATED);
+            broadcastIntent.putExtra(AstridApiConstants.EXTRAS_TASK_ID, values[0]);
+            broadcastIntent.putExtra(AstridApiConstants.EXTRAS_OLD_DUE_DATE, values[1]);
+            broadcastIntent.putExtra(AstridApiConstants.EXTRAS_NEW_DUE_DATE, values[2]);
+            context.sendOrderedBroadcast(broadcastIntent, null);
+        }
+        return repeated.size();
+    }
+
+    /**
+     * Clone a completed task with a new due date, and clear the recurrence
+     * from the completed task so it can be re-completed
+     *
+     * @return the new task
+     */
+    private Task createNextOccurrence(Task task, long newDueDate) {
+        long hideUntil = task.getValue(Task.HIDE_UNTIL);
+        if(hideUntil > 0 && task.getValue(Task.DUE_DATE) > 0) {
+            hideUntil += newDueDate - task.getValue(Task.DUE_DATE);
+        }
+
+        // clone to create new task
+        Task clone = taskService.clone(task);
+        clone.setValue(Task.DUE_DATE, newDueDate);
+        clone.setValue(Task.HIDE_UNTIL, hideUntil);
+        clone.setValue(Task.COMPLETION_DATE, 0L);
+        clone.setValue(Task.TIMER_START, 0L);
+        clone.setValue(Task.ELAPSED_SECONDS, 0);
+        taskService.save(clone);
+
+        // clear recurrence from completed task so it can be re-completed
+        task.setValue(Task.RECURRENCE, ""); //$NON-NLS-1$
+        taskService.save(task);
+        return clone;
+    }
+
+}
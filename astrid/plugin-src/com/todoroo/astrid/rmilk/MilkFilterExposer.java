@@ -54,14 +54,18 @@ public class MilkFilterExposer extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         // if we aren't logged in, don't expose features
-        if(!MilkUtilities.isLoggedIn())
+        if(!MilkUtilities.isLoggedIn()) {
+            sendFilters(context, new FilterListItem[0]);
             return;
+        }
 
         ListContainer[] lists = MilkDataService.getInstance().getListsWithCounts();
 
         // If user does not have any tags, don't show this section at all
-        if(lists.length == 0)
+        if(lists.length == 0) {
+            sendFilters(context, new FilterListItem[0]);
             return;
+        }
 
         Filter[] listFilters = new Filter[lists.length];
         for(int i = 0; i < lists.length; i++)
@@ -75,6 +79,11 @@ public class MilkFilterExposer extends BroadcastReceiver {
         FilterListItem[] list = new FilterListItem[2];
         list[0] = rtmHeader;
         list[1] = rtmLists;
+        sendFilters(context, list);
+    }
+
+    /** transmit filter list. an empty list removes this section */
+    private void sendFilters(Context context, FilterListItem[] list) {
         Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_SEND_FILTERS);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_ADDON, MilkUtilities.IDENTIFIER);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_RESPONSE, list);
@@ -19,6 +19,7 @@ import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.andlib.utility.DialogUtilities;
 import com.todoroo.andlib.widget.TodorooPreferences;
+import com.todoroo.astrid.common.SyncMetricsPreference;
 import com.todoroo.astrid.rmilk.sync.RTMSyncProvider;
 
 /**
@@ -188,6 +189,10 @@ public class MilkPreferences extends TodorooPreferences {
             if(!loggedIn)
                 preference.setEnabled(false);
         }
+
+        // sync statistics and export
+        else
+            SyncMetricsPreference.bind(this, preference, MilkUtilities.IDENTIFIER);
     }
 
 }
\ No newline at end of file
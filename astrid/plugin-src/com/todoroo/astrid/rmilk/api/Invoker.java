@@ -20,6 +20,7 @@
 package com.todoroo.astrid.rmilk.api;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
@@ -28,60 +29,68 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
 import android.util.Log;
 
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.service.HttpErrorException;
+import com.todoroo.andlib.service.HttpRestClient;
+import com.todoroo.andlib.service.HttpUnavailableException;
+import com.todoroo.andlib.utility.RateLimiter;
+import com.todoroo.astrid.rmilk.api.data.RtmData;
+
 /**
  * Handles the details of invoking a method on the RTM REST API.
+ * <p>
+ * Responses are parsed as they are read, straight into the data objects.
+ * Requests are paced by a token bucket shared by all invokers: short
+ * bursts go out at once, and the pace slows down whenever RTM reports
+ * that it is overloaded. The server url and the token bucket are
+ * dependency-injected as <code>rtmServerUrl</code> and
+ * <code>rtmRateLimiter</code>.
  *
  * @author Will Ross Jun 21, 2007
  */
 @SuppressWarnings("nls")
 public class Invoker {
 
-    private static final String SERVICE_UNAVAILABLE_CODE = "105";
+    private static final int SERVICE_UNAVAILABLE_CODE = 105;
 
     private static final String TAG = "rtm-invoker"; //$NON-NLS-1$
 
-  private static final DocumentBuilder builder;
-  static
-  {
-    // Done this way because the builder is marked "final"
-    DocumentBuilder aBuilder;
-    try
-    {
-      final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(false);
-      factory.setValidating(false);
-      aBuilder = factory.newDocumentBuilder();
-    }
-    catch (Exception exception)
-    {
-      Log.e(TAG, "Unable to construct a document builder", exception);
-      aBuilder = null;
-    }
-    builder = aBuilder;
-  }
-
   private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
 
   private static final String API_SIG_PARAM = "api_sig"; //$NON-NLS-1$
 
+  /** requests that may be made at once */
+  private static final int INVOCATION_BURST = 3;
+
+  /** millis between requests after a burst */
   private static final long INVOCATION_INTERVAL = 400;
 
-  private long lastInvocation;
+  /** longest interval to back off to when the service is overloaded */
+  private static final long MAX_INVOCATION_INTERVAL = 10000;
+
+  /** times a request is retried when the service is overloaded */
+  private static final int MAX_RETRIES = 3;
+
+  /** token bucket tuned for RTM, shared by all invokers */
+  public static final RateLimiter DEFAULT_LIMITER = new RateLimiter(INVOCATION_BURST,
+          INVOCATION_INTERVAL, MAX_INVOCATION_INTERVAL);
+
+  public static final String DEFAULT_SERVER_URL = "http://" + ServiceImpl.SERVER_HOST_NAME; //$NON-NLS-1$
+
+  @Autowired
+  private RateLimiter rtmRateLimiter;
+
+  @Autowired
+  private String rtmServerUrl;
+
+  private static XmlPullParserFactory parserFactory = null;
 
   private final ApplicationInfo applicationInfo;
 
@@ -89,18 +98,18 @@ public class Invoker {
 
   private final String serviceRelativeUri;
 
-  private final HttpClient httpClient;
+  private final HttpRestClient restClient;
 
   public Invoker(@SuppressWarnings("unused") String serverHostName,
           @SuppressWarnings("unused") int serverPortNumber,
             String serviceRelativeUri, ApplicationInfo applicationInfo)
             throws ServiceInternalException {
 
+        DependencyInjectionService.getInstance().inject(this);
         this.serviceRelativeUri = serviceRelativeUri;
 
-        httpClient = new DefaultHttpClient();
+        restClient = new HttpRestClient();
 
-        lastInvocation = System.currentTimeMillis();
         this.applicationInfo = applicationInfo;
 
         try {
@@ -133,137 +142,139 @@ public class Invoker {
         return requestUri;
     }
 
-    /** Call invoke with a false repeat */
-    public Element invoke(Param... params) throws ServiceException {
-        return invoke(false, params);
+    /**
+     * Set the listener to notify about requests made by this invoker
+     */
+    public void setRequestListener(HttpRestClient.RequestListener listener) {
+        restClient.setRequestListener(listener);
     }
 
-  public Element invoke(boolean repeat, Param... params)
+    /** Invoke a method whose response is not needed */
+    public void invoke(Param... params) throws ServiceException {
+        invoke(null, params);
+    }
+
+    /**
+     * Invoke a method and read its response. Overloaded service and HTTP
+     * errors are retried after backing off.
+     *
+     * @param reader reads the data element of the response. If null, the
+     *          response is only checked for errors
+     * @return object read, or null if no reader was given
+     */
+  public <T> T invoke(RtmData.Reader<T> reader, Param... params)
             throws ServiceException {
-        long timeSinceLastInvocation = System.currentTimeMillis() -
-            lastInvocation;
-        if (timeSinceLastInvocation < INVOCATION_INTERVAL) {
-            // In order not to invoke the RTM service too often
+        final String methodUri = rtmServerUrl + computeRequestUri(params).toString();
+
+        for (int attempt = 0; ; attempt++) {
             try {
-                Thread.sleep(INVOCATION_INTERVAL - timeSinceLastInvocation);
+                rtmRateLimiter.acquire();
             } catch (InterruptedException e) {
-                return null;
+                throw new ServiceInternalException("Interrupted", e);
             }
-        }
-
-        // We compute the URI
-        final StringBuffer requestUri = computeRequestUri(params);
-        HttpResponse response = null;
-
-        final HttpGet request = new HttpGet("http://" //$NON-NLS-1$
-            + ServiceImpl.SERVER_HOST_NAME + requestUri.toString());
-        final String methodUri = request.getRequestLine().getUri();
-
-        Element result;
-        try {
-            Log.i(TAG, "Executing the method:" + methodUri); //$NON-NLS-1$
-            response = httpClient.execute(request);
-            lastInvocation = System.currentTimeMillis();
-
-            final int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode != HttpStatus.SC_OK) {
-                Log.e(TAG, "Method failed: " + response.getStatusLine()); //$NON-NLS-1$
 
-                // Tim: HTTP error. Let's wait a little bit
-                if (!repeat) {
+            InputStream stream = null;
+            try {
+                Log.i(TAG, "Executing the method:" + methodUri); //$NON-NLS-1$
+                stream = restClient.getStream(methodUri);
+                if (stream == null)
+                    throw new ServiceInternalException("empty response returned by RTM service");
+
+                T result = readResponse(stream, reader);
+                rtmRateLimiter.success();
+                return result;
+            } catch (ServiceException e) {
+                if (e.getResponseCode() != SERVICE_UNAVAILABLE_CODE || attempt >= MAX_RETRIES)
+                    throw e;
+                Log.w(TAG, "Service unavailable, backing off"); //$NON-NLS-1$
+                restClient.retrying(methodUri);
+                rtmRateLimiter.backoff();
+            } catch (HttpUnavailableException e) {
+                if (attempt >= MAX_RETRIES)
+                    throw new ServiceInternalException("method failed: "
+                            + e.getMessage(), e);
+                Log.e(TAG, "Method failed: " + e.getMessage()); //$NON-NLS-1$
+                restClient.retrying(methodUri);
+                rtmRateLimiter.backoff();
+            } catch (HttpErrorException e) {
+                // Tim: HTTP error. Let's try again once
+                if (attempt > 0)
+                    throw new ServiceInternalException("method failed: "
+                            + e.getMessage(), e);
+                Log.e(TAG, "Method failed: " + e.getMessage()); //$NON-NLS-1$
+                restClient.retrying(methodUri);
+                rtmRateLimiter.backoff();
+            } catch (XmlPullParserException e) {
+                // repeat call if possible.
+                if (attempt > 0)
+                    throw new ServiceInternalException("Error parsing response. " +
+                            "Please try sync again!", e);
+                restClient.retrying(methodUri);
+            } catch (IOException e) {
+                throw new ServiceInternalException("Error making connection: " +
+                        e.getMessage(), e);
+            } finally {
+                if (stream != null) {
                     try {
-                        Thread.sleep(1500);
-                    } catch (InterruptedException e) {
+                        stream.close();
+                    } catch (IOException e) {
                         // ignore
                     }
-                    return invoke(true, params);
                 }
-
-                throw new ServiceInternalException("method failed: "
-                    + response.getStatusLine());
             }
+        }
+    }
 
-            final Document responseDoc = builder.parse(response.getEntity()
-                    .getContent());
-            final Element wrapperElt = responseDoc.getDocumentElement();
-            if (!wrapperElt.getNodeName().equals("rsp")) {
-                throw new ServiceInternalException(
-                        "unexpected response returned by RTM service: "
-                            + wrapperElt.getNodeName());
-            } else {
-                String stat = wrapperElt.getAttribute("stat");
-                if (stat.equals("fail")) {
-                    Node errElt = wrapperElt.getFirstChild();
-                    while (errElt != null
-                        && (errElt.getNodeType() != Node.ELEMENT_NODE || !errElt
-                                .getNodeName().equals("err"))) {
-                        errElt = errElt.getNextSibling();
-                    }
-                    if (errElt == null) {
-                        throw new ServiceInternalException(
-                                "unexpected response returned by RTM service: "
-                                    + wrapperElt.getNodeValue());
-                    } else {
-                        if (SERVICE_UNAVAILABLE_CODE.equals(((Element) errElt)
-                                        .getAttribute("code")) && !repeat) {
-                            try {
-                                Thread.sleep(1500);
-                            } catch (InterruptedException e) {
-                                // ignore
-                            }
-                            return invoke(true, params);
-                        }
-
-                        throw new ServiceException(Integer
-                                .parseInt(((Element) errElt)
-                                        .getAttribute("code")),
-                                ((Element) errElt).getAttribute("msg"));
-                    }
-                } else {
-                    Node dataElt = wrapperElt.getFirstChild();
-                    while (dataElt != null
-                        && (dataElt.getNodeType() != Node.ELEMENT_NODE || dataElt
-                                .getNodeName().equals("transaction") == true)) {
-                        try {
-                            Node nextSibling = dataElt.getNextSibling();
-                            if (nextSibling == null) {
-                                break;
-                            } else {
-                                dataElt = nextSibling;
-                            }
-                        } catch (IndexOutOfBoundsException exception) {
-                            // Some implementation may throw this exception,
-                            // instead of returning a null sibling
-                            break;
-                        }
-                    }
-                    if (dataElt == null) {
-                        throw new ServiceInternalException(
-                                "unexpected response returned by RTM service: "
-                                    + wrapperElt.getNodeValue());
-                    } else {
-                        result = (Element) dataElt;
-                    }
+    /**
+     * Check the status of a response, then read its data element
+     */
+    private <T> T readResponse(InputStream stream, RtmData.Reader<T> reader)
+            throws XmlPullParserException, IOException {
+        XmlPullParser parser = newParser();
+        parser.setInput(stream, ENCODING);
+
+        parser.nextTag();
+        if (!parser.getName().equals("rsp")) {
+            throw new ServiceInternalException(
+                    "unexpected response returned by RTM service: "
+                        + parser.getName());
+        }
+
+        if ("fail".equals(parser.getAttributeValue(null, "stat"))) {
+            while (RtmData.nextChild(parser)) {
+                if (parser.getName().equals("err")) {
+                    throw new ServiceException(Integer.parseInt(
+                            parser.getAttributeValue(null, "code")),
+                            parser.getAttributeValue(null, "msg"));
                 }
+                RtmData.skip(parser);
+            }
+            throw new ServiceInternalException(
+                    "unexpected response returned by RTM service: no error given");
+        }
+
+        while (RtmData.nextChild(parser)) {
+            if (parser.getName().equals("transaction")) {
+                RtmData.skip(parser);
+                continue;
             }
-        } catch (IOException e) {
-            throw new ServiceInternalException("Error making connection: " +
-                    e.getMessage(), e);
-        } catch (SAXException e) {
-            // repeat call if possible.
-            if(!repeat)
-                return invoke(true, params);
-            else
-                throw new ServiceInternalException("Error parsing response. " +
-                		"Please try sync again!", e);
-        } finally {
-            httpClient.getConnectionManager().closeExpiredConnections();
+            if (reader == null)
+                return null;
+            return reader.read(parser);
         }
+        if (reader == null)
+            return null;
+        throw new ServiceInternalException(
+                "unexpected response returned by RTM service: no data");
+    }
 
-        return result;
+    private synchronized static XmlPullParser newParser() throws XmlPullParserException {
+        if (parserFactory == null)
+            parserFactory = XmlPullParserFactory.newInstance();
+        return parserFactory.newPullParser();
     }
 
-    final String calcApiSig(Param... params) throws ServiceInternalException {
+    final synchronized String calcApiSig(Param... params) throws ServiceInternalException {
         try {
             digest.reset();
             digest.update(applicationInfo.getSharedSecret().getBytes(ENCODING));
@@ -19,6 +19,7 @@
  */
 package com.todoroo.astrid.rmilk.api;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -26,8 +27,10 @@ import java.util.List;
 import java.util.Set;
 import java.util.Map.Entry;
 
-import org.w3c.dom.Element;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
+import com.todoroo.andlib.service.HttpRestClient.RequestListener;
 import com.todoroo.astrid.rmilk.api.data.RtmAuth;
 import com.todoroo.astrid.rmilk.api.data.RtmData;
 import com.todoroo.astrid.rmilk.api.data.RtmFrob;
@@ -85,6 +88,14 @@ public class ServiceImpl
     }
   }
 
+  /**
+   * Set the listener to notify about requests made to RTM
+   */
+  public void setRequestListener(RequestListener listener)
+  {
+    invoker.setRequestListener(listener);
+  }
+
   public boolean isServiceAuthorized()
       throws ServiceException
   {
@@ -154,22 +165,20 @@ public class ServiceImpl
   public RtmAuth auth_checkToken(String authToken)
       throws ServiceException
   {
-    Element response = invoker.invoke(new Param("method", "rtm.auth.checkToken"), new Param("auth_token", authToken),
+    return invoker.invoke(RtmAuth.READER, new Param("method", "rtm.auth.checkToken"), new Param("auth_token", authToken),
         new Param("api_key", applicationInfo.getApiKey()));
-    return new RtmAuth(response);
   }
 
   public RtmFrob auth_getFrob()
       throws ServiceException
   {
-    return new RtmFrob(invoker.invoke(new Param("method", "rtm.auth.getFrob"), new Param("api_key", applicationInfo.getApiKey())));
+    return invoker.invoke(RtmFrob.READER, new Param("method", "rtm.auth.getFrob"), new Param("api_key", applicationInfo.getApiKey()));
   }
 
   public String auth_getToken(String frob)
       throws ServiceException
   {
-    Element response = invoker.invoke(new Param("method", "rtm.auth.getToken"), new Param("frob", frob), new Param("api_key", applicationInfo.getApiKey()));
-    return new RtmAuth(response).getToken();
+    return invoker.invoke(RtmAuth.READER, new Param("method", "rtm.auth.getToken"), new Param("frob", frob), new Param("api_key", applicationInfo.getApiKey())).getToken();
   }
 
   public void contacts_add()
@@ -215,9 +224,8 @@ public class ServiceImpl
   public RtmList lists_add(String timelineId, String listName)
       throws ServiceException
   {
-    Element response = invoker.invoke(new Param("method", "rtm.lists.add"), new Param("auth_token", currentAuthToken),
+    return invoker.invoke(RtmList.READER, new Param("method", "rtm.lists.add"), new Param("auth_token", currentAuthToken),
         new Param("api_key", applicationInfo.getApiKey()), new Param("name", listName), new Param("timeline", timelineId));
-    return new RtmList(response);
   }
 
   public void lists_archive()
@@ -235,9 +243,8 @@ public class ServiceImpl
   public RtmLists lists_getList()
       throws ServiceException
   {
-    Element response = invoker.invoke(new Param("method", "rtm.lists.getList"), new Param("auth_token", currentAuthToken),
+    return invoker.invoke(RtmLists.READER, new Param("method", "rtm.lists.getList"), new Param("auth_token", currentAuthToken),
         new Param("api_key", applicationInfo.getApiKey()));
-    return new RtmLists(response);
   }
 
   public RtmList lists_getList(String listName)
@@ -262,9 +269,8 @@ public class ServiceImpl
   public RtmList lists_setName(String timelineId, String listId, String newName)
       throws ServiceException
   {
-    Element response = invoker.invoke(new Param("method", "rtm.lists.setName"), new Param("timeline", timelineId), new Param("list_id", listId),
+    return invoker.invoke(RtmList.READER, new Param("method", "rtm.lists.setName"), new Param("timeline", timelineId), new Param("list_id", listId),
         new Param("name", newName), new Param("auth_token", currentAuthToken), new Param("api_key", applicationInfo.getApiKey()));
-    return new RtmList(response);
   }
 
   public void lists_unarchive()
@@ -298,15 +304,14 @@ public class ServiceImpl
   public RtmTaskSeries tasks_add(String timelineId, String listId, String name)
       throws ServiceException
   {
-    Element response;
+    RtmTaskList rtmTaskList;
     if(listId != null)
-        response = invoker.invoke(new Param("method", "rtm.tasks.add"), new Param("timeline", timelineId), new Param("list_id", listId),
+        rtmTaskList = invoker.invoke(RtmTaskList.READER, new Param("method", "rtm.tasks.add"), new Param("timeline", timelineId), new Param("list_id", listId),
                 new Param("name", name), new Param("auth_token", currentAuthToken), new Param("api_key", applicationInfo.getApiKey()));
     else
-        response = invoker.invoke(new Param("method", "rtm.tasks.add"), new Param("timeline", timelineId),
+        rtmTaskList = invoker.invoke(RtmTaskList.READER, new Param("method", "rtm.tasks.add"), new Param("timeline", timelineId),
                 new Param("name", name), new Param("auth_token", currentAuthToken), new Param("api_key", applicationInfo.getApiKey()));
 
-    RtmTaskList rtmTaskList = new RtmTaskList(response);
     if (rtmTaskList.getSeries().size() == 1)
     {
       return rtmTaskList.getSeries().get(0);
@@ -358,7 +363,7 @@ public class ServiceImpl
     }
     params.add(new Param("auth_token", currentAuthToken));
     params.add(new Param("api_key", applicationInfo.getApiKey()));
-    return new RtmTasks(invoker.invoke(params.toArray(new Param[params.size()])));
+    return invoker.invoke(RtmTasks.READER, params.toArray(new Param[params.size()]));
   }
 
   public RtmTaskSeries tasks_getTask(String taskName)
@@ -375,7 +380,7 @@ public class ServiceImpl
     params.add(new Param("auth_token", currentAuthToken));
     params.add(new Param("api_key", applicationInfo.getApiKey()));
     params.add(new Param("filter", "name:\"" + taskName+"\""));
-    RtmTasks rtmTasks = new RtmTasks(invoker.invoke(params.toArray(new Param[params.size()])));
+    RtmTasks rtmTasks = invoker.invoke(RtmTasks.READER, params.toArray(new Param[params.size()]));
     return findTask(taskSeriesId, rtmTasks);
   }
 
@@ -411,10 +416,9 @@ public class ServiceImpl
   {
       if(fromListId.equals(toListId))
           return null;
-    Element elt = invoker.invoke(new Param("method", "rtm.tasks.moveTo"), new Param("timeline", timelineId), new Param("from_list_id", fromListId),
+    RtmTaskList rtmTaskList = invoker.invoke(RtmTaskList.READER, new Param("method", "rtm.tasks.moveTo"), new Param("timeline", timelineId), new Param("from_list_id", fromListId),
         new Param("to_list_id", toListId), new Param("taskseries_id", taskSeriesId), new Param("task_id", taskId), new Param("auth_token", currentAuthToken),
         new Param("api_key", applicationInfo.getApiKey()));
-    RtmTaskList rtmTaskList = new RtmTaskList(elt);
     return findTask(taskSeriesId, taskId, rtmTaskList);
   }
 
@@ -522,10 +526,9 @@ public class ServiceImpl
   public RtmTaskNote tasks_notes_add(String timelineId, String listId, String taskSeriesId, String taskId, String title, String text)
       throws ServiceException
   {
-    Element elt = invoker.invoke(new Param("method", "rtm.tasks.notes.add"), new Param("timeline", timelineId), new Param("list_id", listId),
+    return invoker.invoke(RtmTaskNote.READER, new Param("method", "rtm.tasks.notes.add"), new Param("timeline", timelineId), new Param("list_id", listId),
         new Param("taskseries_id", taskSeriesId), new Param("task_id", taskId), new Param("note_title", title), new Param("note_text", text),
         new Param("auth_token", currentAuthToken), new Param("api_key", applicationInfo.getApiKey()));
-    return new RtmTaskNote(elt);
   }
 
   public void tasks_notes_delete(String timelineId, String noteId)
@@ -538,29 +541,26 @@ public class ServiceImpl
   public RtmTaskNote tasks_notes_edit(String timelineId, String noteId, String title, String text)
       throws ServiceException
   {
-    Element elt = invoker.invoke(new Param("method", "rtm.tasks.notes.edit"), new Param("timeline", timelineId), new Param("note_id", noteId),
+    return invoker.invoke(RtmTaskNote.READER, new Param("method", "rtm.tasks.notes.edit"), new Param("timeline", timelineId), new Param("note_id", noteId),
         new Param("note_title", title), new Param("note_text", text), new Param("auth_token", currentAuthToken),
         new Param("api_key", applicationInfo.getApiKey()));
-    return new RtmTaskNote(elt);
   }
 
   public RtmTaskSeries tasks_setLocation(String timelineId, String listId, String taskSeriesId, String taskId, String locationId)
       throws ServiceException
   {
-    Element response = invoker.invoke(new Param("method", "rtm.tasks.setLocation"), new Param("timeline", timelineId), new Param("list_id", listId),
+    RtmTaskList rtmTaskList = invoker.invoke(RtmTaskList.READER, new Param("method", "rtm.tasks.setLocation"), new Param("timeline", timelineId), new Param("list_id", listId),
         new Param("taskseries_id", taskSeriesId), new Param("task_id", taskId), new Param("location_id", locationId),
         new Param("auth_token", currentAuthToken), new Param("api_key", applicationInfo.getApiKey()));
-    RtmTaskList rtmTaskList = new RtmTaskList(response);
     return findTask(taskSeriesId, taskId, rtmTaskList);
   }
 
   public RtmTaskSeries tasks_setURL(String timelineId, String listId, String taskSeriesId, String taskId, String url)
       throws ServiceException
   {
-    Element response = invoker.invoke(new Param("method", "rtm.tasks.setURL"), new Param("timeline", timelineId), new Param("list_id", listId),
+    RtmTaskList rtmTaskList = invoker.invoke(RtmTaskList.READER, new Param("method", "rtm.tasks.setURL"), new Param("timeline", timelineId), new Param("list_id", listId),
         new Param("taskseries_id", taskSeriesId), new Param("task_id", taskId), new Param("url", url), new Param("auth_token", currentAuthToken),
         new Param("api_key", applicationInfo.getApiKey()));
-    RtmTaskList rtmTaskList = new RtmTaskList(response);
     return findTask(taskSeriesId, taskId, rtmTaskList);
   }
 
@@ -587,8 +587,8 @@ public class ServiceImpl
   public String timelines_create()
       throws ServiceException
   {
-    return new RtmTimeline(invoker.invoke(new Param("method", "rtm.timelines.create"), new Param("auth_token", currentAuthToken),
-        new Param("api_key", applicationInfo.getApiKey()))).getId();
+    return invoker.invoke(RtmTimeline.READER, new Param("method", "rtm.timelines.create"), new Param("auth_token", currentAuthToken),
+        new Param("api_key", applicationInfo.getApiKey())).getId();
   }
 
   public void timezones_getList()
@@ -604,14 +604,22 @@ public class ServiceImpl
   public List<RtmLocation> locations_getList()
       throws ServiceException
   {
-    Element result = invoker.invoke(new Param("method", "rtm.locations.getList"), new Param("auth_token", currentAuthToken),
-        new Param("api_key", applicationInfo.getApiKey()));
-    List<RtmLocation> locations = new ArrayList<RtmLocation>();
-    for (Element child : RtmData.children(result, "location"))
+    return invoker.invoke(new RtmData.Reader<List<RtmLocation>>()
     {
-      locations.add(new RtmLocation(child));
-    }
-    return locations;
+      public List<RtmLocation> read(XmlPullParser parser) throws XmlPullParserException, IOException
+      {
+        List<RtmLocation> locations = new ArrayList<RtmLocation>();
+        while (RtmData.nextChild(parser))
+        {
+          if ("location".equals(parser.getName()))
+            locations.add(new RtmLocation(parser));
+          else
+            RtmData.skip(parser);
+        }
+        return locations;
+      }
+    }, new Param("method", "rtm.locations.getList"), new Param("auth_token", currentAuthToken),
+        new Param("api_key", applicationInfo.getApiKey()));
   }
 
 }
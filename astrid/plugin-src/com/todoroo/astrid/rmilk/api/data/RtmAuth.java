@@ -19,7 +19,10 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
-import org.w3c.dom.Element;
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * 
@@ -44,12 +47,32 @@ public class RtmAuth extends RtmData {
     this.user = user;
   }
 
-  public RtmAuth(Element elt) {
-    if (!elt.getNodeName().equals("auth")) { throw new IllegalArgumentException("Element " + elt.getNodeName() + " does not represent an Auth object."); }
+  public static final Reader<RtmAuth> READER = new Reader<RtmAuth>() {
+    public RtmAuth read(XmlPullParser parser) throws XmlPullParserException, IOException {
+      return new RtmAuth(parser);
+    }
+  };
+
+  public RtmAuth(XmlPullParser parser) throws XmlPullParserException, IOException {
+    if (!parser.getName().equals("auth")) { throw new IllegalArgumentException("Element " + parser.getName() + " does not represent an Auth object."); }
 
-    this.token = text(child(elt, "token"));
-    this.perms = Enum.valueOf(Perms.class, text(child(elt, "perms")));
-    this.user = new RtmUser(child(elt, "user"));
+    String authToken = null;
+    Perms authPerms = null;
+    RtmUser authUser = null;
+    while (nextChild(parser)) {
+      String child = parser.getName();
+      if ("token".equals(child))
+        authToken = text(parser);
+      else if ("perms".equals(child))
+        authPerms = Enum.valueOf(Perms.class, text(parser));
+      else if ("user".equals(child))
+        authUser = new RtmUser(parser);
+      else
+        skip(parser);
+    }
+    this.token = authToken;
+    this.perms = authPerms;
+    this.user = authUser;
   }
 
   public String getToken() {
@@ -19,17 +19,15 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.TimeZone;
 
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  *
@@ -46,58 +44,82 @@ public abstract class RtmData
   }
 
   /**
-   * The method is not optimized at most, but circumvents a bug in Android runtime.
+   * Reads an object from a response. The parser is positioned on the start
+   * tag of the element to read, and must be left on its end tag.
    */
-  public static Element child(Element elt, String nodeName)
+  public interface Reader<T>
   {
-    NodeList childNodes = elt.getChildNodes();
-    for (int index = 0; index < childNodes.getLength(); index++)
+    T read(XmlPullParser parser) throws XmlPullParserException, IOException;
+  }
+
+  /**
+   * Moves to the start tag of the next child of the current element. The
+   * previous child must have been read up to its end tag.
+   *
+   * @return false if the end tag of the current element was reached instead
+   */
+  public static boolean nextChild(XmlPullParser parser) throws XmlPullParserException, IOException
+  {
+    while (true)
     {
-      Node child = childNodes.item(index);
-      if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals(nodeName))
+      switch (parser.next())
       {
-        return (Element) child;
+      case XmlPullParser.START_TAG:
+        return true;
+      case XmlPullParser.END_TAG:
+        return false;
+      case XmlPullParser.END_DOCUMENT:
+        throw new XmlPullParserException("Unexpected end of document", parser, null);
+      default:
+        break;
       }
     }
-    return null;
   }
 
   /**
-   * The method is not optimized at most, but circumvents a bug in Android runtime.
+   * Skips the current element and everything inside it
    */
-  public static List<Element> children(Element elt, String nodeName)
+  public static void skip(XmlPullParser parser) throws XmlPullParserException, IOException
   {
-    List<Element> result = new ArrayList<Element>();
-    NodeList childNodes = elt.getChildNodes();
-    for (int index = 0; index < childNodes.getLength(); index++)
+    while (nextChild(parser))
     {
-      Node child = childNodes.item(index);
-      if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals(nodeName))
-      {
-        result.add((Element) child);
-      }
+      skip(parser);
     }
-    return result;
   }
 
-  protected String text(Element elt)
+  /**
+   * @return value of the attribute, or an empty string if it is missing
+   */
+  protected static String attribute(XmlPullParser parser, String name)
+  {
+    String value = parser.getAttributeValue(null, name);
+    return value == null ? "" : value;
+  }
+
+  /**
+   * Reads the text of the current element, skipping any children
+   */
+  protected static String text(XmlPullParser parser) throws XmlPullParserException, IOException
   {
     StringBuilder result = new StringBuilder();
-    Node child = elt.getFirstChild();
-    while (child != null)
+    while (true)
     {
-      switch (child.getNodeType())
+      switch (parser.next())
       {
-      case Node.TEXT_NODE:
-      case Node.CDATA_SECTION_NODE:
-        result.append(child.getNodeValue());
+      case XmlPullParser.TEXT:
+        result.append(parser.getText());
+        break;
+      case XmlPullParser.START_TAG:
+        skip(parser);
         break;
+      case XmlPullParser.END_TAG:
+        return result.toString();
+      case XmlPullParser.END_DOCUMENT:
+        throw new XmlPullParserException("Unexpected end of document", parser, null);
       default:
         break;
       }
-      child = child.getNextSibling();
     }
-    return result.toString();
   }
 
   public synchronized static Date parseDate(String s)
@@ -19,7 +19,10 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
-import org.w3c.dom.Element;
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * 
@@ -33,8 +36,14 @@ public class RtmFrob extends RtmData {
     this.value = value;
   }
 
-  public RtmFrob(Element elt) {
-    this.value = text(elt);
+  public static final Reader<RtmFrob> READER = new Reader<RtmFrob>() {
+    public RtmFrob read(XmlPullParser parser) throws XmlPullParserException, IOException {
+      return new RtmFrob(parser);
+    }
+  };
+
+  public RtmFrob(XmlPullParser parser) throws XmlPullParserException, IOException {
+    this.value = text(parser);
   }
 
   public String getValue() {
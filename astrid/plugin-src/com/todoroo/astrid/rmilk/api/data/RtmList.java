@@ -19,7 +19,10 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
-import org.w3c.dom.Element;
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 @SuppressWarnings("nls")
 public class RtmList extends RtmData {
@@ -38,12 +41,19 @@ public class RtmList extends RtmData {
     this.position = position;
   }
 
-  public RtmList(Element elt) {
-    id = elt.getAttribute("id");
-    name = elt.getAttribute("name");
-    smart = elt.getAttribute("smart").equals("1");
-    archived = elt.getAttribute("archived").equals("1");
-    position = Integer.parseInt(elt.getAttribute("position"));
+  public static final Reader<RtmList> READER = new Reader<RtmList>() {
+    public RtmList read(XmlPullParser parser) throws XmlPullParserException, IOException {
+      return new RtmList(parser);
+    }
+  };
+
+  public RtmList(XmlPullParser parser) throws XmlPullParserException, IOException {
+    id = attribute(parser, "id");
+    name = attribute(parser, "name");
+    smart = attribute(parser, "smart").equals("1");
+    archived = attribute(parser, "archived").equals("1");
+    position = Integer.parseInt(attribute(parser, "position"));
+    skip(parser);
   }
 
   public String getId() {
@@ -19,11 +19,13 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.w3c.dom.Element;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 @SuppressWarnings("nls")
 public class RtmLists extends RtmData {
@@ -34,10 +36,20 @@ public class RtmLists extends RtmData {
     this.lists = new HashMap<String, RtmList>();
   }
 
-  public RtmLists(Element elt) {
+  public static final Reader<RtmLists> READER = new Reader<RtmLists>() {
+    public RtmLists read(XmlPullParser parser) throws XmlPullParserException, IOException {
+      return new RtmLists(parser);
+    }
+  };
+
+  public RtmLists(XmlPullParser parser) throws XmlPullParserException, IOException {
     this.lists = new HashMap<String, RtmList>();
-    for (Element listElt : children(elt, "list")) {
-      RtmList list = new RtmList(listElt);
+    while (nextChild(parser)) {
+      if (!"list".equals(parser.getName())) {
+        skip(parser);
+        continue;
+      }
+      RtmList list = new RtmList(parser);
       lists.put(list.getId(), list);
     }
   }
@@ -19,7 +19,10 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
-import org.w3c.dom.Element;
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * Represents a location.
@@ -46,15 +49,16 @@ public class RtmLocation
 
   public int zoom;
 
-  public RtmLocation(Element element)
+  public RtmLocation(XmlPullParser parser) throws XmlPullParserException, IOException
   {
-    id = element.getAttribute("id");
-    name = element.getAttribute("name");
-    longitude = Float.parseFloat(element.getAttribute("longitude"));
-    latitude = Float.parseFloat(element.getAttribute("latitude"));
-    address = element.getAttribute("address");
-    zoom = Integer.parseInt(element.getAttribute("zoom"));
-    viewable = element.getAttribute("viewable").equals("1") ? true : false;
+    id = attribute(parser, "id");
+    name = attribute(parser, "name");
+    longitude = Float.parseFloat(attribute(parser, "longitude"));
+    latitude = Float.parseFloat(attribute(parser, "latitude"));
+    address = attribute(parser, "address");
+    zoom = Integer.parseInt(attribute(parser, "zoom"));
+    viewable = attribute(parser, "viewable").equals("1") ? true : false;
+    skip(parser);
   }
 
 }
@@ -19,11 +19,13 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import org.w3c.dom.Element;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * 
@@ -41,11 +43,23 @@ public class RtmTaskList extends RtmData {
     this.series = new ArrayList<RtmTaskSeries>();
   }
 
-  public RtmTaskList(Element elt) {
-    id = elt.getAttribute("id");
+  public static final Reader<RtmTaskList> READER = new Reader<RtmTaskList>() {
+    public RtmTaskList read(XmlPullParser parser) throws XmlPullParserException, IOException {
+      return new RtmTaskList(parser);
+    }
+  };
+
+  /**
+   * Reads task series as they are parsed. Deleted series are skipped.
+   */
+  public RtmTaskList(XmlPullParser parser) throws XmlPullParserException, IOException {
+    id = attribute(parser, "id");
     series = new ArrayList<RtmTaskSeries>();
-    for (Element seriesElt : children(elt, "taskseries")) {
-      series.add(new RtmTaskSeries(this, seriesElt));
+    while (nextChild(parser)) {
+      if ("taskseries".equals(parser.getName()))
+        series.add(new RtmTaskSeries(this, parser));
+      else
+        skip(parser);
     }
 
     if (id == null || id.length() == 0) { throw new RuntimeException("No id found in task list."); }
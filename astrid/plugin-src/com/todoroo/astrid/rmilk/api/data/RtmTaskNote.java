@@ -19,13 +19,11 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
+import java.io.IOException;
 import java.util.Date;
 
-import org.w3c.dom.Element;
-import org.w3c.dom.EntityReference;
-import org.w3c.dom.Text;
-
-import android.util.Log;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * Represents a single task note.
@@ -46,36 +44,26 @@ public class RtmTaskNote
 
   private final String title;
 
-  private String text;
+  private final String text;
 
-  public RtmTaskNote(Element element)
+  public static final Reader<RtmTaskNote> READER = new Reader<RtmTaskNote>()
   {
-    id = element.getAttribute("id");
-    created = parseDate(element.getAttribute("created"));
-    modified = parseDate(element.getAttribute("modified"));
-    title = element.getAttribute("title");
-
-    // The note text itself might be split across multiple children of the
-    // note element, so get all of the children.
-    for (int i=0; i < element.getChildNodes().getLength(); i++) {
-        Object innerNote = element.getChildNodes().item(i);
-
-        if(innerNote instanceof EntityReference) // this node is empty
-            continue;
-
-        if(!(innerNote instanceof Text)) {
-            Log.w("rtm-note", "Expected text type, got " + innerNote.getClass());
-            continue;
-        }
-
-    	Text innerText = (Text) innerNote;
-
-    	if (text == null)
-    	    text = innerText.getData();
-    	else
-    	    text = text.concat(innerText.getData());
-
+    public RtmTaskNote read(XmlPullParser parser) throws XmlPullParserException, IOException
+    {
+      return new RtmTaskNote(parser);
     }
+  };
+
+  public RtmTaskNote(XmlPullParser parser) throws XmlPullParserException, IOException
+  {
+    id = attribute(parser, "id");
+    created = parseDate(attribute(parser, "created"));
+    modified = parseDate(attribute(parser, "modified"));
+    title = attribute(parser, "title");
+
+    // the parser joins text split across entities and CDATA sections
+    String content = text(parser);
+    text = content.length() == 0 ? null : content;
   }
 
   public String getId()
@@ -19,10 +19,12 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.w3c.dom.Element;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * Represents the notes of a task.
@@ -37,12 +39,20 @@ public class RtmTaskNotes
 
   private List<RtmTaskNote> notes;
 
-  public RtmTaskNotes(Element element)
+  public RtmTaskNotes()
   {
     notes = new ArrayList<RtmTaskNote>();
-    for (Element child : children(element, "note"))
+  }
+
+  public RtmTaskNotes(XmlPullParser parser) throws XmlPullParserException, IOException
+  {
+    notes = new ArrayList<RtmTaskNote>();
+    while (nextChild(parser))
     {
-      notes.add(new RtmTaskNote(child));
+      if ("note".equals(parser.getName()))
+        notes.add(new RtmTaskNote(parser));
+      else
+        skip(parser);
     }
   }
 
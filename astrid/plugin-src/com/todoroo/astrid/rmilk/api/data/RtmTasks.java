@@ -19,10 +19,13 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import org.w3c.dom.Element;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * 
@@ -37,10 +40,19 @@ public class RtmTasks extends RtmData {
     this.lists = new ArrayList<RtmTaskList>();
   }
 
-  public RtmTasks(Element elt) {
+  public static final Reader<RtmTasks> READER = new Reader<RtmTasks>() {
+    public RtmTasks read(XmlPullParser parser) throws XmlPullParserException, IOException {
+      return new RtmTasks(parser);
+    }
+  };
+
+  public RtmTasks(XmlPullParser parser) throws XmlPullParserException, IOException {
     this.lists = new ArrayList<RtmTaskList>();
-    for (Element listElt : children(elt, "list")) {
-      lists.add(new RtmTaskList(listElt));
+    while (nextChild(parser)) {
+      if ("list".equals(parser.getName()))
+        lists.add(new RtmTaskList(parser));
+      else
+        skip(parser);
     }
   }
 
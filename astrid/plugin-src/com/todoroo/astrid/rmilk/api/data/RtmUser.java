@@ -19,7 +19,10 @@
  */
 package com.todoroo.astrid.rmilk.api.data;
 
-import org.w3c.dom.Element;
+import java.io.IOException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * 
@@ -40,12 +43,13 @@ public class RtmUser extends RtmData {
     this.fullname = fullname;
   }
 
-  public RtmUser(Element elt) {
-    if (!elt.getNodeName().equals("user")) { throw new IllegalArgumentException("Element " + elt.getNodeName() + " does not represent a User object."); }
+  public RtmUser(XmlPullParser parser) throws XmlPullParserException, IOException {
+    if (!parser.getName().equals("user")) { throw new IllegalArgumentException("Element " + parser.getName() + " does not represent a User object."); }
 
-    this.id = elt.getAttribute("id");
-    this.username = elt.getAttribute("username");
-    this.fullname = elt.getAttribute("fullname");
+    this.id = attribute(parser, "id");
+    this.username = attribute(parser, "username");
+    this.fullname = attribute(parser, "fullname");
+    skip(parser);
   }
 
   public String getId() {
@@ -24,6 +24,7 @@ import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.SoftHashMap;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
+import com.todoroo.astrid.dao.SyncOutbox;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.model.Metadata;
@@ -69,6 +70,9 @@ public final class MilkDataService {
 
     static final Random random = new Random();
 
+    /** true while local changes are read from the outbox */
+    private boolean outboxReady = false;
+
     private MilkDataService(Context context) {
         this.context = context;
         DependencyInjectionService.getInstance().inject(this);
@@ -82,20 +86,54 @@ public final class MilkDataService {
      * Clears RTM metadata information. Used when user logs out of RTM
      */
     public void clearMetadata() {
+        SyncOutbox.getInstance().unregister(MilkUtilities.IDENTIFIER);
         metadataService.deleteWhere(Metadata.KEY.eq(MilkTask.METADATA_KEY));
     }
 
+    /**
+     * Start reading local changes from the outbox. Changes this
+     * synchronization makes on the current thread are not recorded.
+     */
+    public void beginSync() {
+        outboxReady = SyncOutbox.getInstance().begin(MilkUtilities.IDENTIFIER) &&
+            MilkUtilities.getLastSyncDate() != 0;
+    }
+
+    /**
+     * Remove the local changes that were sent from the outbox
+     */
+    public void acknowledgeSync() {
+        SyncOutbox.getInstance().acknowledge(MilkUtilities.IDENTIFIER);
+    }
+
+    /**
+     * Finish synchronization started with {@link #beginSync()}
+     */
+    public void endSync() {
+        SyncOutbox.getInstance().end(MilkUtilities.IDENTIFIER);
+        outboxReady = false;
+    }
+
     /**
      * Gets tasks that were created since last sync
      * @param properties
      * @return
      */
     public TodorooCursor<Task> getLocallyCreated(Property<?>[] properties) {
+        Criterion synced = Criterion.and(MetadataCriteria.withKey(MilkTask.METADATA_KEY), MilkTask.TASK_SERIES_ID.gt(0));
+        if(outboxReady) {
+            // only look at the metadata of tasks in the outbox
+            Query pending = SyncOutbox.getInstance().pendingTasks(MilkUtilities.IDENTIFIER);
+            synced = Criterion.and(Metadata.TASK.in(pending), synced);
+        }
+        Criterion created = Criterion.and(
+                Criterion.not(Task.ID.in(Query.select(Metadata.TASK).from(Metadata.TABLE).
+                        where(synced))),
+                TaskCriteria.isActive());
+        if(outboxReady)
+            created = Criterion.and(SyncOutbox.getInstance().pending(MilkUtilities.IDENTIFIER), created);
         return
-            taskDao.query(Query.select(properties).join(MilkDataService.METADATA_JOIN).where(Criterion.and(
-                    Criterion.not(Task.ID.in(Query.select(Metadata.TASK).from(Metadata.TABLE).
-                            where(Criterion.and(MetadataCriteria.withKey(MilkTask.METADATA_KEY), MilkTask.TASK_SERIES_ID.gt(0))))),
-                    TaskCriteria.isActive())).groupBy(Task.ID));
+            taskDao.query(Query.select(properties).join(MilkDataService.METADATA_JOIN).where(created).groupBy(Task.ID));
     }
 
     /**
@@ -107,10 +145,12 @@ public final class MilkDataService {
         long lastSyncDate = MilkUtilities.getLastSyncDate();
         if(lastSyncDate == 0)
             return taskDao.query(Query.select(Task.ID).where(Criterion.none));
+        Criterion changed = outboxReady ? SyncOutbox.getInstance().pending(MilkUtilities.IDENTIFIER) :
+            Task.MODIFICATION_DATE.gt(lastSyncDate);
         return
             taskDao.query(Query.select(properties).join(MilkDataService.METADATA_JOIN).
                     where(Criterion.and(MetadataCriteria.withKey(MilkTask.METADATA_KEY),
-                            Task.MODIFICATION_DATE.gt(lastSyncDate))).groupBy(Task.ID));
+                            changed)).groupBy(Task.ID));
     }
 
     /**
@@ -32,6 +32,7 @@ import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.andlib.utility.DialogUtilities;
 import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.api.TaskContainer;
+import com.todoroo.astrid.common.SyncMetrics;
 import com.todoroo.astrid.common.SyncProvider;
 import com.todoroo.astrid.model.Metadata;
 import com.todoroo.astrid.model.Task;
@@ -87,6 +88,7 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
     public void signOut() {
         MilkUtilities.setToken(null);
         MilkUtilities.clearLastSyncDate();
+        SyncMetrics.clearHistory(MilkUtilities.IDENTIFIER);
 
         dataService = MilkDataService.getInstance();
         dataService.clearMetadata();
@@ -155,6 +157,7 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
         FlurryAgent.onEvent("rtm-started");
 
         MilkUtilities.recordSyncStart();
+        metrics.startPhase(SyncMetrics.PHASE_AUTHENTICATE);
 
         try {
             String appName = null;
@@ -166,6 +169,7 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
             if(authToken != null) {
                 rtmService = new ServiceImpl(new ApplicationInfo(
                         z, v, appName, authToken));
+                rtmService.setRequestListener(metrics);
                 if(!rtmService.isServiceAuthorized()) // re-do login
                     authToken = null;
             }
@@ -187,6 +191,7 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
                 // open up a dialog and have the user go to browser
                 rtmService = new ServiceImpl(new ApplicationInfo(
                         z, v, appName));
+                rtmService.setRequestListener(metrics);
                 final String url = rtmService.beginAuthorization(Perms.delete);
 
                 Intent intent = new Intent(context, MilkLoginActivity.class);
@@ -239,6 +244,8 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
     // ----------------------------------------------------------------------
 
     protected void performSync() {
+        dataService.beginSync();
+        metrics.startPhase(SyncMetrics.PHASE_FETCH_REMOTE);
         try {
             // get RTM timeline
             timeline = rtmService.timelines_create();
@@ -255,9 +262,9 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
             if(lastSyncDate.getTime() == 0)
                 filter = "status:incomplete"; //$NON-NLS-1$ // 1st time sync: get unfinished tasks
 
-            // try the quick synchronization
+            // try the quick synchronization. requests are throttled by
+            // the invoker
             try {
-                Thread.sleep(2000); // throttle
                 RtmTasks tasks = rtmService.tasks_getList(null, filter, lastSyncDate);
                 addTasksToList(tasks, remoteChanges);
             } catch (Exception e) {
@@ -271,7 +278,6 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
                     if(list.isSmart())
                         continue;
                     try {
-                        Thread.sleep(1500);
                         RtmTasks tasks = rtmService.tasks_getList(list.getId(),
                                 filter, lastSyncDate);
                         addTasksToList(tasks, remoteChanges);
@@ -282,6 +288,7 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
                 }
             }
 
+            metrics.startPhase(SyncMetrics.PHASE_PREPARE_LOCAL);
             SyncData<RTMTaskContainer> syncData = populateSyncData(remoteChanges);
             try {
                 synchronizeTasks(syncData);
@@ -291,6 +298,8 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
             }
 
             MilkUtilities.recordSuccessfulSync();
+            metrics.setSuccessful();
+            dataService.acknowledgeSync();
             Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_EVENT_REFRESH);
             ContextManager.getContext().sendBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
 
@@ -299,6 +308,9 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
         	// occurs when application was closed
         } catch (Exception e) {
             handleException("rtm-sync", e, true); //$NON-NLS-1$
+        } finally {
+            dataService.endSync();
+            metrics.save(MilkUtilities.IDENTIFIER);
         }
     }
 
@@ -559,16 +571,10 @@ public class RTMSyncProvider extends SyncProvider<RTMTaskContainer> {
     // ----------------------------------------------------------------------
 
     @Override
-    protected int matchTask(ArrayList<RTMTaskContainer> tasks, RTMTaskContainer target) {
-        int length = tasks.size();
-        for(int i = 0; i < length; i++) {
-            RTMTaskContainer task = tasks.get(i);
-            if(AndroidUtilities.equals(task.listId, target.listId) &&
-                    AndroidUtilities.equals(task.taskSeriesId, target.taskSeriesId) &&
-                    AndroidUtilities.equals(task.taskId, target.taskId))
-                return i;
-        }
-        return -1;
+    protected String getRemoteKey(RTMTaskContainer task) {
+        if(task.taskSeriesId == 0)
+            return null;
+        return task.listId + "-" + task.taskSeriesId + "-" + task.taskId; //$NON-NLS-1$ //$NON-NLS-2$
     }
 
     @Override
@@ -13,7 +13,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.Color;
-import android.graphics.drawable.BitmapDrawable;
 
 import com.timsu.astrid.R;
 import com.todoroo.andlib.sql.Criterion;
@@ -69,8 +68,10 @@ public class TagFilterExposer extends BroadcastReceiver {
         Tag[] tags = tagService.getGroupedTags(TagService.GROUPED_TAGS_BY_SIZE, TaskCriteria.notDeleted());
 
         // If user does not have any tags, don't show this section at all
-        if(tags.length == 0)
+        if(tags.length == 0) {
+            sendFilters(context, new FilterListItem[0]);
             return;
+        }
 
         // sort tags by # of active tasks
         Tag[] activeTags = tagService.getGroupedTags(TagService.GROUPED_TAGS_BY_SIZE, TaskCriteria.activeAndVisible());
@@ -104,7 +105,7 @@ public class TagFilterExposer extends BroadcastReceiver {
                 r.getString(R.string.tag_FEx_untagged),
                 tagService.untaggedTemplate(),
                 null);
-        untagged.listingIcon = ((BitmapDrawable)r.getDrawable(R.drawable.filter_untagged)).getBitmap();
+        untagged.listingIconResource = R.drawable.filter_untagged;
         list[1] = untagged;
 
 
@@ -117,7 +118,13 @@ public class TagFilterExposer extends BroadcastReceiver {
         list[2] = tagsFilter;
 
         // transmit filter list
+        sendFilters(context, list);
+    }
+
+    /** transmit filter list. an empty list removes this section */
+    private void sendFilters(Context context, FilterListItem[] list) {
         Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_SEND_FILTERS);
+        broadcastIntent.putExtra(AstridApiConstants.EXTRAS_ADDON, TagsPlugin.IDENTIFIER);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_RESPONSE, list);
         context.sendBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
     }
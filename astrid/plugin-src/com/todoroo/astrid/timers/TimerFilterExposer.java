@@ -8,7 +8,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.graphics.drawable.BitmapDrawable;
 
 import com.timsu.astrid.R;
 import com.todoroo.andlib.sql.Query;
@@ -31,16 +30,19 @@ public final class TimerFilterExposer extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
 
+        FilterListItem[] list;
         if(PluginServices.getTaskService().count(Query.select(Task.ID).
-                where(Task.TIMER_START.gt(0))) == 0)
-            return;
-
-        Filter workingOn = createFilter(context);
+                where(Task.TIMER_START.gt(0))) == 0) {
+            // send an empty list so a previously shown filter is removed
+            list = new FilterListItem[0];
+        } else {
+            list = new FilterListItem[1];
+            list[0] = createFilter(context);
+        }
 
         // transmit filter list
-        FilterListItem[] list = new FilterListItem[1];
-        list[0] = workingOn;
         Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_SEND_FILTERS);
+        broadcastIntent.putExtra(AstridApiConstants.EXTRAS_ADDON, TimerPlugin.IDENTIFIER);
         broadcastIntent.putExtra(AstridApiConstants.EXTRAS_RESPONSE, list);
         context.sendBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
     }
@@ -53,7 +55,7 @@ public final class TimerFilterExposer extends BroadcastReceiver {
                 r.getString(R.string.TFE_workingOn),
                 new QueryTemplate().where(Task.TIMER_START.gt(0)),
                 values);
-        workingOn.listingIcon = ((BitmapDrawable)r.getDrawable(R.drawable.tango_clock)).getBitmap();
+        workingOn.listingIconResource = R.drawable.tango_clock;
         return workingOn;
     }
 
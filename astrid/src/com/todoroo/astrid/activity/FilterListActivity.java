@@ -16,7 +16,6 @@ import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
-import android.util.DisplayMetrics;
 import android.view.ContextMenu;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -40,6 +39,7 @@ import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.andlib.service.ExceptionService;
 import com.todoroo.andlib.sql.Functions;
 import com.todoroo.andlib.sql.QueryTemplate;
+import com.todoroo.andlib.utility.BitmapCache;
 import com.todoroo.andlib.utility.DialogUtilities;
 import com.todoroo.astrid.adapter.FilterAdapter;
 import com.todoroo.astrid.api.Filter;
@@ -293,22 +293,7 @@ public class FilterListActivity extends ExpandableListActivity {
         if(label.length() == 0)
             return;
 
-        Bitmap emblem = filter.listingIcon;
-        if(emblem == null)
-            emblem = ((BitmapDrawable) getResources().getDrawable(
-                    R.drawable.filter_tags1)).getBitmap();
-
-        // create icon by superimposing astrid w/ icon
-        DisplayMetrics metrics = new DisplayMetrics();
-        getWindowManager().getDefaultDisplay().getMetrics(metrics);
-        Bitmap bitmap = ((BitmapDrawable) getResources().getDrawable(
-                R.drawable.icon_blank)).getBitmap();
-        bitmap = bitmap.copy(bitmap.getConfig(), true);
-        Canvas canvas = new Canvas(bitmap);
-        int dimension = 22;
-        canvas.drawBitmap(emblem, new Rect(0, 0, emblem.getWidth(), emblem.getHeight()),
-                new Rect(bitmap.getWidth() - dimension, bitmap.getHeight() - dimension,
-                        bitmap.getWidth(), bitmap.getHeight()), null);
+        Bitmap bitmap = createShortcutIcon(filter);
 
         Intent createShortcutIntent = new Intent();
         createShortcutIntent.putExtra(Intent.EXTRA_SHORTCUT_INTENT, shortcutIntent);
@@ -324,6 +309,37 @@ public class FilterListActivity extends ExpandableListActivity {
                         label), Toast.LENGTH_LONG).show();
     }
 
+    /**
+     * Create icon by superimposing astrid w/ the filter's icon. Icons made
+     * from icon resources are cached
+     */
+    private Bitmap createShortcutIcon(Filter filter) {
+        String key = null;
+        if(filter.listingIcon == null)
+            key = "shortcut:" + filter.listingIconPackage + ":" + //$NON-NLS-1$ //$NON-NLS-2$
+                filter.listingIconResource;
+        BitmapCache cache = BitmapCache.getInstance();
+        if(key != null && cache.get(key) != null)
+            return cache.get(key);
+
+        Bitmap emblem = FilterAdapter.getListingIcon(this, filter);
+        if(emblem == null)
+            emblem = cache.getResource(this, null, R.drawable.filter_tags1);
+
+        Bitmap bitmap = ((BitmapDrawable) getResources().getDrawable(
+                R.drawable.icon_blank)).getBitmap();
+        bitmap = bitmap.copy(bitmap.getConfig(), true);
+        Canvas canvas = new Canvas(bitmap);
+        int dimension = 22;
+        canvas.drawBitmap(emblem, new Rect(0, 0, emblem.getWidth(), emblem.getHeight()),
+                new Rect(bitmap.getWidth() - dimension, bitmap.getHeight() - dimension,
+                        bitmap.getWidth(), bitmap.getHeight()), null);
+
+        if(key != null)
+            cache.put(key, bitmap);
+        return bitmap;
+    }
+
     @Override
     public boolean onMenuItemSelected(int featureId, final MenuItem item) {
 
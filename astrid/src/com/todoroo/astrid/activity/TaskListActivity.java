@@ -1,7 +1,11 @@
 package com.todoroo.astrid.activity;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Map.Entry;
@@ -48,7 +52,9 @@ import android.widget.TextView.OnEditorActionListener;
 
 import com.flurry.android.FlurryAgent;
 import com.timsu.astrid.R;
+import com.todoroo.andlib.data.OverlayCursor;
 import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.StringFunctionProperty;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.ContextManager;
@@ -61,6 +67,7 @@ import com.todoroo.andlib.widget.GestureService;
 import com.todoroo.andlib.widget.GestureService.GestureInterface;
 import com.todoroo.astrid.activity.SortSelectionActivity.OnSortSelectedListener;
 import com.todoroo.astrid.adapter.TaskAdapter;
+import com.todoroo.astrid.adapter.TaskListProfiler;
 import com.todoroo.astrid.adapter.TaskAdapter.ViewHolder;
 import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.api.Filter;
@@ -69,6 +76,7 @@ import com.todoroo.astrid.api.TaskAction;
 import com.todoroo.astrid.api.TaskDecoration;
 import com.todoroo.astrid.backup.BackupActivity;
 import com.todoroo.astrid.core.CoreFilterExposer;
+import com.todoroo.astrid.dao.ChangeLog;
 import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.model.Metadata;
@@ -121,11 +129,20 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
     /** menu code indicating the end of the context menu */
     private static final int CONTEXT_MENU_DEBUG = Menu.FIRST + 10;
 
+    /** debug menu item to show task list timings */
+    private static final int MENU_DEBUG_PROFILER_ID = CONTEXT_MENU_DEBUG + 2;
+
     // --- constants
 
     /** token for passing a {@link Filter} object through extras */
     public static final String TOKEN_FILTER = "filter"; //$NON-NLS-1$
 
+    /** maximum number of changed tasks to update in place before re-querying */
+    private static final int MAX_INCREMENTAL_CHANGES = 25;
+
+    /** column name prefixes of the list's sort keys and their types */
+    private static final String SORT_KEY = "sortKey", SORT_TYPE = "sortType"; //$NON-NLS-1$ //$NON-NLS-2$
+
     // --- instance variables
 
     @Autowired
@@ -158,6 +175,22 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
     private final AtomicReference<String> sqlQueryTemplate = new AtomicReference<String>();
     private Timer backgroundTimer;
 
+    /** cursor given to the task adapter, and the overlay it wraps */
+    private TodorooCursor<Task> taskListCursor;
+    private OverlayCursor taskListOverlay;
+
+    /** columns read for the list, see {@link #setUpListOrder(String)} */
+    private Property<?>[] listProperties = TaskAdapter.PROPERTIES;
+
+    /**
+     * whether each term of the list's order is descending, or null if the
+     * list can't be ordered in memory
+     */
+    private boolean[] sortDescending;
+
+    /** {@link ChangeLog} generation the task list was loaded at */
+    private long loadedGeneration;
+
     /* ======================================================================
      * ======================================================= initialization
      * ====================================================================== */
@@ -266,6 +299,10 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             item.setIntent(intent);
         }
 
+        if(Constants.DEBUG)
+            menu.add(Menu.NONE, MENU_DEBUG_PROFILER_ID, Menu.NONE,
+                    "list timings"); //$NON-NLS-1$
+
         return true;
     }
 
@@ -436,10 +473,14 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
         unregisterReceiver(detailReceiver);
         unregisterReceiver(refreshReceiver);
         backgroundTimer.cancel();
+        taskAdapter.prefetcher.stop();
+        TaskListProfiler.stopFling();
     }
 
     /**
-     * Receiver which receives refresh intents
+     * Receiver which receives refresh intents. Only the tasks recorded in
+     * the {@link ChangeLog} have their cached details flushed, or all of
+     * them if none were recorded.
      *
      * @author Tim Su <tim@todoroo.com>
      *
@@ -450,8 +491,7 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    taskAdapter.flushCaches();
-                    loadTaskListContent(true);
+                    updateTaskListContent();
                 }
             });
         }
@@ -496,7 +536,8 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
         super.onWindowFocusChanged(hasFocus);
         if(hasFocus && Flags.checkAndClear(Flags.REFRESH)) {
             taskAdapter.flushCaches();
-            loadTaskListContent(true);
+            updateTaskListContent();
+            taskAdapter.notifyDataSetChanged();
         }
     }
 
@@ -505,20 +546,27 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
         super.onActivityResult(requestCode, resultCode, data);
 
         if(resultCode != RESULT_CANCELED) {
-            taskAdapter.flushCaches();
-            loadTaskListContent(true);
             taskService.cleanup();
+            if(requestCode == ACTIVITY_EDIT_TASK) {
+                updateTaskListContent();
+            } else {
+                taskAdapter.flushCaches();
+                updateTaskListContent();
+                taskAdapter.notifyDataSetChanged();
+            }
         }
     }
 
     public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
             int totalItemCount) {
-        // do nothing
+        // load details for rows about to come on screen
+        taskAdapter.prefetcher.onScroll(firstVisibleItem, visibleItemCount);
     }
 
     /**
      * Detect when user is flinging the task, disable task adapter loading
-     * when this occurs to save resources and time.
+     * when this occurs to save resources and time. Rows coming on screen are
+     * loaded in the background by the adapter's prefetcher instead.
      */
     public void onScrollStateChanged(AbsListView view, int scrollState) {
         switch (scrollState) {
@@ -526,14 +574,17 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             if(taskAdapter.isFling)
                 taskAdapter.notifyDataSetChanged();
             taskAdapter.isFling = false;
+            TaskListProfiler.stopFling();
             break;
         case OnScrollListener.SCROLL_STATE_TOUCH_SCROLL:
             if(taskAdapter.isFling)
                 taskAdapter.notifyDataSetChanged();
             taskAdapter.isFling = false;
+            TaskListProfiler.stopFling();
             break;
         case OnScrollListener.SCROLL_STATE_FLING:
             taskAdapter.isFling = true;
+            TaskListProfiler.startFling(view);
             break;
         }
     }
@@ -551,6 +602,7 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
         Cursor taskCursor = taskAdapter.getCursor();
 
         if(requery) {
+            loadedGeneration = ChangeLog.getGeneration();
             taskCursor.requery();
             taskAdapter.flushCaches();
             taskAdapter.notifyDataSetChanged();
@@ -562,6 +614,206 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             getListView().setSelection(oldListItemSelected);
     }
 
+    /**
+     * Update the task list with the tasks that changed since it was loaded.
+     * Only those tasks are re-evaluated against the filter, and their rows
+     * are removed, inserted or moved in place. Falls back to re-running the
+     * query if too much has changed or the query can't be updated in place.
+     * If nothing was logged, the change was made outside of the data access
+     * objects, so all cached details are flushed and the rows redrawn.
+     */
+    public void updateTaskListContent() {
+        long generation = ChangeLog.getGeneration();
+        Set<Long> changed = ChangeLog.changedSince(loadedGeneration);
+        if(changed != null && changed.isEmpty()) {
+            taskAdapter.flushCaches();
+            taskAdapter.notifyDataSetChanged();
+            return;
+        }
+
+        Pair<String, String> query = TaskService.splitQueryTemplate(sqlQueryTemplate.get());
+        if(changed == null || changed.size() > MAX_INCREMENTAL_CHANGES ||
+                query == null || sortDescending == null ||
+                taskAdapter.getCursor() != taskListCursor) {
+            loadTaskListContent(true);
+            return;
+        }
+
+        loadedGeneration = generation;
+        applyChanges(changed, query.getLeft(), query.getRight());
+        taskAdapter.flushCaches(changed);
+        taskAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Wrap a freshly queried cursor so that it can later be updated in place
+     */
+    private TodorooCursor<Task> wrapTaskCursor(TodorooCursor<Task> cursor) {
+        taskListOverlay = new OverlayCursor(cursor);
+        taskListCursor = new TodorooCursor<Task>(taskListOverlay, cursor.getProperties());
+        return taskListCursor;
+    }
+
+    /**
+     * Set up the columns read for the list: the task adapter's, and the
+     * value and type of each term of the list's order, so that rows can be
+     * compared in memory
+     */
+    @SuppressWarnings("nls")
+    private void setUpListOrder(String queryTemplate) {
+        listProperties = TaskAdapter.PROPERTIES;
+        sortDescending = null;
+        Pair<String, String> query = TaskService.splitQueryTemplate(queryTemplate);
+        List<Pair<String, Boolean>> terms = query == null ? null :
+            TaskService.splitOrder(query.getRight());
+        if(terms == null)
+            return;
+
+        ArrayList<Property<?>> properties = new ArrayList<Property<?>>(
+                Arrays.asList(TaskAdapter.PROPERTIES));
+        sortDescending = new boolean[terms.size()];
+        for(int i = 0; i < terms.size(); i++) {
+            String expression = "(" + PermaSql.replacePlaceholders(terms.get(i).getLeft()) + ")";
+            properties.add(new StringFunctionProperty(expression, SORT_KEY + i));
+            properties.add(new StringFunctionProperty("typeof" + expression, SORT_TYPE + i));
+            sortDescending[i] = terms.get(i).getRight();
+        }
+        listProperties = properties.toArray(new Property<?>[properties.size()]);
+    }
+
+    /**
+     * Re-evaluate the given tasks against the filter and update their rows.
+     * Only the changed tasks are read; they are placed by comparing their
+     * sort keys with those of the rows in the list.
+     */
+    @SuppressWarnings("nls")
+    private void applyChanges(Set<Long> changed, String where, String order) {
+        // remove rows of changed tasks, remembering where they were
+        HashMap<Long, Integer> oldPositions = new HashMap<Long, Integer>();
+        int idColumn = taskListOverlay.getColumnIndexOrThrow(Task.ID.name);
+        for(int i = 0; i < taskListOverlay.getCount(); ) {
+            taskListOverlay.moveToPosition(i);
+            long id = taskListOverlay.getLong(idColumn);
+            if(changed.contains(id)) {
+                taskListOverlay.remove(i);
+                oldPositions.put(id, i);
+            } else
+                i++;
+        }
+
+        // read changed tasks that still match the filter
+        TodorooCursor<Task> matches = taskService.fetchFiltered("WHERE " +
+                Task.ID.in(changed.toArray(new Long[changed.size()])) + " AND (" +
+                where + ") " + order, null, listProperties);
+        int length = matches.getCount();
+        if(length == 0) {
+            matches.close();
+            return;
+        }
+        int source = taskListOverlay.addSource(matches);
+
+        // read their keys first, the overlay moves them while searching
+        int terms = sortDescending.length;
+        int[] keyColumns = new int[terms], typeColumns = new int[terms];
+        for(int i = 0; i < terms; i++) {
+            keyColumns[i] = matches.getColumnIndexOrThrow(SORT_KEY + i);
+            typeColumns[i] = matches.getColumnIndexOrThrow(SORT_TYPE + i);
+        }
+        long[] ids = new long[length];
+        Object[][] keys = new Object[length][];
+        for(int i = 0; i < length; i++) {
+            matches.moveToPosition(i);
+            ids[i] = matches.get(Task.ID);
+            keys[i] = readSortKeys(matches, keyColumns, typeColumns);
+        }
+
+        // put them back where they belong
+        for(int i = 0; i < length; i++) {
+            int position = findPosition(keys[i], oldPositions.get(ids[i]),
+                    keyColumns, typeColumns);
+            taskListOverlay.insert(position, source, i);
+        }
+    }
+
+    /**
+     * Find where a task with the given sort keys goes in the list, using
+     * binary search. Its old position is kept if it still fits, and it is
+     * put after rows that sort the same.
+     */
+    private int findPosition(Object[] keys, Integer oldPosition, int[] keyColumns,
+            int[] typeColumns) {
+        int count = taskListOverlay.getCount();
+        if(keyColumns.length == 0)
+            return oldPosition == null ? 0 : Math.min(oldPosition, count);
+
+        if(oldPosition != null && oldPosition <= count &&
+                (oldPosition == 0 || compareSortKeys(keysAt(oldPosition - 1,
+                        keyColumns, typeColumns), keys) <= 0) &&
+                (oldPosition == count || compareSortKeys(keys, keysAt(oldPosition,
+                        keyColumns, typeColumns)) <= 0))
+            return oldPosition;
+
+        int low = 0, high = count;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(compareSortKeys(keys, keysAt(mid, keyColumns, typeColumns)) < 0)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    private Object[] keysAt(int position, int[] keyColumns, int[] typeColumns) {
+        taskListOverlay.moveToPosition(position);
+        return readSortKeys(taskListOverlay, keyColumns, typeColumns);
+    }
+
+    /**
+     * Read the sort keys of the current row as SQLite stored them
+     */
+    @SuppressWarnings("nls")
+    private static Object[] readSortKeys(Cursor cursor, int[] keyColumns, int[] typeColumns) {
+        Object[] keys = new Object[keyColumns.length];
+        for(int i = 0; i < keys.length; i++) {
+            String type = cursor.getString(typeColumns[i]);
+            if("integer".equals(type))
+                keys[i] = cursor.getLong(keyColumns[i]);
+            else if("real".equals(type))
+                keys[i] = cursor.getDouble(keyColumns[i]);
+            else if(!"null".equals(type))
+                keys[i] = cursor.getString(keyColumns[i]);
+        }
+        return keys;
+    }
+
+    /**
+     * Compare sort keys the way SQLite orders them: nulls first, then
+     * numbers, then text
+     */
+    private int compareSortKeys(Object[] first, Object[] second) {
+        for(int i = 0; i < first.length; i++) {
+            int result = compareSortKey(first[i], second[i]);
+            if(result != 0)
+                return sortDescending[i] ? -result : result;
+        }
+        return 0;
+    }
+
+    private static int compareSortKey(Object first, Object second) {
+        int firstClass = first == null ? 0 : first instanceof Number ? 1 : 2;
+        int secondClass = second == null ? 0 : second instanceof Number ? 1 : 2;
+        if(firstClass != secondClass)
+            return firstClass - secondClass;
+        if(firstClass == 0)
+            return 0;
+        if(firstClass == 2)
+            return ((String)first).compareTo((String)second);
+        if(first instanceof Long && second instanceof Long)
+            return ((Long)first).compareTo((Long)second);
+        return Double.compare(((Number)first).doubleValue(), ((Number)second).doubleValue());
+    }
+
     /**
      * Fill in the Task List with current items
      * @param withCustomId force task with given custom id to be part of list
@@ -569,13 +821,18 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
     protected void setUpTaskList() {
         sqlQueryTemplate.set(SortSelectionActivity.adjustQueryForFlagsAndSort(filter.sqlQuery,
                 sortFlags, sortSort));
+        setUpListOrder(sqlQueryTemplate.get());
 
         // perform query
-        TodorooCursor<Task> currentCursor = taskService.fetchFiltered(
-                sqlQueryTemplate.get(), null, TaskAdapter.PROPERTIES);
+        loadedGeneration = ChangeLog.getGeneration();
+        TodorooCursor<Task> currentCursor = wrapTaskCursor(taskService.fetchFiltered(
+                sqlQueryTemplate.get(), null, listProperties));
         startManagingCursor(currentCursor);
 
         // set up list adapters
+        if(taskAdapter != null)
+            taskAdapter.prefetcher.stop();
+        TaskListProfiler.cursorChanged();
         taskAdapter = new TaskAdapter(this, R.layout.task_adapter_row,
                 currentCursor, sqlQueryTemplate, false, null);
         setListAdapter(taskAdapter);
@@ -609,7 +866,9 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             sqlQueryTemplate.set(sqlQueryTemplate.get().replace("WHERE ", "WHERE " +
                     TaskCriteria.byId(withCustomId) + " OR "));
 
-        currentCursor = taskService.fetchFiltered(sqlQueryTemplate.get(), null, TaskAdapter.PROPERTIES);
+        loadedGeneration = ChangeLog.getGeneration();
+        currentCursor = wrapTaskCursor(taskService.fetchFiltered(sqlQueryTemplate.get(),
+                null, listProperties));
         getListView().setFilterText("");
         startManagingCursor(currentCursor);
 
@@ -648,7 +907,7 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             quickAdd.setText(""); //$NON-NLS-1$
 
             if(selectNewTask) {
-                loadTaskListContent(true);
+                updateTaskListContent();
                 selectCustomId(task.getId());
             }
 
@@ -771,7 +1030,7 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
                             public void onClick(DialogInterface dialog,
                                     int which) {
                                 taskService.delete(task);
-                                loadTaskListContent(true);
+                                updateTaskListContent();
                             }
                         }).setNegativeButton(android.R.string.cancel, null)
                 .show();
@@ -837,7 +1096,7 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             task.setId(itemId);
             task.setValue(Task.DELETION_DATE, 0L);
             taskService.save(task);
-            loadTaskListContent(true);
+            updateTaskListContent();
             return true;
         }
 
@@ -869,6 +1128,13 @@ public class TaskListActivity extends ListActivity implements OnScrollListener,
             return true;
         }
 
+        case MENU_DEBUG_PROFILER_ID: {
+            String timings = TaskListProfiler.dump();
+            TaskListProfiler.clear();
+            dialogUtilities.okDialog(this, timings, null);
+            return true;
+        }
+
         }
 
         return false;
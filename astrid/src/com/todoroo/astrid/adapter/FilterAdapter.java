@@ -4,6 +4,8 @@
 package com.todoroo.astrid.adapter;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import android.app.Activity;
@@ -11,6 +13,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ResolveInfo;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Parcelable;
 import android.util.DisplayMetrics;
@@ -26,6 +30,7 @@ import android.widget.TextView;
 import com.timsu.astrid.R;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.utility.BitmapCache;
 import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.api.FilterCategory;
@@ -56,6 +61,13 @@ public class FilterAdapter extends BaseExpandableListAdapter {
     /** list of filters */
     private final ArrayList<FilterListItem> items;
 
+    /** filters by the add-on that sent them, in the order they arrived */
+    private final LinkedHashMap<String, ArrayList<FilterListItem>> sections =
+        new LinkedHashMap<String, ArrayList<FilterListItem>>();
+
+    /** counter for naming sections sent without an add-on identifier */
+    private int anonymousSections = 0;
+
     /** display metrics for scaling icons */
     private final DisplayMetrics metrics = new DisplayMetrics();
 
@@ -106,7 +118,9 @@ public class FilterAdapter extends BaseExpandableListAdapter {
                 while(true) {
                     try {
                         Filter filter = filterQueue.take();
+                        long[] modifications = FilterListSnapshot.getCountModifications();
                         int size = taskService.countTasks(filter);
+                        FilterListSnapshot.putCount(filter, modifications, size);
                         filter.listingTitle = filter.listingTitle + (" (" + //$NON-NLS-1$
                             size + ")"); //$NON-NLS-1$
                         activity.runOnUiThread(new Runnable() {
@@ -131,18 +145,62 @@ public class FilterAdapter extends BaseExpandableListAdapter {
 
     public void add(FilterListItem item) {
         items.add(item);
+        loadSizes(item);
+    }
+
+    public void clear() {
+        items.clear();
+        sections.clear();
+    }
 
-        // load sizes
+    /** load sizes, from the snapshot if possible */
+    private void loadSizes(FilterListItem item) {
         if(item instanceof Filter) {
-            filterQueue.offer((Filter) item);
+            loadSize((Filter) item);
         } else if(item instanceof FilterCategory) {
             for(Filter filter : ((FilterCategory)item).children)
-                filterQueue.offer(filter);
+                loadSize(filter);
         }
     }
 
-    public void clear() {
+    private void loadSize(Filter filter) {
+        Integer size = FilterListSnapshot.getCount(filter);
+        if(size != null)
+            filter.listingTitle = filter.listingTitle + (" (" + //$NON-NLS-1$
+                    size + ")"); //$NON-NLS-1$
+        else
+            filterQueue.offer(filter);
+    }
+
+    /**
+     * Add or replace the filters sent by an add-on. Sections keep the
+     * position they were first added in
+     * @param addon add-on identifier, or null if unknown
+     * @param filters
+     */
+    protected void addSection(String addon, Parcelable[] filters) {
+        if(addon == null)
+            addon = "#" + (anonymousSections++); //$NON-NLS-1$
+
+        ArrayList<FilterListItem> section = new ArrayList<FilterListItem>();
+        for (Parcelable item : filters) {
+            FilterListItem filter = (FilterListItem) item;
+            if(skipIntentFilters && !(filter instanceof Filter ||
+                        filter instanceof FilterListHeader ||
+                        filter instanceof FilterCategory))
+                continue;
+
+            section.add(filter);
+        }
+        sections.put(addon, section);
+
         items.clear();
+        for(List<FilterListItem> list : sections.values())
+            items.addAll(list);
+        for(FilterListItem filter : section) {
+            loadSizes(filter);
+            onReceiveFilter(filter);
+        }
     }
 
     /**
@@ -285,16 +343,9 @@ public class FilterAdapter extends BaseExpandableListAdapter {
             try {
                 final Parcelable[] filters = intent.getExtras().
                     getParcelableArray(AstridApiConstants.EXTRAS_RESPONSE);
-                for (Parcelable item : filters) {
-                    FilterListItem filter = (FilterListItem) item;
-                    if(skipIntentFilters && !(filter instanceof Filter ||
-                                filter instanceof FilterListHeader ||
-                                filter instanceof FilterCategory))
-                        continue;
-
-                    add((FilterListItem)item);
-                    onReceiveFilter((FilterListItem)item);
-                }
+                String addon = intent.getStringExtra(AstridApiConstants.EXTRAS_ADDON);
+                FilterListSnapshot.putSection(addon, filters);
+                addSection(addon, filters);
                 notifyDataSetChanged();
 
                 activity.runOnUiThread(new Runnable() {
@@ -345,11 +396,33 @@ public class FilterAdapter extends BaseExpandableListAdapter {
     /**
      * Broadcast a request for lists. The request is sent to every
      * application registered to listen for this broadcast. Each application
-     * can then add lists to this activity
+     * can then add lists to this activity.
+     * <p>
+     * Lists saved in the {@link FilterListSnapshot} are shown immediately,
+     * and exposers whose lists are still current are not asked again.
      */
     public void getLists() {
+        for(String addon : FilterListSnapshot.getAddons()) {
+            Parcelable[] filters = FilterListSnapshot.getSection(addon);
+            if(filters == null)
+                continue;
+            addSection(addon, filters);
+            expandList(filters);
+        }
+        notifyDataSetChanged();
+
         Intent broadcastIntent = new Intent(AstridApiConstants.BROADCAST_REQUEST_FILTERS);
-        activity.sendOrderedBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
+        List<ResolveInfo> receivers = activity.getPackageManager().
+            queryBroadcastReceivers(broadcastIntent, 0);
+        for(ResolveInfo receiver : receivers) {
+            String className = receiver.activityInfo.name;
+            if(FilterListSnapshot.isCurrent(className))
+                continue;
+            FilterListSnapshot.requesting(className);
+            Intent intent = new Intent(broadcastIntent);
+            intent.setClassName(receiver.activityInfo.packageName, className);
+            activity.sendOrderedBroadcast(intent, AstridApiConstants.PERMISSION_READ);
+        }
     }
 
     /**
@@ -383,6 +456,19 @@ public class FilterAdapter extends BaseExpandableListAdapter {
      * ================================================================ views
      * ====================================================================== */
 
+    /**
+     * @return icon for the given item, loaded from the bitmap cache if the
+     * item refers to an icon resource. null if item has no icon
+     */
+    public static Bitmap getListingIcon(Context context, FilterListItem item) {
+        if(item.listingIcon != null)
+            return item.listingIcon;
+        if(item.listingIconResource == 0)
+            return null;
+        return BitmapCache.getInstance().getResource(context, item.listingIconPackage,
+                item.listingIconResource);
+    }
+
     public void populateView(ViewHolder viewHolder, boolean isChild, boolean isExpanded) {
         FilterListItem filter = viewHolder.item;
 
@@ -406,8 +492,9 @@ public class FilterAdapter extends BaseExpandableListAdapter {
             viewHolder.view.setPadding((int) ((isChild ? 27 : 7) * metrics.density), 8, 0, 8);
         }
 
-        viewHolder.icon.setVisibility(filter.listingIcon != null ? View.VISIBLE : View.GONE);
-        viewHolder.icon.setImageBitmap(filter.listingIcon);
+        Bitmap icon = getListingIcon(activity, filter);
+        viewHolder.icon.setVisibility(icon != null ? View.VISIBLE : View.GONE);
+        viewHolder.icon.setImageBitmap(icon);
 
         viewHolder.name.setText(filter.listingTitle);
         if(filter.color != 0)
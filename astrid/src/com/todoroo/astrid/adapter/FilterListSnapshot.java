@@ -0,0 +1,416 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.adapter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import com.todoroo.andlib.data.AbstractDatabase;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.service.ContextManager;
+import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.api.FilterListItem;
+import com.todoroo.astrid.model.Metadata;
+import com.todoroo.astrid.model.StoreObject;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.utility.Preferences;
+
+/**
+ * Process-wide copy of the filters last sent by each filter exposer, so that
+ * the filter list can be shown right away instead of waiting for every
+ * exposer to run its queries again.
+ * <p>
+ * Sections are kept for the built-in exposers, whose filters are known to
+ * depend only on the tables listed in {@link #EXPOSERS}. An exposer is asked
+ * again only when one of its tables has been written to since its section
+ * was captured. Exposers that are not listed are asked every time.
+ * <p>
+ * Sections are also saved to a file along with the persistent modification
+ * counts of their tables, so that after the process is restarted the ones
+ * whose tables were not written to are shown without asking again.
+ */
+@SuppressWarnings("nls")
+public final class FilterListSnapshot {
+
+    /**
+     * Built-in filter exposer, the add-on identifier it sends its filters
+     * with, and the tables its filters are built from
+     */
+    private static class Exposer {
+        final String receiver;
+        final String addon;
+        final Table[] tables;
+
+        public Exposer(String receiver, String addon, Table... tables) {
+            this.receiver = receiver;
+            this.addon = addon;
+            this.tables = tables;
+        }
+    }
+
+    private static final Exposer[] EXPOSERS = new Exposer[] {
+        new Exposer("com.todoroo.astrid.core.CoreFilterExposer", "core"),
+        new Exposer("com.todoroo.astrid.core.CustomFilterExposer", "custom",
+                StoreObject.TABLE),
+        new Exposer("com.todoroo.astrid.tags.TagFilterExposer", "tags",
+                Task.TABLE, Metadata.TABLE),
+        new Exposer("com.todoroo.astrid.timers.TimerFilterExposer", "timer",
+                Task.TABLE),
+        new Exposer("com.todoroo.astrid.rmilk.MilkFilterExposer", "rmilk",
+                Task.TABLE, Metadata.TABLE),
+        new Exposer("com.todoroo.astrid.producteev.ProducteevFilterExposer", "pdv",
+                Task.TABLE, Metadata.TABLE, StoreObject.TABLE),
+    };
+
+    /** tables that task counts are computed from */
+    private static final Table[] COUNT_TABLES = new Table[] {
+        Task.TABLE, Metadata.TABLE
+    };
+
+    /**
+     * Filters sent by one exposer, flattened so that each reader gets its
+     * own copy to modify
+     */
+    private static class Section {
+        byte[] data;
+        long[] modifications;
+        long[] persistentModifications;
+    }
+
+    /** file the sections are saved to */
+    private static final String FILE = "filter-snapshot";
+
+    /** layout of the saved file */
+    private static final int FILE_VERSION = 1;
+
+    /** sections by add-on identifier, in the order they were received */
+    private static final LinkedHashMap<String, Section> sections =
+        new LinkedHashMap<String, Section>();
+
+    /** modification counts at the time each add-on was last asked */
+    private static final HashMap<String, long[]> requests =
+        new HashMap<String, long[]>();
+
+    /** persistent modification counts at the time each add-on was last asked */
+    private static final HashMap<String, long[]> persistentRequests =
+        new HashMap<String, long[]>();
+
+    /** whether the saved file has been read in this process */
+    private static boolean loaded = false;
+
+    /** task counts by filter query */
+    private static final HashMap<String, Integer> counts =
+        new HashMap<String, Integer>();
+
+    /** modification counts at the time task counts were computed */
+    private static long[] countModifications = null;
+
+    // --- sections
+
+    /**
+     * @return add-on identifiers of all saved sections, in display order
+     */
+    public static synchronized List<String> getAddons() {
+        load();
+        return new ArrayList<String>(sections.keySet());
+    }
+
+    /**
+     * @param addon add-on identifier
+     * @return new copy of the filters last sent by the given add-on, or
+     * null if none were saved
+     */
+    public static synchronized Parcelable[] getSection(String addon) {
+        load();
+        Section section = sections.get(addon);
+        if(section == null)
+            return null;
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(section.data, 0, section.data.length);
+            parcel.setDataPosition(0);
+            return parcel.readParcelableArray(FilterListItem.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Save the filters sent by an add-on. Filters from add-ons that are
+     * not built in are not saved
+     *
+     * @param addon add-on identifier sent with the filters
+     * @param filters filters, before any changes made for display
+     */
+    public static synchronized void putSection(String addon, Parcelable[] filters) {
+        Exposer exposer = findByAddon(addon);
+        if(exposer == null)
+            return;
+        load();
+
+        Section section = new Section();
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelableArray(filters, 0);
+            section.data = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        // use counts from when the exposer was asked, so that changes made
+        // while it was running its queries are not missed
+        section.modifications = requests.remove(addon);
+        if(section.modifications == null)
+            section.modifications = getModifications(exposer.tables);
+        section.persistentModifications = persistentRequests.remove(addon);
+        if(section.persistentModifications == null)
+            section.persistentModifications = getPersistentModifications(exposer.tables);
+        sections.put(addon, section);
+        save();
+    }
+
+    /**
+     * @param receiver class name of a filter exposer
+     * @return true if the exposer's saved section is up to date and it
+     * does not need to be asked for filters
+     */
+    public static synchronized boolean isCurrent(String receiver) {
+        Exposer exposer = findByReceiver(receiver);
+        if(exposer == null)
+            return false;
+        load();
+        Section section = sections.get(exposer.addon);
+        if(section == null)
+            return false;
+        long[] modifications = getModifications(exposer.tables);
+        for(int i = 0; i < modifications.length; i++)
+            if(modifications[i] != section.modifications[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Call before asking an exposer for filters
+     * @param receiver class name of the filter exposer
+     */
+    public static synchronized void requesting(String receiver) {
+        Exposer exposer = findByReceiver(receiver);
+        if(exposer != null) {
+            requests.put(exposer.addon, getModifications(exposer.tables));
+            persistentRequests.put(exposer.addon,
+                    getPersistentModifications(exposer.tables));
+        }
+    }
+
+    // --- counts
+
+    /**
+     * @return saved task count for the given filter, or null if unknown
+     */
+    public static synchronized Integer getCount(Filter filter) {
+        if(countModifications == null || filter.sqlQuery == null)
+            return null;
+        long[] modifications = getModifications(COUNT_TABLES);
+        for(int i = 0; i < modifications.length; i++) {
+            if(modifications[i] != countModifications[i]) {
+                counts.clear();
+                countModifications = null;
+                return null;
+            }
+        }
+        return counts.get(filter.sqlQuery);
+    }
+
+    /**
+     * Save the task count for the given filter
+     * @param modifications value of {@link #getCountModifications()} from
+     * before the count was computed
+     */
+    public static synchronized void putCount(Filter filter, long[] modifications,
+            int count) {
+        if(filter.sqlQuery == null)
+            return;
+        if(countModifications == null) {
+            countModifications = modifications;
+        } else {
+            for(int i = 0; i < modifications.length; i++)
+                if(modifications[i] != countModifications[i])
+                    return;
+        }
+        counts.put(filter.sqlQuery, count);
+    }
+
+    /**
+     * @return current modification counts of the tables task counts depend on
+     */
+    public static long[] getCountModifications() {
+        return getModifications(COUNT_TABLES);
+    }
+
+    // --- helpers
+
+    /**
+     * Forget everything, so that all exposers are asked again
+     */
+    public static synchronized void invalidate() {
+        sections.clear();
+        requests.clear();
+        persistentRequests.clear();
+        counts.clear();
+        countModifications = null;
+        loaded = true;
+        ContextManager.getContext().deleteFile(FILE);
+    }
+
+    /**
+     * Forget the sections held in memory and read them from the saved
+     * file again, as happens when the process is restarted
+     */
+    static synchronized void reload() {
+        sections.clear();
+        loaded = false;
+        load();
+    }
+
+    // --- persistence
+
+    /**
+     * Read the sections saved by an earlier process, keeping those whose
+     * tables were not written to since
+     */
+    private static void load() {
+        if(loaded)
+            return;
+        loaded = true;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    ContextManager.getContext().openFileInput(FILE)));
+            if(in.readInt() != FILE_VERSION ||
+                    in.readInt() != Preferences.getCurrentVersion() ||
+                    !in.readUTF().equals(Build.FINGERPRINT))
+                return;
+
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String addon = in.readUTF();
+                Section section = new Section();
+                section.persistentModifications = new long[in.readInt()];
+                for(int j = 0; j < section.persistentModifications.length; j++)
+                    section.persistentModifications[j] = in.readLong();
+                section.data = new byte[in.readInt()];
+                in.readFully(section.data);
+
+                Exposer exposer = findByAddon(addon);
+                if(exposer == null || !Arrays.equals(section.persistentModifications,
+                        getPersistentModifications(exposer.tables)))
+                    continue;
+                section.modifications = getModifications(exposer.tables);
+                sections.put(addon, section);
+            }
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+        } catch (IOException e) {
+            Log.e("filter-snapshot", "Error reading snapshot", e);
+            sections.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write all sections to the saved file
+     */
+    private static void save() {
+        Context context = ContextManager.getContext();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    context.openFileOutput(FILE, Context.MODE_PRIVATE)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(Preferences.getCurrentVersion());
+            out.writeUTF(Build.FINGERPRINT);
+            out.writeInt(sections.size());
+            for(Entry<String, Section> entry : sections.entrySet()) {
+                Section section = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(section.persistentModifications.length);
+                for(long value : section.persistentModifications)
+                    out.writeLong(value);
+                out.writeInt(section.data.length);
+                out.write(section.data);
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            Log.e("filter-snapshot", "Error saving snapshot", e);
+            closeQuietly(out);
+            context.deleteFile(FILE);
+        }
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        if(stream == null)
+            return;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static long[] getModifications(Table[] tables) {
+        long[] result = new long[tables.length];
+        for(int i = 0; i < tables.length; i++)
+            result[i] = AbstractDatabase.getModificationCount(tables[i].name);
+        return result;
+    }
+
+    private static long[] getPersistentModifications(Table[] tables) {
+        long[] result = new long[tables.length];
+        for(int i = 0; i < tables.length; i++)
+            result[i] = AbstractDatabase.getPersistentModificationCount(tables[i].name);
+        return result;
+    }
+
+    private static Exposer findByAddon(String addon) {
+        if(addon == null)
+            return null;
+        for(Exposer exposer : EXPOSERS)
+            if(exposer.addon.equals(addon))
+                return exposer;
+        return null;
+    }
+
+    private static Exposer findByReceiver(String receiver) {
+        for(Exposer exposer : EXPOSERS)
+            if(exposer.receiver.equals(receiver))
+                return exposer;
+        return null;
+    }
+
+    private FilterListSnapshot() {
+        // static utility
+    }
+
+}
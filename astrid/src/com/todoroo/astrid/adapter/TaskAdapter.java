@@ -1,9 +1,11 @@
 package com.todoroo.astrid.adapter;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -14,6 +16,7 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
+import android.os.Process;
 import android.text.Html;
 import android.text.Html.ImageGetter;
 import android.text.util.Linkify;
@@ -126,6 +129,10 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         new DecorationManager();
     public final TaskActionManager taskActionManager = new TaskActionManager();
 
+    // --- scroll-ahead loading
+
+    public final Prefetcher prefetcher = new Prefetcher();
+
     /**
      * Constructor
      *
@@ -185,6 +192,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
     /** Creates a new view for use in the list view */
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        long start = TaskListProfiler.start();
         ViewGroup view = (ViewGroup)inflater.inflate(resource, parent, false);
 
         // create view holder
@@ -211,12 +219,15 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         // populate view content
         bindView(view, context, cursor);
 
+        TaskListProfiler.end(TaskListProfiler.newViewTime, start);
         return view;
     }
 
     /** Populates a view with content */
     @Override
     public void bindView(View view, Context context, Cursor c) {
+        long start = TaskListProfiler.start();
+        int allocations = TaskListProfiler.startAllocations();
         TodorooCursor<Task> cursor = (TodorooCursor<Task>)c;
         ViewHolder viewHolder = ((ViewHolder)view.getTag());
 
@@ -225,6 +236,9 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
 
         setFieldContentsAndVisibility(view);
         setTaskAppearance(viewHolder, task);
+
+        TaskListProfiler.endAllocations(allocations);
+        TaskListProfiler.end(TaskListProfiler.bindViewTime, start);
     }
 
     /** Helper method to set the visibility based on if there's stuff inside */
@@ -373,6 +387,18 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         taskActionManager.clearCache();
     }
 
+    /**
+     * Called to tell the cache to be cleared for the given tasks
+     */
+    public void flushCaches(Collection<Long> taskIds) {
+        for(long taskId : taskIds) {
+            detailManager.clearCache(taskId);
+            extendedDetailManager.clearCache(taskId);
+            decorationManager.clearCache(taskId);
+            taskActionManager.clearCache(taskId);
+        }
+    }
+
     /**
      * AddOnManager for Details
      * @author Tim Su <tim@todoroo.com>
@@ -409,6 +435,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         public boolean request(final ViewHolder viewHolder) {
             if(super.request(viewHolder)) {
                 final long taskId = viewHolder.task.getId();
+                TaskListProfiler.detailRequested(taskId);
                 // load internal details
                 new Thread() {
                     @Override
@@ -438,6 +465,31 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
             return false;
         }
 
+        @Override
+        public boolean prefetch(final long taskId) {
+            if(!super.prefetch(taskId))
+                return false;
+            TaskListProfiler.detailRequested(taskId);
+
+            // we are already on the prefetch thread, load internal details inline
+            for(DetailExposer exposer : EXPOSERS) {
+                String detail = exposer.getTaskDetails(activity, taskId, extended);
+                if(detail == null)
+                    continue;
+                final Collection<String> cacheList = addIfNotExists(taskId,
+                        exposer.getPluginIdentifier(), detail);
+                if(cacheList != null) {
+                    activity.runOnUiThread(new Runnable() {
+                        public void run() {
+                            if(!isFling)
+                                drawIfVisible(taskId, cacheList);
+                        }
+                    });
+                }
+            }
+            return true;
+        }
+
         @SuppressWarnings("nls")
         @Override
         void draw(ViewHolder viewHolder, long taskId, Collection<String> details) {
@@ -448,6 +500,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
             if(details.isEmpty() || (extended && expanded != taskId)) {
                 return;
             }
+            long start = TaskListProfiler.start();
             view.setVisibility(View.VISIBLE);
             StringBuilder detailText = new StringBuilder();
             for(Iterator<String> iterator = details.iterator(); iterator.hasNext(); ) {
@@ -461,6 +514,8 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
             else
                 view.setText(string.trim());
             Linkify.addLinks(view, Linkify.ALL);
+            TaskListProfiler.end(TaskListProfiler.detailDrawTime, start);
+            TaskListProfiler.detailDrawn(taskId);
         }
 
         @Override
@@ -493,6 +548,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
             if(decorations.size() == 0)
                 return;
 
+            long start = TaskListProfiler.start();
             int i = 0;
             boolean colorSet = false;
             viewHolder.decorations = new View[decorations.size()];
@@ -514,6 +570,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
                 }
                 i++;
             }
+            TaskListProfiler.end(TaskListProfiler.decorationTime, start);
         }
 
         @Override
@@ -589,6 +646,13 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
      * ======================================================= event handlers
      * ====================================================================== */
 
+    @Override
+    public void changeCursor(Cursor cursor) {
+        super.changeCursor(cursor);
+        prefetcher.reset();
+        TaskListProfiler.cursorChanged();
+    }
+
     @Override
     public void notifyDataSetChanged() {
         super.notifyDataSetChanged();
@@ -711,6 +775,174 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         }
     }
 
+    /* ======================================================================
+     * ========================================================== prefetching
+     * ====================================================================== */
+
+    /**
+     * Watches the direction and velocity of list scrolling and loads details
+     * and decorations for the rows ahead of (and just behind) the visible
+     * window on a low-priority thread. While flinging, rows are drawn without
+     * add-on content, so this ensures it is already cached when they settle.
+     *
+     * @author Tim Su <tim@todoroo.com>
+     *
+     */
+    public class Prefetcher implements Runnable {
+
+        /** minimum number of rows to load ahead of the visible window */
+        private static final int MIN_LOOKAHEAD = 5;
+
+        /** maximum number of rows to load ahead of the visible window */
+        private static final int MAX_LOOKAHEAD = 50;
+
+        /** how far ahead to look, in milliseconds of scrolling at current speed */
+        private static final long LOOKAHEAD_MILLIS = 1000L;
+
+        /** number of tasks loaded before checking for a newer window */
+        private static final int BATCH_SIZE = 5;
+
+        /** task ids waiting to be loaded, nearest first */
+        private final LinkedHashSet<Long> pending = new LinkedHashSet<Long>();
+
+        private Thread thread = null;
+        private int lastFirstVisible = -1;
+        private long lastScrollTime = 0;
+
+        /** rows whose ids were last read, first inclusive, last exclusive */
+        private int windowStart = 0, windowEnd = 0;
+
+        /**
+         * Called from the list's scroll listener to update the window of rows
+         * that should be loaded. Task ids are read from the cursor on this
+         * thread, since the list moves the same cursor, so the window is
+         * only read again once the list gets close to its edge.
+         */
+        public void onScroll(int firstVisibleItem, int visibleItemCount) {
+            long now = System.currentTimeMillis();
+            int delta = firstVisibleItem - lastFirstVisible;
+            long elapsed = Math.max(1, now - lastScrollTime);
+            boolean first = lastFirstVisible == -1;
+            lastFirstVisible = firstVisibleItem;
+            lastScrollTime = now;
+            if(first || delta == 0)
+                return;
+
+            // convert rows per millisecond into a look-ahead window
+            int lookahead = (int) (Math.abs(delta) * LOOKAHEAD_MILLIS / elapsed);
+            lookahead = Math.max(MIN_LOOKAHEAD, Math.min(MAX_LOOKAHEAD, lookahead));
+
+            // rows read last time still cover where the list is heading
+            int lastVisible = firstVisibleItem + visibleItemCount;
+            if(delta > 0 && lastVisible >= windowStart &&
+                    lastVisible + MIN_LOOKAHEAD <= windowEnd)
+                return;
+            if(delta < 0 && firstVisibleItem <= windowEnd &&
+                    firstVisibleItem - MIN_LOOKAHEAD >= windowStart)
+                return;
+
+            Cursor cursor = getCursor();
+            if(cursor == null || cursor.isClosed())
+                return;
+
+            ArrayList<Long> window = new ArrayList<Long>(lookahead);
+            int position = cursor.getPosition();
+            if(delta > 0) {
+                readWindow(cursor, window, lastVisible, lookahead, 1);
+                windowStart = lastVisible;
+                windowEnd = lastVisible + lookahead;
+            } else {
+                readWindow(cursor, window, firstVisibleItem - 1, lookahead, -1);
+                windowStart = firstVisibleItem - lookahead;
+                windowEnd = firstVisibleItem;
+            }
+            cursor.moveToPosition(position);
+
+            enqueue(window);
+        }
+
+        /**
+         * Forget the rows read so far, i.e. because the cursor changed
+         */
+        public void reset() {
+            windowStart = windowEnd = 0;
+            lastFirstVisible = -1;
+        }
+
+        /** reads task ids from the cursor, starting at the given position */
+        private void readWindow(Cursor cursor, ArrayList<Long> window, int start,
+                int count, int step) {
+            TodorooCursor<Task> taskCursor = (TodorooCursor<Task>) cursor;
+            int length = cursor.getCount();
+            for(int i = start, n = 0; i >= 0 && i < length && n < count; i += step, n++) {
+                taskCursor.moveToPosition(i);
+                window.add(taskCursor.get(Task.ID));
+            }
+        }
+
+        /** replaces the pending window and wakes up the loader */
+        private void enqueue(ArrayList<Long> window) {
+            synchronized(pending) {
+                pending.clear();
+                pending.addAll(window);
+                if(thread == null) {
+                    thread = new Thread(this, "task-prefetch"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                pending.notifyAll();
+            }
+        }
+
+        /**
+         * Stop loading and shut down the loader thread. Call when the list is
+         * no longer visible
+         */
+        public void stop() {
+            synchronized(pending) {
+                pending.clear();
+                thread = null;
+                reset();
+                pending.notifyAll();
+            }
+        }
+
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            ArrayList<Long> batch = new ArrayList<Long>(BATCH_SIZE);
+            while(true) {
+                synchronized(pending) {
+                    if(thread != Thread.currentThread())
+                        return;
+                    while(pending.isEmpty()) {
+                        try {
+                            pending.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if(thread != Thread.currentThread())
+                            return;
+                    }
+                    for(Iterator<Long> iterator = pending.iterator();
+                            iterator.hasNext() && batch.size() < BATCH_SIZE; ) {
+                        batch.add(iterator.next());
+                        iterator.remove();
+                    }
+                }
+
+                for(long taskId : batch) {
+                    try {
+                        detailManager.prefetch(taskId);
+                        decorationManager.prefetch(taskId);
+                    } catch (Exception e) {
+                        exceptionService.reportError("task-prefetch", e); //$NON-NLS-1$
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
     /* ======================================================================
      * ========================================================= addon helper
      * ====================================================================== */
@@ -742,6 +974,20 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
             return true;
         }
 
+        /**
+         * Request add-ons for the given task without drawing anything. Used
+         * to warm the cache for rows that are about to scroll into view.
+         * @return true if cache miss, false if cache hit
+         */
+        public boolean prefetch(long taskId) {
+            if(initialize(taskId) != null)
+                return false;
+
+            Intent broadcastIntent = createBroadcastIntent(taskId);
+            activity.sendOrderedBroadcast(broadcastIntent, AstridApiConstants.PERMISSION_READ);
+            return true;
+        }
+
         /** creates a broadcast intent for requesting */
         abstract Intent createBroadcastIntent(long taskId);
 
@@ -757,17 +1003,20 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
                 return;
 
             Collection<TYPE> cacheList = addIfNotExists(taskId, addOn, item);
-            if(cacheList != null) {
-                ListView listView = activity.getListView();
-                // update view if it is visible
-                int length = listView.getChildCount();
-                for(int i = 0; i < length; i++) {
-                    ViewHolder viewHolder = (ViewHolder) listView.getChildAt(i).getTag();
-                    if(viewHolder == null || viewHolder.task.getId() != taskId)
-                        continue;
-                    draw(viewHolder, taskId, cacheList);
-                    break;
-                }
+            if(cacheList != null)
+                drawIfVisible(taskId, cacheList);
+        }
+
+        /** updates the row for the given task if it is visible */
+        protected void drawIfVisible(long taskId, Collection<TYPE> cacheList) {
+            ListView listView = activity.getListView();
+            int length = listView.getChildCount();
+            for(int i = 0; i < length; i++) {
+                ViewHolder viewHolder = (ViewHolder) listView.getChildAt(i).getTag();
+                if(viewHolder == null || viewHolder.task.getId() != taskId)
+                    continue;
+                draw(viewHolder, taskId, cacheList);
+                break;
             }
         }
 
@@ -778,6 +1027,13 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
             cache.clear();
         }
 
+        /**
+         * Clears the cache for the given task
+         */
+        public synchronized void clearCache(long taskId) {
+            cache.remove(taskId);
+        }
+
         // --- internal goodies
 
         /**
@@ -0,0 +1,268 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.adapter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import com.todoroo.andlib.utility.Histogram;
+import com.todoroo.astrid.utility.Constants;
+
+/**
+ * Lightweight instrumentation for the task list. Records how long it takes
+ * to create and bind rows, how many objects a bind allocates, how long
+ * add-on details take to show up, and how many frames are dropped while
+ * flinging. Disabled (and nearly free) unless {@link #setEnabled(boolean)}
+ * is called or the application is built with {@link Constants#DEBUG}.
+ * <p>
+ * Results can be read with {@link #dump()} from the debug menu or a test.
+ */
+@SuppressWarnings("nls")
+public final class TaskListProfiler {
+
+    /** expected time between frames, in milliseconds */
+    private static final long FRAME_MILLIS = 16;
+
+    private static final String TAG = "astrid-list";
+
+    private static boolean enabled = false;
+
+    // --- histograms
+
+    /** time to inflate and bind a new row */
+    public static final Histogram newViewTime = new Histogram("newView", "us");
+
+    /** time to bind an existing row */
+    public static final Histogram bindViewTime = new Histogram("bindView", "us");
+
+    /** objects allocated by the UI thread per bind */
+    public static final Histogram bindAllocations = new Histogram("bindView allocs", "objects");
+
+    /** time to draw a row's details */
+    public static final Histogram detailDrawTime = new Histogram("detail draw", "us");
+
+    /** time from requesting a row's details until they are first drawn */
+    public static final Histogram detailFirstPaint = new Histogram("detail first paint", "ms");
+
+    /** time to inflate and attach a row's decorations */
+    public static final Histogram decorationTime = new Histogram("decoration inflate", "us");
+
+    /** time between frames while flinging */
+    public static final Histogram flingFrameTime = new Histogram("fling frame", "ms");
+
+    private static final Histogram[] HISTOGRAMS = new Histogram[] {
+        newViewTime, bindViewTime, bindAllocations, detailDrawTime,
+        detailFirstPaint, decorationTime, flingFrameTime,
+    };
+
+    // --- counters
+
+    private static long droppedFrames = 0;
+    private static long flingFrames = 0;
+
+    /** number of outstanding detail requests kept */
+    private static final int MAX_DETAIL_REQUESTS = 200;
+
+    /**
+     * time details were requested, by task id. Tasks that are prefetched
+     * but never drawn are dropped oldest first
+     */
+    private static final LinkedHashMap<Long, Long> detailRequests = new LinkedHashMap<Long, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_DETAIL_REQUESTS;
+        }
+    };
+
+    static {
+        setEnabled(Constants.DEBUG);
+    }
+
+    // --- control
+
+    /**
+     * Turn instrumentation on or off. Allocation counting slows the VM
+     * down a little, so this should stay off in normal use.
+     */
+    public static synchronized void setEnabled(boolean value) {
+        if(enabled == value)
+            return;
+        enabled = value;
+        if(enabled)
+            Debug.startAllocCounting();
+        else
+            Debug.stopAllocCounting();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Clear all recorded data
+     */
+    public static synchronized void clear() {
+        for(Histogram histogram : HISTOGRAMS)
+            histogram.clear();
+        droppedFrames = flingFrames = 0;
+        detailRequests.clear();
+        if(enabled)
+            Debug.resetThreadAllocCount();
+    }
+
+    /**
+     * @return human-readable summary of all recorded data. Also written
+     * to the log
+     */
+    public static synchronized String dump() {
+        StringBuilder result = new StringBuilder();
+        for(Histogram histogram : HISTOGRAMS)
+            result.append(histogram).append('\n');
+        result.append("fling frames: ").append(flingFrames).
+            append(", dropped: ").append(droppedFrames).append('\n');
+        String string = result.toString();
+        Log.i(TAG, string);
+        return string;
+    }
+
+    public static synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    // --- timing
+
+    /**
+     * @return start time to pass to {@link #end(Histogram, long)}, or 0
+     * if disabled
+     */
+    public static long start() {
+        if(!enabled)
+            return 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Record time elapsed since start in microseconds
+     */
+    public static void end(Histogram histogram, long start) {
+        if(!enabled || start == 0)
+            return;
+        histogram.record((System.nanoTime() - start) / 1000L);
+    }
+
+    /**
+     * @return allocation count to pass to {@link #endAllocations(int)}
+     */
+    public static int startAllocations() {
+        if(!enabled)
+            return 0;
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Record objects allocated by this thread since start
+     */
+    public static void endAllocations(int start) {
+        if(!enabled)
+            return;
+        bindAllocations.record(Debug.getThreadAllocCount() - start);
+    }
+
+    /**
+     * Called when details are requested or prefetched for a task that is
+     * not cached
+     */
+    public static synchronized void detailRequested(long taskId) {
+        if(!enabled || detailRequests.containsKey(taskId))
+            return;
+        detailRequests.put(taskId, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Called when details for a task are drawn
+     */
+    public static synchronized void detailDrawn(long taskId) {
+        if(!enabled)
+            return;
+        Long requested = detailRequests.remove(taskId);
+        if(requested != null)
+            detailFirstPaint.record(SystemClock.uptimeMillis() - requested);
+    }
+
+    /**
+     * Called when the list shows a new cursor. Details requested for the
+     * old one may never be drawn
+     */
+    public static synchronized void cursorChanged() {
+        detailRequests.clear();
+    }
+
+    // --- frame monitoring
+
+    private static FrameMonitor frameMonitor = null;
+
+    /**
+     * Start counting frames on the given view's UI thread. Call when a
+     * fling starts
+     */
+    public static synchronized void startFling(View view) {
+        if(!enabled || frameMonitor != null)
+            return;
+        frameMonitor = new FrameMonitor(view);
+        view.post(frameMonitor);
+    }
+
+    /**
+     * Stop counting frames. Call when a fling ends
+     */
+    public static synchronized void stopFling() {
+        if(frameMonitor != null)
+            frameMonitor.stopped = true;
+        frameMonitor = null;
+    }
+
+    static synchronized void recordFrame(long interval) {
+        flingFrameTime.record(interval);
+        flingFrames++;
+        if(interval > FRAME_MILLIS * 3 / 2)
+            droppedFrames += interval / FRAME_MILLIS - 1;
+    }
+
+    /**
+     * Re-posts itself to the UI thread's message queue. The time between
+     * runs is the time the UI thread was busy, so long gaps while flinging
+     * mean dropped frames.
+     */
+    private static class FrameMonitor implements Runnable {
+        private final View view;
+        private long last = 0;
+        volatile boolean stopped = false;
+
+        public FrameMonitor(View view) {
+            this.view = view;
+        }
+
+        public void run() {
+            if(stopped)
+                return;
+            long now = SystemClock.uptimeMillis();
+            if(last != 0)
+                recordFrame(now - last);
+            last = now;
+            view.postDelayed(this, FRAME_MILLIS);
+        }
+    }
+
+    private TaskListProfiler() {
+        // static utility
+    }
+
+}
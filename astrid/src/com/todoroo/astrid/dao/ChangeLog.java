@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2009, Todoroo Inc
+ * All Rights Reserved
+ * http://www.todoroo.com
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Short, process-wide log of which tasks were changed. Views over the task
+ * list remember the {@link #getGeneration()} at which they last loaded their
+ * data, and later ask for {@link #changedSince(long)} to update only the rows
+ * that were touched instead of re-running their queries.
+ * <p>
+ * Changes are recorded by the data access objects, so anything that goes
+ * through {@link TaskDao} or {@link MetadataDao} is picked up.
+ */
+public final class ChangeLog {
+
+    /** number of changes remembered before consumers must reload everything */
+    private static final int CAPACITY = 512;
+
+    /** marker for a change that could affect any task */
+    private static final long ALL_TASKS = -1;
+
+    /** changed task ids, indexed by generation modulo capacity */
+    private static final long[] log = new long[CAPACITY];
+
+    /** number of changes recorded since process start */
+    private static long generation = 0;
+
+    /**
+     * Record that the given task (or its metadata) was created, changed or
+     * deleted
+     */
+    public static synchronized void taskChanged(long taskId) {
+        log[(int)(generation % CAPACITY)] = taskId;
+        generation++;
+    }
+
+    /**
+     * Record a change that could affect any task, i.e. a bulk update
+     */
+    public static void allTasksChanged() {
+        taskChanged(ALL_TASKS);
+    }
+
+    /**
+     * @return current generation. Pass this to {@link #changedSince(long)}
+     * later to find out what changed in the meantime
+     */
+    public static synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param since generation at which the caller last loaded its data
+     * @return ids of tasks changed after the given generation, or null if
+     * too much has changed to say (caller should reload everything)
+     */
+    public static synchronized Set<Long> changedSince(long since) {
+        if(since < 0 || generation - since > CAPACITY)
+            return null;
+
+        HashSet<Long> result = new HashSet<Long>();
+        for(long i = since; i < generation; i++) {
+            long taskId = log[(int)(i % CAPACITY)];
+            if(taskId == ALL_TASKS)
+                return null;
+            result.add(taskId);
+        }
+        return result;
+    }
+
+    private ChangeLog() {
+        // static utility
+    }
+
+}
@@ -10,6 +10,8 @@ import com.todoroo.andlib.data.AbstractModel;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.Table;
 import com.todoroo.astrid.model.Metadata;
+import com.todoroo.astrid.model.OutboxEntry;
+import com.todoroo.astrid.model.ScheduledAlarm;
 import com.todoroo.astrid.model.StoreObject;
 import com.todoroo.astrid.model.Task;
 
@@ -28,7 +30,7 @@ public class Database extends AbstractDatabase {
      * Database version number. This variable must be updated when database
      * tables are updated, as it determines whether a database needs updating.
      */
-    public static final int VERSION = 4;
+    public static final int VERSION = 6;
 
     /**
      * Database name (must be unique)
@@ -43,6 +45,8 @@ public class Database extends AbstractDatabase {
         Task.TABLE,
         Metadata.TABLE,
         StoreObject.TABLE,
+        ScheduledAlarm.TABLE,
+        OutboxEntry.TABLE,
     };
 
     // --- implementation
@@ -82,6 +86,43 @@ public class Database extends AbstractDatabase {
             append(')');
         database.execSQL(sql.toString());
         sql.setLength(0);
+
+        createScheduleIndices();
+        createOutboxIndices();
+    }
+
+    /**
+     * Create indices for finding the next alarm and the alarms of a task
+     */
+    private void createScheduleIndices() {
+        StringBuilder sql = new StringBuilder();
+        sql.append("CREATE INDEX IF NOT EXISTS sa_time ON ").
+            append(ScheduledAlarm.TABLE).append('(').
+                append(ScheduledAlarm.TIME.name).
+            append(')');
+        database.execSQL(sql.toString());
+        sql.setLength(0);
+
+        sql.append("CREATE INDEX IF NOT EXISTS sa_task ON ").
+            append(ScheduledAlarm.TABLE).append('(').
+                append(ScheduledAlarm.TASK.name).append(',').
+                append(ScheduledAlarm.TYPE.name).
+            append(')');
+        database.execSQL(sql.toString());
+    }
+
+    /**
+     * Create index for finding the pending changes of a provider. It is
+     * unique, so a task has at most one entry per provider
+     */
+    private void createOutboxIndices() {
+        StringBuilder sql = new StringBuilder();
+        sql.append("CREATE UNIQUE INDEX IF NOT EXISTS ob_provider ON ").
+            append(OutboxEntry.TABLE).append('(').
+                append(OutboxEntry.PROVIDER.name).append(',').
+                append(OutboxEntry.TASK.name).
+            append(')');
+        database.execSQL(sql.toString());
     }
 
     @Override
@@ -119,6 +160,34 @@ public class Database extends AbstractDatabase {
                 append(')');
             database.execSQL(sql.toString());
         }
+        case 4: {
+            StringBuilder sql = new StringBuilder();
+            sql.append("CREATE TABLE IF NOT EXISTS ").append(ScheduledAlarm.TABLE.name).append('(').
+            append(AbstractModel.ID_PROPERTY).append(" INTEGER PRIMARY KEY AUTOINCREMENT");
+            for(Property<?> property : ScheduledAlarm.PROPERTIES) {
+                if(AbstractModel.ID_PROPERTY.name.equals(property.name))
+                    continue;
+                sql.append(',').append(property.accept(visitor, null));
+            }
+            sql.append(')');
+            database.execSQL(sql.toString());
+
+            createScheduleIndices();
+        }
+        case 5: {
+            StringBuilder sql = new StringBuilder();
+            sql.append("CREATE TABLE IF NOT EXISTS ").append(OutboxEntry.TABLE.name).append('(').
+            append(AbstractModel.ID_PROPERTY).append(" INTEGER PRIMARY KEY AUTOINCREMENT");
+            for(Property<?> property : OutboxEntry.PROPERTIES) {
+                if(AbstractModel.ID_PROPERTY.name.equals(property.name))
+                    continue;
+                sql.append(',').append(property.accept(visitor, null));
+            }
+            sql.append(')');
+            database.execSQL(sql.toString());
+
+            createOutboxIndices();
+        }
 
         return true;
         }
@@ -64,10 +64,44 @@ public class MetadataDao extends GenericDao<Metadata> {
     @Override
     public boolean persist(Metadata item) {
         boolean state = super.persist(item);
+        if(item.containsValue(Metadata.TASK)) {
+            ChangeLog.taskChanged(item.getValue(Metadata.TASK));
+            if(state)
+                SyncOutbox.getInstance().record(item.getValue(Metadata.TASK),
+                        item.containsValue(Metadata.KEY) ? item.getValue(Metadata.KEY) : ""); //$NON-NLS-1$
+        } else
+            ChangeLog.allTasksChanged();
         Astrid2TaskProvider.notifyDatabaseModification();
         return state;
     }
 
+    @Override
+    public boolean delete(long id) {
+        Metadata item = fetch(id, Metadata.TASK, Metadata.KEY);
+        boolean result = super.delete(id);
+        if(result && item != null) {
+            ChangeLog.taskChanged(item.getValue(Metadata.TASK));
+            SyncOutbox.getInstance().record(item.getValue(Metadata.TASK),
+                    item.getValue(Metadata.KEY));
+        }
+        return result;
+    }
+
+    @Override
+    public int deleteWhere(Criterion where) {
+        TodorooCursor<Metadata> cursor = query(Query.select(Metadata.TASK, Metadata.KEY).where(where));
+        try {
+            SyncOutbox outbox = SyncOutbox.getInstance();
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                ChangeLog.taskChanged(cursor.get(Metadata.TASK));
+                outbox.record(cursor.get(Metadata.TASK), cursor.get(Metadata.KEY));
+            }
+        } finally {
+            cursor.close();
+        }
+        return super.deleteWhere(where);
+    }
+
     /**
      * Fetch all metadata that are unattached to the task
      * @param database
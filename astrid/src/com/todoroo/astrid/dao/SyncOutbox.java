@@ -0,0 +1,269 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+
+import com.todoroo.andlib.data.GenericDao;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.model.OutboxEntry;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.utility.Preferences;
+
+/**
+ * Persistent queue of local changes waiting to be sent to each
+ * synchronization provider. {@link TaskDao} and {@link MetadataDao} record
+ * an entry for every registered provider whenever a task or its metadata
+ * is saved, so a provider only needs to look at the tasks in its outbox
+ * instead of scanning for modification dates after its last sync. A task
+ * has at most one entry per provider; recording it again replaces the entry
+ * and adds to the fields it lists.
+ * <p>
+ * A synchronization calls {@link #begin(String)}, reads its pending tasks
+ * through {@link #pending(String)}, then {@link #acknowledge(String)}s them
+ * once it succeeded and finally calls {@link #end(String)}. Changes made
+ * on the synchronizing thread are the provider's own writes and are not
+ * recorded for it; changes made elsewhere while it runs stay queued for
+ * the next time.
+ */
+public class SyncOutbox {
+
+    /** preference holding the registered providers */
+    private static final String PREF_PROVIDERS = "outbox-providers"; //$NON-NLS-1$
+
+    /** separator of providers and fields */
+    private static final String SEPARATOR = ","; //$NON-NLS-1$
+
+    // --- singleton
+
+    private static SyncOutbox instance = null;
+
+    public static synchronized SyncOutbox getInstance() {
+        if(instance == null)
+            instance = new SyncOutbox();
+        return instance;
+    }
+
+    // --- implementation
+
+    @Autowired
+    private Database database;
+
+    private final GenericDao<OutboxEntry> dao;
+
+    /** registered providers, or null if not yet read from preferences */
+    private String[] providers = null;
+
+    /** last entry that a running synchronization will acknowledge */
+    private final HashMap<String, Long> marks = new HashMap<String, Long>();
+
+    /** provider synchronizing on the current thread */
+    private final ThreadLocal<String> syncing = new ThreadLocal<String>();
+
+    SyncOutbox() {
+        DependencyInjectionService.getInstance().inject(this);
+        dao = new GenericDao<OutboxEntry>(OutboxEntry.class, database);
+    }
+
+    /**
+     * Record that the given task was changed. An entry that is already
+     * queued for a provider is replaced by one listing the fields of both,
+     * and the new entry is sorted after the mark of a synchronization that
+     * is running.
+     *
+     * @param taskId
+     * @param fields names of task columns or metadata keys that changed
+     */
+    public synchronized void record(long taskId, String... fields) {
+        String[] current = getProviders();
+        if(current.length == 0)
+            return;
+
+        HashMap<String, String> queued = new HashMap<String, String>();
+        TodorooCursor<OutboxEntry> cursor = dao.query(Query.select(OutboxEntry.PROVIDER,
+                OutboxEntry.FIELDS).where(OutboxEntry.TASK.eq(taskId)));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                queued.put(cursor.get(OutboxEntry.PROVIDER), cursor.get(OutboxEntry.FIELDS));
+        } finally {
+            cursor.close();
+        }
+
+        String self = syncing.get();
+        ContentValues values = new ContentValues();
+        values.put(OutboxEntry.TASK.name, taskId);
+        for(String provider : current) {
+            if(provider.equals(self))
+                continue;
+            values.put(OutboxEntry.PROVIDER.name, provider);
+            values.put(OutboxEntry.FIELDS.name, mergeFields(queued.get(provider), fields));
+            database.replace(OutboxEntry.TABLE.name, OutboxEntry.ID.name, values);
+        }
+    }
+
+    /**
+     * Start synchronizing with the given provider on the current thread.
+     * Registers the provider if it isn't already.
+     *
+     * @param provider
+     * @return true if changes have been recorded for this provider since
+     * an earlier synchronization, false if the caller needs to find local
+     * changes by other means
+     */
+    public synchronized boolean begin(String provider) {
+        boolean registered = isRegistered(provider);
+        if(!registered)
+            register(provider);
+
+        long mark = 0;
+        TodorooCursor<OutboxEntry> cursor = dao.query(Query.select(OutboxEntry.ID).
+                where(OutboxEntry.PROVIDER.eq(provider)).
+                orderBy(Order.desc(OutboxEntry.ID)).limit(1));
+        try {
+            if(cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                mark = cursor.get(OutboxEntry.ID);
+            }
+        } finally {
+            cursor.close();
+        }
+        marks.put(provider, mark);
+        syncing.set(provider);
+        return registered;
+    }
+
+    /**
+     * @param provider
+     * @return criterion matching tasks changed before the synchronization
+     * with the given provider began
+     */
+    public synchronized Criterion pending(String provider) {
+        return Task.ID.in(pendingTasks(provider));
+    }
+
+    /**
+     * @param provider
+     * @return query for the ids of tasks changed before the synchronization
+     * with the given provider began, for limiting sub-queries on other tables
+     */
+    public synchronized Query pendingTasks(String provider) {
+        return Query.select(OutboxEntry.TASK).from(OutboxEntry.TABLE).
+                where(pendingEntries(provider));
+    }
+
+    /**
+     * @param provider
+     * @param taskId
+     * @return task columns and metadata keys changed for the given task
+     * before the synchronization began
+     */
+    public synchronized Set<String> getChangedFields(String provider, long taskId) {
+        HashSet<String> fields = new HashSet<String>();
+        TodorooCursor<OutboxEntry> cursor = dao.query(Query.select(OutboxEntry.FIELDS).
+                where(Criterion.and(pendingEntries(provider), OutboxEntry.TASK.eq(taskId))));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                String value = cursor.get(OutboxEntry.FIELDS);
+                if(!TextUtils.isEmpty(value))
+                    fields.addAll(Arrays.asList(value.split(SEPARATOR)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return fields;
+    }
+
+    /**
+     * Remove the changes that were pending when the synchronization with
+     * the given provider began
+     */
+    public synchronized void acknowledge(String provider) {
+        dao.deleteWhere(pendingEntries(provider));
+    }
+
+    /**
+     * Finish synchronizing with the given provider on the current thread
+     */
+    public synchronized void end(String provider) {
+        marks.remove(provider);
+        if(provider.equals(syncing.get()))
+            syncing.remove();
+    }
+
+    /**
+     * Stop recording changes for the given provider and forget pending
+     * ones, i.e. when the user signs out
+     */
+    public synchronized void unregister(String provider) {
+        HashSet<String> current = new HashSet<String>(Arrays.asList(getProviders()));
+        if(current.remove(provider))
+            setProviders(current);
+        dao.deleteWhere(OutboxEntry.PROVIDER.eq(provider));
+    }
+
+    /**
+     * @return true if changes are being recorded for the given provider
+     */
+    public boolean isRegistered(String provider) {
+        return Arrays.asList(getProviders()).contains(provider);
+    }
+
+    // --- helpers
+
+    private Criterion pendingEntries(String provider) {
+        Long mark = marks.get(provider);
+        return Criterion.and(OutboxEntry.PROVIDER.eq(provider),
+                OutboxEntry.ID.lte(mark == null ? 0 : mark));
+    }
+
+    /**
+     * @param queued fields of the entry being replaced, or null
+     * @param fields newly changed fields
+     * @return separated list of both, without duplicates
+     */
+    private static String mergeFields(String queued, String[] fields) {
+        LinkedHashSet<String> result = new LinkedHashSet<String>();
+        if(!TextUtils.isEmpty(queued))
+            result.addAll(Arrays.asList(queued.split(SEPARATOR)));
+        for(String field : fields)
+            if(!TextUtils.isEmpty(field))
+                result.add(field);
+        return TextUtils.join(SEPARATOR, result);
+    }
+
+    private synchronized void register(String provider) {
+        HashSet<String> current = new HashSet<String>(Arrays.asList(getProviders()));
+        current.add(provider);
+        setProviders(current);
+    }
+
+    private synchronized String[] getProviders() {
+        if(providers == null) {
+            String value = Preferences.getStringValue(PREF_PROVIDERS);
+            if(TextUtils.isEmpty(value))
+                providers = new String[0];
+            else
+                providers = value.split(SEPARATOR);
+        }
+        return providers;
+    }
+
+    private void setProviders(Set<String> current) {
+        providers = current.toArray(new String[current.size()]);
+        Preferences.setString(PREF_PROVIDERS, TextUtils.join(SEPARATOR, providers));
+    }
+
+}
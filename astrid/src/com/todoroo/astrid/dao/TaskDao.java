@@ -5,6 +5,8 @@
  */
 package com.todoroo.astrid.dao;
 
+import java.util.Map.Entry;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -21,6 +23,7 @@ import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.model.Task;
 import com.todoroo.astrid.provider.Astrid2TaskProvider;
+import com.todoroo.astrid.provider.Astrid3ContentProvider;
 import com.todoroo.astrid.reminders.Notifications;
 import com.todoroo.astrid.reminders.ReminderService;
 import com.todoroo.astrid.utility.Preferences;
@@ -136,9 +139,21 @@ public class TaskDao extends GenericDao<Task> {
         // delete all metadata
         metadataDao.deleteWhere(MetadataCriteria.byTask(id));
 
+        ChangeLog.taskChanged(id);
+        Astrid3ContentProvider.notifyTaskModification(id);
         return true;
     }
 
+    @Override
+    public int deleteWhere(Criterion where) {
+        int result = super.deleteWhere(where);
+        if(result > 0) {
+            ChangeLog.allTasksChanged();
+            Astrid3ContentProvider.notifyTasksModification();
+        }
+        return result;
+    }
+
     // --- save
 
     /**
@@ -200,13 +215,49 @@ public class TaskDao extends GenericDao<Task> {
             item.setValue(Task.REMINDER_FLAGS, Task.NOTIFY_AT_DEADLINE | Task.NOTIFY_AFTER_DEADLINE);
         }
 
-        return super.createNew(item);
+        boolean result = super.createNew(item);
+        if(result)
+            ChangeLog.taskChanged(item.getId());
+        return result;
     }
 
     @Override
     public boolean saveExisting(Task item) {
         item.setValue(Task.MODIFICATION_DATE, DateUtilities.now());
-        return super.saveExisting(item);
+        boolean result = super.saveExisting(item);
+        if(result)
+            ChangeLog.taskChanged(item.getId());
+        return result;
+    }
+
+    /**
+     * Columns that only record reminder bookkeeping. Nothing that reads the
+     * {@link ChangeLog} displays them, so bulk updates of these alone are
+     * not recorded there.
+     */
+    private static final String[] REMINDER_COLUMNS = new String[] {
+        Task.REMINDER_LAST.name
+    };
+
+    @Override
+    public int update(Criterion where, Task template) {
+        int result = super.update(where, template);
+        if(result > 0 && !onlyReminderColumns(template.getSetValues()))
+            ChangeLog.allTasksChanged();
+        return result;
+    }
+
+    /**
+     * @return true if the given values only set reminder bookkeeping columns
+     */
+    private static boolean onlyReminderColumns(ContentValues values) {
+        if(values == null)
+            return false;
+        int reminderColumns = 0;
+        for(String column : REMINDER_COLUMNS)
+            if(values.containsKey(column))
+                reminderColumns++;
+        return reminderColumns == values.size();
     }
 
     /**
@@ -221,15 +272,38 @@ public class TaskDao extends GenericDao<Task> {
      * @param skipHooks whether this save occurs as part of a sync
      */
     private void afterSave(Task task, ContentValues values) {
+        recordForSync(task, values);
+
         if(values != null && values.containsKey(Task.COMPLETION_DATE.name) && task.isCompleted())
             afterComplete(task, values);
         else
             ReminderService.getInstance().scheduleAlarm(task);
+        if(values != null && values.containsKey(Task.DELETION_DATE.name) && task.isDeleted())
+            Notifications.cancelNotifications(task.getId());
 
         Astrid2TaskProvider.notifyDatabaseModification();
+        Astrid3ContentProvider.notifyTaskModification(task.getId());
         TasksWidget.updateWidgets(ContextManager.getContext());
     }
 
+    /**
+     * Record the changed columns in the synchronization outbox
+     *
+     * @param task
+     * @param values
+     */
+    private void recordForSync(Task task, ContentValues values) {
+        if(values == null) {
+            SyncOutbox.getInstance().record(task.getId());
+            return;
+        }
+        String[] fields = new String[values.size()];
+        int i = 0;
+        for(Entry<String, Object> entry : values.valueSet())
+            fields[i++] = entry.getKey();
+        SyncOutbox.getInstance().record(task.getId(), fields);
+    }
+
     /**
      * Called after the task was just completed
      *
@@ -0,0 +1,87 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.model;
+
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.data.TodorooCursor;
+
+/**
+ * Data Model which represents a local change to a task that has not yet
+ * been sent to a synchronization provider
+ */
+@SuppressWarnings("nls")
+public class OutboxEntry extends AbstractModel {
+
+    // --- table
+
+    public static final Table TABLE = new Table("outbox", OutboxEntry.class);
+
+    // --- properties
+
+    /** ID */
+    public static final LongProperty ID = new LongProperty(
+            TABLE, ID_PROPERTY_NAME);
+
+    /** Synchronization provider identifier */
+    public static final StringProperty PROVIDER = new StringProperty(
+            TABLE, "provider");
+
+    /** Associated Task */
+    public static final LongProperty TASK = new LongProperty(
+            TABLE, "task");
+
+    /** Comma-separated task columns or metadata keys that were changed */
+    public static final StringProperty FIELDS = new StringProperty(
+            TABLE, "fields");
+
+    /** List of all properties for this model */
+    public static final Property<?>[] PROPERTIES = generateProperties(OutboxEntry.class);
+
+    // --- defaults
+
+    /** Default values container */
+    private static final ContentValues defaultValues = new ContentValues();
+
+    @Override
+    public ContentValues getDefaultValues() {
+        return defaultValues;
+    }
+
+    // --- data access boilerplate
+
+    public OutboxEntry() {
+        super();
+    }
+
+    public OutboxEntry(TodorooCursor<OutboxEntry> cursor) {
+        this();
+        readPropertiesFromCursor(cursor);
+    }
+
+    public void readFromCursor(TodorooCursor<OutboxEntry> cursor) {
+        super.readPropertiesFromCursor(cursor);
+    }
+
+    @Override
+    public long getId() {
+        return getIdHelper(ID);
+    };
+
+    // --- parcelable helpers
+
+    private static final Creator<OutboxEntry> CREATOR = new ModelCreator<OutboxEntry>(OutboxEntry.class);
+
+    @Override
+    protected Creator<? extends AbstractModel> getCreator() {
+        return CREATOR;
+    }
+
+}
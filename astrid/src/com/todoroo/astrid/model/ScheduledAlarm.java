@@ -0,0 +1,86 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.model;
+
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.IntegerProperty;
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.data.TodorooCursor;
+
+/**
+ * Data Model which represents an upcoming reminder or alarm for a task
+ */
+@SuppressWarnings("nls")
+public class ScheduledAlarm extends AbstractModel {
+
+    // --- table
+
+    public static final Table TABLE = new Table("schedule", ScheduledAlarm.class);
+
+    // --- properties
+
+    /** ID */
+    public static final LongProperty ID = new LongProperty(
+            TABLE, ID_PROPERTY_NAME);
+
+    /** Associated Task */
+    public static final LongProperty TASK = new LongProperty(
+            TABLE, "task");
+
+    /** Reminder type (see ReminderService) */
+    public static final IntegerProperty TYPE = new IntegerProperty(
+            TABLE, "type");
+
+    /** Time to fire (milliseconds since epoch) */
+    public static final LongProperty TIME = new LongProperty(
+            TABLE, "time");
+
+    /** List of all properties for this model */
+    public static final Property<?>[] PROPERTIES = generateProperties(ScheduledAlarm.class);
+
+    // --- defaults
+
+    /** Default values container */
+    private static final ContentValues defaultValues = new ContentValues();
+
+    @Override
+    public ContentValues getDefaultValues() {
+        return defaultValues;
+    }
+
+    // --- data access boilerplate
+
+    public ScheduledAlarm() {
+        super();
+    }
+
+    public ScheduledAlarm(TodorooCursor<ScheduledAlarm> cursor) {
+        this();
+        readPropertiesFromCursor(cursor);
+    }
+
+    public void readFromCursor(TodorooCursor<ScheduledAlarm> cursor) {
+        super.readPropertiesFromCursor(cursor);
+    }
+
+    @Override
+    public long getId() {
+        return getIdHelper(ID);
+    };
+
+    // --- parcelable helpers
+
+    private static final Creator<ScheduledAlarm> CREATOR = new ModelCreator<ScheduledAlarm>(ScheduledAlarm.class);
+
+    @Override
+    protected Creator<? extends AbstractModel> getCreator() {
+        return CREATOR;
+    }
+
+}
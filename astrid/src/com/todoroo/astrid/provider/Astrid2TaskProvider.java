@@ -3,23 +3,29 @@ package com.todoroo.astrid.provider;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
+import android.database.AbstractCursor;
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.net.Uri;
 import android.util.Log;
 
+import com.todoroo.andlib.data.AbstractDatabase;
+import com.todoroo.andlib.data.Property.StringFunctionProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.ContextManager;
 import com.todoroo.andlib.service.DependencyInjectionService;
 import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Join;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.model.Metadata;
 import com.todoroo.astrid.model.Task;
@@ -81,6 +87,25 @@ public class Astrid2TaskProvider extends ContentProvider {
 
 	private static final String TAG_SEPARATOR = "|";
 
+	/** tags of a task, each followed by a separator. null if no tags */
+	private static final StringProperty TASK_TAGS = new StringFunctionProperty(
+	        "GROUP_CONCAT(" + TagService.TAG + " || '" + TAG_SEPARATOR + "', '')", TAGS_ID);
+
+	/** how long cached rows are used. tasks can become visible over time */
+	private static final long CACHE_DURATION = 60 * 1000L;
+
+	/** cached rows of {@link #getTasks()}, or null */
+	private static Object[][] taskRows = null;
+
+	/** cached rows of {@link #getTags()}, or null */
+	private static Object[][] tagRows = null;
+
+	/** modification stamp and time the cached rows were read at */
+	private static long cacheStamp = -1, cacheTime = 0;
+
+	/** tag id by tag name */
+	private static final HashMap<String, Long> tagIds = new HashMap<String, Long>();
+
 	@Autowired
 	private TaskService taskService;
 
@@ -129,24 +154,35 @@ public class Astrid2TaskProvider extends ContentProvider {
 	 * @return two-column cursor: tag id (string) and tag name
 	 */
 	public Cursor getTags() {
+	    synchronized(Astrid2TaskProvider.class) {
+	        checkCache();
+	        if(tagRows != null)
+	            return new RowCursor(TAGS_FIELD_LIST, tagRows);
+	    }
 
 		Tag[] tags = TagService.getInstance().getGroupedTags(TagService.GROUPED_TAGS_BY_SIZE,
 		        Criterion.all);
 
-		MatrixCursor ret = new MatrixCursor(TAGS_FIELD_LIST);
-
+		Object[][] rows = new Object[tags.length][];
 		for (int i = 0; i < tags.length; i++) {
 			Object[] values = new Object[2];
 			values[0] = tagNameToLong(tags[i].tag);
 			values[1] = tags[i].tag;
 
-			ret.addRow(values);
+			rows[i] = values;
 		}
 
-		return ret;
+		synchronized(Astrid2TaskProvider.class) {
+		    tagRows = rows;
+		}
+		return new RowCursor(TAGS_FIELD_LIST, rows);
 	}
 
-    private long tagNameToLong(String tag) {
+    private static synchronized long tagNameToLong(String tag) {
+        Long cached = tagIds.get(tag);
+        if(cached != null)
+            return cached;
+
         MessageDigest m;
         try {
             m = MessageDigest.getInstance("MD5");
@@ -155,7 +191,9 @@ public class Astrid2TaskProvider extends ContentProvider {
         }
 
         m.update(tag.getBytes(), 0, tag.length());
-        return new BigInteger(1, m.digest()).longValue();
+        long result = new BigInteger(1, m.digest()).longValue();
+        tagIds.put(tag, result);
+        return result;
     }
 
     /**
@@ -173,28 +211,30 @@ public class Astrid2TaskProvider extends ContentProvider {
 	 * @return cursor as described above
 	 */
 	public Cursor getTasks() {
+	    synchronized(Astrid2TaskProvider.class) {
+	        checkCache();
+	        if(taskRows != null)
+	            return new RowCursor(TASK_FIELD_LIST, taskRows);
+	    }
 
-		MatrixCursor ret = new MatrixCursor(TASK_FIELD_LIST);
-
+		// tags are read in the same query, by grouping on the task
 		TodorooCursor<Task> cursor = taskService.query(Query.select(Task.ID, Task.TITLE,
-		        Task.IMPORTANCE, Task.DUE_DATE).where(Criterion.and(TaskCriteria.isActive(),
-                        TaskCriteria.isVisible())).
+		        Task.IMPORTANCE, Task.DUE_DATE, TASK_TAGS).
+		        join(Join.left(Metadata.TABLE, Criterion.and(Metadata.TASK.eq(Task.ID),
+		                MetadataCriteria.withKey(TagService.KEY)))).
+		        where(Criterion.and(TaskCriteria.isActive(), TaskCriteria.isVisible())).
+		        groupBy(Task.ID).
 		        orderBy(TaskService.defaultTaskOrder()).limit(MAX_NUMBER_OF_TASKS));
+		Object[][] rows;
 		try {
     		int[] importanceColors = Task.getImportanceColors(ctx.getResources());
+    		rows = new Object[cursor.getCount()][];
     		Task task = new Task();
-    		for (int i = 0; i < cursor.getCount(); i++) {
+    		for (int i = 0; i < rows.length; i++) {
     			cursor.moveToNext();
     			task.readFromCursor(cursor);
 
-    			StringBuilder taskTags = new StringBuilder();
-    			TodorooCursor<Metadata> tagCursor = TagService.getInstance().getTags(task.getId());
-    			try {
-    			    for(tagCursor.moveToFirst(); !tagCursor.isAfterLast(); tagCursor.moveToNext())
-    			        taskTags.append(tagCursor.get(TagService.TAG)).append(TAG_SEPARATOR);
-    			} finally {
-    			    tagCursor.close();
-    			}
+    			String taskTags = cursor.get(TASK_TAGS);
 
     			Object[] values = new Object[7];
     			values[0] = task.getValue(Task.TITLE);
@@ -203,15 +243,33 @@ public class Astrid2TaskProvider extends ContentProvider {
     			values[3] = task.getValue(Task.DUE_DATE);
     			values[4] = task.getValue(Task.IMPORTANCE);
     			values[5] = task.getId();
-    			values[6] = taskTags.toString();
+    			values[6] = taskTags == null ? "" : taskTags;
 
-    			ret.addRow(values);
+    			rows[i] = values;
     		}
 		} finally {
 		    cursor.close();
 		}
 
-		return ret;
+		synchronized(Astrid2TaskProvider.class) {
+		    taskRows = rows;
+		}
+		return new RowCursor(TASK_FIELD_LIST, rows);
+	}
+
+	/**
+	 * Throw away cached rows if the database changed or they are too old
+	 */
+	private static void checkCache() {
+	    long stamp = AbstractDatabase.getModificationCount(Task.TABLE.name) +
+	        AbstractDatabase.getModificationCount(Metadata.TABLE.name);
+	    long now = DateUtilities.now();
+	    if(stamp != cacheStamp || now - cacheTime > CACHE_DURATION) {
+	        taskRows = null;
+	        tagRows = null;
+	        cacheStamp = stamp;
+	        cacheTime = now;
+	    }
 	}
 
 	@Override
@@ -285,7 +343,83 @@ public class Astrid2TaskProvider extends ContentProvider {
 		if (LOGD)
 			Log.d(TAG, "notifyDatabaseModification");
 
+		synchronized(Astrid2TaskProvider.class) {
+		    taskRows = null;
+		    tagRows = null;
+		}
 		ctx.getContentResolver().notifyChange(CONTENT_URI, null);
 	}
 
+	/**
+	 * Read-only cursor over rows that are shared between queries
+	 */
+	private static final class RowCursor extends AbstractCursor {
+
+	    private final String[] columns;
+	    private final Object[][] rows;
+
+	    public RowCursor(String[] columns, Object[][] rows) {
+	        this.columns = columns;
+	        this.rows = rows;
+	    }
+
+	    private Object get(int column) {
+	        if(mPos < 0 || mPos >= rows.length)
+	            throw new IndexOutOfBoundsException("Position " + mPos);
+	        return rows[mPos][column];
+	    }
+
+	    @Override
+	    public int getCount() {
+	        return rows.length;
+	    }
+
+	    @Override
+	    public String[] getColumnNames() {
+	        return columns;
+	    }
+
+	    @Override
+	    public String getString(int column) {
+	        Object value = get(column);
+	        return value == null ? null : value.toString();
+	    }
+
+	    @Override
+	    public short getShort(int column) {
+	        return (short) getLong(column);
+	    }
+
+	    @Override
+	    public int getInt(int column) {
+	        return (int) getLong(column);
+	    }
+
+	    @Override
+	    public long getLong(int column) {
+	        Object value = get(column);
+	        if(value instanceof Number)
+	            return ((Number) value).longValue();
+	        return value == null ? 0 : Long.parseLong(value.toString());
+	    }
+
+	    @Override
+	    public float getFloat(int column) {
+	        return (float) getDouble(column);
+	    }
+
+	    @Override
+	    public double getDouble(int column) {
+	        Object value = get(column);
+	        if(value instanceof Number)
+	            return ((Number) value).doubleValue();
+	        return value == null ? 0 : Double.parseDouble(value.toString());
+	    }
+
+	    @Override
+	    public boolean isNull(int column) {
+	        return get(column) == null;
+	    }
+	}
+
 }
@@ -0,0 +1,372 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.provider;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.ContextManager;
+import com.todoroo.andlib.service.DependencyInjectionService;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.repeats.RepeatService;
+import com.todoroo.astrid.repeats.RepeatService.Occurrence;
+import com.todoroo.astrid.service.AstridDependencyInjector;
+
+/**
+ * Read-only task provider for integrations that need more than
+ * {@link Astrid2TaskProvider} offers. Columns are the columns of the task
+ * table, and queries honour projection, selection, selection arguments and
+ * sort order. Deleted tasks are never returned. Selections may only refer
+ * to task columns: subqueries, comments and statement separators are
+ * rejected, and sort orders are lists of task columns with an optional
+ * <code>ASC</code> or <code>DESC</code>.
+ * <ul>
+ * <li><code>tasks</code>: all tasks
+ * <li><code>tasks/&lt;id&gt;</code>: a single task
+ * <li><code>tasks/filter/&lt;text&gt;</code>: tasks with the given text in
+ * their title
+ * <li><code>tasks/upcoming/&lt;days&gt;</code>: occurrences of active tasks
+ * due from today through the given number of days, including future
+ * occurrences of repeating tasks that have no row yet. Columns are
+ * <code>_id</code>, <code>title</code>, <code>dueDate</code> and
+ * {@link #UPCOMING_VIRTUAL}; selection and sort order are not supported
+ * </ul>
+ * Append <code>limit</code> and <code>offset</code> query parameters to
+ * page through results, i.e. <code>tasks?limit=20&amp;offset=40</code>.
+ * <p>
+ * When a task changes, only its own <code>tasks/&lt;id&gt;</code> URI is
+ * notified, so observers of a single task are not woken up by changes to
+ * other tasks. Cursors over several tasks are registered on
+ * <code>tasks</code> and so are refreshed by any task change.
+ */
+@SuppressWarnings("nls")
+public class Astrid3ContentProvider extends ContentProvider {
+
+    static {
+        AstridDependencyInjector.initialize();
+    }
+
+    public static final String AUTHORITY = "com.todoroo.astrid.tasks";
+
+    public static final Uri TASKS_URI = Uri.parse("content://" + AUTHORITY + "/tasks");
+
+    public static final Uri FILTER_URI = Uri.withAppendedPath(TASKS_URI, "filter");
+
+    public static final Uri UPCOMING_URI = Uri.withAppendedPath(TASKS_URI, "upcoming");
+
+    /** upcoming column: 1 if the occurrence has no row of its own yet */
+    public static final String UPCOMING_VIRTUAL = "virtual";
+
+    /** query parameter for the maximum number of rows returned */
+    public static final String PARAM_LIMIT = "limit";
+
+    /** query parameter for the number of rows skipped */
+    public static final String PARAM_OFFSET = "offset";
+
+    public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.astrid.task";
+
+    public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.astrid.task";
+
+    private static final int URI_TASKS = 0;
+    private static final int URI_TASK = 1;
+    private static final int URI_FILTER = 2;
+    private static final int URI_UPCOMING = 3;
+
+    private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        URI_MATCHER.addURI(AUTHORITY, "tasks", URI_TASKS);
+        URI_MATCHER.addURI(AUTHORITY, "tasks/#", URI_TASK);
+        URI_MATCHER.addURI(AUTHORITY, "tasks/filter/*", URI_FILTER);
+        URI_MATCHER.addURI(AUTHORITY, "tasks/upcoming/#", URI_UPCOMING);
+    }
+
+    /** all columns, returned if no projection is given */
+    private static final String[] COLUMNS;
+
+    private static final HashSet<String> COLUMN_SET = new HashSet<String>();
+
+    /** identity projection map, so queries cannot name other columns */
+    private static final HashMap<String, String> PROJECTION_MAP = new HashMap<String, String>();
+
+    static {
+        COLUMNS = new String[Task.PROPERTIES.length];
+        for(int i = 0; i < COLUMNS.length; i++) {
+            COLUMNS[i] = Task.PROPERTIES[i].name;
+            PROJECTION_MAP.put(COLUMNS[i], COLUMNS[i]);
+        }
+        COLUMN_SET.addAll(Arrays.asList(COLUMNS));
+    }
+
+    /** keyword that would start a subquery or another statement */
+    private static final Pattern SELECT = Pattern.compile("\\bselect\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    /** one sort term: a column with an optional direction */
+    private static final Pattern SORT_TERM = Pattern.compile(
+            "\\s*(\\w+)(\\s+(?i:asc|desc))?\\s*");
+
+    @Autowired
+    private Database database;
+
+    public Astrid3ContentProvider() {
+        DependencyInjectionService.getInstance().inject(this);
+    }
+
+    @Override
+    public boolean onCreate() {
+        ContextManager.setContext(getContext());
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (URI_MATCHER.match(uri)) {
+        case URI_TASKS:
+        case URI_FILTER:
+        case URI_UPCOMING:
+            return CONTENT_TYPE;
+        case URI_TASK:
+            return CONTENT_ITEM_TYPE;
+        default:
+            throw new IllegalArgumentException("Unrecognized URI: " + uri);
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        if(URI_MATCHER.match(uri) == URI_UPCOMING)
+            return queryUpcoming(uri, projection);
+
+        if(projection == null)
+            projection = COLUMNS;
+        for(String column : projection)
+            if(!COLUMN_SET.contains(column))
+                throw new IllegalArgumentException("Unknown column: " + column);
+
+        checkSelection(selection);
+        checkSortOrder(sortOrder);
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(Task.TABLE.name);
+        builder.setProjectionMap(PROJECTION_MAP);
+        builder.appendWhere(Task.DELETION_DATE.name + " = 0");
+
+        Uri notificationUri = TASKS_URI;
+        switch (URI_MATCHER.match(uri)) {
+        case URI_TASKS:
+            break;
+        case URI_TASK:
+            builder.appendWhere(" AND " + Task.ID.name + " = " + ContentUris.parseId(uri));
+            notificationUri = uri;
+            break;
+        case URI_FILTER:
+            builder.appendWhere(" AND " + Task.TITLE.name + " LIKE ");
+            builder.appendWhereEscapeString("%" + uri.getLastPathSegment() + "%");
+            break;
+        default:
+            throw new IllegalArgumentException("Unrecognized URI: " + uri);
+        }
+
+        Cursor cursor = builder.query(database.getDatabase(), projection,
+                selection, selectionArgs, null, null, sortOrder, getLimit(uri));
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        return cursor;
+    }
+
+    /**
+     * Reject selections that could read other tables or run other
+     * statements: subqueries, comments, statement separators and
+     * unbalanced parentheses outside of string literals.
+     */
+    private static void checkSelection(String selection) {
+        if(selection == null)
+            return;
+        StringBuilder unquoted = new StringBuilder();
+        int depth = 0;
+        char quote = 0;
+        for(int i = 0; i < selection.length(); i++) {
+            char c = selection.charAt(i);
+            if(quote != 0) {
+                if(c == quote)
+                    quote = 0;
+                unquoted.append(' ');
+                continue;
+            }
+            if(c == '\'' || c == '"') {
+                quote = c;
+            } else if(c == ';') {
+                throw new IllegalArgumentException("Invalid selection: " + selection);
+            } else if((c == '-' || c == '/') && i + 1 < selection.length() &&
+                    selection.charAt(i + 1) == (c == '-' ? '-' : '*')) {
+                throw new IllegalArgumentException("Invalid selection: " + selection);
+            } else if(c == '(') {
+                depth++;
+            } else if(c == ')' && --depth < 0) {
+                throw new IllegalArgumentException("Invalid selection: " + selection);
+            }
+            unquoted.append(c);
+        }
+        if(depth != 0 || quote != 0 || SELECT.matcher(unquoted).find())
+            throw new IllegalArgumentException("Invalid selection: " + selection);
+    }
+
+    /**
+     * Reject sort orders that are not a list of task columns, each with an
+     * optional direction
+     */
+    private static void checkSortOrder(String sortOrder) {
+        if(sortOrder == null)
+            return;
+        for(String term : sortOrder.split(",")) {
+            Matcher matcher = SORT_TERM.matcher(term);
+            if(!matcher.matches() || !COLUMN_SET.contains(matcher.group(1)))
+                throw new IllegalArgumentException("Invalid sort order: " + sortOrder);
+        }
+    }
+
+    /** columns of upcoming occurrences */
+    private static final String[] UPCOMING_COLUMNS = new String[] {
+        Task.ID.name, Task.TITLE.name, Task.DUE_DATE.name, UPCOMING_VIRTUAL
+    };
+
+    /**
+     * Query occurrences due between the start of today and the number of
+     * days in the uri. The window starts at a day boundary so repeated
+     * queries reuse expanded occurrences.
+     */
+    private Cursor queryUpcoming(Uri uri, String[] projection) {
+        if(projection == null)
+            projection = UPCOMING_COLUMNS;
+        int[] columns = new int[projection.length];
+        for(int i = 0; i < projection.length; i++) {
+            columns[i] = Arrays.asList(UPCOMING_COLUMNS).indexOf(projection[i]);
+            if(columns[i] == -1)
+                throw new IllegalArgumentException("Unknown column: " + projection[i]);
+        }
+
+        Date today = new Date();
+        today = new Date(today.getYear(), today.getMonth(), today.getDate());
+        long start = today.getTime();
+        long end = start + ContentUris.parseId(uri) * DateUtilities.ONE_DAY - 1;
+
+        List<Occurrence> occurrences = RepeatService.getInstance().getUpcoming(start, end);
+        Integer limit = getPagingParameter(uri, PARAM_LIMIT);
+        if(limit == null)
+            limit = Integer.MAX_VALUE;
+        Integer offset = getPagingParameter(uri, PARAM_OFFSET);
+        if(offset == null)
+            offset = 0;
+
+        MatrixCursor cursor = new MatrixCursor(projection);
+        Object[] values = new Object[UPCOMING_COLUMNS.length];
+        for(int i = offset; i < occurrences.size() && i - offset < limit; i++) {
+            Occurrence occurrence = occurrences.get(i);
+            values[0] = occurrence.taskId;
+            values[1] = occurrence.title;
+            values[2] = occurrence.dueDate;
+            values[3] = occurrence.virtual ? 1 : 0;
+            Object[] row = new Object[projection.length];
+            for(int j = 0; j < columns.length; j++)
+                row[j] = values[columns[j]];
+            cursor.addRow(row);
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), TASKS_URI);
+        return cursor;
+    }
+
+    /**
+     * @return limit clause from the uri's paging parameters, or null
+     */
+    private static String getLimit(Uri uri) {
+        Integer limit = getPagingParameter(uri, PARAM_LIMIT);
+        Integer offset = getPagingParameter(uri, PARAM_OFFSET);
+        if(offset != null)
+            return offset + "," + (limit == null ? -1 : limit);
+        if(limit != null)
+            return limit.toString();
+        return null;
+    }
+
+    /**
+     * @return value of a paging parameter, or null if it isn't set
+     * @throws IllegalArgumentException if it isn't a non-negative number
+     */
+    private static Integer getPagingParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if(value == null)
+            return null;
+        try {
+            int result = Integer.parseInt(value);
+            if(result >= 0)
+                return result;
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid paging parameters: " + uri);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Provider is read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
+        throw new UnsupportedOperationException("Provider is read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Provider is read-only");
+    }
+
+    // --- notification
+
+    /**
+     * @return uri for a single task
+     */
+    public static Uri getTaskUri(long taskId) {
+        return ContentUris.withAppendedId(TASKS_URI, taskId);
+    }
+
+    /**
+     * Notify observers that the given task was created, changed or deleted
+     */
+    public static void notifyTaskModification(long taskId) {
+        Context context = ContextManager.getContext();
+        if(context != null)
+            context.getContentResolver().notifyChange(getTaskUri(taskId), null);
+    }
+
+    /**
+     * Notify observers that any task could have changed
+     */
+    public static void notifyTasksModification() {
+        Context context = ContextManager.getContext();
+        if(context != null)
+            context.getContentResolver().notifyChange(TASKS_URI, null);
+    }
+
+}
@@ -19,6 +19,8 @@ import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.StoreObjectDao;
 import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.producteev.api.ProducteevInvoker;
+import com.todoroo.astrid.rmilk.api.Invoker;
 
 /**
  * Astrid application dependency injector loads classes in Astrid with the
@@ -106,6 +108,11 @@ public class AstridDependencyInjector implements AbstractDependencyInjector {
         injectables.put("upgradeService", UpgradeService.class);
         injectables.put("addOnService", AddOnService.class);
 
+        // com.todoroo.astrid.producteev, com.todoroo.astrid.rmilk
+        injectables.put("producteevServerUrl", ProducteevInvoker.DEFAULT_URL);
+        injectables.put("rtmServerUrl", Invoker.DEFAULT_SERVER_URL);
+        injectables.put("rtmRateLimiter", Invoker.DEFAULT_LIMITER);
+
         // com.timsu.astrid.data
         injectables.put("tasksTable", "tasks");
         injectables.put("tagsTable", "tags");
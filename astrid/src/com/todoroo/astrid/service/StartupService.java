@@ -24,6 +24,7 @@ import com.todoroo.astrid.backup.BackupService;
 import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.producteev.ProducteevBackgroundService;
 import com.todoroo.astrid.producteev.ProducteevUtilities;
+import com.todoroo.astrid.reminders.ReminderStartupReceiver;
 import com.todoroo.astrid.rmilk.MilkBackgroundService;
 import com.todoroo.astrid.rmilk.MilkUtilities;
 import com.todoroo.astrid.utility.Constants;
@@ -113,6 +114,9 @@ public class StartupService {
 
                 database.openForWriting();
                 taskService.cleanup();
+
+                // fill reminder queue after upgrading from per-task alarms
+                ReminderStartupReceiver.scheduleReminders();
             }
         }).start();
 
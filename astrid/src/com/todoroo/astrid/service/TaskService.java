@@ -1,5 +1,8 @@
 package com.todoroo.astrid.service;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
@@ -9,6 +12,7 @@ import com.todoroo.andlib.sql.Functions;
 import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.andlib.utility.Pair;
 import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.api.PermaSql;
 import com.todoroo.astrid.dao.MetadataDao;
@@ -151,6 +155,94 @@ public class TaskService {
         }
     }
 
+    /**
+     * Split a query template into its where clause and its order clause
+     * @return null if query can't be evaluated for single tasks, i.e. if
+     * it has joins, grouping, or limits
+     */
+    @SuppressWarnings("nls")
+    public static Pair<String, String> splitQueryTemplate(String template) {
+        String upper = template.toUpperCase();
+        if(upper.contains("JOIN") || upper.contains("GROUP BY") || upper.contains("LIMIT"))
+            return null;
+
+        String where = template;
+        String order = "";
+        int orderIndex = upper.lastIndexOf("ORDER BY");
+        if(orderIndex > -1) {
+            order = template.substring(orderIndex);
+            // make sure we didn't find the ordering of a sub-query
+            if(order.replace("(", "").length() != order.replace(")", "").length())
+                return null;
+            where = template.substring(0, orderIndex);
+        }
+
+        where = where.trim();
+        if(where.length() == 0)
+            where = Criterion.all.toString();
+        else if(where.toUpperCase().startsWith("WHERE"))
+            where = where.substring("WHERE".length());
+        else
+            return null;
+        return Pair.create(where, order);
+    }
+
+    /**
+     * Split an order clause into its terms
+     * @param order order clause as returned by {@link #splitQueryTemplate},
+     * may be empty
+     * @return expression of each term and whether it is descending, or
+     * null if the terms can't be compared outside of SQL, i.e. if they use
+     * a collation or refer to result columns by number
+     */
+    @SuppressWarnings("nls")
+    public static List<Pair<String, Boolean>> splitOrder(String order) {
+        ArrayList<Pair<String, Boolean>> result = new ArrayList<Pair<String, Boolean>>();
+        String clause = order.trim();
+        if(clause.length() == 0)
+            return result;
+        if(!clause.toUpperCase().startsWith("ORDER BY"))
+            return null;
+        clause = clause.substring("ORDER BY".length());
+
+        // split on commas outside of parentheses and quotes
+        ArrayList<String> terms = new ArrayList<String>();
+        int depth = 0, start = 0;
+        char quote = 0;
+        for(int i = 0; i < clause.length(); i++) {
+            char c = clause.charAt(i);
+            if(quote != 0) {
+                if(c == quote)
+                    quote = 0;
+            } else if(c == '\'' || c == '"')
+                quote = c;
+            else if(c == '(')
+                depth++;
+            else if(c == ')')
+                depth--;
+            else if(c == ',' && depth == 0) {
+                terms.add(clause.substring(start, i));
+                start = i + 1;
+            }
+        }
+        terms.add(clause.substring(start));
+
+        for(String term : terms) {
+            term = term.trim();
+            String upper = term.toUpperCase();
+            boolean descending = false;
+            if(upper.endsWith(" DESC")) {
+                descending = true;
+                term = term.substring(0, term.length() - " DESC".length()).trim();
+            } else if(upper.endsWith(" ASC"))
+                term = term.substring(0, term.length() - " ASC".length()).trim();
+            if(term.length() == 0 || upper.contains("COLLATE") || term.matches("\\d+"))
+                return null;
+            result.add(Pair.create(term, descending));
+        }
+        return result;
+    }
+
     /**
      * Fetch tasks for the given filter
      * @param properties
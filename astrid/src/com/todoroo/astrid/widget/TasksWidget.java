@@ -1,5 +1,7 @@
 package com.todoroo.astrid.widget;
 
+import java.util.ArrayList;
+
 import android.app.PendingIntent;
 import android.app.Service;
 import android.appwidget.AppWidgetManager;
@@ -8,13 +10,13 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
+import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.widget.RemoteViews;
 
 import com.timsu.astrid.R;
-import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.service.ContextManager;
 import com.todoroo.andlib.service.DependencyInjectionService;
@@ -26,7 +28,6 @@ import com.todoroo.astrid.activity.TaskListActivity;
 import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.core.CoreFilterExposer;
 import com.todoroo.astrid.dao.Database;
-import com.todoroo.astrid.model.Task;
 import com.todoroo.astrid.service.AstridDependencyInjector;
 import com.todoroo.astrid.service.TaskService;
 import com.todoroo.astrid.utility.Preferences;
@@ -91,38 +92,111 @@ public class TasksWidget extends AppWidgetProvider {
         @Autowired
         TaskService taskService;
 
+        /** how long to wait for more changes before updating widgets */
+        private static final long UPDATE_DELAY = 1000L;
+
+        /** longest a requested update can be put off by further requests */
+        private static final long MAX_UPDATE_DELAY = 10 * 1000L;
+
+        /** number of tasks shown in a widget */
+        private static final int NUMBER_OF_TASKS = 5;
+
+        private final Handler handler = new Handler();
+
+        /** time the oldest pending update was requested, or 0 */
+        private long firstRequest = 0;
+
+        private final Runnable updateAll = new Runnable() {
+            public void run() {
+                firstRequest = 0;
+                updateAllWidgets();
+            }
+        };
+
         @Override
         public void onStart(Intent intent, int startId) {
             ContextManager.setContext(this);
 
-            ComponentName thisWidget = new ComponentName(this,
-                    TasksWidget.class);
-            AppWidgetManager manager = AppWidgetManager.getInstance(this);
-
             int extrasId = AppWidgetManager.INVALID_APPWIDGET_ID;
             if(intent != null)
                 extrasId = intent.getIntExtra(EXTRA_WIDGET_ID, extrasId);
             if(extrasId == AppWidgetManager.INVALID_APPWIDGET_ID) {
-                for(int id : manager.getAppWidgetIds(thisWidget)) {
-                    RemoteViews updateViews = buildUpdate(this, id);
-                    manager.updateAppWidget(id, updateViews);
-                }
+                // saves come in bursts (i.e. during sync), so wait for them
+                // to settle down before updating
+                long now = DateUtilities.now();
+                if(firstRequest == 0)
+                    firstRequest = now;
+                handler.removeCallbacks(updateAll);
+                handler.postDelayed(updateAll, Math.max(0,
+                        Math.min(UPDATE_DELAY, firstRequest + MAX_UPDATE_DELAY - now)));
             } else {
-                int id = extrasId;
-                RemoteViews updateViews = buildUpdate(this, id);
-                manager.updateAppWidget(id, updateViews);
+                AppWidgetManager manager = AppWidgetManager.getInstance(this);
+                updateWidget(manager, extrasId, getFilter(extrasId), true);
             }
         }
 
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+            handler.removeCallbacks(updateAll);
+        }
+
+        /**
+         * Update all widgets, running each distinct widget query only once
+         */
+        private void updateAllWidgets() {
+            ComponentName thisWidget = new ComponentName(this,
+                    TasksWidget.class);
+            AppWidgetManager manager = AppWidgetManager.getInstance(this);
+            ArrayList<Integer> widgetIds = new ArrayList<Integer>();
+            for(int id : manager.getAppWidgetIds(thisWidget)) {
+                widgetIds.add(id);
+                updateWidget(manager, id, getFilter(id), false);
+            }
+            WidgetQueryCache.retain(widgetIds);
+        }
+
+        /**
+         * Update one widget if the tasks it shows have changed
+         */
+        private void updateWidget(AppWidgetManager manager, int widgetId,
+                Filter filter, boolean force) {
+            DependencyInjectionService.getInstance().inject(this);
+            WidgetQueryCache.Result result = null;
+            try {
+                int flags = Preferences.getInt(SortSelectionActivity.PREF_SORT_FLAGS, 0);
+                int sort = Preferences.getInt(SortSelectionActivity.PREF_SORT_SORT, 0);
+                String query = SortSelectionActivity.adjustQueryForFlagsAndSort(
+                        filter.sqlQuery, flags, sort);
+
+                database.openForReading();
+                result = WidgetQueryCache.get(taskService, query, NUMBER_OF_TASKS, force);
+            } catch (Exception e) {
+                // can happen if database is not ready
+                Log.e("WIDGET-UPDATE", "Error updating widget", e); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+
+            if(!force && result != null && !WidgetQueryCache.needsRender(widgetId, result))
+                return;
+            RemoteViews updateViews = buildUpdate(this, widgetId, filter, result);
+            manager.updateAppWidget(widgetId, updateViews);
+            if(result != null)
+                WidgetQueryCache.rendered(widgetId, result);
+        }
+
         @Override
         public IBinder onBind(Intent intent) {
             return null;
         }
 
+        /**
+         * Build a widget's views
+         *
+         * @param result tasks to show, or null if they couldn't be loaded
+         */
         @SuppressWarnings("nls")
-        public RemoteViews buildUpdate(Context context, int widgetId) {
-            DependencyInjectionService.getInstance().inject(this);
-
+        public RemoteViews buildUpdate(Context context, int widgetId, Filter filter,
+                WidgetQueryCache.Result result) {
             RemoteViews views = null;
 
             views = new RemoteViews(context.getPackageName(),
@@ -130,52 +204,29 @@ public class TasksWidget extends AppWidgetProvider {
 
             int[] textIDs = TEXT_IDS;
             int[] separatorIDs = SEPARATOR_IDS;
-            int numberOfTasks = 5;
 
             for(int i = 0; i < textIDs.length; i++)
                 views.setTextViewText(textIDs[i], "");
 
-            TodorooCursor<Task> cursor = null;
-            Filter filter = null;
-            try {
-                filter = getFilter(widgetId);
-                views.setTextViewText(R.id.widget_title, filter.title);
+            views.setTextViewText(R.id.widget_title, filter.title);
+            int count = result == null ? 0 : Math.min(result.getCount(), textIDs.length);
+            long now = DateUtilities.now();
+            for (int i = 0; i < count; i++) {
+                String textContent = result.titles[i];
+                int textColor = Color.WHITE;
 
-                int flags = Preferences.getInt(SortSelectionActivity.PREF_SORT_FLAGS, 0);
-                int sort = Preferences.getInt(SortSelectionActivity.PREF_SORT_SORT, 0);
-                String query = SortSelectionActivity.adjustQueryForFlagsAndSort(
-                        filter.sqlQuery, flags, sort) + " LIMIT " + numberOfTasks;
+                if(result.dueDates[i] > 0 && result.dueDates[i] < now)
+                    textColor = context.getResources().getColor(R.color.task_list_overdue);
 
-                database.openForReading();
-                cursor = taskService.fetchFiltered(query, null, Task.TITLE, Task.DUE_DATE);
-                Task task = new Task();
-                for (int i = 0; i < cursor.getCount() && i < numberOfTasks; i++) {
-                    cursor.moveToPosition(i);
-                    task.readFromCursor(cursor);
-
-                    String textContent = "";
-                    int textColor = Color.WHITE;
-
-                    textContent = task.getValue(Task.TITLE);
-                    if(task.hasDueDate() && task.getValue(Task.DUE_DATE) < DateUtilities.now())
-                        textColor = context.getResources().getColor(R.color.task_list_overdue);
-
-                    if(i > 0)
-                        views.setViewVisibility(separatorIDs[i-1], View.VISIBLE);
-                    views.setTextViewText(textIDs[i], textContent);
-                    views.setTextColor(textIDs[i], textColor);
-                }
-
-                for(int i = cursor.getCount() - 1; i < separatorIDs.length; i++) {
-                    if(i >= 0)
-                        views.setViewVisibility(separatorIDs[i], View.INVISIBLE);
-                }
-            } catch (Exception e) {
-                // can happen if database is not ready
-                Log.e("WIDGET-UPDATE", "Error updating widget", e);
-            } finally {
-                if(cursor != null)
-                    cursor.close();
+                if(i > 0)
+                    views.setViewVisibility(separatorIDs[i-1], View.VISIBLE);
+                views.setTextViewText(textIDs[i], textContent);
+                views.setTextColor(textIDs[i], textColor);
+            }
+
+            for(int i = count - 1; i < separatorIDs.length; i++) {
+                if(i >= 0)
+                    views.setViewVisibility(separatorIDs[i], View.INVISIBLE);
             }
 
             Intent listIntent = new Intent(context, TaskListActivity.class);
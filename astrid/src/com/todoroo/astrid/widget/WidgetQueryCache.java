@@ -0,0 +1,219 @@
+/**
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.widget;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.andlib.utility.Pair;
+import com.todoroo.astrid.dao.ChangeLog;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.service.TaskService;
+import com.todoroo.astrid.utility.Constants;
+
+/**
+ * Caches the tasks shown by {@link TasksWidget}s. Widgets that show the same
+ * filter share one query, and a cached result is only re-queried when
+ * {@link ChangeLog} reports a change to one of its tasks or to a task that
+ * now matches its filter. Widgets are only re-rendered when the rows they
+ * show have actually changed.
+ * <p>
+ * Results also expire after a while, since filters can depend on the
+ * current time.
+ */
+public final class WidgetQueryCache {
+
+    /** maximum age of a result before it is re-queried regardless */
+    static final long MAX_AGE = Constants.WIDGET_UPDATE_INTERVAL / 2;
+
+    /**
+     * Top rows of a widget query
+     */
+    public static final class Result {
+        public final long[] ids;
+        public final String[] titles;
+        public final long[] dueDates;
+
+        /** {@link ChangeLog} generation this result is current as of */
+        long generation;
+
+        /** time this result was queried */
+        long loaded;
+
+        Result(int count) {
+            ids = new long[count];
+            titles = new String[count];
+            dueDates = new long[count];
+        }
+
+        public int getCount() {
+            return ids.length;
+        }
+
+        /**
+         * @return bit mask of rows that are overdue at the given time
+         */
+        public int getOverdue(long now) {
+            int result = 0;
+            for(int i = 0; i < dueDates.length && i < 32; i++)
+                if(dueDates[i] > 0 && dueDates[i] < now)
+                    result |= 1 << i;
+            return result;
+        }
+
+        boolean sameRows(Result other) {
+            if(other.ids.length != ids.length)
+                return false;
+            for(int i = 0; i < ids.length; i++) {
+                if(ids[i] != other.ids[i] || dueDates[i] != other.dueDates[i])
+                    return false;
+                if(titles[i] == null ? other.titles[i] != null : !titles[i].equals(other.titles[i]))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /** results, by query */
+    private static final HashMap<String, Result> results = new HashMap<String, Result>();
+
+    /** result last rendered into each widget */
+    private static final HashMap<Integer, Result> rendered = new HashMap<Integer, Result>();
+
+    /** overdue rows last rendered into each widget */
+    private static final HashMap<Integer, Integer> renderedOverdue = new HashMap<Integer, Integer>();
+
+    /**
+     * Get the top rows of a query, re-using the cached result if nothing
+     * relevant has changed since it was loaded
+     *
+     * @param taskService
+     * @param query query template, without a limit
+     * @param limit maximum number of rows
+     * @param force true to always re-query
+     * @return result. Same object as last time if the rows are unchanged
+     */
+    @SuppressWarnings("nls")
+    public static synchronized Result get(TaskService taskService, String query,
+            int limit, boolean force) {
+        String key = query + " LIMIT " + limit;
+        long generation = ChangeLog.getGeneration();
+        Result cached = results.get(key);
+        if(cached != null && !force && DateUtilities.now() - cached.loaded < MAX_AGE &&
+                !isAffected(taskService, cached, query)) {
+            cached.generation = generation;
+            return cached;
+        }
+
+        Result result = load(taskService, key, limit);
+        result.generation = generation;
+        if(cached != null && cached.sameRows(result)) {
+            cached.generation = result.generation;
+            cached.loaded = result.loaded;
+            return cached;
+        }
+        results.put(key, result);
+        return result;
+    }
+
+    /**
+     * @return true if the given widget doesn't yet show this result
+     */
+    public static synchronized boolean needsRender(int widgetId, Result result) {
+        Integer overdue = renderedOverdue.get(widgetId);
+        return rendered.get(widgetId) != result || overdue == null ||
+            overdue != result.getOverdue(DateUtilities.now());
+    }
+
+    /**
+     * Record that the given widget now shows this result
+     */
+    public static synchronized void rendered(int widgetId, Result result) {
+        rendered.put(widgetId, result);
+        renderedOverdue.put(widgetId, result.getOverdue(DateUtilities.now()));
+    }
+
+    /**
+     * Drop cached results that no widget shows any more
+     *
+     * @param widgetIds ids of all existing widgets
+     */
+    public static synchronized void retain(Collection<Integer> widgetIds) {
+        rendered.keySet().retainAll(widgetIds);
+        renderedOverdue.keySet().retainAll(widgetIds);
+        for(Iterator<Result> i = results.values().iterator(); i.hasNext(); )
+            if(!rendered.containsValue(i.next()))
+                i.remove();
+    }
+
+    /**
+     * Drop everything, so that all widgets are re-queried and re-rendered
+     */
+    public static synchronized void clear() {
+        results.clear();
+        rendered.clear();
+        renderedOverdue.clear();
+    }
+
+    // --- implementation
+
+    /**
+     * @return true if tasks changed since the result was loaded could
+     * change what it shows
+     */
+    @SuppressWarnings("nls")
+    private static boolean isAffected(TaskService taskService, Result result, String query) {
+        Set<Long> changed = ChangeLog.changedSince(result.generation);
+        if(changed == null)
+            return true;
+        if(changed.isEmpty())
+            return false;
+
+        for(long id : result.ids)
+            if(changed.contains(id))
+                return true;
+
+        // see if any of the changed tasks now match
+        Pair<String, String> split = TaskService.splitQueryTemplate(query);
+        if(split == null)
+            return true;
+        TodorooCursor<Task> cursor = taskService.fetchFiltered("WHERE " +
+                Task.ID.in(changed.toArray(new Long[changed.size()])) + " AND (" +
+                split.getLeft() + ") LIMIT 1", null, Task.ID);
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Result load(TaskService taskService, String query, int limit) {
+        TodorooCursor<Task> cursor = taskService.fetchFiltered(query, null,
+                Task.ID, Task.TITLE, Task.DUE_DATE);
+        try {
+            Result result = new Result(Math.min(cursor.getCount(), limit));
+            Task task = new Task();
+            for(int i = 0; i < result.getCount(); i++) {
+                cursor.moveToPosition(i);
+                task.readFromCursor(cursor);
+                result.ids[i] = task.getId();
+                result.titles[i] = task.getValue(Task.TITLE);
+                result.dueDates[i] = task.hasDueDate() ? task.getValue(Task.DUE_DATE) : 0;
+            }
+            result.loaded = DateUtilities.now();
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private WidgetQueryCache() {
+        // static utility
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.todoroo.andlib.utility;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+public class BitmapCacheTests extends AndroidTestCase {
+
+    /** 10x10 ARGB bitmaps are 400 bytes */
+    private static Bitmap createBitmap() {
+        return Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+    }
+
+    public void testGetAndPut() {
+        BitmapCache cache = new BitmapCache(1000);
+        assertNull(cache.get("a"));
+
+        Bitmap bitmap = createBitmap();
+        cache.put("a", bitmap);
+        assertSame(bitmap, cache.get("a"));
+        assertEquals(400, cache.getSize());
+
+        // replacing does not count twice
+        cache.put("a", createBitmap());
+        assertEquals(400, cache.getSize());
+
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testEviction() {
+        BitmapCache cache = new BitmapCache(1000);
+        cache.put("a", createBitmap());
+        cache.put("b", createBitmap());
+
+        // touch a so that b is least recently used
+        assertNotNull(cache.get("a"));
+        cache.put("c", createBitmap());
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(800, cache.getSize());
+    }
+
+    public void testTooLarge() {
+        BitmapCache cache = new BitmapCache(100);
+        cache.put("a", createBitmap());
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+}
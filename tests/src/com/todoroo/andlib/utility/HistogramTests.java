@@ -0,0 +1,42 @@
+package com.todoroo.andlib.utility;
+
+import android.test.AndroidTestCase;
+
+public class HistogramTests extends AndroidTestCase {
+
+    public void testEmpty() {
+        Histogram histogram = new Histogram("test", "ms");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    public void testStatistics() {
+        Histogram histogram = new Histogram("test", "ms");
+        for(int i = 1; i <= 100; i++)
+            histogram.record(i);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(50, histogram.getMean());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+
+        // percentiles are bucket upper bounds, so only approximate
+        long median = histogram.getPercentile(0.5);
+        assertTrue(median >= 50 && median < 64);
+        assertEquals(100, histogram.getPercentile(0.99));
+    }
+
+    public void testClear() {
+        Histogram histogram = new Histogram("test", "ms");
+        histogram.record(12);
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin());
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+}
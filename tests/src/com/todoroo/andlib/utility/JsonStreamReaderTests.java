@@ -0,0 +1,67 @@
+package com.todoroo.andlib.utility;
+
+import java.io.StringReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.test.AndroidTestCase;
+
+@SuppressWarnings("nls")
+public class JsonStreamReaderTests extends AndroidTestCase {
+
+    private static JsonStreamReader reader(String json) {
+        return new JsonStreamReader(new StringReader(json));
+    }
+
+    /** test reading the elements of an array inside an object */
+    public void testArray() throws Exception {
+        JsonStreamReader reader = reader("{\"time\": 5, \"skip\": {\"a\": [1, \"]}\"]}, " +
+                "\"tasks\": [ {\"task\": {\"title\": \"a \\\"b\\\" \\u00e9\"}}, {\"task\": {}} ], " +
+                "\"after\": null}");
+        reader.beginObject();
+        assertEquals("time", reader.nextName());
+        reader.skipValue();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("tasks", reader.nextName());
+        reader.beginArray();
+
+        assertTrue(reader.hasNext());
+        JSONObject task = reader.nextObject();
+        assertEquals("a \"b\" \u00e9", task.getJSONObject("task").getString("title"));
+        assertTrue(reader.hasNext());
+        assertEquals(0, reader.nextObject().getJSONObject("task").length());
+        assertFalse(reader.hasNext());
+
+        assertEquals("after", reader.nextName());
+        reader.skipValue();
+        assertNull(reader.nextName());
+    }
+
+    /** test empty arrays and objects */
+    public void testEmpty() throws Exception {
+        JsonStreamReader reader = reader("{\"tasks\":[]}");
+        reader.beginObject();
+        assertEquals("tasks", reader.nextName());
+        reader.beginArray();
+        assertFalse(reader.hasNext());
+        assertNull(reader.nextName());
+    }
+
+    /** test that truncated input is reported */
+    public void testTruncated() throws Exception {
+        JsonStreamReader reader = reader("{\"tasks\":[{\"task\": {\"title\": \"a");
+        reader.beginObject();
+        reader.nextName();
+        reader.beginArray();
+        assertTrue(reader.hasNext());
+        try {
+            reader.nextObject();
+            fail("expected exception");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.todoroo.andlib.utility;
+
+import android.test.AndroidTestCase;
+
+public class RateLimiterTests extends AndroidTestCase {
+
+    /** test that only requests beyond the burst wait */
+    public void testBurst() {
+        RateLimiter limiter = new RateLimiter(3, 100, 1000);
+        long now = System.currentTimeMillis();
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(100, limiter.reserve(now));
+        assertEquals(200, limiter.reserve(now));
+
+        // bucket refills over time, up to the burst
+        now += 10000;
+        for(int i = 0; i < 3; i++)
+            assertEquals(0, limiter.reserve(now));
+        assertEquals(100, limiter.reserve(now));
+    }
+
+    /** test backing off and recovering */
+    public void testBackoff() {
+        RateLimiter limiter = new RateLimiter(3, 100, 300);
+        long now = System.currentTimeMillis();
+
+        limiter.backoff(now);
+        assertEquals(200, limiter.getInterval());
+        assertEquals(200, limiter.reserve(now));
+
+        limiter.backoff(now);
+        assertEquals(300, limiter.getInterval());
+
+        for(int i = 0; i < 10; i++)
+            limiter.success();
+        assertEquals(100, limiter.getInterval());
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.todoroo.andlib.utility;
+
+import android.test.AndroidTestCase;
+
+public class SparseBitmapTests extends AndroidTestCase {
+
+    private static SparseBitmap create(long... ids) {
+        SparseBitmap bitmap = new SparseBitmap();
+        for(long id : ids)
+            bitmap.add(id);
+        return bitmap;
+    }
+
+    public void testAdd() {
+        SparseBitmap bitmap = create(1, 2, 64, 1000, 3, 0, 1000);
+        assertEquals(6, bitmap.cardinality());
+        assertTrue(bitmap.contains(0));
+        assertTrue(bitmap.contains(3));
+        assertTrue(bitmap.contains(64));
+        assertTrue(bitmap.contains(1000));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(63));
+        assertFalse(bitmap.contains(-1));
+        assertFalse(bitmap.contains(100000));
+
+        assertTrue(new SparseBitmap().isEmpty());
+        assertEquals(0, new SparseBitmap().cardinality());
+    }
+
+    public void testUnion() {
+        SparseBitmap result = create(1, 2, 500).union(create(2, 3, 10000));
+        assertEquals(5, result.cardinality());
+        assertTrue(result.contains(1));
+        assertTrue(result.contains(3));
+        assertTrue(result.contains(500));
+        assertTrue(result.contains(10000));
+    }
+
+    public void testIntersection() {
+        SparseBitmap result = create(1, 2, 500, 10000).intersection(create(2, 3, 10000));
+        assertEquals(2, result.cardinality());
+        assertTrue(result.contains(2));
+        assertTrue(result.contains(10000));
+
+        assertTrue(create(1).intersection(create(2)).isEmpty());
+    }
+
+    public void testDifference() {
+        SparseBitmap first = create(1, 2, 500, 10000);
+        SparseBitmap result = first.difference(create(2, 3, 10000));
+        assertEquals(2, result.cardinality());
+        assertTrue(result.contains(1));
+        assertTrue(result.contains(500));
+
+        // operands are unchanged
+        assertEquals(4, first.cardinality());
+        assertTrue(first.difference(first).isEmpty());
+    }
+
+}
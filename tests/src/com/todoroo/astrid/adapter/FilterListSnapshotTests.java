@@ -0,0 +1,144 @@
+package com.todoroo.astrid.adapter;
+
+import android.os.Parcelable;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.QueryTemplate;
+import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.api.FilterCategory;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class FilterListSnapshotTests extends DatabaseTestCase {
+
+    private static final String CORE = "com.todoroo.astrid.core.CoreFilterExposer";
+    private static final String TIMER = "com.todoroo.astrid.timers.TimerFilterExposer";
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FilterListSnapshot.invalidate();
+    }
+
+    private Filter[] createFilters(String title) {
+        return new Filter[] {
+            new Filter(title, title, new QueryTemplate(), null)
+        };
+    }
+
+    /**
+     * Test that saved sections are returned as copies
+     */
+    public void testSections() throws Exception {
+        assertNull(FilterListSnapshot.getSection("core"));
+        assertFalse(FilterListSnapshot.isCurrent(CORE));
+
+        FilterListSnapshot.requesting(CORE);
+        FilterListSnapshot.putSection("core", createFilters("inbox"));
+        assertTrue(FilterListSnapshot.isCurrent(CORE));
+        assertEquals(1, FilterListSnapshot.getAddons().size());
+
+        Parcelable[] section = FilterListSnapshot.getSection("core");
+        assertEquals(1, section.length);
+        Filter filter = (Filter) section[0];
+        assertEquals("inbox", filter.listingTitle);
+
+        // changes to the copy are not saved
+        filter.listingTitle = "inbox (5)";
+        filter = (Filter) FilterListSnapshot.getSection("core")[0];
+        assertEquals("inbox", filter.listingTitle);
+    }
+
+    /**
+     * Test that a category's icon is not read by its last child
+     */
+    public void testCategoryIcon() throws Exception {
+        FilterCategory category = new FilterCategory("lists", createFilters("inbox"));
+        category.listingIconResource = 42;
+        category.listingIconPackage = "com.example";
+
+        FilterListSnapshot.requesting(CORE);
+        FilterListSnapshot.putSection("core", new Parcelable[] { category });
+
+        category = (FilterCategory) FilterListSnapshot.getSection("core")[0];
+        assertEquals(42, category.listingIconResource);
+        assertEquals("com.example", category.listingIconPackage);
+        assertEquals(1, category.children.length);
+        assertEquals(0, category.children[0].listingIconResource);
+    }
+
+    /**
+     * Test that sections go stale when their tables change
+     */
+    public void testStale() throws Exception {
+        FilterListSnapshot.requesting(CORE);
+        FilterListSnapshot.putSection("core", createFilters("inbox"));
+        FilterListSnapshot.requesting(TIMER);
+        FilterListSnapshot.putSection("timer", createFilters("working on"));
+        assertTrue(FilterListSnapshot.isCurrent(TIMER));
+
+        Task task = new Task();
+        task.setValue(Task.TITLE, "happy");
+        assertTrue(taskDao.save(task));
+
+        assertFalse(FilterListSnapshot.isCurrent(TIMER));
+        assertTrue(FilterListSnapshot.isCurrent(CORE));
+    }
+
+    /**
+     * Test that sections are read back after a restart unless their
+     * tables were written to
+     */
+    public void testSaved() throws Exception {
+        FilterListSnapshot.requesting(CORE);
+        FilterListSnapshot.putSection("core", createFilters("inbox"));
+        FilterListSnapshot.requesting(TIMER);
+        FilterListSnapshot.putSection("timer", createFilters("working on"));
+
+        FilterListSnapshot.reload();
+        assertEquals(2, FilterListSnapshot.getAddons().size());
+        assertTrue(FilterListSnapshot.isCurrent(TIMER));
+        Filter filter = (Filter) FilterListSnapshot.getSection("timer")[0];
+        assertEquals("working on", filter.listingTitle);
+
+        Task task = new Task();
+        task.setValue(Task.TITLE, "happy");
+        assertTrue(taskDao.save(task));
+
+        FilterListSnapshot.reload();
+        assertTrue(FilterListSnapshot.isCurrent(CORE));
+        assertFalse(FilterListSnapshot.isCurrent(TIMER));
+        assertNull(FilterListSnapshot.getSection("timer"));
+    }
+
+    /**
+     * Test that unknown add-ons are never saved
+     */
+    public void testUnknownAddon() throws Exception {
+        FilterListSnapshot.putSection("someone-else", createFilters("theirs"));
+        FilterListSnapshot.putSection(null, createFilters("anonymous"));
+        assertTrue(FilterListSnapshot.getAddons().isEmpty());
+        assertFalse(FilterListSnapshot.isCurrent("com.example.FilterExposer"));
+    }
+
+    /**
+     * Test that task counts are forgotten when tasks change
+     */
+    public void testCounts() throws Exception {
+        Filter filter = createFilters("inbox")[0];
+        assertNull(FilterListSnapshot.getCount(filter));
+
+        FilterListSnapshot.putCount(filter, FilterListSnapshot.getCountModifications(), 3);
+        assertEquals(3, FilterListSnapshot.getCount(filter).intValue());
+
+        Task task = new Task();
+        task.setValue(Task.TITLE, "happy");
+        assertTrue(taskDao.save(task));
+        assertNull(FilterListSnapshot.getCount(filter));
+    }
+
+}
@@ -0,0 +1,368 @@
+package com.todoroo.astrid.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.timsu.astrid.R;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.service.TestDependencyInjector;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.RateLimiter;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.producteev.FakeProducteevServer;
+import com.todoroo.astrid.producteev.ProducteevUtilities;
+import com.todoroo.astrid.producteev.sync.ProducteevSyncProvider;
+import com.todoroo.astrid.rmilk.FakeRtmServer;
+import com.todoroo.astrid.rmilk.MilkUtilities;
+import com.todoroo.astrid.rmilk.sync.RTMSyncProvider;
+import com.todoroo.astrid.test.BenchmarkMeasurement;
+import com.todoroo.astrid.test.DatabaseTestCase;
+import com.todoroo.astrid.test.FakeHttpServer;
+import com.todoroo.astrid.utility.Preferences;
+
+/**
+ * Measures full and incremental synchronization with Producteev and
+ * Remember the Milk against stand-in servers running in this process.
+ * Each result is written as one JSON object per line to the log (tag
+ * <code>astrid-bench</code>) and appended to <code>sync-benchmark.json</code>
+ * in the test context's files directory, so runs can be compared.
+ * <p>
+ * Heap figures include the servers' own allocations, so they are only
+ * meaningful relative to other runs of this benchmark.
+ */
+@SuppressWarnings("nls")
+public class SyncBenchmarkTests extends DatabaseTestCase {
+
+    private static final String OUTPUT = "sync-benchmark.json";
+
+    /** fraction of tasks changed on each side before an incremental sync */
+    private static final double CHANGED = 0.01;
+
+    /** tasks created locally before an incremental sync */
+    private static final int CREATED = 10;
+
+    @Autowired
+    TaskDao taskDao;
+
+    /** same seed every run so results are comparable */
+    private final Random random = new Random(42);
+
+    private FakeProducteevServer producteev = null;
+    private FakeRtmServer rtm = null;
+
+    /** points the invokers at the stand-in servers */
+    private TestDependencyInjector injector;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        injector = TestDependencyInjector.initialize("sync");
+        Preferences.setPreferenceDefaults();
+        new ProducteevSyncProvider().signOut();
+        new RTMSyncProvider().signOut();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if(producteev != null)
+            producteev.shutdown();
+        if(rtm != null)
+            rtm.shutdown();
+        TestDependencyInjector.deinitialize("sync");
+        new ProducteevSyncProvider().signOut();
+        new RTMSyncProvider().signOut();
+        super.tearDown();
+    }
+
+    public void testProducteev1k() throws Exception {
+        runProducteev(1000);
+    }
+
+    @LargeTest
+    public void testProducteev10k() throws Exception {
+        runProducteev(10000);
+    }
+
+    public void testRtm1k() throws Exception {
+        runRtm(1000);
+    }
+
+    @LargeTest
+    public void testRtm10k() throws Exception {
+        runRtm(10000);
+    }
+
+    /** test that sync gets through an overloaded and flaky server */
+    public void testRtmRetriesFailures() throws Exception {
+        startRtm(200);
+        rtm.setRateLimit(20);
+        rtm.setFailureRate(0.05);
+        injector.addInjectable("rtmRateLimiter", new RateLimiter(3, 40, 2000));
+
+        Measurement measurement = new Measurement(rtm);
+        new BenchmarkRtmProvider().run(getContext());
+        JSONObject result = measurement.finish("rtm.flaky", 200, MilkUtilities.IDENTIFIER);
+        measurement.write();
+
+        assertTrue(result.getBoolean("success"));
+        assertTrue(rtm.getFailedCount() > 0);
+        assertTrue(result.getInt("retries") > 0);
+        assertEquals(rtm.getIncompleteCount(), countLocalTasks());
+    }
+
+    /** test that an expired token is replaced without failing the sync */
+    public void testProducteevRenewsToken() throws Exception {
+        startProducteev(100);
+        new BenchmarkProducteevProvider().run(getContext());
+        assertEquals(1, producteev.getRequestCount("users/login.json"));
+
+        producteev.expireTokens();
+        producteev.modifyTasks(5, random);
+        producteev.resetStatistics();
+        new BenchmarkProducteevProvider().run(getContext());
+
+        assertTrue(SyncMetrics.getHistory(ProducteevUtilities.IDENTIFIER).
+                getJSONObject(0).getBoolean("success"));
+        assertEquals(1, producteev.getRequestCount("users/login.json"));
+    }
+
+    // --- benchmark
+
+    private void runProducteev(int size) throws Exception {
+        startProducteev(size);
+
+        Measurement measurement = new Measurement(producteev);
+        new BenchmarkProducteevProvider().run(getContext());
+        JSONObject result = measurement.finish("producteev.full", size,
+                ProducteevUtilities.IDENTIFIER);
+        measurement.write();
+        assertTrue(result.getBoolean("success"));
+        assertEquals(producteev.getTaskCount(), countLocalTasks());
+
+        int changed = (int) (size * CHANGED);
+        producteev.modifyTasks(changed, random);
+        changeLocalTasks(changed);
+
+        measurement = new Measurement(producteev);
+        new BenchmarkProducteevProvider().run(getContext());
+        result = measurement.finish("producteev.incremental", size,
+                ProducteevUtilities.IDENTIFIER);
+        measurement.write();
+        assertTrue(result.getBoolean("success"));
+        assertEquals(CREATED, producteev.getRequestCount("tasks/create.json"));
+        assertEquals(producteev.getTaskCount(), countLocalTasks());
+    }
+
+    private void runRtm(int size) throws Exception {
+        startRtm(size);
+
+        Measurement measurement = new Measurement(rtm);
+        new BenchmarkRtmProvider().run(getContext());
+        JSONObject result = measurement.finish("rtm.full", size, MilkUtilities.IDENTIFIER);
+        measurement.write();
+        assertTrue(result.getBoolean("success"));
+        assertEquals(rtm.getIncompleteCount(), countLocalTasks());
+
+        // rtm only compares times to the second
+        Thread.sleep(1000);
+        int changed = (int) (size * CHANGED);
+        rtm.modifyTasks(changed, random);
+        changeLocalTasks(changed);
+
+        measurement = new Measurement(rtm);
+        new BenchmarkRtmProvider().run(getContext());
+        result = measurement.finish("rtm.incremental", size, MilkUtilities.IDENTIFIER);
+        measurement.write();
+        assertTrue(result.getBoolean("success"));
+        assertEquals(CREATED, rtm.getRequestCount("rtm.tasks.add"));
+    }
+
+    private void startProducteev(int size) throws IOException {
+        producteev = new FakeProducteevServer();
+        producteev.seed(5, 10, size, 3, random);
+        injector.addInjectable("producteevServerUrl", producteev.getUrl() + "/");
+        Preferences.setString(R.string.producteev_PPr_email, FakeProducteevServer.EMAIL);
+        Preferences.setString(R.string.producteev_PPr_password, FakeProducteevServer.PASSWORD);
+    }
+
+    private void startRtm(int size) throws IOException {
+        rtm = new FakeRtmServer();
+        rtm.seed(5, 10, size, 3, random);
+        injector.addInjectable("rtmServerUrl", rtm.getUrl());
+        injector.addInjectable("rtmRateLimiter", new RateLimiter(10, 1, 1000));
+        MilkUtilities.setToken(FakeRtmServer.TOKEN);
+    }
+
+    /**
+     * Rename some synchronized tasks and create a few new ones
+     */
+    private void changeLocalTasks(int count) {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.ID).
+                where(TaskCriteria.isActive()));
+        try {
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                ids.add(cursor.get(Task.ID));
+        } finally {
+            cursor.close();
+        }
+
+        for(int i = 0; i < count && !ids.isEmpty(); i++) {
+            Task task = new Task();
+            task.setId(ids.remove(random.nextInt(ids.size())));
+            task.setValue(Task.TITLE, "changed locally " + i);
+            taskDao.save(task);
+        }
+
+        for(int i = 0; i < CREATED; i++) {
+            Task task = new Task();
+            task.setValue(Task.TITLE, "created locally " + i);
+            taskDao.save(task);
+        }
+    }
+
+    private int countLocalTasks() {
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.ID).
+                where(TaskCriteria.notDeleted()));
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // --- measurement
+
+    /**
+     * Elapsed time, requests, allocations and heap use of one sync
+     */
+    private class Measurement extends BenchmarkMeasurement {
+        private final FakeHttpServer server;
+        private final long baseline;
+        private final HeapSampler sampler;
+
+        public Measurement(FakeHttpServer server) {
+            super(getContext(), OUTPUT);
+            this.server = server;
+            server.resetStatistics();
+            baseline = usedMemory(true);
+            Debug.resetGlobalAllocCount();
+            Debug.resetGlobalAllocSize();
+            Debug.startAllocCounting();
+            sampler = new HeapSampler();
+            sampler.start();
+            begin();
+        }
+
+        /**
+         * @param identifier sync provider whose metrics to read
+         * @return result, also kept for {@link #write()}
+         */
+        public JSONObject finish(String name, int tasks, String identifier) throws JSONException {
+            long elapsed = elapsedNanos() / 1000000L;
+            int allocations = Debug.getGlobalAllocCount();
+            int allocated = Debug.getGlobalAllocSize();
+            Debug.stopAllocCounting();
+            long peak = sampler.finish();
+
+            JSONObject metrics = SyncMetrics.getHistory(identifier).optJSONObject(0);
+            if(metrics == null)
+                metrics = new JSONObject();
+
+            newResult(name, tasks);
+            result.put("elapsed_ms", elapsed);
+            result.put("success", metrics.optBoolean("success"));
+            result.put("requests", server.getRequestCount());
+            result.put("client_requests", metrics.optInt("requests"));
+            result.put("bytes", server.getBytesWritten());
+            result.put("retries", metrics.optInt("retries"));
+            result.put("rate_limited", server.getRateLimitedCount());
+            result.put("failed", server.getFailedCount());
+            result.put("phases_ms", metrics.optJSONObject("phases_ms"));
+            result.put("allocations", allocations);
+            result.put("allocated_bytes", allocated);
+            result.put("peak_heap_bytes", peak - baseline);
+            result.put("retained_heap_bytes", usedMemory(true) - baseline);
+            return result;
+        }
+    }
+
+    /**
+     * @param collect whether to collect garbage first
+     * @return bytes of heap in use
+     */
+    private static long usedMemory(boolean collect) {
+        if(collect) {
+            System.gc();
+            System.runFinalization();
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Samples heap use in the background to find its peak
+     */
+    private static class HeapSampler extends Thread {
+        private volatile boolean running = true;
+        private long peak = 0;
+
+        @Override
+        public void run() {
+            while(running) {
+                peak = Math.max(peak, usedMemory(false));
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /** @return highest heap use seen */
+        public long finish() {
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Math.max(peak, usedMemory(false));
+        }
+    }
+
+    // --- providers
+
+    /**
+     * Runs synchronization on the calling thread, without notifications
+     */
+    private static class BenchmarkProducteevProvider extends ProducteevSyncProvider {
+        public void run(Context context) {
+            metrics = new SyncMetrics();
+            initiate(context);
+        }
+    }
+
+    /**
+     * Runs synchronization on the calling thread, without notifications
+     */
+    private static class BenchmarkRtmProvider extends RTMSyncProvider {
+        public void run(Context context) {
+            metrics = new SyncMetrics();
+            initiate(context);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.todoroo.astrid.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.timsu.astrid.R;
+import com.todoroo.andlib.test.TodorooTestCase;
+
+@SuppressWarnings("nls")
+public class SyncMetricsTests extends TodorooTestCase {
+
+    private static final String IDENTIFIER = "test";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncMetrics.clearHistory(IDENTIFIER);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncMetrics.clearHistory(IDENTIFIER);
+        super.tearDown();
+    }
+
+    /** test that requests are grouped by method or path */
+    public void testEndpointName() {
+        assertEquals("rtm.tasks.getList", SyncMetrics.getEndpointName(
+                "http://api.rememberthemilk.com/services/rest/?method=rtm.tasks.getList&auth_token=x"));
+        assertEquals("rtm.auth.getFrob", SyncMetrics.getEndpointName(
+                "http://api.rememberthemilk.com/services/rest/?api_key=x&method=rtm.auth.getFrob"));
+        assertEquals("tasks/show_list.json", SyncMetrics.getEndpointName(
+                "https://api.producteev.com/tasks/show_list.json?token=x&api_sig=y"));
+        assertEquals("", SyncMetrics.getEndpointName("https://api.producteev.com"));
+    }
+
+    /** test counters */
+    public void testCounters() throws Exception {
+        SyncMetrics metrics = new SyncMetrics();
+        metrics.startPhase(SyncMetrics.PHASE_FETCH_REMOTE);
+        metrics.requestCompleted("https://api.producteev.com/tasks/show_list.json?a=b", 100, 5);
+        metrics.requestCompleted("https://api.producteev.com/tasks/show_list.json?a=c", 50, 5);
+        metrics.requestRetried("https://api.producteev.com/tasks/view.json");
+        metrics.startPhase(SyncMetrics.PHASE_REMOTE_WRITE);
+        metrics.countTask(SyncMetrics.TASKS_WRITTEN);
+        metrics.countTask(SyncMetrics.TASKS_WRITTEN);
+        metrics.endPhase();
+
+        JSONObject json = metrics.toJSON();
+        assertFalse(json.getBoolean("success"));
+        assertEquals(2, json.getInt("requests"));
+        assertEquals(150, json.getLong("bytes"));
+        assertEquals(1, json.getInt("retries"));
+        assertEquals(2, json.getJSONObject("endpoints").
+                getJSONObject("tasks/show_list.json").getInt("requests"));
+        assertEquals(1, json.getJSONObject("endpoints").
+                getJSONObject("tasks/view.json").getInt("retries"));
+        assertEquals(2, json.getJSONObject("tasks").getInt(SyncMetrics.TASKS_WRITTEN));
+        assertTrue(json.getJSONObject("phases_ms").has(SyncMetrics.PHASE_FETCH_REMOTE));
+        assertTrue(json.getJSONObject("phases_ms").has(SyncMetrics.PHASE_REMOTE_WRITE));
+    }
+
+    /** test that only the last runs are kept, newest first */
+    public void testHistory() throws Exception {
+        assertEquals(0, SyncMetrics.getHistory(IDENTIFIER).length());
+
+        for(int i = 0; i < SyncMetrics.HISTORY_SIZE + 2; i++) {
+            SyncMetrics metrics = new SyncMetrics();
+            for(int j = 0; j < i; j++)
+                metrics.countTask(SyncMetrics.TASKS_CREATED);
+            metrics.save(IDENTIFIER);
+        }
+
+        JSONArray history = SyncMetrics.getHistory(IDENTIFIER);
+        assertEquals(SyncMetrics.HISTORY_SIZE, history.length());
+        assertEquals(SyncMetrics.HISTORY_SIZE + 1, history.getJSONObject(0).
+                getJSONObject("tasks").getInt(SyncMetrics.TASKS_CREATED));
+        String summary = SyncMetrics.summarize(getContext().getResources(), history);
+        assertTrue(summary.contains(getContext().getString(R.string.sync_SPr_metrics_failure)));
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.todoroo.astrid.dao;
+
+import java.util.Set;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.astrid.model.Metadata;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class ChangeLogTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    MetadataDao metadataDao;
+
+    /**
+     * Test that task saves and deletes are recorded
+     */
+    public void testTaskChanges() throws Exception {
+        long generation = ChangeLog.getGeneration();
+        Set<Long> changed = ChangeLog.changedSince(generation);
+        assertNotNull(changed);
+        assertTrue(changed.isEmpty());
+
+        Task task = new Task();
+        task.setValue(Task.TITLE, "happy");
+        assertTrue(taskDao.save(task));
+        Task other = new Task();
+        other.setValue(Task.TITLE, "sad");
+        assertTrue(taskDao.save(other));
+
+        changed = ChangeLog.changedSince(generation);
+        assertEquals(2, changed.size());
+        assertTrue(changed.contains(task.getId()));
+        assertTrue(changed.contains(other.getId()));
+
+        generation = ChangeLog.getGeneration();
+        task.setValue(Task.TITLE, "glad");
+        assertTrue(taskDao.save(task));
+        changed = ChangeLog.changedSince(generation);
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains(task.getId()));
+
+        generation = ChangeLog.getGeneration();
+        assertTrue(taskDao.delete(other.getId()));
+        changed = ChangeLog.changedSince(generation);
+        assertTrue(changed.contains(other.getId()));
+    }
+
+    /**
+     * Test that bulk updates of reminder bookkeeping are not recorded
+     */
+    public void testBulkUpdates() throws Exception {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "happy");
+        assertTrue(taskDao.save(task));
+
+        long generation = ChangeLog.getGeneration();
+        Task template = new Task();
+        template.setValue(Task.REMINDER_LAST, 1L);
+        assertEquals(1, taskDao.update(Task.ID.eq(task.getId()), template));
+        Set<Long> changed = ChangeLog.changedSince(generation);
+        assertNotNull(changed);
+        assertTrue(changed.isEmpty());
+
+        template.setValue(Task.TITLE, "glad");
+        assertEquals(1, taskDao.update(Task.ID.eq(task.getId()), template));
+        assertNull(ChangeLog.changedSince(generation));
+    }
+
+    /**
+     * Test that metadata changes are recorded against their task
+     */
+    public void testMetadataChanges() throws Exception {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "happy");
+        assertTrue(taskDao.save(task));
+
+        long generation = ChangeLog.getGeneration();
+        Metadata metadata = new Metadata();
+        metadata.setValue(Metadata.TASK, task.getId());
+        metadata.setValue(Metadata.KEY, "key");
+        assertTrue(metadataDao.persist(metadata));
+
+        Set<Long> changed = ChangeLog.changedSince(generation);
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains(task.getId()));
+
+        generation = ChangeLog.getGeneration();
+        metadataDao.deleteWhere(Metadata.KEY.eq("key"));
+        changed = ChangeLog.changedSince(generation);
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains(task.getId()));
+    }
+
+    /**
+     * Test that consumers are told to reload when too much changed
+     */
+    public void testOverflow() throws Exception {
+        long generation = ChangeLog.getGeneration();
+        for(int i = 0; i < 1000; i++)
+            ChangeLog.taskChanged(i);
+        assertNull(ChangeLog.changedSince(generation));
+
+        generation = ChangeLog.getGeneration();
+        ChangeLog.allTasksChanged();
+        assertNull(ChangeLog.changedSince(generation));
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.todoroo.astrid.dao;
+
+import java.util.Set;
+
+import com.todoroo.andlib.data.GenericDao;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.model.Metadata;
+import com.todoroo.astrid.model.OutboxEntry;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+@SuppressWarnings("nls")
+public class SyncOutboxTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    MetadataDao metadataDao;
+
+    @Autowired
+    Database database;
+
+    private SyncOutbox outbox;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        outbox = SyncOutbox.getInstance();
+        outbox.unregister("a");
+        outbox.unregister("b");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        outbox.unregister("a");
+        outbox.unregister("b");
+        super.tearDown();
+    }
+
+    /** test that changes are recorded for registered providers only */
+    public void testRecord() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "before");
+        taskDao.save(task);
+
+        // nothing was recorded before the first sync
+        assertFalse(outbox.begin("a"));
+        outbox.end("a");
+        assertTrue(outbox.isRegistered("a"));
+        assertFalse(outbox.isRegistered("b"));
+
+        task.setValue(Task.TITLE, "after");
+        taskDao.save(task);
+
+        assertTrue(outbox.begin("a"));
+        assertEquals(1, countPending("a"));
+        assertTrue(outbox.getChangedFields("a", task.getId()).contains(Task.TITLE.name));
+        outbox.end("a");
+    }
+
+    /** test that repeated changes to a task share one entry listing all fields */
+    public void testMerge() {
+        outbox.begin("a");
+        outbox.end("a");
+
+        Task task = new Task();
+        task.setValue(Task.TITLE, "first");
+        taskDao.save(task);
+        task.setValue(Task.TITLE, "second");
+        taskDao.save(task);
+        Metadata metadata = new Metadata();
+        metadata.setValue(Metadata.TASK, task.getId());
+        metadata.setValue(Metadata.KEY, "tag");
+        metadataDao.persist(metadata);
+        task.setValue(Task.IMPORTANCE, Task.IMPORTANCE_MUST_DO);
+        taskDao.save(task);
+
+        GenericDao<OutboxEntry> dao = new GenericDao<OutboxEntry>(OutboxEntry.class, database);
+        TodorooCursor<OutboxEntry> cursor = dao.query(Query.select(OutboxEntry.ID).
+                where(OutboxEntry.PROVIDER.eq("a")));
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        outbox.begin("a");
+        Set<String> fields = outbox.getChangedFields("a", task.getId());
+        assertTrue(fields.contains(Task.TITLE.name));
+        assertTrue(fields.contains(Task.IMPORTANCE.name));
+        assertTrue(fields.contains("tag"));
+        outbox.end("a");
+    }
+
+    /** test that a provider's own writes are not recorded for it */
+    public void testAcknowledge() {
+        outbox.begin("a");
+        outbox.end("a");
+        outbox.begin("b");
+        outbox.end("b");
+
+        Task task = new Task();
+        task.setValue(Task.TITLE, "local");
+        taskDao.save(task);
+
+        assertTrue(outbox.begin("a"));
+        assertEquals(1, countPending("a"));
+
+        // written by the sync, recorded for the other provider only
+        Task pulled = new Task();
+        pulled.setValue(Task.TITLE, "remote");
+        taskDao.save(pulled);
+
+        outbox.acknowledge("a");
+        outbox.end("a");
+
+        outbox.begin("a");
+        assertEquals(0, countPending("a"));
+        outbox.end("a");
+
+        outbox.begin("b");
+        assertEquals(2, countPending("b"));
+        outbox.end("b");
+    }
+
+    /** test that metadata changes are recorded with their key */
+    public void testMetadata() {
+        Task task = new Task();
+        task.setValue(Task.TITLE, "tagged");
+        taskDao.save(task);
+
+        outbox.begin("a");
+        outbox.end("a");
+
+        Metadata metadata = new Metadata();
+        metadata.setValue(Metadata.TASK, task.getId());
+        metadata.setValue(Metadata.KEY, "tag");
+        metadataDao.persist(metadata);
+
+        outbox.begin("a");
+        assertEquals(1, countPending("a"));
+        assertTrue(outbox.getChangedFields("a", task.getId()).contains("tag"));
+        assertFalse(outbox.getChangedFields("a", task.getId()).contains(Task.TITLE.name));
+        outbox.end("a");
+
+        // signing out forgets pending changes
+        outbox.unregister("a");
+        assertFalse(outbox.isRegistered("a"));
+        outbox.begin("a");
+        assertEquals(0, countPending("a"));
+        outbox.end("a");
+    }
+
+    private int countPending(String provider) {
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.ID).
+                where(outbox.pending(provider)));
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
@@ -0,0 +1,514 @@
+package com.todoroo.astrid.producteev;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.todoroo.astrid.test.FakeHttpServer;
+
+/**
+ * Stand-in for the Producteev API, answering the calls made by
+ * {@link com.todoroo.astrid.producteev.api.ProducteevInvoker} from data
+ * kept in memory. Signatures are not checked.
+ * <p>
+ * Time on this server is a counter that moves forward one second for
+ * every change, so <code>since</code> queries return exactly the tasks
+ * changed after a given call to <code>time.json</code>.
+ */
+@SuppressWarnings("nls")
+public class FakeProducteevServer extends FakeHttpServer {
+
+    public static final long USER_ID = 1;
+    public static final String EMAIL = "bench@example.com";
+    public static final String PASSWORD = "password";
+
+    private static final long START_TIME = 1262304000000L;
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat(
+            "EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+    private final SimpleDateFormat deadlineTimeFormat = new SimpleDateFormat(
+            "yyyy/MM/dd HH:mm:ss", Locale.US);
+    private final SimpleDateFormat deadlineDateFormat = new SimpleDateFormat(
+            "yyyy/MM/dd", Locale.US);
+
+    private final LinkedHashMap<Long, Dashboard> dashboards = new LinkedHashMap<Long, Dashboard>();
+    private final LinkedHashMap<Long, Label> labels = new LinkedHashMap<Long, Label>();
+    private final LinkedHashMap<Long, Task> tasks = new LinkedHashMap<Long, Task>();
+    private long nextId = 1;
+    private int tokenCount = 0;
+    private final HashSet<String> tokens = new HashSet<String>();
+    private long clock = START_TIME;
+
+    public FakeProducteevServer() throws IOException {
+        super();
+    }
+
+    // --- data
+
+    /**
+     * Create dashboards, labels and tasks. Tasks are spread evenly over
+     * the dashboards, each with up to two labels and a few notes
+     *
+     * @param dashboardCount number of dashboards
+     * @param labelsPerDashboard number of labels in each dashboard
+     * @param taskCount number of tasks
+     * @param maxNotes most notes on one task
+     */
+    public synchronized void seed(int dashboardCount, int labelsPerDashboard, int taskCount,
+            int maxNotes, Random random) {
+        long time = tick();
+        ArrayList<Dashboard> newDashboards = new ArrayList<Dashboard>();
+        for(int i = 0; i < dashboardCount; i++) {
+            Dashboard dashboard = new Dashboard(nextId++, "Dashboard " + i);
+            dashboards.put(dashboard.id, dashboard);
+            newDashboards.add(dashboard);
+            for(int j = 0; j < labelsPerDashboard; j++) {
+                Label label = new Label(nextId++, dashboard.id, "label" + j, time);
+                labels.put(label.id, label);
+                dashboard.labels.add(label);
+            }
+        }
+
+        for(int i = 0; i < taskCount; i++) {
+            Dashboard dashboard = newDashboards.get(i % newDashboards.size());
+            Task task = new Task(nextId++, dashboard.id, "Task " + i + " " +
+                    Long.toString(random.nextLong(), 36), time);
+            task.star = random.nextInt(4);
+            if(random.nextInt(3) == 0)
+                task.deadline = (START_TIME / 1000 + random.nextInt(365 * 24 * 3600)) * 1000;
+            if(random.nextInt(5) == 0)
+                task.status = 2;
+            if(!dashboard.labels.isEmpty()) {
+                for(int j = random.nextInt(3); j > 0; j--)
+                    task.labels.add(dashboard.labels.get(random.nextInt(dashboard.labels.size())).id);
+            }
+            for(int j = random.nextInt(maxNotes + 1); j > 0; j--)
+                task.notes.add(new Note(nextId++, "note " + j + " on task " + i, time));
+            tasks.put(task.id, task);
+        }
+    }
+
+    /**
+     * Change the title of randomly chosen tasks, as if someone else had
+     * edited them
+     */
+    public synchronized void modifyTasks(int count, Random random) {
+        Long[] ids = tasks.keySet().toArray(new Long[tasks.size()]);
+        for(int i = 0; i < count && ids.length > 0; i++) {
+            Task task = tasks.get(ids[random.nextInt(ids.length)]);
+            task.title = task.title + " (edited)";
+            task.modified = tick();
+        }
+    }
+
+    /** @return number of tasks that were not deleted */
+    public synchronized int getTaskCount() {
+        int count = 0;
+        for(Task task : tasks.values())
+            if(task.deleted == 0)
+                count++;
+        return count;
+    }
+
+    /**
+     * Forget all tokens, so the next authenticated call is rejected and
+     * the client must log in again
+     */
+    public synchronized void expireTokens() {
+        tokens.clear();
+    }
+
+    private long tick() {
+        clock += 1000;
+        return clock;
+    }
+
+    // --- request handling
+
+    @Override
+    protected String getEndpoint(Request request) {
+        return request.path.substring(1);
+    }
+
+    @Override
+    protected void handle(Request request, Response response) throws IOException {
+        String method = getEndpoint(request);
+        response.setContentType("application/json");
+        try {
+            if("users/login.json".equals(method)) {
+                login(request, response);
+                return;
+            } else if("time.json".equals(method)) {
+                JSONObject time = new JSONObject().put("value", formatTime(currentTime()));
+                write(response, new JSONObject().put("time", time));
+                return;
+            }
+
+            if(!checkToken(request.getParameter("token"))) {
+                error(response, 403, "Forbidden", "Invalid token");
+                return;
+            }
+
+            if("tasks/show_list.json".equals(method))
+                showTasks(request, response);
+            else if("dashboards/show_list.json".equals(method))
+                showDashboards(response);
+            else if("labels/show_list.json".equals(method))
+                showLabels(request, response);
+            else if("users/view.json".equals(method))
+                write(response, new JSONObject().put("user", userView()));
+            else if("labels/create.json".equals(method))
+                write(response, new JSONObject().put("label", createLabel(request)));
+            else if("tasks/create.json".equals(method))
+                write(response, createTask(request));
+            else if(method.startsWith("tasks/")) {
+                JSONObject result = changeTask(method, request);
+                if(result == null)
+                    error(response, 404, "Not Found", "No such task");
+                else
+                    write(response, result);
+            } else
+                error(response, 404, "Not Found", "Unknown method " + method);
+        } catch (JSONException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    private synchronized long currentTime() {
+        return clock;
+    }
+
+    private synchronized boolean checkToken(String value) {
+        return value != null && tokens.contains(value);
+    }
+
+    private void login(Request request, Response response) throws IOException, JSONException {
+        String newToken;
+        synchronized(this) {
+            if(!EMAIL.equals(request.getParameter("email")) ||
+                    !PASSWORD.equals(request.getParameter("password"))) {
+                newToken = null;
+            } else {
+                newToken = "token" + (++tokenCount);
+                tokens.add(newToken);
+            }
+        }
+        if(newToken == null)
+            error(response, 401, "Unauthorized", "Wrong email or password");
+        else
+            write(response, new JSONObject().put("login", new JSONObject().put("token", newToken)));
+    }
+
+    private synchronized JSONObject userView() throws JSONException {
+        JSONObject user = new JSONObject();
+        user.put("id_user", USER_ID);
+        user.put("firstname", "Bench");
+        user.put("lastname", "Mark");
+        user.put("default_dashboard", dashboards.isEmpty() ? 0 :
+            dashboards.keySet().iterator().next());
+        return user;
+    }
+
+    private void showDashboards(Response response) throws IOException, JSONException {
+        JSONArray list = new JSONArray();
+        synchronized(this) {
+            JSONObject owner = new JSONObject().put("user", new JSONObject().
+                    put("id_user", USER_ID).put("firstname", "Bench").put("lastname", "Mark"));
+            for(Dashboard dashboard : dashboards.values()) {
+                JSONObject json = new JSONObject();
+                json.put("id_dashboard", dashboard.id);
+                json.put("title", dashboard.title);
+                json.put("deleted", 0);
+                json.put("accesslist", new JSONArray().put(owner));
+                list.put(new JSONObject().put("dashboard", json));
+            }
+        }
+        write(response, new JSONObject().put("dashboards", list));
+    }
+
+    private void showLabels(Request request, Response response) throws IOException, JSONException {
+        long dashboardId = request.getLongParameter("id_dashboard", 0);
+        long since = parseTime(request.getParameter("since"));
+        JSONArray list = new JSONArray();
+        synchronized(this) {
+            for(Label label : labels.values())
+                if(label.dashboard == dashboardId && label.modified > since)
+                    list.put(new JSONObject().put("label", label.toJSON()));
+        }
+        write(response, new JSONObject().put("labels", list));
+    }
+
+    /**
+     * Tasks are written one at a time, so a large list is never built
+     * in memory
+     */
+    private void showTasks(Request request, Response response) throws IOException, JSONException {
+        long dashboardId = request.getLongParameter("id_dashboard", 0);
+        long since = parseTime(request.getParameter("since"));
+        ArrayList<Long> ids = new ArrayList<Long>();
+        synchronized(this) {
+            for(Task task : tasks.values())
+                if(task.dashboard == dashboardId && task.modified > since)
+                    ids.add(task.id);
+        }
+
+        Writer writer = response.getWriter();
+        writer.write("{\"tasks\":[");
+        boolean first = true;
+        for(Long id : ids) {
+            JSONObject json;
+            synchronized(this) {
+                Task task = tasks.get(id);
+                if(task == null)
+                    continue;
+                json = taskToJSON(task);
+            }
+            if(!first)
+                writer.write(',');
+            writer.write(json.toString());
+            first = false;
+        }
+        writer.write("]}");
+    }
+
+    private synchronized JSONObject createLabel(Request request) throws JSONException {
+        long dashboardId = request.getLongParameter("id_dashboard", 0);
+        String title = request.getParameter("title");
+        for(Label label : labels.values())
+            if(label.dashboard == dashboardId && label.title.equals(title))
+                return label.toJSON();
+        Label label = new Label(nextId++, dashboardId, title, tick());
+        labels.put(label.id, label);
+        Dashboard dashboard = dashboards.get(dashboardId);
+        if(dashboard != null)
+            dashboard.labels.add(label);
+        return label.toJSON();
+    }
+
+    private synchronized JSONObject createTask(Request request) throws JSONException {
+        Task task = new Task(nextId++, request.getLongParameter("id_dashboard", 0),
+                request.getParameter("title"), tick());
+        task.responsible = request.getLongParameter("id_responsible", USER_ID);
+        task.status = (int) request.getLongParameter("status", 1);
+        task.star = (int) request.getLongParameter("star", 0);
+        task.deadline = parseDeadline(request.getParameter("deadline"));
+        tasks.put(task.id, task);
+        return new JSONObject().put("task", taskToJSON(task));
+    }
+
+    private JSONObject createNote(Task task, Request request) throws JSONException {
+        task.modified = tick();
+        Note note = new Note(nextId++, request.getParameter("message"), task.modified);
+        task.notes.add(note);
+        return new JSONObject().put("note", noteToJSON(note));
+    }
+
+    /**
+     * Apply one of the tasks/set_* calls
+     *
+     * @return task after the change, or null if there is no such task
+     */
+    private synchronized JSONObject changeTask(String method, Request request) throws JSONException {
+        Task task = tasks.get(request.getLongParameter("id_task", 0));
+        if(task == null)
+            return null;
+        if("tasks/note_create.json".equals(method))
+            return createNote(task, request);
+
+        if("tasks/set_title.json".equals(method))
+            task.title = request.getParameter("title");
+        else if("tasks/set_status.json".equals(method))
+            task.status = (int) request.getLongParameter("status", 1);
+        else if("tasks/set_star.json".equals(method))
+            task.star = (int) request.getLongParameter("star", 0);
+        else if("tasks/set_deadline.json".equals(method))
+            task.deadline = parseDeadline(request.getParameter("deadline"));
+        else if("tasks/set_workspace.json".equals(method))
+            task.dashboard = request.getLongParameter("id_dashboard", task.dashboard);
+        else if("tasks/set_responsible.json".equals(method))
+            task.responsible = request.getLongParameter("id_responsible", USER_ID);
+        else if("tasks/unset_responsible.json".equals(method))
+            task.responsible = 0;
+        else if("tasks/set_label.json".equals(method))
+            task.labels.add(request.getLongParameter("id_label", 0));
+        else if("tasks/unset_label.json".equals(method))
+            task.labels.remove(request.getLongParameter("id_label", 0));
+        else if("tasks/delete.json".equals(method))
+            task.deleted = 1;
+        else if(!"tasks/view.json".equals(method))
+            return null;
+
+        if(!"tasks/view.json".equals(method))
+            task.modified = tick();
+        return new JSONObject().put("task", taskToJSON(task));
+    }
+
+    // --- serialization
+
+    private JSONObject taskToJSON(Task task) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id_task", task.id);
+        json.put("id_dashboard", task.dashboard);
+        json.put("id_creator", task.creator);
+        json.put("id_responsible", task.responsible);
+        json.put("title", task.title);
+        json.put("status", task.status);
+        json.put("star", task.star);
+        json.put("deleted", task.deleted);
+        json.put("deadline", task.deadline == 0 ? "" : formatTime(task.deadline));
+        json.put("time_created", formatTime(task.created));
+
+        JSONArray labelList = new JSONArray();
+        for(Long id : task.labels) {
+            Label label = labels.get(id);
+            if(label != null)
+                labelList.put(new JSONObject().put("label", label.toJSON()));
+        }
+        json.put("labels", labelList);
+
+        JSONArray noteList = new JSONArray();
+        for(Note note : task.notes)
+            noteList.put(new JSONObject().put("note", noteToJSON(note)));
+        json.put("notes", noteList);
+        return json;
+    }
+
+    private JSONObject noteToJSON(Note note) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id_note", note.id);
+        json.put("message", note.message);
+        json.put("time_create", formatTime(note.created));
+        return json;
+    }
+
+    private void write(Response response, JSONObject json) throws IOException {
+        response.getWriter().write(json.toString());
+    }
+
+    private void error(Response response, int status, String reason, String message)
+            throws IOException {
+        response.setStatus(status, reason);
+        try {
+            write(response, new JSONObject().put("error",
+                    new JSONObject().put("message", message)));
+        } catch (JSONException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    private String formatTime(long time) {
+        synchronized(timeFormat) {
+            return timeFormat.format(new Date(time));
+        }
+    }
+
+    /** @return time, or 0 if not given */
+    private long parseTime(String value) {
+        if(value == null || value.length() == 0)
+            return 0;
+        synchronized(timeFormat) {
+            try {
+                return timeFormat.parse(value).getTime();
+            } catch (ParseException e) {
+                return 0;
+            }
+        }
+    }
+
+    /** @return deadline sent by the client, or 0 to clear it */
+    private long parseDeadline(String value) {
+        if(value == null || value.length() == 0)
+            return 0;
+        try {
+            if(value.indexOf(':') != -1)
+                return deadlineTimeFormat.parse(value).getTime();
+            return deadlineDateFormat.parse(value).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    // --- model
+
+    private static class Dashboard {
+        public final long id;
+        public final String title;
+        public final ArrayList<Label> labels = new ArrayList<Label>();
+
+        public Dashboard(long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+    }
+
+    private static class Label {
+        public final long id;
+        public final long dashboard;
+        public final String title;
+        public final long modified;
+
+        public Label(long id, long dashboard, String title, long modified) {
+            this.id = id;
+            this.dashboard = dashboard;
+            this.title = title;
+            this.modified = modified;
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id_label", id);
+            json.put("id_dashboard", dashboard);
+            json.put("title", title);
+            json.put("deleted", 0);
+            return json;
+        }
+    }
+
+    private static class Note {
+        public final long id;
+        public final String message;
+        public final long created;
+
+        public Note(long id, String message, long created) {
+            this.id = id;
+            this.message = message;
+            this.created = created;
+        }
+    }
+
+    private static class Task {
+        public final long id;
+        public final long creator = USER_ID;
+        public final long created;
+        public long dashboard;
+        public long responsible = USER_ID;
+        public String title;
+        public int status = 1;
+        public int star = 0;
+        public int deleted = 0;
+        public long deadline = 0;
+        public long modified;
+        public final LinkedHashSet<Long> labels = new LinkedHashSet<Long>();
+        public final ArrayList<Note> notes = new ArrayList<Note>();
+
+        public Task(long id, long dashboard, String title, long time) {
+            this.id = id;
+            this.dashboard = dashboard;
+            this.title = title;
+            created = modified = time;
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.todoroo.astrid.producteev.sync;
+
+import java.util.ArrayList;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.todoroo.andlib.test.TodorooTestCase;
+import com.todoroo.astrid.producteev.api.ProducteevInvoker;
+
+@SuppressWarnings("nls")
+public class ProducteevChangeSetTests extends TodorooTestCase {
+
+    /** test that calls are sent in order and the last task is returned */
+    public void testOrder() throws Exception {
+        RecordingInvoker invoker = new RecordingInvoker();
+        ProducteevChangeSet changes = new ProducteevChangeSet(1);
+        changes.setStatus(2);
+        changes.setLabel(10);
+        changes.setTitle("title");
+        changes.setWorkspace(5);
+        assertEquals(4, changes.size());
+
+        JSONObject latest = changes.send(invoker);
+        assertEquals("[workspace, title, label, status]", invoker.calls.toString());
+        assertEquals("status", latest.getJSONObject("task").getString("title"));
+        assertEquals(0, changes.size());
+    }
+
+    /** test that repeated and cancelling changes are coalesced */
+    public void testCoalesce() throws Exception {
+        RecordingInvoker invoker = new RecordingInvoker();
+        ProducteevChangeSet changes = new ProducteevChangeSet(1);
+        changes.setTitle("first");
+        changes.setTitle("second");
+        changes.setLabel(10);
+        changes.unsetLabel(10);
+        changes.setLabel(11);
+        changes.setLabel(11);
+        assertEquals(2, changes.size());
+
+        changes.send(invoker);
+        assertEquals("[title, label]", invoker.calls.toString());
+    }
+
+    /** test that deletion replaces other changes */
+    public void testDelete() throws Exception {
+        RecordingInvoker invoker = new RecordingInvoker();
+        ProducteevChangeSet changes = new ProducteevChangeSet(1);
+        changes.setTitle("title");
+        changes.delete();
+        changes.setStar(3);
+        assertEquals(1, changes.size());
+
+        assertNull(changes.send(invoker));
+        assertEquals("[delete]", invoker.calls.toString());
+    }
+
+    /** test that snapshots keep the compared fields only */
+    public void testSnapshot() throws Exception {
+        JSONObject task = new JSONObject("{\"task\":{\"id_task\":3,\"title\":\"a\"," +
+                "\"star\":2,\"status\":1,\"deleted\":0,\"deadline\":\"\"," +
+                "\"notes\":[{\"note\":{\"message\":\"hi\"}}]," +
+                "\"labels\":[{\"label\":{\"title\":\"x\",\"deleted\":0,\"id_label\":4}}," +
+                "{\"label\":{\"title\":\"y\",\"deleted\":1}}]}}");
+        JSONObject snapshot = new JSONObject(ProducteevTask.snapshot(task));
+        assertEquals(3, snapshot.getLong("id_task"));
+        assertEquals("a", snapshot.getString("title"));
+        assertEquals(0, snapshot.getJSONArray("notes").length());
+        assertEquals(1, snapshot.getJSONArray("labels").length());
+    }
+
+    /**
+     * Invoker that records calls instead of sending them. Each call returns
+     * a task titled after the call.
+     */
+    private static class RecordingInvoker extends ProducteevInvoker {
+        final ArrayList<String> calls = new ArrayList<String>();
+
+        public RecordingInvoker() {
+            super("key", "secret");
+        }
+
+        private JSONObject record(String call) {
+            calls.add(call);
+            try {
+                return new JSONObject().put("task", new JSONObject().put("title", call));
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public JSONObject tasksSetWorkspace(long idTask, long idDashboard) {
+            return record("workspace");
+        }
+
+        @Override
+        public JSONObject tasksSetResponsible(long idTask, long idResponsible) {
+            return record("responsible");
+        }
+
+        @Override
+        public JSONObject tasksSetTitle(long idTask, String title) {
+            return record("title");
+        }
+
+        @Override
+        public JSONObject tasksSetStar(long idTask, int star) {
+            return record("star");
+        }
+
+        @Override
+        public JSONObject tasksSetDeadline(long idTask, String deadline) {
+            return record("deadline");
+        }
+
+        @Override
+        public JSONObject tasksSetStatus(long idTask, int status) {
+            return record("status");
+        }
+
+        @Override
+        public JSONObject tasksSetLabel(long idTask, long idLabel) {
+            return record("label");
+        }
+
+        @Override
+        public JSONObject tasksUnsetLabel(long idTask, long idLabel) {
+            return record("unset");
+        }
+
+        @Override
+        public JSONObject tasksDelete(long idTask) {
+            calls.add("delete");
+            return new JSONObject();
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.todoroo.astrid.provider;
+
+import java.util.LinkedHashSet;
+
+import android.database.Cursor;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.tags.TagService;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class Astrid2TaskProviderTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    private Astrid2TaskProvider provider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        provider = new Astrid2TaskProvider();
+        provider.attachInfo(getContext(), null);
+    }
+
+    private Task createTask(String title, String... tags) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        assertTrue(taskDao.save(task));
+        LinkedHashSet<String> tagSet = new LinkedHashSet<String>();
+        for(String tag : tags)
+            tagSet.add(tag);
+        TagService.getInstance().synchronizeTags(task.getId(), tagSet);
+        return task;
+    }
+
+    private String tagsOf(long taskId) {
+        Cursor cursor = provider.getTasks();
+        try {
+            int idColumn = cursor.getColumnIndexOrThrow("identifier");
+            int tagsColumn = cursor.getColumnIndexOrThrow("tags_id");
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext())
+                if(cursor.getLong(idColumn) == taskId)
+                    return cursor.getString(tagsColumn);
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Test that tags are read with their tasks
+     */
+    public void testTaskTags() throws Exception {
+        Task tagged = createTask("tagged", "a", "b");
+        Task untagged = createTask("untagged");
+
+        String tags = tagsOf(tagged.getId());
+        assertTrue(tags.equals("a|b|") || tags.equals("b|a|"));
+        assertEquals("", tagsOf(untagged.getId()));
+    }
+
+    /**
+     * Test that cached rows are thrown away when tasks change
+     */
+    public void testCaching() throws Exception {
+        Task task = createTask("task", "a");
+        assertEquals("a|", tagsOf(task.getId()));
+
+        LinkedHashSet<String> tags = new LinkedHashSet<String>();
+        tags.add("c");
+        TagService.getInstance().synchronizeTags(task.getId(), tags);
+        assertEquals("c|", tagsOf(task.getId()));
+
+        task.setValue(Task.DELETION_DATE, 1L);
+        assertTrue(taskDao.save(task));
+        assertNull(tagsOf(task.getId()));
+    }
+
+    /**
+     * Test that tag ids are stable
+     */
+    public void testTagIds() throws Exception {
+        createTask("task", "a");
+        Cursor first = provider.getTags();
+        Cursor second = provider.getTags();
+        try {
+            assertEquals(1, first.getCount());
+            first.moveToFirst();
+            second.moveToFirst();
+            assertEquals("a", first.getString(1));
+            assertEquals(first.getLong(0), second.getLong(0));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+}
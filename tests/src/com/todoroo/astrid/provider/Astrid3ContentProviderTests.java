@@ -0,0 +1,242 @@
+package com.todoroo.astrid.provider;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.google.ical.values.Frequency;
+import com.google.ical.values.RRule;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class Astrid3ContentProviderTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    private Astrid3ContentProvider provider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        provider = new Astrid3ContentProvider();
+        provider.attachInfo(getContext(), null);
+    }
+
+    private Task createTask(String title) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        assertTrue(taskDao.save(task));
+        return task;
+    }
+
+    private Cursor query(Uri uri, String selection, String... args) {
+        return provider.query(uri, new String[] { Task.ID.name, Task.TITLE.name },
+                selection, args, Task.TITLE.name);
+    }
+
+    /**
+     * Test projection, selection and sort order
+     */
+    public void testQuery() throws Exception {
+        createTask("b");
+        createTask("a");
+        Task deleted = createTask("c");
+        deleted.setValue(Task.DELETION_DATE, 1L);
+        assertTrue(taskDao.save(deleted));
+
+        Cursor cursor = query(Astrid3ContentProvider.TASKS_URI, null);
+        try {
+            assertEquals(2, cursor.getColumnCount());
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("a", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = query(Astrid3ContentProvider.TASKS_URI, Task.TITLE.name + " = ?", "b");
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        try {
+            provider.query(Astrid3ContentProvider.TASKS_URI, new String[] { "bogus" },
+                    null, null, null);
+            fail("unknown column");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that selections and sort orders cannot reach other tables
+     */
+    public void testQueryRestrictions() throws Exception {
+        createTask("a");
+
+        String[] selections = new String[] {
+                Task.ID.name + " IN (SELECT task FROM metadata)",
+                "1); DROP TABLE tasks; --",
+                Task.ID.name + " > 0 /* comment",
+                "(" + Task.ID.name + " > 0",
+        };
+        for(String selection : selections) {
+            try {
+                query(Astrid3ContentProvider.TASKS_URI, selection).close();
+                fail(selection);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        // keywords inside string literals are fine
+        Cursor cursor = query(Astrid3ContentProvider.TASKS_URI,
+                Task.TITLE.name + " != 'select; (--'");
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        cursor = provider.query(Astrid3ContentProvider.TASKS_URI, null, null, null,
+                Task.IMPORTANCE.name + " DESC, " + Task.TITLE.name);
+        cursor.close();
+
+        try {
+            provider.query(Astrid3ContentProvider.TASKS_URI, null, null, null,
+                    "(SELECT COUNT(*) FROM metadata)");
+            fail("subquery sort order");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test single task and filter uris
+     */
+    public void testUris() throws Exception {
+        Task task = createTask("happy");
+        createTask("sad");
+
+        Cursor cursor = query(Astrid3ContentProvider.getTaskUri(task.getId()), null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(task.getId(), cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = query(Uri.withAppendedPath(Astrid3ContentProvider.FILTER_URI, "app"), null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Test limit and offset
+     */
+    public void testPaging() throws Exception {
+        for(int i = 0; i < 5; i++)
+            createTask("task " + i);
+
+        Uri uri = Astrid3ContentProvider.TASKS_URI.buildUpon().
+            appendQueryParameter(Astrid3ContentProvider.PARAM_LIMIT, "2").
+            appendQueryParameter(Astrid3ContentProvider.PARAM_OFFSET, "1").build();
+        Cursor cursor = query(uri, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("task 1", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+
+        uri = Astrid3ContentProvider.TASKS_URI.buildUpon().
+            appendQueryParameter(Astrid3ContentProvider.PARAM_OFFSET, "3").build();
+        cursor = query(uri, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Test that negative or malformed paging parameters are rejected
+     */
+    public void testInvalidPaging() throws Exception {
+        createTask("task");
+        Uri upcoming = ContentUris.withAppendedId(Astrid3ContentProvider.UPCOMING_URI, 7);
+        String[][] parameters = new String[][] {
+            { Astrid3ContentProvider.PARAM_OFFSET, "-1" },
+            { Astrid3ContentProvider.PARAM_LIMIT, "-1" },
+            { Astrid3ContentProvider.PARAM_LIMIT, "two" },
+        };
+        for(Uri base : new Uri[] { Astrid3ContentProvider.TASKS_URI, upcoming }) {
+            for(String[] parameter : parameters) {
+                Uri uri = base.buildUpon().appendQueryParameter(parameter[0],
+                        parameter[1]).build();
+                try {
+                    provider.query(uri, null, null, null, null).close();
+                    fail("accepted " + uri);
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    /**
+     * Test upcoming occurrences, including ones of repeating tasks
+     */
+    public void testUpcoming() throws Exception {
+        Task task = createTask("once");
+        task.setValue(Task.DUE_DATE, task.createDueDate(Task.URGENCY_SPECIFIC_DAY,
+                DateUtilities.now() + 2 * DateUtilities.ONE_DAY));
+        assertTrue(taskDao.save(task));
+
+        RRule rrule = new RRule();
+        rrule.setInterval(1);
+        rrule.setFreq(Frequency.DAILY);
+        task = createTask("daily");
+        task.setValue(Task.RECURRENCE, rrule.toIcal());
+        task.setValue(Task.DUE_DATE, task.createDueDate(Task.URGENCY_SPECIFIC_DAY,
+                DateUtilities.now() + DateUtilities.ONE_DAY));
+        assertTrue(taskDao.save(task));
+
+        Cursor cursor = provider.query(ContentUris.withAppendedId(Astrid3ContentProvider.UPCOMING_URI, 7),
+                null, null, null, null);
+        try {
+            // once, daily, and daily for the five days after that
+            assertEquals(7, cursor.getCount());
+            int virtual = 0;
+            long lastDueDate = 0;
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                assertTrue(cursor.getLong(2) >= lastDueDate);
+                lastDueDate = cursor.getLong(2);
+                virtual += cursor.getInt(3);
+            }
+            assertEquals(5, virtual);
+        } finally {
+            cursor.close();
+        }
+
+        // nothing was written
+        cursor = query(Astrid3ContentProvider.TASKS_URI, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
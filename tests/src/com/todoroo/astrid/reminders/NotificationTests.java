@@ -1,5 +1,6 @@
 package com.todoroo.astrid.reminders;
 
+import java.util.ArrayList;
 import java.util.Date;
 
 import android.app.Notification;
@@ -11,6 +12,8 @@ import com.todoroo.andlib.service.NotificationManager;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.reminders.ReminderQueue.Entry;
+import com.todoroo.astrid.reminders.ReminderService.AlarmScheduler;
 import com.todoroo.astrid.test.DatabaseTestCase;
 import com.todoroo.astrid.utility.Preferences;
 
@@ -167,6 +170,94 @@ public class NotificationTests extends DatabaseTestCase {
         new Notifications().onReceive(getContext(), intent);
     }
 
+    /** test that many reminders at once are shown as one notification */
+    public void testSummaryNotification() {
+        final ArrayList<Integer> notified = new ArrayList<Integer>();
+        Notifications.setNotificationManager(new TestNotificationManager() {
+            public void notify(int id, Notification notification) {
+                notified.add(id);
+            }
+        });
+
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for(int i = 0; i < Notifications.SUMMARY_THRESHOLD; i++)
+            entries.add(createEntry("duck " + i));
+        new Notifications().showReminders(entries);
+        assertEquals(Notifications.SUMMARY_THRESHOLD, notified.size());
+
+        notified.clear();
+        entries.add(createEntry("one duck too many"));
+        new Notifications().showReminders(entries);
+        assertEquals(1, notified.size());
+        assertEquals(Notifications.SUMMARY_NOTIFICATION_ID, (int)notified.get(0));
+
+        for(Entry entry : entries)
+            assertTrue(taskDao.fetch(entry.taskId, Task.REMINDER_LAST).
+                    getValue(Task.REMINDER_LAST) > 0);
+
+        // summary goes away once all of its tasks are done
+        final ArrayList<Integer> cancelled = new ArrayList<Integer>();
+        Notifications.setNotificationManager(new TestNotificationManager() {
+            public void notify(int id, Notification notification) {
+                fail("notified");
+            }
+            @Override
+            public void cancel(int id) {
+                cancelled.add(id);
+            }
+        });
+        for(int i = 0; i < entries.size(); i++) {
+            assertFalse(cancelled.contains(Notifications.SUMMARY_NOTIFICATION_ID));
+            Notifications.cancelNotifications(entries.get(i).taskId);
+        }
+        assertTrue(cancelled.contains(Notifications.SUMMARY_NOTIFICATION_ID));
+    }
+
+    /** test that the next random reminder counts from the one just shown */
+    public void testRandomReminderRescheduled() {
+        Notifications.setNotificationManager(new TestNotificationManager() {
+            public void notify(int id, Notification notification) {
+                // allowed
+            }
+        });
+
+        Task task = new Task();
+        task.setValue(Task.TITLE, "randomduck");
+        task.setValue(Task.REMINDER_PERIOD, DateUtilities.ONE_WEEK);
+        task.setValue(Task.REMINDER_LAST, DateUtilities.now() - DateUtilities.ONE_WEEK);
+        taskDao.persist(task);
+
+        ReminderService service = ReminderService.getInstance();
+        AlarmScheduler original = service.getScheduler();
+        final ArrayList<Long> times = new ArrayList<Long>();
+        service.setScheduler(new AlarmScheduler() {
+            public void createAlarm(Task alarmTask, long time, int type) {
+                assertEquals(ReminderService.TYPE_RANDOM, type);
+                times.add(time);
+            }
+        });
+        try {
+            long start = DateUtilities.now();
+            ArrayList<Entry> entries = new ArrayList<Entry>();
+            entries.add(new Entry(0, task.getId(), ReminderService.TYPE_RANDOM, start));
+            new Notifications().showReminders(entries);
+
+            assertEquals(1, times.size());
+            long delay = times.get(0) - start;
+            assertTrue(delay >= DateUtilities.ONE_WEEK * 0.85f - 1000);
+            assertTrue(delay <= DateUtilities.ONE_WEEK * 1.15f + 1000);
+        } finally {
+            service.setScheduler(original);
+        }
+    }
+
+    private Entry createEntry(String title) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        taskDao.persist(task);
+        return new Entry(0, task.getId(), ReminderService.TYPE_DUE, DateUtilities.now());
+    }
+
     abstract public class TestNotificationManager implements NotificationManager {
         public void cancel(int id) {
             fail("wtf cance?");
@@ -0,0 +1,221 @@
+package com.todoroo.astrid.reminders;
+
+import java.util.Random;
+
+import org.json.JSONException;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.todoroo.andlib.data.GenericDao;
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.andlib.utility.Histogram;
+import com.todoroo.astrid.alarms.Alarm;
+import com.todoroo.astrid.alarms.AlarmService;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.model.Metadata;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.reminders.ReminderService.AlarmScheduler;
+import com.todoroo.astrid.test.BenchmarkMeasurement;
+import com.todoroo.astrid.test.DatabaseTestCase;
+import com.todoroo.astrid.utility.Preferences;
+
+/**
+ * Measures reminder and alarm scheduling with many tasks. Each result is
+ * written as one JSON object per line to the log (tag
+ * <code>astrid-bench</code>) and appended to <code>reminder-benchmark.json</code>
+ * in the test context's files directory, so runs can be compared.
+ */
+@SuppressWarnings("nls")
+public class ReminderBenchmarkTests extends DatabaseTestCase {
+
+    private static final String OUTPUT = "reminder-benchmark.json";
+
+    /** number of tasks rescheduled or completed one at a time */
+    private static final int SAMPLE = 200;
+
+    @Autowired
+    TaskDao taskDao;
+
+    private ReminderService service;
+    private AlarmScheduler original;
+    private RecordingScheduler recorder;
+
+    /** same seed every run so results are comparable */
+    private final Random random = new Random(42);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Preferences.setPreferenceDefaults();
+        ReminderQueue.getInstance().clear();
+        service = ReminderService.getInstance();
+        original = service.getScheduler();
+        recorder = new RecordingScheduler();
+        service.setScheduler(recorder);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.setScheduler(original);
+        super.tearDown();
+    }
+
+    public void testSchedule1k() throws Exception {
+        runBenchmark(1000);
+    }
+
+    @LargeTest
+    public void testSchedule10k() throws Exception {
+        runBenchmark(10000);
+    }
+
+    @LargeTest
+    public void testSchedule100k() throws Exception {
+        runBenchmark(100000);
+    }
+
+    // --- benchmark
+
+    private void runBenchmark(int size) throws Exception {
+        long[] ids = createTasks(size);
+
+        // schedule everything, as at startup
+        recorder.clear();
+        Measurement measurement = new Measurement();
+        service.scheduleAllAlarms();
+        measurement.finish("scheduleAllAlarms", size, 1).write();
+        assertTrue(recorder.count > 0);
+
+        measurement = new Measurement();
+        AlarmService.getInstance().scheduleAllAlarms();
+        measurement.finish("alarms.scheduleAllAlarms", size, 1).write();
+
+        // reschedule single tasks, as after an edit
+        Histogram latency = new Histogram("reschedule", "us");
+        measurement = new Measurement();
+        for(int i = 0; i < SAMPLE; i++) {
+            Task task = taskDao.fetch(ids[random.nextInt(size)], ReminderService.PROPERTIES);
+            long start = System.nanoTime();
+            service.scheduleAlarm(task);
+            latency.record((System.nanoTime() - start) / 1000L);
+        }
+        measurement.finish("scheduleAlarm", size, SAMPLE).put(latency).write();
+
+        // complete tasks, which cancels their reminders
+        latency = new Histogram("complete", "us");
+        measurement = new Measurement();
+        for(int i = 0; i < SAMPLE; i++) {
+            Task task = new Task();
+            task.setId(ids[i]);
+            task.setValue(Task.COMPLETION_DATE, DateUtilities.now());
+            long start = System.nanoTime();
+            taskDao.save(task);
+            latency.record((System.nanoTime() - start) / 1000L);
+        }
+        measurement.finish("complete", size, SAMPLE).put(latency).write();
+    }
+
+    /**
+     * Create tasks with mixed due dates, reminder flags and random reminder
+     * periods, and alarms on some of them. Rows are written directly so
+     * that no reminders are scheduled while setting up.
+     *
+     * @return ids of created tasks
+     */
+    private long[] createTasks(int size) {
+        GenericDao<Task> tasks = new GenericDao<Task>(Task.class, database);
+        GenericDao<Metadata> metadata = new GenericDao<Metadata>(Metadata.class, database);
+        long now = DateUtilities.now();
+        long[] ids = new long[size];
+
+        SQLiteDatabase db = database.getDatabase();
+        db.beginTransaction();
+        try {
+            Task task = new Task();
+            Metadata alarm = new Metadata();
+            for(int i = 0; i < size; i++) {
+                task.clear();
+                task.setValue(Task.TITLE, "task " + i);
+                if(random.nextInt(3) > 0) {
+                    long dueDate = now + (long)((random.nextFloat() * 60 - 15) * DateUtilities.ONE_DAY);
+                    task.setValue(Task.DUE_DATE, task.createDueDate(random.nextBoolean() ?
+                            Task.URGENCY_SPECIFIC_DAY_TIME : Task.URGENCY_SPECIFIC_DAY, dueDate));
+                }
+                task.setValue(Task.REMINDER_FLAGS, random.nextInt(4));
+                if(random.nextInt(4) == 0)
+                    task.setValue(Task.REMINDER_PERIOD, (1 + random.nextInt(14)) * DateUtilities.ONE_DAY);
+                tasks.createNew(task);
+                ids[i] = task.getId();
+
+                if(random.nextInt(10) == 0) {
+                    for(int j = random.nextInt(3); j >= 0; j--) {
+                        alarm.clear();
+                        alarm.setValue(Metadata.KEY, Alarm.METADATA_KEY);
+                        alarm.setValue(Metadata.TASK, ids[i]);
+                        alarm.setValue(Alarm.TIME, now + (long)(random.nextFloat() * 30 * DateUtilities.ONE_DAY));
+                        alarm.setValue(Alarm.TYPE, Alarm.TYPE_SINGLE);
+                        metadata.createNew(alarm);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return ids;
+    }
+
+    // --- measurement
+
+    /**
+     * Elapsed time, allocations and database statements of one run
+     */
+    private class Measurement extends BenchmarkMeasurement {
+        public Measurement() {
+            super(getContext(), OUTPUT);
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            begin();
+        }
+
+        public Measurement finish(String name, int tasks, int operations) throws JSONException {
+            long elapsed = elapsedNanos() / 1000L;
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+            newResult(name, tasks);
+            result.put("operations", operations);
+            result.put("elapsed_us", elapsed);
+            result.put("ops_per_sec", elapsed == 0 ? 0 : operations * 1000000L / elapsed);
+            result.put("allocations", allocations);
+            result.put("alarms", recorder.count);
+            return this;
+        }
+
+        public Measurement put(Histogram latency) throws JSONException {
+            result.put("p50_us", latency.getPercentile(0.5));
+            result.put("p90_us", latency.getPercentile(0.9));
+            result.put("p99_us", latency.getPercentile(0.99));
+            result.put("max_us", latency.getMax());
+            return this;
+        }
+    }
+
+    /**
+     * Scheduler that only counts the alarms it is given
+     */
+    private static class RecordingScheduler implements AlarmScheduler {
+        int count = 0;
+
+        public void createAlarm(Task task, long time, int type) {
+            count++;
+        }
+
+        public void clear() {
+            count = 0;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.todoroo.astrid.reminders;
+
+import java.util.List;
+
+import com.todoroo.astrid.reminders.ReminderQueue.Entry;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class ReminderQueueTests extends DatabaseTestCase {
+
+    private ReminderQueue queue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        queue = new ReminderQueue(2);
+        queue.clear();
+    }
+
+    /** test ordering and replacement */
+    public void testSchedule() {
+        assertNull(queue.peek());
+
+        queue.schedule(1, ReminderService.TYPE_DUE, 300);
+        queue.schedule(2, ReminderService.TYPE_DUE, 200);
+        queue.schedule(3, ReminderService.TYPE_ALARM, 400, 100);
+        assertEquals(100, queue.peek().time);
+        assertEquals(3, queue.peek().taskId);
+
+        // replace alarms of a task
+        queue.schedule(3, ReminderService.TYPE_ALARM, 500);
+        assertEquals(200, queue.peek().time);
+
+        // other types are kept
+        queue.schedule(2, ReminderService.TYPE_SNOOZE, 250);
+        queue.schedule(2, ReminderService.TYPE_DUE);
+        assertEquals(250, queue.peek().time);
+        assertEquals(ReminderService.TYPE_SNOOZE, queue.peek().type);
+    }
+
+    /** test removing due alarms, including ones not loaded into memory */
+    public void testRemoveDue() {
+        for(int i = 1; i <= 5; i++)
+            queue.schedule(i, ReminderService.TYPE_DUE, i * 100);
+
+        List<Entry> due = queue.removeDue(350);
+        assertEquals(3, due.size());
+        assertEquals(1, due.get(0).taskId);
+        assertEquals(3, due.get(2).taskId);
+        assertEquals(400, queue.peek().time);
+
+        // a fresh queue reads what is left from the database
+        ReminderQueue other = new ReminderQueue(2);
+        due = other.removeDue(1000);
+        assertEquals(2, due.size());
+        assertEquals(4, due.get(0).taskId);
+        assertNull(other.peek());
+    }
+
+    /** test that rebuilding replaces everything */
+    public void testRebuild() {
+        queue.schedule(1, ReminderService.TYPE_DUE, 100);
+        queue.rebuild(new Runnable() {
+            public void run() {
+                for(int i = 2; i <= 5; i++)
+                    queue.schedule(i, ReminderService.TYPE_DUE, i * 100);
+            }
+        });
+        assertEquals(200, queue.peek().time);
+        assertEquals(4, queue.removeDue(1000).size());
+    }
+
+}
@@ -1,5 +1,10 @@
 package com.todoroo.astrid.reminders;
 
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.dao.TaskDao;
@@ -149,6 +154,59 @@ public class ReminderServiceTests extends DatabaseTestCase {
         assertTrue(((AlarmExpected)service.getScheduler()).alarmCreated);
     }
 
+    /** tests that scheduling all alarms saves made-up reminder times in a batch */
+    public void testScheduleAll() {
+        service.setScheduler(new AlarmExpected());
+        Task task = new Task();
+        task.setValue(Task.TITLE, "water");
+        task.setValue(Task.REMINDER_PERIOD, DateUtilities.ONE_WEEK);
+        taskDao.save(task);
+
+        Task template = new Task();
+        template.setValue(Task.REMINDER_LAST, 0L);
+        assertEquals(1, taskDao.update(Task.ID.eq(task.getId()), template));
+        long modified = taskDao.fetch(task.getId(), Task.MODIFICATION_DATE).getValue(Task.MODIFICATION_DATE);
+
+        service.setScheduler(new AlarmExpected() {
+            @Override
+            public void createAlarm(Task task, long time, int type) {
+                super.createAlarm(task, time, type);
+                assertEquals(type, ReminderService.TYPE_RANDOM);
+            }
+        });
+        long start = DateUtilities.now();
+        service.scheduleAllAlarms();
+        assertTrue(((AlarmExpected)service.getScheduler()).alarmCreated);
+
+        task = taskDao.fetch(task.getId(), Task.REMINDER_LAST, Task.MODIFICATION_DATE);
+        assertTrue(task.getValue(Task.REMINDER_LAST) >= start);
+        assertEquals(modified, (long)task.getValue(Task.MODIFICATION_DATE));
+    }
+
+    /** tests that alarms registered per task by earlier versions are cancelled */
+    public void testCancelLegacyAlarms() {
+        service.setScheduler(new AlarmExpected());
+        Task task = new Task();
+        task.setValue(Task.TITLE, "water");
+        taskDao.save(task);
+
+        Context context = getContext();
+        AlarmManager am = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        Intent reminder = new Intent(context, Notifications.class);
+        reminder.setType(Long.toString(task.getId()));
+        reminder.setAction(Integer.toString(ReminderService.TYPE_DUE));
+        Intent alarm = new Intent(context, Notifications.class);
+        alarm.setType("ALARM" + task.getId());
+        alarm.setAction(Integer.toString(ReminderService.TYPE_ALARM));
+        long time = DateUtilities.now() + DateUtilities.ONE_DAY;
+        am.set(AlarmManager.RTC_WAKEUP, time, PendingIntent.getBroadcast(context, 0, reminder, 0));
+        am.set(AlarmManager.RTC_WAKEUP, time, PendingIntent.getBroadcast(context, 0, alarm, 0));
+
+        service.cancelLegacyAlarms();
+        assertNull(PendingIntent.getBroadcast(context, 0, reminder, PendingIntent.FLAG_NO_CREATE));
+        assertNull(PendingIntent.getBroadcast(context, 0, alarm, PendingIntent.FLAG_NO_CREATE));
+    }
+
     // --- helper classes
 
     public class NoAlarmExpected implements AlarmScheduler {
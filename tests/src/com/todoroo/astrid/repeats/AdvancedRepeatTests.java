@@ -130,5 +130,27 @@ public class AdvancedRepeatTests extends TodorooTestCase {
         assertNotSame(nextDueDate, evenMoreNextDueDate);
     }
 
+    public void testNextOccurrences() throws ParseException {
+        RRule rrule = new RRule();
+        rrule.setInterval(2);
+        rrule.setFreq(Frequency.WEEKLY);
+
+        Task task = new Task();
+        long dueDate = task.createDueDate(Task.URGENCY_SPECIFIC_DAY_TIME,
+                DateUtilities.now() + DateUtilities.ONE_DAY);
+        task.setValue(Task.DUE_DATE, dueDate);
+
+        long[] dueDates = RepeatService.getInstance().computeNextDueDates(task, rrule.toIcal(), 3);
+        assertEquals(3, dueDates.length);
+        assertEquals(RepeatTaskCompleteListener.computeNextDueDate(task, rrule.toIcal()), dueDates[0]);
+        for(int i = 0; i < dueDates.length; i++)
+            assertTrue(Math.abs(dueDates[i] - dueDate - 2 * (i + 1) * DateUtilities.ONE_WEEK) <=
+                DateUtilities.ONE_HOUR);
+
+        // cached rule is the same object
+        assertSame(RepeatService.getInstance().parseRule(rrule.toIcal()),
+                RepeatService.getInstance().parseRule(rrule.toIcal()));
+    }
+
 
 }
@@ -5,6 +5,7 @@ import java.util.Date;
 import com.google.ical.values.Frequency;
 import com.google.ical.values.RRule;
 import com.timsu.astrid.R;
+import com.todoroo.andlib.data.GenericDao;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.service.Autowired;
 import com.todoroo.andlib.sql.Query;
@@ -296,4 +297,47 @@ public class RepeatTests extends DatabaseTestCase {
             cursor.close();
         }
     }
+
+    /** test repeating many completed tasks at once */
+    public void testRepeatTasks() throws Exception {
+        RRule rrule = new RRule();
+        rrule.setInterval(1);
+        rrule.setFreq(Frequency.DAILY);
+
+        // written directly, so the repeat handler doesn't see them
+        GenericDao<Task> dao = new GenericDao<Task>(Task.class, database);
+        Long[] ids = new Long[3];
+        for(int i = 0; i < ids.length; i++) {
+            Task task = new Task();
+            task.setValue(Task.TITLE, "batch " + i);
+            task.setValue(Task.RECURRENCE, rrule.toIcal());
+            task.setValue(Task.DUE_DATE, task.createDueDate(Task.URGENCY_TODAY, 0));
+            task.setValue(Task.COMPLETION_DATE, DateUtilities.now());
+            dao.createNew(task);
+            ids[i] = task.getId();
+        }
+
+        assertEquals(3, RepeatService.getInstance().repeatTasks(ids));
+
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.PROPERTIES));
+        try {
+            assertEquals(6, cursor.getCount());
+            Task task = new Task();
+            int repeating = 0;
+            for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                task.readFromCursor(cursor);
+                if(task.getValue(Task.RECURRENCE).length() > 0) {
+                    assertFalse(task.isCompleted());
+                    assertTrue(task.getValue(Task.DUE_DATE) > DateUtilities.now());
+                    repeating++;
+                }
+            }
+            assertEquals(3, repeating);
+        } finally {
+            cursor.close();
+        }
+
+        // already repeated tasks are not repeated again
+        assertEquals(0, RepeatService.getInstance().repeatTasks(ids));
+    }
 }
@@ -0,0 +1,483 @@
+package com.todoroo.astrid.rmilk;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import com.todoroo.astrid.test.FakeHttpServer;
+
+/**
+ * Stand-in for the Remember the Milk REST API, answering the calls made
+ * by {@link com.todoroo.astrid.rmilk.api.ServiceImpl} from data kept in
+ * memory. Signatures and timelines are not checked.
+ * <p>
+ * Only the filters used by synchronization are understood:
+ * <code>status:incomplete</code> and <code>name:"..."</code>. Tasks
+ * changed on or after <code>last_sync</code> are returned, including
+ * deleted ones.
+ */
+@SuppressWarnings("nls")
+public class FakeRtmServer extends FakeHttpServer {
+
+    public static final String TOKEN = "rtm-bench-token";
+
+    /** error code for a token that is not valid */
+    private static final int INVALID_TOKEN = 98;
+
+    /** error code for an unknown method */
+    private static final int UNKNOWN_METHOD = 112;
+
+    /** error code for a task that doesn't exist */
+    private static final int NOT_FOUND = 340;
+
+    private static final String[] PRIORITIES = new String[] { "N", "1", "2", "3" };
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+            "yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+
+    private final LinkedHashMap<Long, TaskList> lists = new LinkedHashMap<Long, TaskList>();
+    private final LinkedHashMap<Long, Series> series = new LinkedHashMap<Long, Series>();
+    private long nextId = 1;
+
+    public FakeRtmServer() throws IOException {
+        super();
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        TaskList inbox = new TaskList(nextId++, "Inbox");
+        lists.put(inbox.id, inbox);
+    }
+
+    // --- data
+
+    /**
+     * Create lists and tasks. Tasks are spread evenly over the lists,
+     * each with up to two tags and a few notes
+     *
+     * @param listCount number of lists besides the inbox
+     * @param tagCount number of different tags
+     * @param taskCount number of tasks
+     * @param maxNotes most notes on one task
+     */
+    public synchronized void seed(int listCount, int tagCount, int taskCount,
+            int maxNotes, Random random) {
+        long time = now();
+        ArrayList<TaskList> newLists = new ArrayList<TaskList>(lists.values());
+        for(int i = 0; i < listCount; i++) {
+            TaskList list = new TaskList(nextId++, "List " + i);
+            lists.put(list.id, list);
+            newLists.add(list);
+        }
+
+        for(int i = 0; i < taskCount; i++) {
+            TaskList list = newLists.get(i % newLists.size());
+            Series task = new Series(nextId++, nextId++, list.id, "Task " + i + " " +
+                    Long.toString(random.nextLong(), 36), time);
+            task.priority = PRIORITIES[random.nextInt(PRIORITIES.length)];
+            if(random.nextInt(3) == 0) {
+                task.due = (time / 1000 + random.nextInt(365 * 24 * 3600)) * 1000;
+                task.hasDueTime = random.nextBoolean();
+            }
+            if(random.nextInt(5) == 0)
+                task.completed = time;
+            if(tagCount > 0) {
+                for(int j = random.nextInt(3); j > 0; j--) {
+                    String tag = "tag" + random.nextInt(tagCount);
+                    if(!task.tags.contains(tag))
+                        task.tags.add(tag);
+                }
+            }
+            for(int j = random.nextInt(maxNotes + 1); j > 0; j--)
+                task.notes.add(new Note(nextId++, "note " + j, "on task " + i, time));
+            series.put(task.id, task);
+        }
+    }
+
+    /**
+     * Change the name of randomly chosen tasks, as if someone else had
+     * edited them
+     */
+    public synchronized void modifyTasks(int count, Random random) {
+        Long[] ids = series.keySet().toArray(new Long[series.size()]);
+        long time = now();
+        for(int i = 0; i < count && ids.length > 0; i++) {
+            Series task = series.get(ids[random.nextInt(ids.length)]);
+            task.name = task.name + " (edited)";
+            task.modified = time;
+        }
+    }
+
+    /** @return number of tasks not completed or deleted */
+    public synchronized int getIncompleteCount() {
+        int count = 0;
+        for(Series task : series.values())
+            if(task.completed == 0 && task.deleted == 0)
+                count++;
+        return count;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    // --- request handling
+
+    /**
+     * RTM has a single path, so requests are counted by method
+     */
+    @Override
+    protected String getEndpoint(Request request) {
+        String method = request.getParameter("method");
+        return method == null ? request.path : method;
+    }
+
+    @Override
+    protected void handle(Request request, Response response) throws IOException {
+        String method = getEndpoint(request);
+        response.setContentType("text/xml");
+
+        if(!TOKEN.equals(request.getParameter("auth_token"))) {
+            error(response, INVALID_TOKEN, "Invalid auth token");
+            return;
+        }
+
+        if("rtm.tasks.getList".equals(method)) {
+            getList(request, response);
+            return;
+        }
+
+        String result;
+        if("rtm.auth.checkToken".equals(method))
+            result = "<auth><token>" + TOKEN + "</token><perms>delete</perms>" +
+                "<user id=\"1\" username=\"bench\" fullname=\"Bench Mark\"/></auth>";
+        else if("rtm.timelines.create".equals(method))
+            result = "<timeline>1</timeline>";
+        else if("rtm.lists.getList".equals(method))
+            result = listsToXml();
+        else if("rtm.tasks.add".equals(method))
+            result = addTask(request);
+        else if("rtm.tasks.notes.add".equals(method) || "rtm.tasks.notes.edit".equals(method))
+            result = changeNote(method, request);
+        else if(method.startsWith("rtm.tasks.")) {
+            result = changeTask(method, request);
+            if(result == null) {
+                error(response, UNKNOWN_METHOD, "Method \"" + method + "\" not found");
+                return;
+            }
+        } else {
+            error(response, UNKNOWN_METHOD, "Method \"" + method + "\" not found");
+            return;
+        }
+
+        if(result.length() == 0)
+            error(response, NOT_FOUND, "Task not found");
+        else
+            write(response, result);
+    }
+
+    /**
+     * Tasks are written one at a time, so a large list is never built
+     * in memory
+     */
+    private void getList(Request request, Response response) throws IOException {
+        String listId = request.getParameter("list_id");
+        String filter = request.getParameter("filter");
+        String lastSync = request.getParameter("last_sync");
+        long since = parseDate(lastSync);
+        boolean incomplete = filter != null && filter.contains("status:incomplete");
+        String name = null;
+        if(filter != null && filter.startsWith("name:\"") && filter.endsWith("\""))
+            name = filter.substring(6, filter.length() - 1);
+
+        LinkedHashMap<Long, ArrayList<Long>> matches = new LinkedHashMap<Long, ArrayList<Long>>();
+        synchronized(this) {
+            for(Series task : series.values()) {
+                if(listId != null && !listId.equals(Long.toString(task.listId)))
+                    continue;
+                if(lastSync == null && task.deleted != 0)
+                    continue;
+                if(task.modified < since)
+                    continue;
+                if(incomplete && (task.completed != 0 || task.deleted != 0))
+                    continue;
+                if(name != null && !task.name.contains(name))
+                    continue;
+                ArrayList<Long> ids = matches.get(task.listId);
+                if(ids == null) {
+                    ids = new ArrayList<Long>();
+                    matches.put(task.listId, ids);
+                }
+                ids.add(task.id);
+            }
+        }
+
+        Writer writer = response.getWriter();
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><rsp stat=\"ok\"><tasks>");
+        for(Long list : matches.keySet()) {
+            writer.write("<list id=\"" + list + "\">");
+            for(Long id : matches.get(list)) {
+                String xml;
+                synchronized(this) {
+                    xml = seriesToXml(series.get(id));
+                }
+                writer.write(xml);
+            }
+            writer.write("</list>");
+        }
+        writer.write("</tasks></rsp>");
+    }
+
+    private synchronized String listsToXml() {
+        StringBuilder xml = new StringBuilder("<lists>");
+        int position = 0;
+        for(TaskList list : lists.values()) {
+            xml.append("<list id=\"").append(list.id).append("\" name=\"").
+                append(escape(list.name)).append("\" deleted=\"0\" locked=\"").
+                append(position == 0 ? 1 : 0).append("\" archived=\"0\" position=\"").
+                append(position == 0 ? -1 : position).append("\" smart=\"0\"/>");
+            position++;
+        }
+        return xml.append("</lists>").toString();
+    }
+
+    private synchronized String addTask(Request request) {
+        long listId = request.getLongParameter("list_id", lists.keySet().iterator().next());
+        if(!lists.containsKey(listId))
+            return "";
+        Series task = new Series(nextId++, nextId++, listId, request.getParameter("name"), now());
+        series.put(task.id, task);
+        return "<list id=\"" + listId + "\">" + seriesToXml(task) + "</list>";
+    }
+
+    /**
+     * Apply one of the rtm.tasks.* calls that change a task
+     *
+     * @return list with the task after the change, an empty string if
+     * there is no such task, or null for an unknown method
+     */
+    private synchronized String changeTask(String method, Request request) {
+        Series task = series.get(request.getLongParameter("taskseries_id", 0));
+        if(task == null)
+            return "";
+
+        if("rtm.tasks.setName".equals(method))
+            task.name = request.getParameter("name");
+        else if("rtm.tasks.setPriority".equals(method)) {
+            String priority = request.getParameter("priority");
+            task.priority = priority == null || priority.length() == 0 ? "N" : priority;
+        } else if("rtm.tasks.setDueDate".equals(method)) {
+            task.due = parseDate(request.getParameter("due"));
+            task.hasDueTime = "1".equals(request.getParameter("has_due_time"));
+        } else if("rtm.tasks.setEstimate".equals(method))
+            task.estimate = request.getParameter("estimate");
+        else if("rtm.tasks.setRecurrence".equals(method))
+            task.repeat = request.getParameter("repeat");
+        else if("rtm.tasks.setTags".equals(method)) {
+            task.tags.clear();
+            String tags = request.getParameter("tags");
+            if(tags != null) {
+                for(String tag : tags.split(","))
+                    if(tag.trim().length() > 0)
+                        task.tags.add(tag.trim());
+            }
+        } else if("rtm.tasks.complete".equals(method))
+            task.completed = now();
+        else if("rtm.tasks.uncomplete".equals(method))
+            task.completed = 0;
+        else if("rtm.tasks.delete".equals(method))
+            task.deleted = now();
+        else if("rtm.tasks.moveTo".equals(method)) {
+            long listId = request.getLongParameter("to_list_id", task.listId);
+            if(!lists.containsKey(listId))
+                return "";
+            task.listId = listId;
+        } else
+            return null;
+
+        task.modified = now();
+        return "<list id=\"" + task.listId + "\">" + seriesToXml(task) + "</list>";
+    }
+
+    private synchronized String changeNote(String method, Request request) {
+        String title = request.getParameter("note_title");
+        String text = request.getParameter("note_text");
+        long time = now();
+        if("rtm.tasks.notes.edit".equals(method)) {
+            long noteId = request.getLongParameter("note_id", 0);
+            for(Series task : series.values()) {
+                for(int i = 0; i < task.notes.size(); i++) {
+                    Note note = task.notes.get(i);
+                    if(note.id != noteId)
+                        continue;
+                    note = new Note(note.id, title, text, note.created);
+                    note.modified = time;
+                    task.notes.set(i, note);
+                    task.modified = time;
+                    return noteToXml(note);
+                }
+            }
+            return "";
+        }
+
+        Series task = series.get(request.getLongParameter("taskseries_id", 0));
+        if(task == null)
+            return "";
+        Note note = new Note(nextId++, title, text, time);
+        task.notes.add(note);
+        task.modified = time;
+        return noteToXml(note);
+    }
+
+    // --- serialization
+
+    private String seriesToXml(Series task) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<taskseries id=\"").append(task.id).
+            append("\" created=\"").append(formatDate(task.created)).
+            append("\" modified=\"").append(formatDate(task.modified)).
+            append("\" name=\"").append(escape(task.name)).
+            append("\" source=\"api\" url=\"\" location_id=\"\">");
+
+        if(task.repeat != null)
+            xml.append("<rrule every=\"1\">").append(escape(task.repeat)).append("</rrule>");
+
+        xml.append("<tags>");
+        for(String tag : task.tags)
+            xml.append("<tag>").append(escape(tag)).append("</tag>");
+        xml.append("</tags><participants/><notes>");
+        for(Note note : task.notes)
+            xml.append(noteToXml(note));
+        xml.append("</notes>");
+
+        xml.append("<task id=\"").append(task.taskId).
+            append("\" due=\"").append(task.due == 0 ? "" : formatDate(task.due)).
+            append("\" has_due_time=\"").append(task.hasDueTime ? 1 : 0).
+            append("\" added=\"").append(formatDate(task.created)).
+            append("\" completed=\"").append(task.completed == 0 ? "" : formatDate(task.completed)).
+            append("\" deleted=\"").append(task.deleted == 0 ? "" : formatDate(task.deleted)).
+            append("\" priority=\"").append(task.priority).
+            append("\" postponed=\"0\" estimate=\"").append(escape(task.estimate)).
+            append("\"/></taskseries>");
+        return xml.toString();
+    }
+
+    private String noteToXml(Note note) {
+        return "<note id=\"" + note.id + "\" created=\"" + formatDate(note.created) +
+            "\" modified=\"" + formatDate(note.modified) + "\" title=\"" +
+            escape(note.title) + "\">" + escape(note.text) + "</note>";
+    }
+
+    private void write(Response response, String result) throws IOException {
+        response.getWriter().write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><rsp stat=\"ok\">" +
+                result + "</rsp>");
+    }
+
+    private void error(Response response, int code, String message) throws IOException {
+        response.getWriter().write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><rsp stat=\"fail\">" +
+                "<err code=\"" + code + "\" msg=\"" + escape(message) + "\"/></rsp>");
+    }
+
+    private static String escape(String value) {
+        if(value == null)
+            return "";
+        StringBuilder result = new StringBuilder(value.length());
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+            case '&':
+                result.append("&amp;");
+                break;
+            case '<':
+                result.append("&lt;");
+                break;
+            case '>':
+                result.append("&gt;");
+                break;
+            case '"':
+                result.append("&quot;");
+                break;
+            default:
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private String formatDate(long time) {
+        synchronized(dateFormat) {
+            return dateFormat.format(new Date(time));
+        }
+    }
+
+    /** @return time, or 0 if not given */
+    private long parseDate(String value) {
+        if(value == null || value.length() == 0)
+            return 0;
+        synchronized(dateFormat) {
+            try {
+                return dateFormat.parse(value).getTime();
+            } catch (ParseException e) {
+                return 0;
+            }
+        }
+    }
+
+    // --- model
+
+    private static class TaskList {
+        public final long id;
+        public final String name;
+
+        public TaskList(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static class Note {
+        public final long id;
+        public final String title;
+        public final String text;
+        public final long created;
+        public long modified;
+
+        public Note(long id, String title, String text, long created) {
+            this.id = id;
+            this.title = title;
+            this.text = text;
+            this.created = modified = created;
+        }
+    }
+
+    private static class Series {
+        public final long id;
+        public final long taskId;
+        public final long created;
+        public long listId;
+        public String name;
+        public String priority = "N";
+        public String estimate = "";
+        public String repeat = null;
+        public long due = 0;
+        public boolean hasDueTime = false;
+        public long completed = 0;
+        public long deleted = 0;
+        public long modified;
+        public final ArrayList<String> tags = new ArrayList<String>();
+        public final ArrayList<Note> notes = new ArrayList<Note>();
+
+        public Series(long id, long taskId, long listId, String name, long time) {
+            this.id = id;
+            this.taskId = taskId;
+            this.listId = listId;
+            this.name = name;
+            created = modified = time;
+        }
+    }
+
+}
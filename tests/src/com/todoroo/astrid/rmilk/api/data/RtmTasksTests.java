@@ -0,0 +1,76 @@
+package com.todoroo.astrid.rmilk.api.data;
+
+import java.io.StringReader;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import android.test.AndroidTestCase;
+
+@SuppressWarnings("nls")
+public class RtmTasksTests extends AndroidTestCase {
+
+    private static final String TASKS = "<tasks>" +
+        "<list id=\"1\">" +
+        "<taskseries id=\"10\" created=\"2010-01-01T10:00:00Z\" modified=\"2010-01-02T10:00:00Z\" " +
+        "    name=\"repeating &amp; tagged\" source=\"api\" url=\"\" location_id=\"\">" +
+        "  <tags><tag>a</tag><tag>b</tag></tags>" +
+        "  <participants/>" +
+        "  <notes><note id=\"5\" created=\"2010-01-01T10:00:00Z\" modified=\"2010-01-01T10:00:00Z\" " +
+        "      title=\"t\">line &lt;1&gt;<![CDATA[ & more]]></note></notes>" +
+        "  <rrule every=\"1\">FREQ=DAILY</rrule>" +
+        "  <task id=\"100\" due=\"\" has_due_time=\"0\" added=\"2010-01-01T10:00:00Z\" " +
+        "      completed=\"2010-01-01T11:00:00Z\" deleted=\"\" priority=\"1\" postponed=\"0\" estimate=\"\"/>" +
+        "  <task id=\"101\" due=\"2010-01-03T10:00:00Z\" has_due_time=\"1\" added=\"2010-01-01T10:00:00Z\" " +
+        "      completed=\"\" deleted=\"\" priority=\"N\" postponed=\"2\" estimate=\"1 hour\"/>" +
+        "</taskseries>" +
+        "<deleted><taskseries id=\"11\"><task id=\"110\" deleted=\"2010-01-01T10:00:00Z\"/></taskseries></deleted>" +
+        "</list>" +
+        "<list id=\"2\">" +
+        "<taskseries id=\"20\" created=\"2010-01-01T10:00:00Z\" modified=\"2010-01-01T10:00:00Z\" " +
+        "    name=\"plain\" source=\"api\" url=\"\" location_id=\"\">" +
+        "  <tags/><participants/><notes/>" +
+        "  <task id=\"200\" due=\"\" has_due_time=\"0\" added=\"2010-01-01T10:00:00Z\" " +
+        "      completed=\"\" deleted=\"\" priority=\"N\" postponed=\"0\" estimate=\"\"/>" +
+        "</taskseries>" +
+        "</list>" +
+        "</tasks>";
+
+    public void testParse() throws Exception {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new StringReader(TASKS));
+        parser.nextTag();
+        RtmTasks tasks = RtmTasks.READER.read(parser);
+        assertEquals(XmlPullParser.END_TAG, parser.getEventType());
+        assertEquals("tasks", parser.getName());
+
+        assertEquals(2, tasks.getLists().size());
+
+        // deleted series are skipped
+        RtmTaskList list = tasks.getLists().get(0);
+        assertEquals("1", list.getId());
+        assertEquals(1, list.getSeries().size());
+
+        RtmTaskSeries series = list.getSeries().get(0);
+        assertEquals("10", series.getId());
+        assertEquals("repeating & tagged", series.getName());
+        assertTrue(series.hasRecurrence());
+        assertEquals(2, series.getTags().size());
+        assertEquals("b", series.getTags().get(1));
+        assertEquals(1, series.getNotes().getNotes().size());
+        assertEquals("line <1> & more", series.getNotes().getNotes().get(0).getText());
+
+        // the incomplete occurrence is picked
+        assertEquals("101", series.getTask().getId());
+        assertTrue(series.getTask().getHasDueTime());
+        assertEquals(2, series.getTask().getPostponed());
+        assertEquals(RtmTask.Priority.None, series.getTask().getPriority());
+
+        series = tasks.getLists().get(1).getSeries().get(0);
+        assertNull(series.getTags());
+        assertEquals(0, series.getNotes().getNotes().size());
+        assertFalse(series.hasRecurrence());
+        assertEquals("200", series.getTask().getId());
+    }
+
+}
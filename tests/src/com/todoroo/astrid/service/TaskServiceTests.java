@@ -0,0 +1,30 @@
+package com.todoroo.astrid.service;
+
+import java.util.List;
+
+import com.todoroo.andlib.test.TodorooTestCase;
+import com.todoroo.andlib.utility.Pair;
+
+@SuppressWarnings("nls")
+public class TaskServiceTests extends TodorooTestCase {
+
+    /** test splitting order clauses into terms */
+    public void testSplitOrder() {
+        assertEquals(0, TaskService.splitOrder("").size());
+
+        List<Pair<String, Boolean>> terms = TaskService.splitOrder(
+                "ORDER BY (CASE WHEN (dueDate=0) THEN 5 ELSE dueDate END)+importance ASC, " +
+                "UPPER(title) DESC, replace(title, ',', '')");
+        assertEquals(3, terms.size());
+        assertEquals("(CASE WHEN (dueDate=0) THEN 5 ELSE dueDate END)+importance",
+                terms.get(0).getLeft());
+        assertFalse(terms.get(0).getRight());
+        assertEquals("UPPER(title)", terms.get(1).getLeft());
+        assertTrue(terms.get(1).getRight());
+        assertEquals("replace(title, ',', '')", terms.get(2).getLeft());
+
+        assertNull(TaskService.splitOrder("ORDER BY title COLLATE NOCASE"));
+        assertNull(TaskService.splitOrder("ORDER BY 2 DESC"));
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.todoroo.astrid.test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.todoroo.andlib.data.AbstractDatabase;
+
+/**
+ * One run of a benchmark. Subclasses call {@link #begin()} once their own
+ * counters are set up and fill in the result from {@link #newResult}; the
+ * result is written as one JSON object per line to the log (tag
+ * <code>astrid-bench</code>) and appended to an output file in the test
+ * context's files directory, so runs can be compared.
+ */
+@SuppressWarnings("nls")
+public abstract class BenchmarkMeasurement {
+
+    public static final String TAG = "astrid-bench";
+
+    private final Context context;
+    private final String output;
+    private long start;
+    private long statements;
+
+    /** result of the run, set by {@link #newResult} */
+    protected JSONObject result;
+
+    /**
+     * @param context test context
+     * @param output name of the file results are appended to
+     */
+    protected BenchmarkMeasurement(Context context, String output) {
+        this.context = context;
+        this.output = output;
+    }
+
+    /**
+     * Start timing and counting database statements
+     */
+    protected void begin() {
+        statements = AbstractDatabase.getStatementCount();
+        start = System.nanoTime();
+    }
+
+    /**
+     * @return nanoseconds since {@link #begin()}
+     */
+    protected long elapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Start the result of this run with its name, size and the number of
+     * database statements since {@link #begin()}
+     */
+    protected JSONObject newResult(String name, int tasks) throws JSONException {
+        result = new JSONObject();
+        result.put("benchmark", name);
+        result.put("tasks", tasks);
+        result.put("statements", AbstractDatabase.getStatementCount() - statements);
+        return result;
+    }
+
+    /**
+     * Log the result and append it to the output file
+     */
+    public void write() {
+        String line = result.toString();
+        Log.i(TAG, line);
+        try {
+            FileOutputStream out = context.openFileOutput(output, Context.MODE_APPEND);
+            try {
+                out.write((line + "\n").getBytes());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "unable to write results", e);
+        }
+    }
+
+}
@@ -0,0 +1,546 @@
+package com.todoroo.astrid.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface that stands in for a
+ * web service in tests. Subclasses answer requests in {@link #handle},
+ * which may be called on several threads at once.
+ * <p>
+ * Connections are kept alive and responses are sent chunked as they are
+ * written, so large responses are never held in memory. Latency, a rate
+ * limit and failures can be configured to see how clients cope with a
+ * slow or overloaded service.
+ */
+@SuppressWarnings("nls")
+public abstract class FakeHttpServer {
+
+    private static final int SOCKET_TIMEOUT = 30000;
+
+    private final ServerSocket serverSocket;
+    private final HashSet<Socket> connections = new HashSet<Socket>();
+    private volatile boolean running = true;
+
+    // --- configuration
+
+    private volatile long latency = 0;
+    private volatile int requestsPerSecond = 0;
+    private volatile double failureRate = 0;
+
+    // --- statistics, guarded by lock
+
+    private final Object lock = new Object();
+    private final LinkedList<Long> recentRequests = new LinkedList<Long>();
+    private final HashMap<String, Integer> requestCounts = new HashMap<String, Integer>();
+    private int requests = 0;
+    private int rateLimited = 0;
+    private int failed = 0;
+    private double failureBudget = 0;
+    private long bytesWritten = 0;
+
+    public FakeHttpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                acceptConnections();
+            }
+        }, "fake-http-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return scheme, host and port of this server, without trailing slash
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop accepting requests and close all connections
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        synchronized(connections) {
+            for(Socket socket : connections) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+            connections.clear();
+        }
+    }
+
+    // --- configuration
+
+    /**
+     * @param millis time to wait before answering each request
+     */
+    public void setLatency(long millis) {
+        latency = millis;
+    }
+
+    /**
+     * @param limit requests accepted in any one second. Requests beyond
+     * that are answered by {@link #rateLimited}. 0 for no limit
+     */
+    public void setRateLimit(int limit) {
+        requestsPerSecond = limit;
+    }
+
+    /**
+     * @param rate fraction of requests answered by {@link #failure},
+     * spread evenly over all requests so results are repeatable
+     */
+    public void setFailureRate(double rate) {
+        failureRate = rate;
+        synchronized(lock) {
+            failureBudget = 0;
+        }
+    }
+
+    // --- statistics
+
+    /** @return number of requests received */
+    public int getRequestCount() {
+        synchronized(lock) {
+            return requests;
+        }
+    }
+
+    /** @return number of requests received for the given endpoint */
+    public int getRequestCount(String endpoint) {
+        synchronized(lock) {
+            Integer count = requestCounts.get(endpoint);
+            return count == null ? 0 : count;
+        }
+    }
+
+    /** @return number of requests turned away by the rate limit */
+    public int getRateLimitedCount() {
+        synchronized(lock) {
+            return rateLimited;
+        }
+    }
+
+    /** @return number of requests failed on purpose */
+    public int getFailedCount() {
+        synchronized(lock) {
+            return failed;
+        }
+    }
+
+    /** @return bytes of response bodies sent */
+    public long getBytesWritten() {
+        synchronized(lock) {
+            return bytesWritten;
+        }
+    }
+
+    public void resetStatistics() {
+        synchronized(lock) {
+            requestCounts.clear();
+            requests = rateLimited = failed = 0;
+            bytesWritten = 0;
+        }
+    }
+
+    // --- subclass interface
+
+    /**
+     * Answer a request
+     */
+    protected abstract void handle(Request request, Response response) throws IOException;
+
+    /**
+     * @return name requests are counted under. Defaults to the path
+     */
+    protected String getEndpoint(Request request) {
+        return request.path;
+    }
+
+    /**
+     * Answer a request over the rate limit. Defaults to 503 Service
+     * Unavailable
+     */
+    protected void rateLimited(Request request, Response response) throws IOException {
+        response.setStatus(503, "Service Unavailable");
+        response.getWriter().write("rate limit exceeded");
+    }
+
+    /**
+     * Answer a request that was chosen to fail. Defaults to 503 Service
+     * Unavailable
+     */
+    protected void failure(Request request, Response response) throws IOException {
+        response.setStatus(503, "Service Unavailable");
+        response.getWriter().write("injected failure");
+    }
+
+    // --- implementation
+
+    private void acceptConnections() {
+        while(running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // closed by shutdown
+                return;
+            }
+            synchronized(connections) {
+                connections.add(socket);
+            }
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    serve(socket);
+                }
+            }, "fake-http-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Request request;
+            while(running && (request = Request.read(in)) != null) {
+                respond(request, out);
+                out.flush();
+                if(!request.keepAlive)
+                    break;
+            }
+        } catch (IOException e) {
+            // client went away
+        } finally {
+            synchronized(connections) {
+                connections.remove(socket);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private static final int ADMITTED = 0;
+    private static final int RATE_LIMITED = 1;
+    private static final int FAILED = 2;
+
+    private void respond(Request request, OutputStream out) throws IOException {
+        if(latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Response response = new Response(out, request.keepAlive);
+        switch(admit(getEndpoint(request))) {
+        case RATE_LIMITED:
+            rateLimited(request, response);
+            break;
+        case FAILED:
+            failure(request, response);
+            break;
+        default:
+            handle(request, response);
+        }
+        response.finish();
+
+        synchronized(lock) {
+            bytesWritten += response.getBytesWritten();
+        }
+    }
+
+    /**
+     * Count a request and decide whether it is answered normally
+     */
+    private int admit(String endpoint) {
+        synchronized(lock) {
+            requests++;
+            Integer count = requestCounts.get(endpoint);
+            requestCounts.put(endpoint, count == null ? 1 : count + 1);
+
+            int limit = requestsPerSecond;
+            if(limit > 0) {
+                long now = System.currentTimeMillis();
+                while(!recentRequests.isEmpty() && recentRequests.getFirst() <= now - 1000)
+                    recentRequests.removeFirst();
+                if(recentRequests.size() >= limit) {
+                    rateLimited++;
+                    return RATE_LIMITED;
+                }
+                recentRequests.addLast(now);
+            }
+
+            failureBudget += failureRate;
+            if(failureBudget >= 1) {
+                failureBudget -= 1;
+                failed++;
+                return FAILED;
+            }
+            return ADMITTED;
+        }
+    }
+
+    // --- helper classes
+
+    /**
+     * Request line, parameters of the query string and form body, and
+     * whether the connection stays open
+     */
+    public static class Request {
+        public final String method;
+        public final String path;
+        private final HashMap<String, String> parameters;
+        private final boolean keepAlive;
+
+        private Request(String method, String path, HashMap<String, String> parameters,
+                boolean keepAlive) {
+            this.method = method;
+            this.path = path;
+            this.parameters = parameters;
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * @return decoded parameter, or null if not given
+         */
+        public String getParameter(String name) {
+            return parameters.get(name);
+        }
+
+        /**
+         * @return parameter as a number, or the default if not given
+         */
+        public long getLongParameter(String name, long defaultValue) {
+            String value = parameters.get(name);
+            if(value == null || value.length() == 0)
+                return defaultValue;
+            return Long.parseLong(value);
+        }
+
+        /**
+         * Read the next request from a connection
+         *
+         * @return request, or null if the connection was closed
+         */
+        static Request read(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            while(requestLine != null && requestLine.length() == 0)
+                requestLine = readLine(in);
+            if(requestLine == null)
+                return null;
+            String[] parts = requestLine.split(" ");
+            if(parts.length < 3)
+                throw new IOException("bad request line: " + requestLine);
+
+            int contentLength = 0;
+            boolean keepAlive = !"HTTP/1.0".equals(parts[2]);
+            for(String header; (header = readLine(in)) != null && header.length() > 0; ) {
+                int colon = header.indexOf(':');
+                if(colon == -1)
+                    continue;
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if("Content-Length".equalsIgnoreCase(name))
+                    contentLength = Integer.parseInt(value);
+                else if("Connection".equalsIgnoreCase(name))
+                    keepAlive = !"close".equalsIgnoreCase(value);
+            }
+
+            HashMap<String, String> parameters = new HashMap<String, String>();
+            String path = parts[1];
+            int query = path.indexOf('?');
+            if(query != -1) {
+                parseParameters(path.substring(query + 1), parameters);
+                path = path.substring(0, query);
+            }
+
+            if(contentLength > 0) {
+                byte[] body = new byte[contentLength];
+                for(int read = 0; read < contentLength; ) {
+                    int count = in.read(body, read, contentLength - read);
+                    if(count == -1)
+                        throw new IOException("truncated request body");
+                    read += count;
+                }
+                parseParameters(new String(body, "UTF-8"), parameters);
+            }
+
+            return new Request(parts[0], path, parameters, keepAlive);
+        }
+
+        private static void parseParameters(String query, HashMap<String, String> parameters)
+                throws IOException {
+            for(String pair : query.split("&")) {
+                if(pair.length() == 0)
+                    continue;
+                int equals = pair.indexOf('=');
+                if(equals == -1)
+                    parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+                else
+                    parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+
+        /**
+         * @return line without its terminator, or null at end of stream
+         */
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while((c = in.read()) != -1) {
+                if(c == '\n')
+                    break;
+                if(c != '\r')
+                    line.write(c);
+            }
+            if(c == -1 && line.size() == 0)
+                return null;
+            return line.toString("UTF-8");
+        }
+    }
+
+    /**
+     * Response to a request. The status and content type must be set
+     * before the body is written
+     */
+    public static class Response {
+        private final OutputStream out;
+        private final boolean keepAlive;
+        private int status = 200;
+        private String reason = "OK";
+        private String contentType = "text/plain";
+        private ChunkedOutputStream body = null;
+        private Writer writer = null;
+
+        private Response(OutputStream out, boolean keepAlive) {
+            this.out = out;
+            this.keepAlive = keepAlive;
+        }
+
+        public void setStatus(int status, String reason) {
+            this.status = status;
+            this.reason = reason;
+        }
+
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        /**
+         * @return writer for the body. Sends the headers on first call
+         */
+        public Writer getWriter() throws IOException {
+            if(writer == null) {
+                StringBuilder headers = new StringBuilder();
+                headers.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+                headers.append("Content-Type: ").append(contentType).append("; charset=utf-8\r\n");
+                headers.append("Transfer-Encoding: chunked\r\n");
+                if(!keepAlive)
+                    headers.append("Connection: close\r\n");
+                headers.append("\r\n");
+                out.write(headers.toString().getBytes("US-ASCII"));
+
+                body = new ChunkedOutputStream(out);
+                writer = new OutputStreamWriter(body, "UTF-8");
+            }
+            return writer;
+        }
+
+        long getBytesWritten() {
+            return body == null ? 0 : body.bytes;
+        }
+
+        void finish() throws IOException {
+            getWriter().flush();
+            body.finish();
+        }
+    }
+
+    /**
+     * Writes data in chunks of up to the buffer size
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int count = 0;
+        long bytes = 0;
+
+        public ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buffer.length)
+                writeChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while(length > 0) {
+                if(count == buffer.length)
+                    writeChunk();
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        /** write the last chunk. The connection stays open */
+        public void finish() throws IOException {
+            writeChunk();
+            out.write("0\r\n\r\n".getBytes("US-ASCII"));
+        }
+
+        private void writeChunk() throws IOException {
+            if(count == 0)
+                return;
+            out.write((Integer.toHexString(count) + "\r\n").getBytes("US-ASCII"));
+            out.write(buffer, 0, count);
+            out.write("\r\n".getBytes("US-ASCII"));
+            bytes += count;
+            count = 0;
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.todoroo.astrid.widget;
+
+import com.todoroo.andlib.service.Autowired;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.model.Task;
+import com.todoroo.astrid.service.TaskService;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+public class WidgetQueryCacheTests extends DatabaseTestCase {
+
+    @Autowired
+    TaskDao taskDao;
+
+    @Autowired
+    TaskService taskService;
+
+    private static final String QUERY = "WHERE " + TaskCriteria.isActive() +
+        " ORDER BY " + Task.TITLE;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        WidgetQueryCache.clear();
+    }
+
+    private Task createTask(String title) {
+        Task task = new Task();
+        task.setValue(Task.TITLE, title);
+        assertTrue(taskDao.save(task));
+        return task;
+    }
+
+    /**
+     * Test that results are re-used until a relevant task changes
+     */
+    public void testCaching() throws Exception {
+        Task task = createTask("b");
+        WidgetQueryCache.Result result = WidgetQueryCache.get(taskService, QUERY, 5, false);
+        assertEquals(1, result.getCount());
+        assertEquals("b", result.titles[0]);
+        assertSame(result, WidgetQueryCache.get(taskService, QUERY, 5, false));
+
+        // new matching task
+        createTask("a");
+        WidgetQueryCache.Result updated = WidgetQueryCache.get(taskService, QUERY, 5, false);
+        assertNotSame(result, updated);
+        assertEquals(2, updated.getCount());
+        assertEquals("a", updated.titles[0]);
+
+        // change to a shown task
+        task.setValue(Task.TITLE, "c");
+        assertTrue(taskDao.save(task));
+        result = WidgetQueryCache.get(taskService, QUERY, 5, false);
+        assertNotSame(result, updated);
+        assertEquals("c", result.titles[1]);
+
+        // new task that doesn't match
+        Task deleted = createTask("d");
+        deleted.setValue(Task.DELETION_DATE, 1L);
+        assertTrue(taskDao.save(deleted));
+        assertSame(result, WidgetQueryCache.get(taskService, QUERY, 5, false));
+    }
+
+    /**
+     * Test that unchanged rows keep the old result so widgets aren't redrawn
+     */
+    public void testRendering() throws Exception {
+        createTask("a");
+        WidgetQueryCache.Result result = WidgetQueryCache.get(taskService, QUERY, 1, false);
+        assertTrue(WidgetQueryCache.needsRender(1, result));
+        WidgetQueryCache.rendered(1, result);
+        assertFalse(WidgetQueryCache.needsRender(1, result));
+        assertTrue(WidgetQueryCache.needsRender(2, result));
+
+        // task below the limit
+        createTask("b");
+        WidgetQueryCache.Result updated = WidgetQueryCache.get(taskService, QUERY, 1, true);
+        assertSame(result, updated);
+        assertFalse(WidgetQueryCache.needsRender(1, updated));
+    }
+
+}